@@ -29,10 +29,12 @@ import io.netty.util.internal.logging.InternalLogger;
 import io.netty.util.internal.logging.InternalLoggerFactory;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.env.Environment;
 import org.springframework.core.io.Resource;
@@ -42,6 +44,7 @@ import org.springframework.web.socket.server.standard.ServerEndpointExporter;
 import org.tdf.common.serialize.Codec;
 import org.tdf.common.store.DatabaseStore;
 import org.tdf.common.store.NoDeleteBatchStore;
+import org.tdf.common.store.Store;
 import org.tdf.common.trie.Trie;
 import org.wisdom.consensus.pow.ProposersState;
 import org.wisdom.controller.WebSocket;
@@ -49,6 +52,8 @@ import org.wisdom.core.utxo.UTXOSets;
 import org.wisdom.crypto.HashUtil;
 import org.wisdom.db.Candidate;
 import org.wisdom.db.DatabaseStoreFactory;
+import org.wisdom.db.StateTrieAdapter;
+import org.wisdom.db.TrieNodeCache;
 import org.wisdom.encoding.JSONEncodeDecoder;
 import org.wisdom.genesis.Genesis;
 import org.wisdom.p2p.Peer;
@@ -68,6 +73,11 @@ public class Start {
     public static final boolean ENABLE_ASSERTION = System.getenv(CODE_ASSERTION_ENV) != null && System.getenv(CODE_ASSERTION_ENV).equals("true");
 
     public static void main(String[] args) {
+        run(args);
+    }
+
+    // 启动节点并返回 spring 上下文，供工具在进程内使用节点的组件
+    public static ConfigurableApplicationContext run(String[] args) {
         // 关闭 grpc 日志
         io.netty.util.internal.logging.InternalLoggerFactory.setDefaultFactory(new InternalLoggerFactory() {
             @Override
@@ -90,9 +100,20 @@ public class Start {
             if (constant != null && !constant.isEmpty()) {
                 Candidate.ATTENUATION_ERAS = Integer.parseInt(constant);
             }
+            constant = env.getProperty("wisdom.trie.node-cache-mb");
+            if (constant != null && !constant.isEmpty()) {
+                TrieNodeCache.configure(
+                        Long.parseLong(constant) << 20,
+                        Boolean.parseBoolean(env.getProperty("wisdom.trie.node-cache-off-heap", "false"))
+                );
+            }
+            constant = env.getProperty("wisdom.trie.value-cache-mb");
+            if (constant != null && !constant.isEmpty()) {
+                StateTrieAdapter.VALUE_CACHE_BYTES = Long.parseLong(constant) << 20;
+            }
         });
 
-        app.run(args);
+        return app.run(args);
     }
 
 
@@ -158,13 +179,17 @@ public class Start {
     }
 
     @Bean
-    public Trie<byte[], byte[]> storageTrie(DatabaseStoreFactory factory) {
-        DatabaseStore store = factory.create("contract-storage", false);
+    public Store<byte[], byte[]> contractStorageStore(DatabaseStoreFactory factory) {
+        return new NoDeleteBatchStore<>(factory.create("contract-storage", false));
+    }
+
+    @Bean
+    public Trie<byte[], byte[]> storageTrie(@Qualifier("contractStorageStore") Store<byte[], byte[]> store) {
         return Trie.<byte[], byte[]>builder()
                 .hashFunction(HashUtil::keccak256)
                 .keyCodec(Codec.identity())
                 .valueCodec(Codec.identity())
-                .store(new NoDeleteBatchStore<>(store))
+                .store(store)
                 .build();
     }
 
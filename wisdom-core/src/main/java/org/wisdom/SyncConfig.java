@@ -14,9 +14,21 @@ import java.util.Map;
 public class SyncConfig {
 
 
+    // permits per second of all peers by message type
     private Map<String, Double> rateLimits;
 
+    // permits per second of a peer by message type, weighted by the score of the peer
+    private Map<String, Double> peerRateLimits;
+
     private long lockTimeOut;
 
     private long blockWriteRate;
+
+    // skip validation of transactions in blocks below the highest check point, requires check point opened
+    private boolean assumeValid;
+
+    // memory of blocks with unknown parent, in MB
+    private long orphanBufferMb = 64;
+
+    private long orphanBufferPerPeerMb = 16;
 }
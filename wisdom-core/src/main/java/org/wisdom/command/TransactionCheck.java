@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.tdf.common.util.FastByteComparisons;
 import org.tdf.common.util.HexBytes;
 import org.wisdom.ApiResult.APIResult;
 import org.wisdom.consensus.pow.EconomicModel;
@@ -92,100 +93,118 @@ public class TransactionCheck {
         APIResult apiResult = new APIResult();
         try {
             //version
-            byte[] version = ByteUtil.bytearraycopy(transfer, 0, 1);
-            if (version[0] != 0x01) {
+            if (transfer[0] != 0x01) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Version number error");
                 return apiResult;
             }
+            // fields are decoded in one pass, the hash is computed over the raw
+            Transaction transaction = Transaction.fromRPCBytes(transfer);
             //sha3-256
-            byte[] transha = ByteUtil.bytearraycopy(transfer, 1, 32);
-            byte[] tranlast = ByteUtil.bytearraycopy(transfer, 33, transfer.length - 33);
-            byte[] trannew = ByteUtil.prepend(tranlast, version[0]);
-            if (!Arrays.equals(transha, SHA3Utility.keccak256(trannew))) {
+            if (FastByteComparisons.compareTo(transaction.getHash(), 0, 32, transfer, 1, 32) != 0) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("The transaction hash check error");
                 return apiResult;
             }
+            return TransactionFormatCheck(transaction);
+        } catch (Exception e) {
+            e.printStackTrace();
+            apiResult.setCode(5000);
+            apiResult.setMessage("Exception error");
+            return apiResult;
+        }
+    }
+
+    /**
+     * check format of a decoded transaction, e.g. received from peers, without encoding and decoding it again
+     */
+    public APIResult TransactionFormatCheck(Transaction transaction) {
+        APIResult apiResult = new APIResult();
+        try {
+            if (transaction.version != 0x01) {
+                apiResult.setCode(5000);
+                apiResult.setMessage("Version number error");
+                return apiResult;
+            }
             //type
-            byte[] type = ByteUtil.bytearraycopy(tranlast, 0, 1);
-            Transaction.Type typeEnum = Transaction.Type.values()[type[0]];
-            tranlast = ByteUtil.bytearraycopy(tranlast, 1, tranlast.length - 1);
-            //nonce
-            byte[] noncebyte = ByteUtil.bytearraycopy(tranlast, 0, 8);
-            long nonce = BigEndian.decodeUint64(noncebyte);
-            tranlast = ByteUtil.bytearraycopy(tranlast, 8, tranlast.length - 8);
+            int type = transaction.type;
+            if (type > Transaction.TYPE_MAX || type < 0) {
+                apiResult.setCode(5000);
+                apiResult.setMessage("Type check error");
+                return apiResult;
+            }
+            Transaction.Type typeEnum = Transaction.Type.values()[type];
+            // fields of a decoded transaction are not sized by decoding
+            if (transaction.from == null || transaction.from.length != Transaction.PUBLIC_KEY_SIZE) {
+                apiResult.setCode(5000);
+                apiResult.setMessage("From format check error");
+                return apiResult;
+            }
+            if (transaction.to == null || transaction.to.length != Transaction.PUBLIC_KEY_HASH_SIZE) {
+                apiResult.setCode(5000);
+                apiResult.setMessage("To format check error");
+                return apiResult;
+            }
+            if (transaction.signature == null || transaction.signature.length != Transaction.SIGNATURE_SIZE) {
+                apiResult.setCode(5000);
+                apiResult.setMessage("Signature check error");
+                return apiResult;
+            }
             //frompubkey
-            byte[] frompubkey = ByteUtil.bytearraycopy(tranlast, 0, 32);
-            byte[] frompubhash = RipemdUtility.ripemd160(SHA3Utility.keccak256(frompubkey));
-            tranlast = ByteUtil.bytearraycopy(tranlast, 32, tranlast.length - 32);
+            byte[] frompubhash = transaction.getFromPKHash();
             //gasPrice
-            byte[] gasbyte = ByteUtil.bytearraycopy(tranlast, 0, 8);
-            long gasPrice = BigEndian.decodeUint64(gasbyte);
-            if ((type[0] == Transaction.Type.WASM_DEPLOY.ordinal() || type[0] == Transaction.Type.WASM_CALL.ordinal()) && gasPrice < 100) {
+            long gasPrice = transaction.gasPrice;
+            if ((typeEnum == Transaction.Type.WASM_DEPLOY || typeEnum == Transaction.Type.WASM_CALL) && gasPrice < 100) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Gasprice cannot be lower than 100");
                 return apiResult;
             }
-            //gas
-            long gas = 0;
             //hatch disabled
             long nowheight = wisdomRepository.getBestBlock().nHeight;
-            if (nowheight > 1305500 && type[0] == 9) {
+            if (nowheight > 1305500 && type == 9) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Hatching transactions have been disabled");
                 return apiResult;
             }
-            if (nowheight > 3868529 && (type[0] == Transaction.Type.DEPLOY_CONTRACT.ordinal() || type[0] == Transaction.Type.CALL_CONTRACT.ordinal())) {
+            if (nowheight > 3868529 && (type == Transaction.Type.DEPLOY_CONTRACT.ordinal() || type == Transaction.Type.CALL_CONTRACT.ordinal())) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Old contract transactions have been disabled");
                 return apiResult;
             }
-            if (type[0] == Transaction.Type.DEPOSIT.ordinal()) {
+            if (type == Transaction.Type.DEPOSIT.ordinal()) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Deposit transactions have been disabled");
                 return apiResult;
             }
-            if (Transaction.TYPE_MAX >= type[0] && type[0] >= 0) {
-                gas = Transaction.GAS_TABLE[type[0]];
-            } else {
-                apiResult.setCode(5000);
-                apiResult.setMessage("Type check error");
-                return apiResult;
-            }
+            //gas
+            long gas = Transaction.GAS_TABLE[type];
             //fee
             if ((gasPrice * gas) < Transaction.minFee && (typeEnum != Transaction.Type.WASM_CALL && typeEnum != Transaction.Type.WASM_DEPLOY)) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Less than minimum handling charge");
                 return apiResult;
             }
-            tranlast = ByteUtil.bytearraycopy(tranlast, 8, tranlast.length - 8);
             //amount
-            byte[] amountbyte = ByteUtil.bytearraycopy(tranlast, 0, 8);
-            long amount = ByteUtil.byteArrayToLong(amountbyte);
+            long amount = transaction.amount;
             if (amount < 0) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("The amount cannot be negative");
                 return apiResult;
             }
-            if (amount == 0 && (type[0] == Transaction.Type.VOTE.ordinal() || type[0] == Transaction.Type.MORTGAGE.ordinal())) {
+            if (amount == 0 && (type == Transaction.Type.VOTE.ordinal() || type == Transaction.Type.MORTGAGE.ordinal())) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("The amount cannot be zero");
                 return apiResult;
             }
-            if (amount != 0 && (type[0] == Transaction.Type.DEPOSIT.ordinal() ||
-                    type[0] == Transaction.Type.DEPLOY_CONTRACT.ordinal() || type[0] == Transaction.Type.CALL_CONTRACT.ordinal())) {
+            if (amount != 0 && (type == Transaction.Type.DEPOSIT.ordinal() ||
+                    type == Transaction.Type.DEPLOY_CONTRACT.ordinal() || type == Transaction.Type.CALL_CONTRACT.ordinal())) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("The amount must be zero");
                 return apiResult;
             }
-            tranlast = ByteUtil.bytearraycopy(tranlast, 8, tranlast.length - 8);
-            //sig
-            byte[] sigdate = ByteUtil.bytearraycopy(tranlast, 0, 64);
-            tranlast = ByteUtil.bytearraycopy(tranlast, 64, tranlast.length - 64);
             //topubkeyhash
-            byte[] topubkeyhash = ByteUtil.bytearraycopy(tranlast, 0, 20);
-            if (type[0] == 0x09 || type[0] == 0x0a || type[0] == 0x0b || type[0] == 0x0c || type[0] == 0x0e || type[0] == 0x0f) {
+            byte[] topubkeyhash = transaction.to;
+            if (type == 0x09 || type == 0x0a || type == 0x0b || type == 0x0c || type == 0x0e || type == 0x0f) {
                 if (!Arrays.equals(frompubhash, topubkeyhash)) {
                     apiResult.setCode(5000);
                     apiResult.setMessage("From and To are different");
@@ -194,7 +213,7 @@ public class TransactionCheck {
             }
             if (!Arrays.equals(new byte[20], topubkeyhash)) {
                 if (
-                        type[0] == Transaction.Type.DEPLOY_CONTRACT.ordinal()
+                        type == Transaction.Type.DEPLOY_CONTRACT.ordinal()
                                 || typeEnum == Transaction.Type.WASM_DEPLOY) {
                     apiResult.setCode(5000);
                     apiResult.setMessage("To must be zero");
@@ -209,7 +228,7 @@ public class TransactionCheck {
                 return apiResult;
             }
             //toaddress
-            if (type[0] == 0x03 || type[0] == 0x07) {//存证、部署合约
+            if (type == 0x03 || type == 0x07) {//存证、部署合约
                 if (!Arrays.equals(new byte[20], topubkeyhash)) {
                     apiResult.setCode(5000);
                     apiResult.setMessage("The to is not empty");
@@ -223,35 +242,23 @@ public class TransactionCheck {
                     return apiResult;
                 }
             }
-            tranlast = ByteUtil.bytearraycopy(tranlast, 20, tranlast.length - 20);
             //bytelength
-            byte[] date = ByteUtil.bytearraycopy(tranlast, 0, 4);
-            int length = ByteUtil.byteArrayToInt(date);
-            if (type[0] != 0x01 && type[0] != 0x02 && type[0] != Transaction.Type.MORTGAGE.ordinal()) {//转账、投票,抵押, 没有payload
+            int length = transaction.payload == null ? 0 : transaction.payload.length;
+            if (type != 0x01 && type != 0x02 && type != Transaction.Type.MORTGAGE.ordinal()) {//转账、投票,抵押, 没有payload
                 if (length == 0) {
                     apiResult.setCode(5000);
                     apiResult.setMessage("Payload cannot be empty");
                     return apiResult;
                 }
             }
-            if (length > 0) {
-                tranlast = ByteUtil.bytearraycopy(tranlast, 4, tranlast.length - 4);
-                byte[] Payload = ByteUtil.bytearraycopy(tranlast, 0, length);
-                date = ByteUtil.merge(date, Payload);
-            }
             //sigcheck
-            byte[] nullsig = new byte[64];
-            byte[] nosig = ByteUtil.merge(version, type, noncebyte, frompubkey, gasbyte, amountbyte, nullsig, topubkeyhash, date);
-            Ed25519PublicKey ed25519PublicKey = new Ed25519PublicKey(frompubkey);
-            boolean result = ed25519PublicKey.verify(nosig, sigdate);
-            if (!result) {
+            if (!transaction.verifySignature()) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Signature check error");
                 return apiResult;
             }
             apiResult.setCode(2000);
             apiResult.setMessage("SUCCESS");
-            Transaction transaction = Transaction.fromRPCBytes(transfer);
             apiResult.setData(transaction);
             return apiResult;
         } catch (Exception e) {
@@ -1330,13 +1337,8 @@ public class TransactionCheck {
                 return apiResult;
             }
             long nowheight = wisdomRepository.getBestBlock().nHeight;
-            String nowrate = rateTable.selectrate(nowheight, days);
             //利息和分享收益
-            BigDecimal amountbig = BigDecimal.valueOf(amount);
-            BigDecimal ratebig = new BigDecimal(nowrate);
-            BigDecimal onemut = amountbig.multiply(ratebig);
-            BigDecimal daysbig = BigDecimal.valueOf(days);
-            long interest = onemut.multiply(daysbig).longValue();
+            long interest = rateTable.totalInterest(amount, nowheight, days);
             String sharpub = payloadproto.getSharePubkeyHash();
             byte[] sharbyte = Hex.decodeHex(sharpub);
             if (Arrays.equals(sharbyte, topubkeyhash)) {
@@ -1394,18 +1396,13 @@ public class TransactionCheck {
             byte[] tranpayload = transaction.payload;
             HatchModel.Payload payloadproto = HatchModel.Payload.parseFrom(tranpayload);
             int days = payloadproto.getType();
-            String rate = rateTable.selectrate(transaction.height, days);
-            long capital = transaction.amount;
-            BigDecimal capitalbig = BigDecimal.valueOf(capital);
-            BigDecimal ratebig = new BigDecimal(rate);
-            BigDecimal totalratebig = capitalbig.multiply(ratebig);
             if (incubator == null) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("Unable to query incubation status");
                 return apiResult;
             }
             //每天可提取
-            long totalrate = totalratebig.longValue();
+            long totalrate = rateTable.dailyInterest(transaction.amount, transaction.height, days);
             if (totalrate == 0) {
                 apiResult.setCode(5000);
                 apiResult.setMessage("No amount can be withdrawn per day");
@@ -1425,10 +1422,7 @@ public class TransactionCheck {
                     apiResult.setMessage("The sharing income cannot be withdrawn or is greater than the amount that can be withdrawn");
                     return apiResult;
                 }
-                BigDecimal bl = BigDecimal.valueOf(0.1);
-                BigDecimal b2 = BigDecimal.valueOf(totalrate);
-                BigDecimal totalratebigs = b2.multiply(bl);
-                totalrate = totalratebigs.longValue();
+                totalrate = rateTable.dailyShare(transaction.amount, transaction.height, days);
                 inheight = incubator.getLast_blockheight_share();
                 nowincub = incubator.getShare_amount();
             } else {//提取利息
@@ -1571,7 +1565,7 @@ public class TransactionCheck {
             apiResult.setMessage("The voting transaction payload was incorrectly formatted");
             return apiResult;
         }
-        boolean hasvote = wisdomBlockChain.containsPayload(Transaction.Type.EXIT_VOTE.ordinal(), payload);
+        boolean hasvote = wisdomRepository.containsPayloadAt(wisdomRepository.getLatestConfirmed().getHash(), Transaction.Type.EXIT_VOTE.ordinal(), payload);
         if (hasvote) {
             apiResult.setCode(5000);
             apiResult.setMessage("The vote has been withdrawn");
@@ -1629,7 +1623,7 @@ public class TransactionCheck {
             apiResult.setMessage("The mortgage transaction payload was incorrectly formatted");
             return apiResult;
         }
-        boolean hasmortgage = wisdomBlockChain.containsPayload(Transaction.Type.EXIT_MORTGAGE.ordinal(), payload);
+        boolean hasmortgage = wisdomRepository.containsPayloadAt(wisdomRepository.getLatestConfirmed().getHash(), Transaction.Type.EXIT_MORTGAGE.ordinal(), payload);
         if (hasmortgage) {
             apiResult.setCode(5000);
             apiResult.setMessage("The mortgage has been withdrawn");
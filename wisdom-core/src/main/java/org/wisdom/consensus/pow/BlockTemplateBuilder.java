@@ -0,0 +1,442 @@
+package org.wisdom.consensus.pow;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.common.util.FastByteComparisons;
+import org.tdf.common.util.HexBytes;
+import org.wisdom.controller.WebSocket;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.ChainEventBus;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.validate.OfficialIncubateBalanceRule;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.db.AccountStateTrie;
+import org.wisdom.db.CandidateStateTrie;
+import org.wisdom.db.StateOverlay;
+import org.wisdom.db.WisdomRepository;
+import org.wisdom.merkletree.BinaryMerkleTree;
+import org.wisdom.pool.AdoptTransPool;
+import org.wisdom.pool.PeningTransPool;
+import org.wisdom.util.Address;
+import org.wisdom.vm.abi.PrevNonceWrapper;
+import org.wisdom.vm.abi.WASMResult;
+import org.wisdom.vm.abi.WASMTXPool;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * keeps a block template above the best block in background, so that the miner gets a body already validated and
+ * executed when its slot begins
+ * <p>
+ * transactions of pools are selected against the parent and executed on a state overlay, new transactions are
+ * appended to the template on every refresh. the template is built again when the best block changes or when the
+ * new selection is not an extension of the packed transactions
+ * <p>
+ * refresh never changes the pools, invalid transactions are removed from pools by the selection of take, once per
+ * mined block, and wasm transactions failed in a template are dropped only if the template is mined
+ */
+@Component
+@Slf4j(topic = "miner")
+public class BlockTemplateBuilder {
+
+    @Autowired
+    private ConsensusConfig consensusConfig;
+
+    @Autowired
+    private WisdomRepository repository;
+
+    @Autowired
+    private OfficialIncubateBalanceRule officialIncubateBalanceRule;
+
+    @Autowired
+    private PeningTransPool peningTransPool;
+
+    @Autowired
+    private PackageMiner packageMiner;
+
+    @Autowired
+    private AdoptTransPool adoptTransPool;
+
+    @Autowired
+    private EconomicModel economicModel;
+
+    @Autowired
+    private AccountStateTrie accountStateTrie;
+
+    @Autowired
+    private CandidateStateTrie candidateStateTrie;
+
+    @Autowired
+    private WASMTXPool wasmtxPool;
+
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    @Autowired
+    private ChainEventBus chainEventBus;
+
+    private final boolean allowEmptyBlock;
+
+    // 存储事务 wasm 执行时间，避免 mining timeout
+    private final Cache<HexBytes, Long> cache = Caffeine.newBuilder()
+            .maximumSize(1024)
+            .build();
+
+    // guards template, the template taken by miner is never changed by refresh
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Template template;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private static class Template {
+        private final Block block;
+
+        private final StateOverlay state;
+
+        // the block passed to selection, which only contains the coinbase
+        private final Block selection;
+
+        // budget of estimated wasm execution time in milliseconds
+        private final long wasmBudget;
+
+        private long wasmMillis;
+
+        // packed non-wasm transactions in order
+        private final List<Transaction> plain = new ArrayList<>();
+
+        // non-wasm transactions packed or rejected
+        private final Set<HexBytes> seen = new HashSet<>();
+
+        // public key hash -> highest nonce packed
+        private final Map<byte[], Long> nonces = new ByteArrayMap<>();
+
+        private final Set<String> payloads = new HashSet<>();
+
+        // wasm transactions popped from pool and packed, they are returned to pool if the template is discarded
+        private final List<Transaction> wasm = new ArrayList<>();
+
+        private final Map<byte[], WASMResult> results = new ByteArrayMap<>();
+
+        private final Map<byte[], Transaction> included = new ByteArrayMap<>();
+
+        // wasm transactions failed to execute -> reason, dropped from pool if the template is mined
+        private final Map<Transaction, String> failed = new LinkedHashMap<>();
+
+        // merkle tree of the body built while packing, the coinbase is replaced after its amount is settled
+        private final BinaryMerkleTree merkle = new BinaryMerkleTree();
+
+        private Template(Block block, StateOverlay state, Block selection, long wasmBudget) {
+            this.block = block;
+            this.state = state;
+            this.selection = selection;
+            this.wasmBudget = wasmBudget;
+            merkle.append(new byte[Block.HASH_SIZE]);
+        }
+
+        private boolean isEmpty() {
+            return block.body.size() == 1;
+        }
+    }
+
+    public BlockTemplateBuilder(@Value("${miner.allow-empty-block}") String aeb) {
+        allowEmptyBlock = aeb == null || aeb.isEmpty() || !"false".equals(aeb.toLowerCase().trim());
+    }
+
+    private Transaction createCoinBase(long height) throws Exception {
+        Transaction tx = Transaction.createEmpty();
+        tx.amount = economicModel.getConsensusRewardAtHeight1(height);
+        tx.to = consensusConfig.getMinerPubKeyHash();
+        return tx;
+    }
+
+    private long estimate(Transaction tx) {
+        return cache.asMap().getOrDefault(HexBytes.fromBytes(tx.getHash()), 0L);
+    }
+
+    private Block createBlock(Block parent, long nonce) throws Exception {
+        Block block = new Block();
+        block.nVersion = parent.nVersion;
+        block.hashPrevBlock = parent.getHash();
+
+        // merkle state root
+        block.nHeight = parent.nHeight + 1;
+        block.nBits = repository.getTargetByParent(parent);
+        block.nNonce = new byte[Block.HASH_SIZE];
+        block.body = new ArrayList<>();
+        block.body.add(createCoinBase(block.nHeight));
+        block.body.get(0).nonce = nonce + 1;
+        return block;
+    }
+
+    private Template createTemplate(Block parent) throws Exception {
+        long nonce = repository.getValidatorNonceAt(parent.getHash(), consensusConfig.getMinerPubKeyHash());
+        byte[] root = accountStateTrie.getRootStore().get(parent.getHash()).get();
+        // 预留时间给工作量证明，避免 mining timeout 发生
+        long budget = candidateStateTrie.getPowWait(parent) * 1000 - MineThread.powAvg();
+        return new Template(
+                createBlock(parent, nonce), accountStateTrie.overlay(root), createBlock(parent, nonce), budget
+        );
+    }
+
+    /**
+     * non-wasm transactions of pool valid at the parent
+     *
+     * @param mining invalid transactions are removed from pools if true
+     */
+    private List<Transaction> select(Template t, boolean mining) throws Exception {
+        Block b = t.selection;
+        //打包事务
+        List<Transaction> notWrittern = packageMiner.TransferCheck(b.hashPrevBlock, b.nHeight, b, !mining);
+        // 校验官方孵化余额
+        List<Transaction> selected = officialIncubateBalanceRule.validateTransaction(notWrittern, b.hashPrevBlock);
+        return selected == null ? Collections.emptyList() : selected;
+    }
+
+    /**
+     * pack the selected transactions not seen by the template
+     *
+     * @param mining duplicated exits are removed from pools if true, otherwise they are left to the selection of take
+     * @return false if the selection dropped a packed transaction or puts a new transaction before a packed one of
+     * the same sender, the template is unchanged in this case
+     */
+    private boolean extend(Template t, List<Transaction> selected, boolean mining) {
+        Set<HexBytes> hashes = selected.stream()
+                .map(x -> HexBytes.fromBytes(x.getHash()))
+                .collect(Collectors.toSet());
+        // the block size is limited by selection
+        if (!t.plain.stream().allMatch(x -> hashes.contains(HexBytes.fromBytes(x.getHash()))))
+            return false;
+        List<Transaction> fresh = selected.stream()
+                .filter(x -> !t.seen.contains(HexBytes.fromBytes(x.getHash())))
+                .collect(Collectors.toList());
+        for (Transaction tx : fresh) {
+            Long nonce = t.nonces.get(tx.getFromPKHash());
+            if (nonce != null && tx.nonce <= nonce)
+                return false;
+        }
+        for (Transaction tx : fresh) {
+            boolean isExit = tx.type == Transaction.Type.EXIT_VOTE.ordinal() || tx.type == Transaction.Type.EXIT_MORTGAGE.ordinal();
+            if (isExit && tx.payload != null && t.payloads.contains(Hex.encodeHexString(tx.payload))) {
+                if (!mining) continue;
+                t.seen.add(HexBytes.fromBytes(tx.getHash()));
+                String from = Hex.encodeHexString(Address.publicKeyToHash(tx.from));
+                peningTransPool.removeOne(from, tx.nonce);
+                adoptTransPool.removeOne(from, adoptTransPool.getKeyTrans(tx));
+                continue;
+            }
+            t.seen.add(HexBytes.fromBytes(tx.getHash()));
+            if (isExit && tx.payload != null) {
+                t.payloads.add(Hex.encodeHexString(tx.payload));
+            }
+            if (pack(t, tx)) {
+                t.plain.add(tx);
+                t.nonces.put(tx.getFromPKHash(), tx.nonce);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * pack wasm transactions of pool by gas price, transactions not fit are returned to pool
+     *
+     * @return count of transactions returned to pool
+     */
+    private int packWASM(Template t, Predicate<Transaction> fits) {
+        List<Transaction> popped = wasmtxPool.popPackable(new PrevNonceWrapper(null, t.state.getAccountStore()), -1);
+        GasPriceQueue queue = new GasPriceQueue(popped);
+        while (true) {
+            Transaction tx = queue.poll(fits);
+            if (tx == null) break;
+            if (pack(t, tx)) {
+                queue.packed(tx);
+                t.wasm.add(tx);
+                t.wasmMillis += estimate(tx);
+                continue;
+            }
+            // 某个事务执行报错丢弃掉后续来自该 from 的事务
+            for (Transaction dropped : queue.dropSender(tx.getFromPKHash())) {
+                t.failed.put(dropped, "previous transaction of sender failed");
+            }
+        }
+        List<Transaction> remaining = queue.remaining();
+        wasmtxPool.collect(remaining);
+        return remaining.size();
+    }
+
+    // 校验事务，记录事务执行消耗的时间，失败的事务的状态变更被撤销
+    private boolean pack(Template t, Transaction tx) {
+        int savepoint = t.state.savepoint();
+        try {
+            long start = System.currentTimeMillis();
+            WASMResult res = accountStateTrie.update(t.state, t.block, tx);
+            cache.asMap().put(HexBytes.fromBytes(tx.getHash()), System.currentTimeMillis() - start);
+            t.block.body.get(0).amount += res.getGasUsed() * tx.gasPrice;
+            t.results.put(tx.getHash(), res);
+            t.included.put(tx.getHash(), tx);
+            t.block.body.add(tx);
+            t.merkle.append(tx.getHash());
+            return true;
+        } catch (Exception e) {
+            t.state.revert(savepoint);
+            log.error("pack transaction {} failed", tx.getHashHexString(), e);
+            if (tx.type == Transaction.Type.WASM_CALL.ordinal() || tx.type == Transaction.Type.WASM_DEPLOY.ordinal()) {
+                t.failed.put(tx, e.getMessage());
+            }
+            return false;
+        }
+    }
+
+    // the template is not used, changes are dropped with the overlay
+    private void discard(Template t) {
+        wasmtxPool.collect(t.wasm);
+        wasmtxPool.collect(t.failed.keySet());
+    }
+
+    private BlockAndTask finish(Template t) {
+        Block block = t.block;
+        t.failed.forEach(wasmtxPool::drop);
+        // 更新 coinbase
+        accountStateTrie.update(t.state, block, block.body.get(0));
+        block.accountStateTrieRoot = t.state.commit();
+        t.state.flush();
+        accountStateTrie.getRootStore().put(block.getHash(), block.accountStateTrieRoot);
+
+        block.body.get(0).setHashCache(
+                HashUtil.keccak256(block.body.get(0).getRawForHash())
+        );
+
+        // hash merkle root
+        t.merkle.set(0, block.body.get(0).getHash());
+        block.hashMerkleRoot = t.merkle.getRoot();
+        block.hashMerkleState = Block.calculateMerkleState(Collections.emptyList());
+        block.hashMerkleIncubate = Block.calculateMerkleIncubate(new ArrayList<>());
+
+        peningTransPool.updatePool(new ArrayList<>(t.included.values()), 1, block.nHeight);
+
+        return new BlockAndTask(block, () -> {
+            for (Map.Entry<byte[], WASMResult> entry : t.results.entrySet()) {
+                Transaction tx = t.included.get(entry.getKey());
+                WASMResult re = entry.getValue();
+                WebSocket.broadcastIncluded(tx, block.nHeight, block.getHash(), re.getGasUsed(), re.getReturns(), re.getWASMEvents());
+            }
+        });
+    }
+
+    /**
+     * take the template above the parent for mining, the template is built now if it is not ready
+     *
+     * @param endTimeStamp deadline of wasm execution in milliseconds if the template is built now
+     * @return null if there is no transaction to pack and empty block is not allowed
+     */
+    public BlockAndTask take(Block parent, long endTimeStamp) throws Exception {
+        Template t;
+        lock.lock();
+        try {
+            t = template;
+            template = null;
+        } finally {
+            lock.unlock();
+        }
+        if (t != null && !FastByteComparisons.equal(t.block.hashPrevBlock, parent.getHash())) {
+            discard(t);
+            t = null;
+        }
+        // the pool changing selection runs once per mined block, the template is built again if it is not extended
+        List<Transaction> selected = null;
+        if (t != null) {
+            selected = select(t, true);
+            if (!extend(t, selected, true)) {
+                discard(t);
+                t = null;
+            }
+        }
+        if (t == null) {
+            t = createTemplate(parent);
+            extend(t, selected == null ? select(t, true) : selected, true);
+            // 如果事务的 gas 消耗值过大可能会导致超时则跳过
+            int skipped = packWASM(t, x -> System.currentTimeMillis() + estimate(x) < endTimeStamp);
+            if (skipped > 0) {
+                log.info("mining may timeout, " + skipped + " transactions will executed soon...");
+            }
+        }
+        if (t.isEmpty() && !allowEmptyBlock) {
+            // keep it for the next slot
+            lock.lock();
+            try {
+                if (template == null) template = t;
+                else discard(t);
+            } finally {
+                lock.unlock();
+            }
+            return null;
+        }
+        return finish(t);
+    }
+
+    @Scheduled(fixedDelayString = "${miner.template-refresh-interval}")
+    public void refresh() {
+        if (!consensusConfig.isEnableMining() || !refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Block parent = repository.getBestBlock();
+            Template t = template;
+            if (t != null && FastByteComparisons.equal(t.block.hashPrevBlock, parent.getHash())) {
+                List<Transaction> selected = select(t, false);
+                lock.lock();
+                try {
+                    // taken by miner or discarded after selection
+                    if (template != t) return;
+                    if (extend(t, selected, false)) {
+                        packWASM(t, x -> t.wasmMillis + estimate(x) < t.wasmBudget);
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // the template is built without lock since it is not visible until installed
+            Template next = createTemplate(parent);
+            extend(next, select(next, false), false);
+            packWASM(next, x -> next.wasmMillis + estimate(x) < next.wasmBudget);
+            lock.lock();
+            try {
+                if (template != null) discard(template);
+                template = next;
+            } finally {
+                lock.unlock();
+            }
+        } catch (Exception e) {
+            log.error("build block template failed", e);
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    // stale templates are discarded by refresh or take, which compare the parent with the best block
+    @PostConstruct
+    public void init() {
+        chainEventBus.subscribe("block-template", NewBestBlockEvent.class, this::onNewBestBlock);
+    }
+
+    public void onNewBestBlock(NewBestBlockEvent event) {
+        if (consensusConfig.isEnableMining()) {
+            taskScheduler.execute(this::refresh);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.wisdom.consensus.pow;
+
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.account.Transaction;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * wasm transactions to pack, the transaction with the smallest nonce of each sender is a candidate,
+ * candidates are polled by gas price from a heap
+ * <p>
+ * the next transaction of a sender becomes a candidate after the previous one is packed,
+ * transactions of a sender are dropped together if one of them fails
+ */
+class GasPriceQueue {
+    private static final Comparator<Transaction> BY_NONCE = Comparator.comparingLong(tx -> tx.nonce);
+
+    private static final Comparator<Transaction> BY_GAS_PRICE =
+            Comparator.<Transaction>comparingLong(tx -> tx.gasPrice).reversed();
+
+    // public key hash of sender -> transactions not polled yet
+    private final Map<byte[], PriorityQueue<Transaction>> senders = new ByteArrayMap<>();
+
+    private final PriorityQueue<Transaction> candidates = new PriorityQueue<>(BY_GAS_PRICE);
+
+    // candidates skipped by poll, senders of them are blocked
+    private final List<Transaction> skipped = new ArrayList<>();
+
+    GasPriceQueue(Collection<Transaction> txs) {
+        for (Transaction tx : txs) {
+            senders.computeIfAbsent(tx.getFromPKHash(), k -> new PriorityQueue<>(BY_NONCE)).add(tx);
+        }
+        senders.values().forEach(q -> candidates.add(q.poll()));
+    }
+
+    /**
+     * @param fits candidates not fit are skipped, e.g. those may not be executed before deadline
+     * @return the candidate of highest gas price fits, null if no candidate left
+     */
+    Transaction poll(Predicate<Transaction> fits) {
+        while (!candidates.isEmpty()) {
+            Transaction tx = candidates.poll();
+            if (fits.test(tx)) return tx;
+            skipped.add(tx);
+        }
+        return null;
+    }
+
+    // the polled transaction is packed, the next one of its sender becomes a candidate
+    void packed(Transaction tx) {
+        PriorityQueue<Transaction> q = senders.get(tx.getFromPKHash());
+        if (q == null) return;
+        Transaction next = q.poll();
+        if (next != null) candidates.add(next);
+        if (q.isEmpty()) senders.remove(tx.getFromPKHash());
+    }
+
+    /**
+     * remove the transactions not polled of the sender
+     *
+     * @return transactions removed
+     */
+    List<Transaction> dropSender(byte[] publicKeyHash) {
+        PriorityQueue<Transaction> q = senders.remove(publicKeyHash);
+        List<Transaction> dropped = new ArrayList<>();
+        if (q != null) dropped.addAll(q);
+        Iterator<Transaction> it = candidates.iterator();
+        while (it.hasNext()) {
+            Transaction tx = it.next();
+            if (Arrays.equals(tx.getFromPKHash(), publicKeyHash)) {
+                it.remove();
+                dropped.add(tx);
+            }
+        }
+        return dropped;
+    }
+
+    // transactions not packed
+    List<Transaction> remaining() {
+        List<Transaction> all = new ArrayList<>(skipped);
+        all.addAll(candidates);
+        senders.values().forEach(all::addAll);
+        return all;
+    }
+}
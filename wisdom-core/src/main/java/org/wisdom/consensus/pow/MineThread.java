@@ -139,6 +139,8 @@ public class MineThread {
             if (BigEndian.compareUint256(hash, nBits) < 0) {
                 long end = System.currentTimeMillis();
                 record(end - start);
+                // nonce found, the header is final from now on
+                block.seal();
                 blockAndTask.getTask().run();
                 return block;
             }
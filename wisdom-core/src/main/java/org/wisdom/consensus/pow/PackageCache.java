@@ -91,6 +91,10 @@ public class PackageCache implements TransactionVerifyUpdate<Object> {
 
     private RateTable rateTable;
 
+    // 只读时不修改内存池和等待计数
+    @Setter
+    private boolean readOnly;
+
     private static final byte[] twentyBytes = new byte[20];
 
     private static final byte[] thirtytwoBytes = new byte[32];
@@ -197,7 +201,9 @@ public class PackageCache implements TransactionVerifyUpdate<Object> {
             }
         }
         //删除事务内存池事务
-        peningTransPool.remove(removemap);
+        if (!readOnly) {
+            peningTransPool.remove(removemap);
+        }
         return transactionList;
     }
 
@@ -897,6 +903,10 @@ public class PackageCache implements TransactionVerifyUpdate<Object> {
     }
 
     private boolean updateWaitCount(String publicKeyHash, long nonce) {
+        // 跳号事务等待计数按出块计算，只读时不打包跳号事务
+        if (readOnly) {
+            return false;
+        }
         if (waitCount.IsExist(publicKeyHash, nonce)) {
             return waitCount.updateNonce(publicKeyHash);//单个节点最长旷工数量的7个区块，可以加入
         } else {
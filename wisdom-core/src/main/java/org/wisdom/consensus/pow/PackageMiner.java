@@ -40,6 +40,11 @@ public class PackageMiner {
     private Configuration configuration;
 
     public List<Transaction> TransferCheck(byte[] parenthash, long height, Block block) throws DecoderException {
+        return TransferCheck(parenthash, height, block, false);
+    }
+
+    // readOnly 为 true 时不删除内存池中的非法事务，也不更新跳号事务的等待计数，用于后台预构建区块模板
+    public List<Transaction> TransferCheck(byte[] parenthash, long height, Block block, boolean readOnly) throws DecoderException {
         Map<String, TreeMap<Long, TransPool>> maps = peningTransPool.getAllMap();
         List<byte[]> pubhashlist = peningTransPool.getAllPubhash();
         Map<byte[], AccountState> accountStateMap = wisdomRepository.getAccountStatesAt(parenthash, pubhashlist);
@@ -49,6 +54,7 @@ public class PackageMiner {
         PackageCache packageCache = new PackageCache();
         packageCache.init(peningTransPool, wisdomRepository, configuration, wisdomBlockChain, waitCount, rateTable,
                 accountStateMap, maps, parenthash, block, height, block.size());
+        packageCache.setReadOnly(readOnly);
         List<Transaction> packageTransaction = packageCache.getRightTransactions();
         if (packageTransaction == null) {
             return new ArrayList<>();
@@ -35,9 +35,7 @@ import org.wisdom.ipc.IpcConfig;
 import org.wisdom.service.CommandService;
 import org.wisdom.sync.TransactionHandler;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 @RestController
 public class CommandController {
@@ -46,6 +44,8 @@ public class CommandController {
     public static final int CONFIRMED = 2000;
     public static final int NOT_CONFIRMED = 2100;
 
+    public static final int MAX_BATCH_SIZE = 4096;
+
     @Value("${wisdom.consensus.enable-mining}")
     boolean enableMining;
 
@@ -87,6 +87,7 @@ public class CommandController {
                 } else {
                     transactionHandler.broadcastTransactions(Collections.singletonList(t));
                 }
+                WebSocket.broadcastPendingOrConfirm(t, Transaction.Status.PENDING);
             }
             return result;
         } catch (DecoderException e) {
@@ -97,6 +98,38 @@ public class CommandController {
         }
     }
 
+    @PostMapping(value = "/sendTransactions")
+    public Object sendTransactions(@RequestParam(value = "traninfos") String[] traninfos) {
+        if (traninfos.length > MAX_BATCH_SIZE) {
+            return APIResult.newFailed("batch size overflow, at most " + MAX_BATCH_SIZE + " transactions");
+        }
+        List<byte[]> transfers = new ArrayList<>(traninfos.length);
+        for (String traninfo : traninfos) {
+            try {
+                transfers.add(Hex.decodeHex(traninfo.toCharArray()));
+            } catch (DecoderException e) {
+                return APIResult.newFailed("invalid hex " + traninfo);
+            }
+        }
+        List<APIResult> results = commandService.verifyTransfers(transfers);
+        List<Transaction> accepted = new ArrayList<>();
+        for (APIResult result : results) {
+            if (result.getCode() != 2000) continue;
+            Transaction t = (Transaction) result.getData();
+            accepted.add(t);
+            result.setData(t.getHashHexString());
+        }
+        if (!accepted.isEmpty()) {
+            if (ipcConfig.getP2pMode().equals("rest")) {
+                RPCClient.broadcastTransactions(accepted);
+            } else {
+                transactionHandler.broadcastTransactions(accepted);
+            }
+            accepted.forEach(t -> WebSocket.broadcastPendingOrConfirm(t, Transaction.Status.PENDING));
+        }
+        return APIResult.newSuccess(results);
+    }
+
     @RequestMapping(value = "/getTransactionHeight", method = RequestMethod.POST)
     public Object getTransactionHeight(@RequestParam("height") int height, String type) {
         try {
@@ -5,10 +5,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.wisdom.ApiResult.APIResult;
-import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.Block;
 import org.wisdom.db.WisdomRepository;
 import org.wisdom.pool.AdoptTransPool;
 import org.wisdom.pool.PeningTransPool;
+import org.wisdom.service.ChainStatisticsService;
 
 @RestController
 public class ExplorerController {
@@ -56,19 +57,20 @@ public class ExplorerController {
     PeningTransPool peningTransPool;
 
     @Autowired
-    WisdomBlockChain wisdomBlockChain;
+    ChainStatisticsService chainStatisticsService;
 
     @GetMapping(value = "/WisdomCore/ExplorerInfo")
     public Object getExplorerInfo() {
         try {
-            long blocksCount = repository.countBlocksAfter(System.currentTimeMillis() / 1000 - 24 * 60 * 60);
-            String target = Hex.encodeHexString(repository.getBestBlock().nBits);
-            double avgInterval = repository.getAverageBlocksInterval();
-            long averageFee = repository.getAverageFee();
+            Block best = repository.getBestBlock();
+            long blocksCount = chainStatisticsService.getBlocksCount();
+            String target = Hex.encodeHexString(best.nBits);
+            double avgInterval = chainStatisticsService.getAverageBlocksInterval();
+            long averageFee = chainStatisticsService.getAverageFee();
             int adoptcount = adoptTransPool.size();
             int pengcount = peningTransPool.Unpacksize();
-            long lastConfirmedHeight = wisdomBlockChain.getTopHeight();
-            long bestHeight = repository.getBestBlock().nHeight;
+            long lastConfirmedHeight = chainStatisticsService.getLastConfirmedHeight();
+            long bestHeight = best.nHeight;
             return APIResult.newFailResult(2000, "SUCCESS", new ExploreResult(blocksCount, target, avgInterval, averageFee, pengcount, adoptcount, lastConfirmedHeight, bestHeight));
         } catch (Exception e) {
             e.printStackTrace();
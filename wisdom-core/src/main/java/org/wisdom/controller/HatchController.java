@@ -57,6 +57,17 @@ public class HatchController {
         return APIResult.newFailResult(5000, "The interface has been deprecated");
     }
 
+    @GetMapping(value = "/WisdomCore/getTransactionHistory")
+    public APIResult getTransactionHistory(
+            @RequestParam("address") String address,
+            @RequestParam(value = "direction", defaultValue = "to") String direction,
+            @RequestParam(value = "type", required = false) String type,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", defaultValue = "0") int limit
+    ) {
+        return hatchService.getTransactionHistory(address, direction, type, cursor, limit);
+    }
+
     @RequestMapping(value = "/sendNonce", method = RequestMethod.POST)
     public Object sendNonce(@RequestParam("pubkeyhash") String pubkeyhash) {
         return hatchService.getNonce(pubkeyhash);
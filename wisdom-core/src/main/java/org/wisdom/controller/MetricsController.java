@@ -0,0 +1,16 @@
+package org.wisdom.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.wisdom.metrics.Metrics;
+
+@RestController
+public class MetricsController {
+    public static final String PATH = "/metrics";
+
+    // prometheus scrape endpoint, reachable from loopback even if rpc is local only
+    @GetMapping(value = PATH, produces = "text/plain; version=0.0.4; charset=utf-8")
+    public String scrape() {
+        return Metrics.scrape();
+    }
+}
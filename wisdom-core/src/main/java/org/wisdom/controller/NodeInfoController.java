@@ -14,6 +14,7 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.db.*;
 import org.wisdom.encoding.JSONEncodeDecoder;
 import org.wisdom.p2p.Peer;
+import org.wisdom.p2p.PeerScores;
 import org.wisdom.p2p.PeerServer;
 import org.wisdom.util.Address;
 
@@ -27,6 +28,9 @@ public class NodeInfoController {
     @Autowired
     private PeerServer peerServer;
 
+    @Autowired
+    private PeerScores peerScores;
+
     @Value("${wisdom.version}")
     private String version;
 
@@ -83,6 +87,8 @@ public class NodeInfoController {
         info.put("enableDiscovery", enableDiscovery);
         info.put("maxBlocksPerTransfer", maxBlocksPerTransfer);
         info.put("allowFork", allowFork);
+        // peer key -> score, bandwidth, blocks delivered and latency
+        info.put("scores", peerScores.getStats());
         return APIResult.newFailResult(2000, "SUCCESS", info);
     }
 
@@ -1,7 +1,9 @@
 package org.wisdom.controller;
 
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Component;
 import org.tdf.common.util.HexBytes;
@@ -14,7 +16,10 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.db.AccountState;
 import org.wisdom.db.AccountStateTrie;
 import org.wisdom.db.WisdomRepository;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
 import org.wisdom.pool.AdoptTransPool;
+import org.wisdom.service.CommandService;
 import org.wisdom.sync.TransactionHandler;
 import org.wisdom.type.WebSocketMessage;
 import org.wisdom.util.CopyOnWriteMap;
@@ -25,53 +30,129 @@ import org.wisdom.vm.abi.WASMTXPool;
 import javax.websocket.*;
 import javax.websocket.server.PathParam;
 import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.function.Consumer;
-import java.util.function.Predicate;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * emits are pushed to the sessions found in subscription indices, every session has a bounded outbound queue
+ * drained by a small fixed sender pool, sessions connected with ?batch=true receive queued emits in EMIT_BATCH frames
+ */
 @ServerEndpoint(value = "/websocket/{id}")
 @Component
+@Slf4j(topic = "websocket")
 public class WebSocket {
     private static final Map<String, WebSocket> clients = new CopyOnWriteMap<>();
-    private static final Executor EXECUTOR = Executors.newCachedThreadPool();
+
+    private static final ExecutorService SENDERS = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors() / 2),
+            new ThreadFactoryBuilder().setNameFormat("websocket-sender-%d").setDaemon(true).build()
+    );
+
+    // subscription indices, transaction hash -> sessions and contract address -> sessions
+    private static final Map<HexBytes, Set<WebSocket>> TRANSACTION_SUBSCRIBERS = new ConcurrentHashMap<>();
+    private static final Map<HexBytes, Set<WebSocket>> ADDRESS_SUBSCRIBERS = new ConcurrentHashMap<>();
+
+    private static final int MAX_EVENTS_PER_FRAME = 256;
+
+    private static final Counter DROPPED = Metrics.counter("wisdom_websocket_dropped_total", "emits dropped or sessions closed because of full send queue");
+
+    static {
+        Metrics.gauge("wisdom_websocket_sessions", "connected websocket sessions", clients::size);
+    }
+
     public static ApplicationContext ctx;
 
+    // what to do when the send queue of a session is full
+    public enum OverflowPolicy {
+        DROP, DISCONNECT
+    }
+
+    private static class Outbound {
+        // emits with the same key are coalesced while queued, null for emits never coalesced
+        private final Object key;
+        private final byte[] bin;
+
+        private Outbound(Object key, byte[] bin) {
+            this.key = key;
+            this.bin = bin;
+        }
+    }
+
     private AccountStateTrie  accountTrie;
     private WisdomRepository repository;
 
     private Session session;
-    private final Boolean lock = true;
+    private final Object lock = new Object();
 
     private Set<HexBytes> addresses;
-    private Map<HexBytes, Boolean> transactions;
+    private Set<HexBytes> transactions;
     private String id;
+    private BlockingQueue<Outbound> outbound;
+    private Set<Object> queuedKeys;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private OverflowPolicy overflowPolicy;
+    private boolean batch;
     private TransactionHandler transactionHandler;
     private WASMTXPool wasmtxPool;
     private TransactionCheck transactionCheck;
+    private CommandService commandService;
 
     @OnOpen
     public void onOpen(Session session, @PathParam("id") String id) {
         session.setMaxBinaryMessageBufferSize(8 * 1024 * 1024);
         this.id = id;
         this.session = session;
-        this.addresses = new CopyOnWriteArraySet<>();
-        this.transactions = new ConcurrentHashMap<>();
+        this.addresses = ConcurrentHashMap.newKeySet();
+        this.transactions = ConcurrentHashMap.newKeySet();
+        this.outbound = new ArrayBlockingQueue<>(
+                ctx.getEnvironment().getProperty("wisdom.websocket.queue-size", Integer.class, 4096)
+        );
+        this.queuedKeys = ConcurrentHashMap.newKeySet();
+        this.overflowPolicy = OverflowPolicy.valueOf(
+                ctx.getEnvironment().getProperty("wisdom.websocket.overflow-policy", "drop").trim().toUpperCase()
+        );
+        List<String> batchParam = session.getRequestParameterMap().get("batch");
+        this.batch = batchParam != null && batchParam.contains("true");
         this.wasmtxPool = ctx.getBean(WASMTXPool.class);
         this.accountTrie = ctx.getBean(AccountStateTrie.class);
         this.repository = ctx.getBean(WisdomRepository.class);
         this.transactionHandler = ctx.getBean(TransactionHandler.class);
         this.transactionCheck = ctx.getBean(TransactionCheck.class);
+        this.commandService = ctx.getBean(CommandService.class);
         clients.put(id, this);
     }
 
     @OnClose
     public void onClose() {
-        clients.remove(this.id);
+        clients.remove(this.id, this);
+        transactions.forEach(h -> unsubscribe(TRANSACTION_SUBSCRIBERS, h, this));
+        addresses.forEach(a -> unsubscribe(ADDRESS_SUBSCRIBERS, a, this));
+        outbound.clear();
+        queuedKeys.clear();
+    }
+
+    private static void subscribe(Map<HexBytes, Set<WebSocket>> index, HexBytes key, WebSocket ws) {
+        index.compute(key, (k, v) -> {
+            Set<WebSocket> s = v == null ? ConcurrentHashMap.newKeySet() : v;
+            s.add(ws);
+            return s;
+        });
+    }
+
+    private static void unsubscribe(Map<HexBytes, Set<WebSocket>> index, HexBytes key, WebSocket ws) {
+        index.computeIfPresent(key, (k, v) -> {
+            v.remove(ws);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    private void subscribeTransaction(HexBytes hash) {
+        if (transactions.add(hash)) {
+            subscribe(TRANSACTION_SUBSCRIBERS, hash, this);
+        }
     }
 
     @OnError
@@ -93,17 +174,20 @@ public class WebSocket {
             case TRANSACTION_SUBSCRIBE: {
                 if (msg.getBody().isRLPList()) {
                     for (RLPElement element : msg.getBody().asRLPList()) {
-                        this.transactions.put(HexBytes.fromBytes(element.asBytes()), true);
+                        subscribeTransaction(HexBytes.fromBytes(element.asBytes()));
                     }
                 } else {
-                    this.transactions.put(HexBytes.fromBytes(msg.getBody().asBytes()), true);
+                    subscribeTransaction(HexBytes.fromBytes(msg.getBody().asBytes()));
                 }
                 sendNull(msg.getNonce());
                 break;
             }
             // 合约监听
             case EVENT_SUBSCRIBE: {
-                this.addresses.add(HexBytes.fromBytes(msg.getBody().asBytes()));
+                HexBytes address = HexBytes.fromBytes(msg.getBody().asBytes());
+                if (this.addresses.add(address)) {
+                    subscribe(ADDRESS_SUBSCRIBERS, address, this);
+                }
                 sendNull(msg.getNonce());
                 break;
             }
@@ -113,7 +197,7 @@ public class WebSocket {
                 Transaction[] txs = isList ? msg.getBody().get(1).as(Transaction[].class) :
                         new Transaction[]{msg.getBody().get(1).as(Transaction.class)};
                 for (Transaction tx : txs) {
-                    APIResult res = transactionCheck.TransactionFormatCheck(tx.toRPCBytes());
+                    APIResult res = transactionCheck.TransactionFormatCheck(tx);
                     if(res.getCode() == APIResult.SUCCESS){
                         this.wasmtxPool.collect(Collections.singleton(tx));
                         transactionHandler.broadcastTransactions(Collections.singletonList(tx));
@@ -125,6 +209,30 @@ public class WebSocket {
                 sendNull(msg.getNonce());
                 break;
             }
+            // 批量发送事务，按顺序返回每个事务的 [hash, code, message]
+            case TRANSACTION_BATCH_SEND: {
+                Transaction[] txs = msg.getBody().as(Transaction[].class);
+                List<byte[]> transfers = new ArrayList<>(txs.length);
+                for (Transaction tx : txs) {
+                    transfers.add(tx.toRPCBytes());
+                }
+                List<APIResult> results = commandService.verifyTransfers(transfers);
+                List<Transaction> accepted = new ArrayList<>();
+                Object[] response = new Object[txs.length];
+                for (int i = 0; i < txs.length; i++) {
+                    APIResult res = results.get(i);
+                    response[i] = new Object[]{txs[i].getHash(), res.getCode(), res.getMessage() == null ? "" : res.getMessage()};
+                    if (res.getCode() == APIResult.SUCCESS) {
+                        accepted.add(txs[i]);
+                    }
+                }
+                if (!accepted.isEmpty()) {
+                    transactionHandler.broadcastTransactions(accepted);
+                    accepted.forEach(tx -> broadcastPendingOrConfirm(tx, Transaction.Status.PENDING));
+                }
+                sendResponse(msg.getNonce(), WebSocketMessage.Code.TRANSACTION_BATCH_SEND, response);
+                break;
+            }
             // 查看账户
             case ACCOUNT_QUERY:{
                 byte[] pkHash = msg.getBody().asBytes();
@@ -165,50 +273,97 @@ public class WebSocket {
         sendBinary(RLPCodec.encode(new WebSocketMessage(nonce, code.ordinal(), RLPElement.readRLPTree(data))));
     }
 
-    @SneakyThrows
-    public static void broadcastAsync(WebSocketMessage msg, Predicate<WebSocket> when, Consumer<WebSocket> after) {
-        byte[] bin = RLPCodec.encode(msg);
-        for (Map.Entry<String, WebSocket> entry : clients.entrySet()) {
-            EXECUTOR.execute(() -> {
-                WebSocket socket = entry.getValue();
+    // enqueue an emit, the emit is dropped or the session is closed when the queue is full
+    private void offer(Outbound o) {
+        if (o.key != null && !queuedKeys.add(o.key)) {
+            return;
+        }
+        if (!outbound.offer(o)) {
+            if (o.key != null) queuedKeys.remove(o.key);
+            DROPPED.inc();
+            if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                log.warn("send queue of websocket session {} is full, disconnect", id);
                 try {
-                    if (when.test(socket)) {
-                        socket.sendBinary(bin);
-                        after.accept(socket);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+                    session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "send queue overflow"));
+                } catch (IOException ignored) {
                 }
-            });
+            }
+            return;
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            SENDERS.execute(this::drain);
         }
     }
 
+    // send one frame per run so that a slow session cannot occupy a sender
+    private void drain() {
+        try {
+            List<Outbound> frame = new ArrayList<>();
+            outbound.drainTo(frame, batch ? MAX_EVENTS_PER_FRAME : 1);
+            for (Outbound o : frame) {
+                if (o.key != null) queuedKeys.remove(o.key);
+            }
+            if (frame.size() == 1) {
+                sendBinary(frame.get(0).bin);
+            } else if (frame.size() > 1) {
+                RLPList emits = RLPList.createEmpty(frame.size());
+                for (Outbound o : frame) {
+                    emits.add(RLPElement.fromEncoded(o.bin));
+                }
+                sendBinary(RLPCodec.encode(new WebSocketMessage(0, WebSocketMessage.Code.EMIT_BATCH.ordinal(), emits)));
+            }
+        } catch (Exception e) {
+            log.error("send to websocket session {} failed {}", id, e.getMessage());
+        } finally {
+            scheduled.set(false);
+            if (!outbound.isEmpty() && session.isOpen() && scheduled.compareAndSet(false, true)) {
+                SENDERS.execute(this::drain);
+            }
+        }
+    }
 
-    public static void broadcastTransaction(Transaction tx, RLPElement body, boolean delete) {
+    private static void emit(Collection<WebSocket> subscribers, Object key, WebSocketMessage msg) {
+        if (subscribers == null || subscribers.isEmpty()) return;
+        byte[] bin = RLPCodec.encode(msg);
+        for (WebSocket ws : subscribers) {
+            ws.offer(new Outbound(key, bin));
+        }
+    }
+
+    private static boolean isSubscribed(Transaction tx) {
+        return !TRANSACTION_SUBSCRIBERS.isEmpty() && TRANSACTION_SUBSCRIBERS.containsKey(HexBytes.fromBytes(tx.getHash()));
+    }
+
+    // subscriptions of the transaction are removed when delete is true, e.g. the transaction is confirmed or dropped
+    public static void broadcastTransaction(Transaction tx, int status, RLPElement body, boolean delete) {
+        HexBytes hash = HexBytes.fromBytes(tx.getHash());
+        Set<WebSocket> subscribers = delete ? TRANSACTION_SUBSCRIBERS.remove(hash) : TRANSACTION_SUBSCRIBERS.get(hash);
+        if (subscribers == null) return;
+        if (delete) {
+            subscribers.forEach(ws -> ws.transactions.remove(hash));
+        }
         WebSocketMessage msg = new WebSocketMessage(
                 0,
                 WebSocketMessage.Code.TRANSACTION_EMIT.ordinal(),
                 body
         );
-        broadcastAsync(msg,
-                ws -> ws.transactions.containsKey(HexBytes.fromBytes(tx.getHash())),
-                ws -> {
-                    if (delete) ws.transactions.remove(HexBytes.fromBytes(tx.getHash()));
-                }
-        );
+        emit(subscribers, Arrays.asList(hash, status), msg);
     }
 
     public static void broadcastPendingOrConfirm(Transaction tx, Transaction.Status status) {
+        if (!isSubscribed(tx)) return;
         RLPElement body = RLPElement.readRLPTree(new WebSocketTransactionBody(tx.getHash(), status.ordinal(), null));
-        broadcastTransaction(tx, body, status == Transaction.Status.CONFIRMED);
+        broadcastTransaction(tx, status.ordinal(), body, status == Transaction.Status.CONFIRMED);
     }
 
     public static void broadcastDrop(Transaction tx, String reason) {
+        if (!isSubscribed(tx)) return;
         RLPElement body = RLPElement.readRLPTree(new WebSocketTransactionBody(tx.getHash(), Transaction.Status.DROPPED.ordinal(), reason));
-        broadcastTransaction(tx, body.asRLPList(), true);
+        broadcastTransaction(tx, Transaction.Status.DROPPED.ordinal(), body.asRLPList(), true);
     }
 
     public static void broadcastIncluded(Transaction tx, long height, byte[] blockHash, long gasUsed, RLPList returns, List<WASMEvent> events) {
+        if (!isSubscribed(tx)) return;
         WebSocketTransactionBody bd =
                 new WebSocketTransactionBody(
                         tx.getHash(),
@@ -217,17 +372,13 @@ public class WebSocket {
                 );
 
         RLPElement body = RLPElement.readRLPTree(bd);
-        broadcastTransaction(tx, body.asRLPList(), false);
+        broadcastTransaction(tx, Transaction.Status.INCLUDED.ordinal(), body.asRLPList(), false);
     }
 
     public static void broadcastEvent(byte[] address, String event, RLPList outputs) {
+        Set<WebSocket> subscribers = ADDRESS_SUBSCRIBERS.get(HexBytes.fromBytes(address));
+        if (subscribers == null) return;
         RLPElement bd = RLPElement.readRLPTree(new WebSocketEventBody(address, event, outputs)).asRLPList();
-        HexBytes addr = HexBytes.fromBytes(address);
-        broadcastAsync(
-                new WebSocketMessage(0, WebSocketMessage.Code.EVENT_EMIT.ordinal(), bd),
-                ws -> ws.addresses.contains(addr),
-                ws -> {
-                }
-        );
+        emit(subscribers, null, new WebSocketMessage(0, WebSocketMessage.Code.EVENT_EMIT.ordinal(), bd));
     }
 }
\ No newline at end of file
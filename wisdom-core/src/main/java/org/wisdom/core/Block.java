@@ -28,6 +28,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.tdf.common.util.HexBytes;
 import org.tdf.rlp.RLP;
+import org.tdf.rlp.RLPCodec;
 import org.wisdom.consensus.pow.EconomicModel;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.core.incubator.Incubator;
@@ -36,10 +37,9 @@ import org.wisdom.db.AccountState;
 import org.wisdom.encoding.BigEndian;
 import org.wisdom.genesis.Genesis;
 import org.wisdom.keystore.wallet.KeystoreAction;
-import org.wisdom.merkletree.MerkleTree;
+import org.wisdom.merkletree.BinaryMerkleTree;
 import org.wisdom.merkletree.TreeNode;
 import org.wisdom.protobuf.tcp.ProtocolModel;
-import org.wisdom.util.Address;
 import org.wisdom.util.Arrays;
 
 import javax.validation.constraints.Max;
@@ -110,43 +110,15 @@ public class Block implements Header{
     }
 
     public static byte[] calculateMerkleRoot(List<Transaction> txs) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : txs) {
-            hashes.add(tx.getHashHexString());
-        }
-        try {
-            return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-        } catch (Exception e) {
-            log.error("error occurred when calculate merkle root");
-        }
-        return new byte[32];
+        return BinaryMerkleTree.root(txs.stream().map(Transaction::getHash).collect(toList()));
     }
 
     public static byte[] calculateMerkleState(List<AccountState> accountStateList) {
-        List<String> hashes = accountStateList.stream().map(AccountState::getHexAccountState).collect(Collectors.toList());
-        if (hashes.size() > 0) {
-            try {
-                return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-            } catch (Exception e) {
-                log.error("error occurred when calculate merkle state");
-            }
-        }
-        return new byte[32];
+        return BinaryMerkleTree.root(accountStateList.stream().map(RLPCodec::encode).collect(toList()));
     }
 
     public static byte[] calculateMerkleIncubate(List<Incubator> incubatorList) {
-        List<String> hashes = new ArrayList<>();
-        for (Incubator incubator : incubatorList) {
-            hashes.add(incubator.getIdHexString());
-        }
-        if (hashes.size() > 0) {
-            try {
-                return Hex.decodeHex(new MerkleTree(hashes).getRoot().getHash().toCharArray());
-            } catch (Exception e) {
-                log.error("error occurred when calculate merkle incubate");
-            }
-        }
-        return new byte[32];
+        return BinaryMerkleTree.root(incubatorList.stream().map(Incubator::getId).collect(toList()));
     }
 
     public static Block fromProto(ProtocolModel.Block block) {
@@ -179,7 +151,7 @@ public class Block implements Header{
         for (ProtocolModel.Transaction tx : block.getBodyList()) {
             b.body.add(Transaction.fromProto(tx));
         }
-        return b;
+        return b.seal();
     }
 
     @JsonProperty("blockSize")
@@ -196,6 +168,9 @@ public class Block implements Header{
 
     @JsonProperty("blockHash")
     public byte[] getHash() {
+        if (sealed) {
+            return hashCache;
+        }
         return reHash();
     }
 
@@ -295,8 +270,40 @@ public class Block implements Header{
     @JsonIgnore
     private String hashHexCache;
 
+    @JsonIgnore
+    private byte[] headerRawCache;
+
+    @JsonIgnore
+    private boolean sealed;
+
+    /**
+     * freeze the header of a block received from network or loaded from database, the header raw and hash
+     * are computed once and memoized, transactions in body are sealed as well
+     * <p>
+     * header fields of a sealed block must not be modified, the miner works on an unsealed block
+     * and the copies from deepCopy are unsealed
+     */
+    public Block seal() {
+        headerRawCache = getHeaderRaw(this);
+        hashCache = HashUtil.keccak256(headerRawCache);
+        hashHexCache = null;
+        if (body != null) {
+            body.forEach(Transaction::seal);
+        }
+        sealed = true;
+        return this;
+    }
+
+    @JsonIgnore
+    public boolean isSealed() {
+        return sealed;
+    }
+
     @JsonIgnore
     public byte[] getHeaderRaw() {
+        if (sealed) {
+            return headerRawCache;
+        }
         return getHeaderRaw(this);
     }
 
@@ -393,6 +400,11 @@ public class Block implements Header{
         h.nBits = nBits;
         h.nNonce = nNonce;
         h.blockNotice = blockNotice;
+        if (sealed) {
+            h.headerRawCache = headerRawCache;
+            h.hashCache = hashCache;
+            h.sealed = true;
+        }
         return h;
     }
 
@@ -400,26 +412,22 @@ public class Block implements Header{
     public List<byte[]> getFromsPublicKeyHash() {
         return body.stream()
                 .filter(tx -> tx.type != 0)
-                .map(tx -> Address.publicKeyToAddress(tx.from))
+                .map(tx -> HexBytes.fromBytes(tx.getFromPKHash()))
                 .distinct()
-                .map(Address::addressToPublicKeyHash)
+                .map(HexBytes::getBytes)
                 .collect(toList());
     }
 
+    public static BinaryMerkleTree getMerkleTree(List<Transaction> txs) {
+        return new BinaryMerkleTree(txs.stream().map(Transaction::getHash).collect(toList()));
+    }
+
     public static List<TreeNode> getMerkleTreeNode(List<Transaction> txs, Byte level) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : txs) {
-            hashes.add(tx.getHashHexString());
-        }
-        return new MerkleTree(hashes).getLevelList(level);
+        return getMerkleTree(txs).getLevelList(level);
     }
 
     public static int getMerkleRootLevel(List<Transaction> txs) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : txs) {
-            hashes.add(tx.getHashHexString());
-        }
-        return new MerkleTree(hashes).getLevelSize();
+        return getMerkleTree(txs).getLevelSize();
     }
 
     public static final Comparator<Block> FAT_COMPARATOR = (a, b) -> {
@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.SerializationFeature;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Isolation;
@@ -12,11 +14,16 @@ import org.springframework.transaction.annotation.Transactional;
 import org.tdf.common.util.HexBytes;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.dao.*;
+import org.wisdom.db.HeaderIndex;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
 import org.wisdom.service.BlockRepositoryService;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /*
 method calls after writing 2w blocks
@@ -33,6 +40,7 @@ method calls after writing 2w blocks
  */
 // TODO: monitor average/summary time consuming for each query
 @Component
+@Slf4j(topic = "db")
 public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     private WisdomBlockChain delegate;
 
@@ -41,6 +49,8 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
 
     private static final int MAXIMUM_CACHE_SIZE = 256;
 
+    private static final int HEADER_INDEX_BATCH_SIZE = 4096;
+
     @Getter
     private Cache<HexBytes, Block> blockCache = Caffeine.newBuilder()
             .maximumSize(MAXIMUM_CACHE_SIZE)
@@ -67,6 +77,9 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
 
     private Block lastConfirmed;
 
+    // height indexed headers of the canonical chain, null if disabled
+    private HeaderIndex headerIndex;
+
     private ObjectMapper objectMapper = new ObjectMapper()
             .enable(SerializationFeature.INDENT_OUTPUT);
 
@@ -77,22 +90,79 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
             TransactionDaoJoined transactionDaoJoined,
             Block genesis,
             @Value("${clear-data}") boolean clearData) throws Exception {
+        this(headerDao, transactionDao, transactionIndexDao, transactionDaoJoined, genesis, clearData, null);
+    }
+
+    @Autowired
+    public MemoryCachedWisdomBlockChain(
+            HeaderDao headerDao,
+            TransactionDao transactionDao,
+            TransactionIndexDao transactionIndexDao,
+            TransactionDaoJoined transactionDaoJoined,
+            Block genesis,
+            @Value("${clear-data}") boolean clearData,
+            HeaderIndex headerIndex) throws Exception {
         this.delegate = new BlockRepositoryService(headerDao, transactionDao, transactionIndexDao,
                 transactionDaoJoined, genesis, clearData
         );
+        this.headerIndex = headerIndex;
+        syncHeaderIndex();
+        registerCacheMetrics("blocksCache", blockCache);
+        registerCacheMetrics("headerCache", headerCache);
+        registerCacheMetrics("hasBlockCache", hasBlockCache);
     }
 
+    // rebuild the header index if it doesn't match the database, then index headers not indexed yet
+    private void syncHeaderIndex() {
+        if (headerIndex == null) return;
+        long top = delegate.getTopHeight();
+        long indexed = headerIndex.getTopHeight();
+        if (indexed > top || (indexed >= 0 && !Arrays.equals(
+                headerIndex.getHash(indexed), delegate.getHeaderByHeight(indexed).getHash()))) {
+            log.warn("header index mismatch with database, rebuilding");
+            headerIndex.truncate(-1);
+            indexed = -1;
+        }
+        while (indexed < top) {
+            List<Block> headers = delegate.getHeadersBetween(indexed + 1, top, HEADER_INDEX_BATCH_SIZE);
+            if (headers.isEmpty()) break;
+            for (Block h : headers) {
+                if (!headerIndex.put(h)) {
+                    log.warn("cannot index header at height {}, header index stops here", h.nHeight);
+                    return;
+                }
+            }
+            indexed = headers.get(headers.size() - 1).nHeight;
+            log.info("header index synced to {}", indexed);
+        }
+    }
+
+    private static void registerCacheMetrics(String name, Cache<?, ?> cache) {
+        Metrics.gauge("wisdom_blockchain_cache_hits", "hits of block chain caches", () -> cache.stats().hitCount(), "cache", name);
+        Metrics.gauge("wisdom_blockchain_cache_misses", "misses of block chain caches", () -> cache.stats().missCount(), "cache", name);
+    }
+
+    // time consuming of each method
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
     // count method calls
-    @Getter
-    private Map<String, Long> callsCounter = new HashMap<>();
+    public Map<String, Long> getCallsCounter() {
+        Map<String, Long> ret = new HashMap<>();
+        timers.forEach((k, v) -> ret.put(k, v.getCount()));
+        return ret;
+    }
 
-    // time consuming for each method
-    @Getter
-    private Map<String, Long> timeConsuming = new HashMap<>();
+    // time consuming for each method, in milliseconds
+    public Map<String, Long> getTimeConsuming() {
+        Map<String, Long> ret = new HashMap<>();
+        timers.forEach((k, v) -> ret.put(k, v.getSum() / 1000000));
+        return ret;
+    }
 
-    private void recordMetric(String method, long duration) {
-        callsCounter.put(method, callsCounter.getOrDefault(method, 0L) + 1);
-        timeConsuming.put(method, timeConsuming.getOrDefault(method, 0L) + duration);
+    private void recordMetric(String method, long start) {
+        timers.computeIfAbsent(method, m -> Metrics.timer(
+                "wisdom_blockchain_query_seconds", "time consuming of block chain queries", "method", m)
+        ).recordSince(start);
     }
 
     private void clearCache(byte[] hash) {
@@ -112,44 +182,44 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     @Override
     public boolean containsBlock(byte[] hash) {
         final String method = "containsBlock";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return hasBlockCache.get(HexBytes.fromBytes(hash), (x) -> delegate.containsBlock(x.getBytes()));
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getTopHeader() {
         final String method = "getTopHeader";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             if (currentHeader != null) return currentHeader;
             currentHeader = delegate.getTopHeader();
             return currentHeader;
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getTopBlock() {
         final String method = "getTopBlock";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             if (currentBlock != null) return currentBlock;
             currentBlock = delegate.getTopBlock();
             return currentBlock;
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getHeaderByHash(byte[] blockHash) {
         final String method = "getHeaderByHash";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             Block h = headerCache.get(HexBytes.fromBytes(blockHash), (x) -> {
                 Block header = delegate.getHeaderByHash(x.getBytes());
@@ -157,14 +227,14 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
             });
             return h == TRAP_VALUE ? null : h;
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getBlockByHash(byte[] blockHash) {
         final String method = "getBlockByHash";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             Block b = blockCache.get(HexBytes.fromBytes(blockHash), (x) -> {
                 Block block = delegate.getBlockByHash(x.getBytes());
@@ -172,40 +242,40 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
             });
             return b == TRAP_VALUE ? null : b;
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public List<Block> getHeadersSince(long startHeight, int headersCount) {
         final String method = "getHeadersSince";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getHeadersSince(startHeight, headersCount);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public List<Block> getBlocksSince(long startHeight, int headersCount) {
         final String method = "getBlocksSince";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getBlocksSince(startHeight, headersCount);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public List<Block> getHeadersBetween(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial) {
         final String method = "getHeadersBetween";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getHeadersBetween(startHeight, stopHeight, sizeLimit, clipInitial);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
@@ -213,33 +283,34 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     @Override
     public List<Block> getBlocksBetween(long startHeight, long stopHeight, int sizeLimit, boolean clipInitial) {
         final String method = "getBlocksBetween";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getBlocksBetween(startHeight, stopHeight, sizeLimit, clipInitial);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getHeaderByHeight(long height) {
         final String method = "getHeaderByHeight";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
-            return delegate.getHeaderByHeight(height);
+            Block indexed = headerIndex == null ? null : headerIndex.getHeader(height);
+            return indexed != null ? indexed : delegate.getHeaderByHeight(height);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Block getBlockByHeight(long height) {
         final String method = "getBlockByHeight";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getBlockByHeight(height);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
@@ -249,6 +320,7 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
         boolean ret = delegate.writeBlock(block);
         clearCache(block.getHash());
         if (ret) {
+            if (headerIndex != null) headerIndex.put(block);
             headerCache.put(HexBytes.fromBytes(block.getHash()), block);
             blockCache.put(HexBytes.fromBytes(block.getHash()), block);
             hasBlockCache.put(HexBytes.fromBytes(block.getHash()), true);
@@ -259,66 +331,66 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     @Override
     public List<Block> getAncestorHeaders(byte[] bhash, long anum) {
         final String method = "getAncestorHeaders";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getAncestorHeaders(bhash, anum);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public List<Block> getAncestorBlocks(byte[] bhash, long anum) {
         final String method = "getAncestorBlocks";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getAncestorBlocks(bhash, anum);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public long getTopHeight() {
         final String method = "getTopHeight";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getTopHeight();
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public boolean containsTransaction(byte[] txHash) {
         final String method = "containsTransaction";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.containsTransaction(txHash);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public boolean containsPayload(int type, byte[] payload) {
         final String method = "containsPayload";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.containsPayload(type, payload);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
     @Override
     public Transaction getTransaction(byte[] txHash) {
         final String method = "getTransaction";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getTransaction(txHash);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
@@ -330,11 +402,11 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     @Override
     public Transaction getTransactionByTo(byte[] pubKeyHash) {
         final String method = "getTransactionByTo";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.getTransactionByTo(pubKeyHash);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
@@ -371,11 +443,11 @@ public class MemoryCachedWisdomBlockChain implements WisdomBlockChain {
     @Override
     public long countBlocksAfter(long timestamp) {
         final String method = "countBlocksAfter";
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
         try {
             return delegate.countBlocksAfter(timestamp);
         } finally {
-            recordMetric(method, System.currentTimeMillis() - start);
+            recordMetric(method, start);
         }
     }
 
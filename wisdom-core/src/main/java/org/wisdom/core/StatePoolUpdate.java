@@ -1,19 +1,31 @@
 package org.wisdom.core;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
+import org.wisdom.core.event.ChainEventBus;
 import org.wisdom.core.event.NewBlockEvent;
 import org.wisdom.pool.PeningTransPool;
 
+import javax.annotation.PostConstruct;
+
 @Component
-public class StatePoolUpdate implements ApplicationListener<NewBlockEvent> {
+public class StatePoolUpdate {
+
+    // shared with StatetreeUpdate so that transactions are updated in the order of events
+    static final String SUBSCRIBER = "pending-pool";
 
     @Autowired
     PeningTransPool peningTransPool;
 
-    @Override
-    public void onApplicationEvent(NewBlockEvent event) {
+    @Autowired
+    ChainEventBus chainEventBus;
+
+    @PostConstruct
+    public void init() {
+        chainEventBus.subscribe(SUBSCRIBER, NewBlockEvent.class, this::onNewBlock);
+    }
+
+    public void onNewBlock(NewBlockEvent event) {
         Block b = event.getBlock();
         peningTransPool.updatePool(b.body, 1, b.nHeight);
     }
@@ -19,19 +19,28 @@
 package org.wisdom.core;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
+import org.wisdom.core.event.ChainEventBus;
 import org.wisdom.core.event.NewConfirmedBlockEvent;
 import org.wisdom.pool.PeningTransPool;
 
+import javax.annotation.PostConstruct;
+
 @Component
-public class StatetreeUpdate implements ApplicationListener<NewConfirmedBlockEvent> {
+public class StatetreeUpdate {
 
     @Autowired
     PeningTransPool peningTransPool;
 
-    @Override
-    public void onApplicationEvent(NewConfirmedBlockEvent event) {
+    @Autowired
+    ChainEventBus chainEventBus;
+
+    @PostConstruct
+    public void init() {
+        chainEventBus.subscribe(StatePoolUpdate.SUBSCRIBER, NewConfirmedBlockEvent.class, this::onNewConfirmedBlock);
+    }
+
+    public void onNewConfirmedBlock(NewConfirmedBlockEvent event) {
         Block b = event.getBlock();
         peningTransPool.updatePool(b.body, 2, b.nHeight);
     }
@@ -8,7 +8,6 @@ import org.wisdom.core.incubator.Incubator;
 import org.wisdom.core.incubator.RateTable;
 import org.wisdom.db.AccountState;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -182,11 +181,8 @@ public interface TransactionVerifyUpdate<T> {
     default Incubator updateExtIncuator(WisdomBlockChain wisdomBlockChain, RateTable rateTable, Configuration configuration, Transaction tran, long nowheight, Incubator incubator) {
         Transaction transaction = wisdomBlockChain.getTransaction(tran.payload);
         int days = transaction.getdays();
-        String rate = rateTable.selectrate(transaction.height, days);//利率
         if (tran.type == 0x0a) {//interset
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            long dayinterset = ratebig.multiply(amounbig).longValue();
+            long dayinterset = rateTable.dailyInterest(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_interest();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
@@ -201,11 +197,7 @@ public interface TransactionVerifyUpdate<T> {
             incubator.setInterest_amount(lastinterset);
             incubator.setLast_blockheight_interest(lastheight);
         } else {//share
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            BigDecimal onemul = amounbig.multiply(ratebig);
-            BigDecimal bl = BigDecimal.valueOf(0.1);
-            long dayinterset = onemul.multiply(bl).longValue();
+            long dayinterset = rateTable.dailyShare(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_share();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
@@ -29,6 +29,7 @@ import org.tdf.rlp.RLPCodec;
 import org.wisdom.consensus.pow.EconomicModel;
 import org.wisdom.core.incubator.RateTable;
 import org.wisdom.crypto.HashUtil;
+import org.wisdom.crypto.ed25519.Ed25519PublicKey;
 import org.wisdom.encoding.BigEndian;
 import org.wisdom.genesis.Genesis;
 import org.wisdom.keystore.wallet.KeystoreAction;
@@ -81,6 +82,9 @@ public class Transaction {
 
     public static final int SIGNATURE_SIZE = 64;
 
+    // offset of signature in the raw encoding: version, type, nonce, from, gas price and amount
+    private static final int SIGNATURE_OFFSET = 1 + 1 + 8 + PUBLIC_KEY_SIZE + 8 + 8;
+
     public static final int PUBLIC_KEY_HASH_SIZE = 20;
 
     public static final long[] GAS_TABLE = new long[]{
@@ -204,7 +208,7 @@ public class Transaction {
         if (tx.getSignature() != null) {
             res.signature = tx.getSignature().toByteArray();
         }
-        return res;
+        return res.seal();
     }
 
     public static int getContract(int methodType) {
@@ -309,6 +313,37 @@ public class Transaction {
         return hashCache;
     }
 
+    @JsonIgnore
+    private byte[] rawCache;
+
+    @JsonIgnore
+    private byte[] fromPKHashCache;
+
+    @JsonIgnore
+    private boolean sealed;
+
+    /**
+     * freeze a transaction received from network or loaded from database, the raw encoding, hash, size and
+     * public key hash of sender are memoized, fields included in the raw must not be modified once sealed
+     */
+    public Transaction seal() {
+        return seal(getRaw(false));
+    }
+
+    // raw must be identical to the encoding of fields
+    private Transaction seal(byte[] raw) {
+        rawCache = raw;
+        hashCache = HashUtil.keccak256(rawCache);
+        hashHexString = null;
+        sealed = true;
+        return this;
+    }
+
+    @JsonIgnore
+    public boolean isSealed() {
+        return sealed;
+    }
+
     @JsonIgnore
     private byte[] getRaw(boolean nullSignature) {
         long payloadLength = 0;
@@ -335,7 +370,13 @@ public class Transaction {
 
     @JsonIgnore
     public byte[] getFromPKHash() {
-        return Address.publicKeyToHash(from);
+        if (!sealed) {
+            return Address.publicKeyToHash(from);
+        }
+        if (fromPKHashCache == null) {
+            fromPKHashCache = Address.publicKeyToHash(from);
+        }
+        return fromPKHashCache;
     }
 
     // WASM 合约的地址 = ripemd160(RLP([ 事务哈希, 当前调用链部署合约的数量]))
@@ -357,6 +398,9 @@ public class Transaction {
     @JsonIgnore
     // 计算哈希时包含了签名
     public byte[] getRawForHash() {
+        if (sealed) {
+            return rawCache;
+        }
         return getRaw(false);
     }
 
@@ -370,6 +414,20 @@ public class Transaction {
         return getRawForHash().length + getHash().length;
     }
 
+    /**
+     * verify signature by the public key of sender, the raw for sign is derived from the memoized raw if sealed
+     */
+    public boolean verifySignature() {
+        byte[] msg;
+        if (sealed) {
+            msg = rawCache.clone();
+            java.util.Arrays.fill(msg, SIGNATURE_OFFSET, SIGNATURE_OFFSET + SIGNATURE_SIZE, (byte) 0);
+        } else {
+            msg = getRawForSign();
+        }
+        return new Ed25519PublicKey(from).verify(msg, signature);
+    }
+
     @JsonIgnore
     public String getHashHexString() {
         if (hashHexString == null) {
@@ -400,24 +458,15 @@ public class Transaction {
 
 
     public long getInterest(long height, RateTable rateTable, int days) {
-        long interest = 0;
         if (type == Type.INCUBATE.ordinal()) {
-            String rate = rateTable.selectrate(height, days);
-            BigDecimal amountbig = BigDecimal.valueOf(amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            BigDecimal onemut = amountbig.multiply(ratebig);
-            BigDecimal daysbig = BigDecimal.valueOf(days);
-            interest = daysbig.multiply(onemut).longValue();
+            return rateTable.totalInterest(amount, height, days);
         }
-        return interest;
+        return 0;
     }
 
     public long getShare(long height, RateTable rateTable, int days) {
         if (type == Type.INCUBATE.ordinal()) {
-            long rate = getInterest(height, rateTable, days);
-            BigDecimal ratebig = BigDecimal.valueOf(rate);
-            BigDecimal lvbig = BigDecimal.valueOf(0.1);
-            return ratebig.multiply(lvbig).longValue();
+            return rateTable.totalShare(amount, height, days);
         }
         return 0;
     }
@@ -472,39 +521,49 @@ public class Transaction {
         this.methodType = methodType;
     }
 
+    /**
+     * decode rpc bytes in one pass, the raw encoding is copied from the bytes once and the hash is computed over it,
+     * the hash in the bytes is not verified
+     */
     public static Transaction fromRPCBytes(byte[] msg) {
         Transaction transaction = new Transaction();
         BytesReader reader = new BytesReader(msg);
         //version
         transaction.version = reader.read();
         // skip hash
-        reader.read(32);
+        reader.skip(32);
+        int start = reader.position();
         transaction.type = reader.read();
         //nonce
-        transaction.nonce = BigEndian.decodeUint64(reader.read(8));
+        transaction.nonce = reader.readLong();
         transaction.from = reader.read(PUBLIC_KEY_SIZE);
-        transaction.gasPrice = BigEndian.decodeUint64(reader.read(8));
-        transaction.amount = BigEndian.decodeUint64(reader.read(8));
+        transaction.gasPrice = reader.readLong();
+        transaction.amount = reader.readLong();
         transaction.signature = reader.read(SIGNATURE_SIZE);
         transaction.to = reader.read(PUBLIC_KEY_HASH_SIZE);
         // payload
-//        int type = transaction.type;
-        long payloadLength = BigEndian.decodeUint32(reader.read(4));
-        if (payloadLength == 0) {
-            return transaction;
-        }
-//        if (type == 0x09 || type == 0x0a || type == 0x0b || type == 0x0c || type == 0x03 || type == 0x0d || type == 0x0f) {//孵化器、提取利息、提取分享、提取本金、存证、撤回投票
-//            transaction.payload = reader.read(ByteUtil.byteArrayToInt(payloadLength));
-//        }
-        transaction.payload = reader.read((int) payloadLength);
-        if (transaction.type == Type.DEPLOY_CONTRACT.ordinal()) {//部署合约
+        long payloadLength = reader.readUint32();
+        if (payloadLength > reader.remaining()) {
+            throw new IllegalArgumentException("payload length " + payloadLength + " exceeds " + reader.remaining());
+        }
+        if (payloadLength > 0) {
+            transaction.payload = reader.read((int) payloadLength);
+        }
+        if (reader.remaining() != 0) {
+            throw new IllegalArgumentException(reader.remaining() + " trailing bytes");
+        }
+        if (transaction.payload != null && transaction.type == Type.DEPLOY_CONTRACT.ordinal()) {//部署合约
             transaction.contractType = transaction.payload[0];
         }
-        if (transaction.type == Type.CALL_CONTRACT.ordinal()) {//调用合约
+        if (transaction.payload != null && transaction.type == Type.CALL_CONTRACT.ordinal()) {//调用合约
             transaction.methodType = transaction.payload[0];
             transaction.contractType = getContract(transaction.methodType);
         }
-        return transaction;
+        // raw is version followed by the bytes after hash
+        byte[] raw = new byte[msg.length - start + 1];
+        raw[0] = msg[0];
+        System.arraycopy(msg, start, raw, 1, msg.length - start);
+        return transaction.seal(raw);
     }
 
     // TODO: use fromRPCBytes
@@ -0,0 +1,142 @@
+package org.wisdom.core.event;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.stereotype.Component;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * delivers chain events published by the repository to subscribers asynchronously, instead of running listeners on
+ * the thread importing blocks
+ * <p>
+ * every subscriber has a thread and a bounded queue, events are delivered to a subscriber in the order published and
+ * a slow subscriber never delays the others. publish blocks when the queue of a subscriber is full, so a subscriber
+ * lagging behind is caught up by slowing down the publisher instead of dropping events.
+ * exceptions thrown by listeners are logged and counted
+ */
+@Component
+@Slf4j(topic = "event")
+public class ChainEventBus {
+    private static final String LAG = "wisdom_event_bus_lag";
+    private static final String DELAY = "wisdom_event_bus_delay_seconds";
+    private static final String FAILURES = "wisdom_event_bus_failures_total";
+
+    private static class Listener<T extends ApplicationEvent> {
+        private final Class<T> type;
+
+        private final Consumer<? super T> consumer;
+
+        private Listener(Class<T> type, Consumer<? super T> consumer) {
+            this.type = type;
+            this.consumer = consumer;
+        }
+
+        private boolean accepts(ApplicationEvent event) {
+            return type.isInstance(event);
+        }
+
+        private void accept(ApplicationEvent event) {
+            consumer.accept(type.cast(event));
+        }
+    }
+
+    private class Subscriber {
+        private final String name;
+
+        private final List<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+
+        private final ExecutorService executor;
+
+        // permits of queue, acquired by publisher and released after delivered
+        private final Semaphore permits = new Semaphore(queueSize);
+
+        private final Histogram delay;
+
+        private final Counter failures;
+
+        private Subscriber(String name) {
+            this.name = name;
+            this.executor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("event-" + name).setDaemon(true).build()
+            );
+            this.delay = Metrics.timer(DELAY, "time between events published and delivered", "subscriber", name);
+            this.failures = Metrics.counter(FAILURES, "events failed to be handled", "subscriber", name);
+            Metrics.gauge(LAG, "events published but not delivered", () -> queueSize - permits.availablePermits(), "subscriber", name);
+        }
+
+        private boolean accepts(ApplicationEvent event) {
+            return listeners.stream().anyMatch(l -> l.accepts(event));
+        }
+
+        private void deliver(ApplicationEvent event, long published) {
+            try {
+                delay.recordSince(published);
+                for (Listener<?> l : listeners) {
+                    if (!l.accepts(event)) continue;
+                    try {
+                        l.accept(event);
+                    } catch (Exception e) {
+                        failures.inc();
+                        log.error("subscriber {} failed to handle {}", name, event.getClass().getSimpleName(), e);
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    private final int queueSize;
+
+    // subscriber name -> subscriber
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    public ChainEventBus(@Value("${wisdom.event-bus.queue-size:1024}") int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * listen to events of the type, listeners subscribed by the same name share a queue so that they receive events
+     * in the order published
+     */
+    public <T extends ApplicationEvent> void subscribe(String name, Class<T> type, Consumer<? super T> listener) {
+        subscribers.computeIfAbsent(name, Subscriber::new).listeners.add(new Listener<>(type, listener));
+    }
+
+    /**
+     * enqueue the event to its subscribers, waits if the queue of any subscriber is full. the caller must not hold
+     * locks subscribers may wait for, e.g. the write lock of repository
+     */
+    public void publish(ApplicationEvent event) {
+        long published = System.nanoTime();
+        for (Subscriber s : subscribers.values()) {
+            if (!s.accepts(event)) continue;
+            try {
+                s.permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            try {
+                s.executor.execute(() -> s.deliver(event, published));
+            } catch (RejectedExecutionException e) {
+                s.permits.release();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        subscribers.values().forEach(s -> s.executor.shutdown());
+    }
+}
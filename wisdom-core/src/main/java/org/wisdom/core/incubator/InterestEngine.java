@@ -0,0 +1,143 @@
+package org.wisdom.core.incubator;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+import org.wisdom.command.Configuration;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.protobuf.tcp.command.HatchModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * interest and share of incubations could be extracted at a height
+ * <p>
+ * the amount per day is fixed at the height of incubation, so the amount of an incubation is computed from the days
+ * passed since the last extraction without replaying the blocks, the rules are the same as the extraction check
+ */
+@Component
+public class InterestEngine {
+
+    @Getter
+    @AllArgsConstructor
+    public static class Accrual {
+        public enum Status {
+            ACCRUED, NOTHING_TO_PAY, LESS_THAN_ONE_DAY
+        }
+
+        private Status status;
+        // amount could be extracted now
+        private long dueinAmount;
+        // remaining interest or share of the incubation
+        private long capitalAmount;
+
+        private static final Accrual NOTHING_TO_PAY = new Accrual(Status.NOTHING_TO_PAY, 0, 0);
+
+        private static final Accrual LESS_THAN_ONE_DAY = new Accrual(Status.LESS_THAN_ONE_DAY, 0, 0);
+
+        // the smaller of due in and capital
+        public long getExtractable() {
+            return Math.min(dueinAmount, capitalAmount);
+        }
+    }
+
+    private final RateTable rateTable;
+
+    private final Configuration configuration;
+
+    public InterestEngine(RateTable rateTable, Configuration configuration) {
+        this.rateTable = rateTable;
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param hatch     the incubate transaction
+     * @param incubator the interest incubator of the hatch
+     * @throws ArithmeticException      if the interest per day is zero
+     * @throws IllegalArgumentException if the payload of hatch is invalid
+     */
+    public Accrual accrueInterest(Transaction hatch, Incubator incubator, long height) {
+        if (incubator.getInterest_amount() == 0 || incubator.getCost() == 0) {
+            return Accrual.NOTHING_TO_PAY;
+        }
+        int days = days(hatch);
+        int passed = daysSince(incubator.getLast_blockheight_interest(), height);
+        if (passed == 0) {
+            return Accrual.LESS_THAN_ONE_DAY;
+        }
+        return accrue(incubator.getInterest_amount(), rateTable.dailyInterest(hatch.amount, hatch.height, days), passed);
+    }
+
+    /**
+     * @param hatch     the incubate transaction
+     * @param incubator the share incubator of the hatch
+     * @throws ArithmeticException      if the share per day is zero
+     * @throws IllegalArgumentException if the payload of hatch is invalid
+     */
+    public Accrual accrueShare(Transaction hatch, Incubator incubator, long height) {
+        if (incubator.getShare_amount() == 0) {
+            return Accrual.NOTHING_TO_PAY;
+        }
+        int days = days(hatch);
+        int passed = daysSince(incubator.getLast_blockheight_share(), height);
+        if (passed == 0) {
+            return Accrual.LESS_THAN_ONE_DAY;
+        }
+        return accrue(incubator.getShare_amount(), rateTable.dailyShare(hatch.amount, hatch.height, days), passed);
+    }
+
+    /**
+     * interest of many incubations at the same height, e.g. all the incubations of an account
+     *
+     * @param incubators interest incubators keyed by hash of hatch
+     * @return accruals in the order of hatches, null if the hatch has no incubator or the interest could not be computed
+     */
+    public List<Accrual> accrueInterest(List<Transaction> hatches, Map<byte[], Incubator> incubators, long height) {
+        List<Accrual> accruals = new ArrayList<>(hatches.size());
+        for (Transaction hatch : hatches) {
+            Incubator incubator = incubators.get(hatch.getHash());
+            if (incubator == null) {
+                accruals.add(null);
+                continue;
+            }
+            try {
+                accruals.add(accrueInterest(hatch, incubator, height));
+            } catch (ArithmeticException | IllegalArgumentException e) {
+                accruals.add(null);
+            }
+        }
+        return accruals;
+    }
+
+    // unlike Transaction#getdays an invalid payload is not treated as 0 days
+    private static int days(Transaction hatch) {
+        if (hatch.payload == null) {
+            throw new IllegalArgumentException("empty incubate payload");
+        }
+        try {
+            return HatchModel.Payload.parseFrom(hatch.payload).getType();
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("invalid incubate payload", e);
+        }
+    }
+
+    private int daysSince(long lastHeight, long height) {
+        return (int) ((height - lastHeight) / configuration.getDay_count(height));
+    }
+
+    private static Accrual accrue(long remaining, long perDay, int days) {
+        if (remaining < perDay) {
+            return new Accrual(Accrual.Status.ACCRUED, remaining, remaining);
+        }
+        // the remainder is extracted first, then whole days
+        long remainder = remaining % perDay;
+        if (remainder != 0) {
+            return new Accrual(Accrual.Status.ACCRUED, remainder, remaining);
+        }
+        int maxDays = (int) (remaining / perDay);
+        return new Accrual(Accrual.Status.ACCRUED, Math.min(maxDays, days) * perDay, remaining);
+    }
+}
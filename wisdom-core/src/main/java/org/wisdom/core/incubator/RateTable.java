@@ -26,15 +26,25 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 
+import java.math.BigDecimal;
 import java.util.*;
 
 @Component
 @Setter
 public class RateTable {
+    // rates are fixed point numbers scaled by this, e.g. 0.0004271 is 4271
+    public static final long RATE_SCALE = 10_000_000L;
+
+    // share is one tenth of the interest
+    private static final long SHARE_SCALE = RATE_SCALE * 10;
 
     public List<Rate> ratemap=new ArrayList<>();
     public List<Rate> newratemap=new ArrayList<>();
 
+    // periods of a table have the same length, the period of a height is height / length
+    private Periods periods;
+    private Periods newperiods;
+
     @Value("${wisdom.block-interval-switch-era}")
     private int era;
 
@@ -118,31 +128,94 @@ public class RateTable {
         newratemap.add(new Rate(6630000,7140000,"0.0000102","0.0000170"));
         newratemap.add(new Rate(7140000,7650000,"0.0000077","0.0000128"));
         newratemap.add(new Rate(7650000,8160000,"0.0000058","0.0000096"));
+
+        periods = new Periods(ratemap);
+        newperiods = new Periods(newratemap);
     }
 
-    public String selectrate(long height,int days){
-        String rates="";
-        List<Rate> rateList=new ArrayList<>();
+    private static class Periods {
+        private final List<Rate> rates;
+        private final long length;
+        private final long[] rate120;
+        private final long[] rate365;
+
+        Periods(List<Rate> rates) {
+            this.rates = rates;
+            this.length = rates.get(0).getEndblock() - rates.get(0).getBeginblock();
+            this.rate120 = new long[rates.size()];
+            this.rate365 = new long[rates.size()];
+            for (int i = 0; i < rates.size(); i++) {
+                Rate r = rates.get(i);
+                if (r.getBeginblock() != i * length || r.getEndblock() != (i + 1) * length) {
+                    throw new IllegalArgumentException("rate periods are not of the same length");
+                }
+                rate120[i] = new BigDecimal(r.getRate120()).movePointRight(7).longValueExact();
+                rate365[i] = new BigDecimal(r.getRate365()).movePointRight(7).longValueExact();
+            }
+        }
+
+        // -1 if the height is out of the table
+        int indexOf(long height) {
+            if (height < 0 || height / length >= rates.size()) return -1;
+            return (int) (height / length);
+        }
+    }
+
+    private Periods periodsAt(long height) {
         if(era>=0){
             long updateheight=era*120;
             if(height>updateheight){
-                rateList.addAll(newratemap);
-            }else{
-                rateList.addAll(ratemap);
+                return newperiods;
             }
-        }else{
-            rateList.addAll(ratemap);
         }
-        for(Rate rate:rateList){
-            if(rate.getBeginblock()<=height && rate.getEndblock()>height){
-                if(days==120){
-                    return rate.getRate120();
-                }else{
-                    return rate.getRate365();
-                }
-            }
+        return periods;
+    }
+
+    /**
+     * @return daily rate scaled by {@link #RATE_SCALE}, days other than 120 use the rate of 365 days
+     */
+    public long getRate(long height, int days) {
+        Periods p = periodsAt(height);
+        int i = p.indexOf(height);
+        if (i < 0) {
+            throw new IllegalArgumentException("no rate at height " + height);
+        }
+        return days == 120 ? p.rate120[i] : p.rate365[i];
+    }
+
+    // amount * rate / scale rounded towards zero, amount is split so that the product never overflows
+    private static long mulRate(long amount, long rate, long scale) {
+        return (amount / scale) * rate + (amount % scale) * rate / scale;
+    }
+
+    // interest per day of the incubation amount
+    public long dailyInterest(long amount, long height, int days) {
+        return mulRate(amount, getRate(height, days), RATE_SCALE);
+    }
+
+    // share per day of the incubation amount
+    public long dailyShare(long amount, long height, int days) {
+        return mulRate(amount, getRate(height, days), SHARE_SCALE);
+    }
+
+    // interest of all the days of the incubation amount
+    public long totalInterest(long amount, long height, int days) {
+        return mulRate(amount, getRate(height, days) * days, RATE_SCALE);
+    }
+
+    // share of all the days, one tenth of the total interest
+    public long totalShare(long amount, long height, int days) {
+        return totalInterest(amount, height, days) / 10;
+    }
+
+    public String selectrate(long height,int days){
+        Periods p = periodsAt(height);
+        int i = p.indexOf(height);
+        if (i < 0) {
+            return "";
         }
-        return rates;
+        Rate rate = p.rates.get(i);
+        return days == 120 ? rate.getRate120() : rate.getRate365();
     }
 
     public static void main(String agrs[]) throws DecoderException, InvalidProtocolBufferException {
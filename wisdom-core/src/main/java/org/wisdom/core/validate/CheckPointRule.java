@@ -4,13 +4,12 @@ import lombok.Setter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.tdf.common.util.HexBytes;
 import org.wisdom.core.Block;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.service.BlockRepositoryService;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 @Component
@@ -21,6 +20,12 @@ public class CheckPointRule implements BlockRule {
 
     private Map<Long, String> confirms;
 
+    // check points at or below this height had been verified in database
+    private long verifiedHeight = -1;
+
+    // hash of blocks linked to a check point by the hashes of parents -> height, guarded by this
+    private final Map<HexBytes, Long> trusted = new HashMap<>();
+
     @Autowired
     private WisdomBlockChain bc;
 
@@ -67,20 +72,82 @@ public class CheckPointRule implements BlockRule {
         return Result.SUCCESS;
     }
 
-    // TODO: reduce this io !!!!
-    // validateDBBlock 校验数据库中的检查点
-    public Result validateDBCheckPoint() {
+    private boolean isCheckPoint(Block block) {
+        String hash = confirms.get(block.nHeight);
+        return hash != null && hash.equals(block.getHashHexString());
+    }
+
+    // 从收到的检查点区块头沿父哈希向下链接，链接到检查点的区块才可以跳过交易校验，分叉上的区块不会被链接
+    // 区块头可以先于区块体收到，见 unlinkedHeight
+    public synchronized void link(Collection<Block> received) {
+        if (!openCheckPoint) {
+            return;
+        }
+        List<Block> blocks = new ArrayList<>(received);
+        blocks.sort(Comparator.comparingLong(Block::getnHeight).reversed());
+        for (Block b : blocks) {
+            if (isCheckPoint(b) || trusted.containsKey(HexBytes.fromBytes(b.getHash()))) {
+                trusted.put(HexBytes.fromBytes(b.hashPrevBlock), b.nHeight - 1);
+            }
+        }
+    }
+
+    /**
+     * headers are linked downwards from the lowest check point above the best block, the header of the returned height
+     * and the headers below it are needed to link more blocks
+     *
+     * @return height of the highest header to fetch, or -1 if blocks above the best block are linked or there is no
+     * check point above the best block
+     */
+    public synchronized long unlinkedHeight(long bestHeight) {
+        if (!openCheckPoint) {
+            return -1;
+        }
+        OptionalLong next = confirms.keySet().stream().mapToLong(Long::longValue).filter(h -> h > bestHeight).min();
+        if (!next.isPresent()) {
+            return -1;
+        }
+        OptionalLong lowest = trusted.values().stream().mapToLong(Long::longValue)
+                .filter(h -> h > bestHeight && h < next.getAsLong()).min();
+        if (!lowest.isPresent()) {
+            return next.getAsLong();
+        }
+        return lowest.getAsLong() <= bestHeight + 1 ? -1 : lowest.getAsLong();
+    }
+
+    // 区块已链接到检查点且区块体与区块头一致，检查点之前的区块只会被校验一次
+    public synchronized boolean isLinkedToCheckPoint(Block block) {
+        return openCheckPoint && trusted.remove(HexBytes.fromBytes(block.getHash())) != null
+                && block.body != null && !block.body.isEmpty()
+                && Arrays.equals(block.hashMerkleRoot, Block.calculateMerkleRoot(block.body));
+    }
+
+    // 不再链接已确认高度及以下的区块
+    public synchronized void prune(long height) {
+        trusted.values().removeIf(h -> h <= height);
+    }
+
+    // validateDBBlock 校验数据库中的检查点，已校验过的检查点不再重复读取
+    public synchronized Result validateDBCheckPoint() {
         if (!openCheckPoint) {
             return Result.SUCCESS;
         }
         long height = bc.getTopHeight();
-        List<Long> heights = confirms.keySet().stream().filter(h -> h <= height).collect(Collectors.toList());
+        // database had been cleared
+        if (height < verifiedHeight) {
+            verifiedHeight = -1;
+        }
+        List<Long> heights = confirms.keySet().stream()
+                .filter(h -> h > verifiedHeight && h <= height)
+                .sorted()
+                .collect(Collectors.toList());
         for (long h : heights) {
-            Block b = wisdomBlockChain.getBlockByHeight(h);
+            Block b = wisdomBlockChain.getHeaderByHeight(h);
             String blockHash = confirms.get(h);
-            if (!b.getHashHexString().equals(blockHash)) {
+            if (b == null || !b.getHashHexString().equals(blockHash)) {
                 return Result.Error("db has been written to forking blocks");
             }
+            verifiedHeight = h;
         }
         return Result.SUCCESS;
     }
@@ -743,7 +743,7 @@ public class CheckoutTransactions implements TransactionVerifyUpdate<Result> {
     }
 
     private Result CheckTransaction(Transaction tx, byte[] publichash) {
-        APIResult apiResult = transactionCheck.TransactionFormatCheck(tx.toRPCBytes());
+        APIResult apiResult = transactionCheck.TransactionFormatCheck(tx);
         if (apiResult.getCode() == 5000) {
             peningTransPool.removeOne(Hex.encodeHexString(publichash), tx.nonce);
             return Result.Error("Transaction validation failed ," + Hex.encodeHexString(tx.getHash()) + ":" + apiResult.getMessage());
@@ -46,7 +46,6 @@ import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 
-import java.math.BigDecimal;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -324,11 +323,8 @@ public class MerkleRule implements BlockRule {
     public Incubator UpdateExtIncuator(Transaction tran, long nowheight, Incubator incubator) {
         Transaction transaction = wisdomBlockChain.getTransaction(tran.payload);
         int days = transaction.getdays();
-        String rate = rateTable.selectrate(transaction.height, days);//利率
         if (tran.type == 0x0a) {//interset
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            long dayinterset = ratebig.multiply(amounbig).longValue();
+            long dayinterset = rateTable.dailyInterest(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_interest();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
@@ -343,11 +339,7 @@ public class MerkleRule implements BlockRule {
             incubator.setInterest_amount(lastinterset);
             incubator.setLast_blockheight_interest(lastheight);
         } else {//share
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            BigDecimal onemul = amounbig.multiply(ratebig);
-            BigDecimal bl = BigDecimal.valueOf(0.1);
-            long dayinterset = onemul.multiply(bl).longValue();
+            long dayinterset = rateTable.dailyShare(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_share();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
@@ -1,8 +1,10 @@
 package org.wisdom.db;
 
+import lombok.Value;
 import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
+import org.tdf.common.store.CachedStore;
 import org.tdf.common.store.DatabaseStore;
 import org.tdf.common.store.Store;
 import org.tdf.common.trie.Trie;
@@ -45,7 +47,10 @@ public class AccountStateTrie extends StateTrieAdapter<AccountState> {
 
     private DatabaseStore contractCodeStore;
     private Trie<byte[], byte[]> storageTrie;
+    // nodes of the storage trie
+    private Store<byte[], byte[]> storageStore;
     private EconomicModel economicModel;
+    private ParallelStateExecutor parallelStateExecutor;
 
     public AccountStateTrie(
             DatabaseStoreFactory factory,
@@ -54,7 +59,9 @@ public class AccountStateTrie extends StateTrieAdapter<AccountState> {
             AccountStateUpdater accountStateUpdater,
             @Qualifier("contractCodeStore") DatabaseStore databaseStore,
             @Qualifier("storageTrie") Trie<byte[], byte[]> storageTrie,
-            EconomicModel economicModel
+            @Qualifier("contractStorageStore") Store<byte[], byte[]> storageStore,
+            EconomicModel economicModel,
+            ParallelStateExecutor parallelStateExecutor
     ) throws Exception {
         super(AccountState.class, accountStateUpdater.getGenesisStates(), genesis, factory, true, false);
         this.bc = bc;
@@ -62,35 +69,71 @@ public class AccountStateTrie extends StateTrieAdapter<AccountState> {
         this.accountStateUpdater.setWisdomBlockChain(bc);
         this.contractCodeStore = databaseStore;
         this.storageTrie = storageTrie;
+        this.storageStore = storageStore;
         this.economicModel = economicModel;
+        this.parallelStateExecutor = parallelStateExecutor;
     }
 
     public WASMResult update(Trie<byte[], AccountState> trie, Header header, Transaction tx) {
-        DB db = new DBImpl(trie, storageTrie, contractCodeStore);
+        return update(new DBImpl(trie, storageTrie, contractCodeStore), header, tx);
+    }
+
+    public WASMResult update(DB db, Header header, Transaction tx) {
         return accountStateUpdater.update(db, header, tx);
     }
 
-    @Override
-    public byte[] commit(Block block) {
+    // in memory states above the root for block assembly, the trie is committed once by the overlay
+    public StateOverlay overlay(byte[] root) {
+        return new StateOverlay(getTrie().revert(root), storageTrie, contractCodeStore);
+    }
+
+    /**
+     * states of a block executed above its parent. nodes of the tries and contract codes are buffered in memory
+     * and written to the stores only if the execution is committed, a discarded execution leaves nothing behind
+     */
+    @Value
+    public static class Execution {
+        Trie<byte[], AccountState> trie;
+        byte[] root;
+        Map<byte[], WASMResult> results;
+        Store<byte[], byte[]> storageNodes;
+        Store<byte[], byte[]> contractCodes;
+    }
+
+    /**
+     * execute the block above the state of its parent without persisting, the block is not validated
+     * except the amount of coinbase. the stores are only read, so a block could be executed concurrently with
+     * commits of other blocks
+     */
+    public Execution execute(Block block) {
+        return execute(block, false);
+    }
+
+    /**
+     * execute the block as {@link #execute(Block)} but never concurrently, for checking the parallel executor
+     * against real blocks
+     */
+    public Execution executeSerially(Block block) {
+        return execute(block, true);
+    }
+
+    private Execution execute(Block block, boolean serial) {
         if (block.nHeight == 0) throw new RuntimeException("cannot commit genesis block");
-        Optional<byte[]> o = getRootStore().get(block.getHash());
-        if (o.isPresent())
-            return o.get();
         byte[] parentRoot = getRootStore().get(block.hashPrevBlock)
                 .orElseThrow(() -> new RuntimeException(Hex.encodeHexString(block.hashPrevBlock) + " not exists"));
 
-        Trie<byte[], AccountState> tmp = getTrie().revert(parentRoot);
+        Trie<byte[], AccountState> tmp = getTrie().revert(parentRoot, new CachedStore<>(getTrieStore(), ByteArrayMap::new));
+        Store<byte[], byte[]> storageNodes = new CachedStore<>(storageStore, ByteArrayMap::new);
+        Store<byte[], byte[]> contractCodes = new CachedStore<>(contractCodeStore, ByteArrayMap::new);
         long fee = 0;
 
-        Map<byte[], WASMResult> results = new ByteArrayMap<>();
         Transaction coinbase = block.body.get(0);
+        DB db = new DBImpl(tmp, storageTrie.revert(storageTrie.getNullHash(), storageNodes), contractCodes);
+        Map<byte[], WASMResult> results = serial ?
+                parallelStateExecutor.executeSerially(db, block, block.body.subList(1, block.body.size())) :
+                parallelStateExecutor.execute(db, block);
         for (Transaction tx : block.body.subList(1, block.body.size())) {
-            WASMResult result = update(tmp, block, tx);
-            results.put(tx.getHash(), result);
-            fee = SafeMath.add(fee, result.getGasUsed() * tx.gasPrice);
-            if (tx.type == Transaction.Type.COINBASE.ordinal()) {
-                throw new RuntimeException("a block contains at most one coin base ");
-            }
+            fee = SafeMath.add(fee, results.get(tx.getHash()).getGasUsed() * tx.gasPrice);
         }
 
 
@@ -100,16 +143,34 @@ public class AccountStateTrie extends StateTrieAdapter<AccountState> {
         }
 
         // update coinbase
-        update(tmp, block, coinbase);
-        byte[] newRoot = tmp.commit();
+        update(db, block, coinbase);
+        return new Execution(tmp, tmp.commit(), results, storageNodes, contractCodes);
+    }
+
+    @Override
+    public byte[] commit(Block block) {
+        if (block.nHeight == 0) throw new RuntimeException("cannot commit genesis block");
+        Optional<byte[]> o = getRootStore().get(block.getHash());
+        if (o.isPresent())
+            return o.get();
+        return commit(block, execute(block));
+    }
 
+    // persist the states of block executed before
+    public byte[] commit(Block block, Execution execution) {
+        Optional<byte[]> o = getRootStore().get(block.getHash());
+        if (o.isPresent())
+            return o.get();
+        byte[] newRoot = execution.getRoot();
         if (block.accountStateTrieRoot == null || block.accountStateTrieRoot.length == 0 || (FastByteComparisons.equal(newRoot, block.accountStateTrieRoot))) {
-            tmp.flush();
+            // contract storages and codes are written before the root, so a root is never stored without them
+            execution.getStorageNodes().flush();
+            execution.getContractCodes().flush();
+            persist(execution.getTrie(), block.getHash(), newRoot);
             for (Transaction tx : block.body.subList(1, block.body.size())) {
-                WASMResult re = results.get(tx.getHash());
+                WASMResult re = execution.getResults().get(tx.getHash());
                 WebSocket.broadcastIncluded(tx, block.nHeight, block.getHash(), re.getGasUsed(), re.getReturns(), re.getWASMEvents());
             }
-            getRootStore().put(block.getHash(), newRoot);
             return newRoot;
         }
 
@@ -38,6 +38,9 @@ import org.wisdom.encoding.BigEndian;
 import org.wisdom.genesis.Genesis;
 import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.wallet.KeystoreAction;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
 import org.wisdom.protobuf.tcp.command.HatchModel;
 import org.wisdom.util.Address;
 import org.wisdom.util.ByteUtil;
@@ -70,6 +73,11 @@ public class AccountStateUpdater {
 
     private static final byte[] twentyBytes = new byte[20];
 
+    private static final Histogram WASM_DEPLOY_TIME = Metrics.timer("wisdom_wasm_execution_seconds", "time consuming of wasm executions", "type", "deploy");
+    private static final Histogram WASM_CALL_TIME = Metrics.timer("wisdom_wasm_execution_seconds", "time consuming of wasm executions", "type", "call");
+    private static final Counter WASM_DEPLOY_GAS = Metrics.counter("wisdom_wasm_gas_used_total", "gas used by wasm executions", "type", "deploy");
+    private static final Counter WASM_CALL_GAS = Metrics.counter("wisdom_wasm_gas_used_total", "gas used by wasm executions", "type", "call");
+
     public WASMResult update(DB db, Header header, Transaction tx) {
         return updateOne(db, header, tx);
     }
@@ -108,6 +116,7 @@ public class AccountStateUpdater {
                         false, new AtomicInteger()
                 );
 
+                long start = System.nanoTime();
                 WASMResult ret = contractCall.call(
                         contractDeployPayload.getBinary(),
                         "init",
@@ -116,6 +125,8 @@ public class AccountStateUpdater {
                         false,
                         contractDeployPayload.getContractABIs()
                 );
+                WASM_DEPLOY_TIME.recordSince(start);
+                WASM_DEPLOY_GAS.add(limit.getGas());
 
 
                 // restore from map
@@ -161,6 +172,7 @@ public class AccountStateUpdater {
                         false, new AtomicInteger()
                 );
 
+                long start = System.nanoTime();
                 WASMResult result = contractCall.call(
                         contractAccount.getPubkeyHash(),
                         callPayload.getMethod(),
@@ -169,6 +181,8 @@ public class AccountStateUpdater {
                         false,
                         null
                 );
+                WASM_CALL_TIME.recordSince(start);
+                WASM_CALL_GAS.add(limit.getGas());
 
                 contractAccount = store.get(transaction.to);
                 AccountState caller = store.get(transaction.getFromPKHash());
@@ -1039,11 +1053,8 @@ public class AccountStateUpdater {
     public Incubator UpdateExtIncuator(Transaction tran, long nowheight, Incubator incubator) {
         Transaction transaction = wisdomBlockChain.getTransaction(tran.payload);
         int days = transaction.getdays();
-        String rate = rateTable.selectrate(transaction.height, days);//利率
         if (tran.type == 0x0a) {//interset
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            long dayinterset = ratebig.multiply(amounbig).longValue();
+            long dayinterset = rateTable.dailyInterest(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_interest();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
@@ -1058,11 +1069,7 @@ public class AccountStateUpdater {
             incubator.setInterest_amount(lastinterset);
             incubator.setLast_blockheight_interest(lastheight);
         } else {//share
-            BigDecimal amounbig = BigDecimal.valueOf(transaction.amount);
-            BigDecimal ratebig = new BigDecimal(rate);
-            BigDecimal onemul = amounbig.multiply(ratebig);
-            BigDecimal bl = BigDecimal.valueOf(0.1);
-            long dayinterset = onemul.multiply(bl).longValue();
+            long dayinterset = rateTable.dailyShare(transaction.amount, transaction.height, days);
             long lastheight = incubator.getLast_blockheight_share();
             if (dayinterset > tran.amount) {
                 lastheight += configuration.getDay_count(nowheight);
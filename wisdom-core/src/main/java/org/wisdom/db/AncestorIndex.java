@@ -0,0 +1,99 @@
+package org.wisdom.db;
+
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.Block;
+
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * skip list over the blocks of fork database, resolves an ancestor in O(log n) like the pskip of bitcoin block index
+ * <p>
+ * a node whose parent is not in the index is linked to the confirmed chain, ancestors below it are canonical
+ */
+public class AncestorIndex {
+    private static class Node {
+        private final byte[] hash;
+        private final Block header;
+        private Node parent;
+        private Node skip;
+
+        private Node(byte[] hash, Block header, Node parent, Node skip) {
+            this.hash = hash;
+            this.header = header;
+            this.parent = parent;
+            this.skip = skip;
+        }
+    }
+
+    private final Map<byte[], Node> nodes = new ByteArrayMap<>();
+
+    // turn off the lowest set bit
+    private static long invertLowestOne(long n) {
+        return n & (n - 1);
+    }
+
+    // height of the block to be linked by the skip pointer of a block at height
+    static long getSkipHeight(long height) {
+        if (height < 2) return 0;
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    // walk from node to the ancestor at height, null if the ancestor is not in the index
+    private static Node getAncestor(Node node, long height) {
+        Node walk = node;
+        while (walk != null && walk.header.nHeight > height) {
+            long heightWalk = walk.header.nHeight;
+            long heightSkip = getSkipHeight(heightWalk);
+            long heightSkipPrev = getSkipHeight(heightWalk - 1);
+            if (walk.skip != null &&
+                    (heightSkip == height ||
+                            (heightSkip > height && !(heightSkipPrev < heightSkip - 2 && heightSkipPrev >= height)))) {
+                walk = walk.skip;
+            } else {
+                walk = walk.parent;
+            }
+        }
+        return walk == null || walk.header.nHeight != height ? null : walk;
+    }
+
+    public synchronized void add(Block header) {
+        byte[] hash = header.getHash();
+        if (nodes.containsKey(hash)) return;
+        Node parent = nodes.get(header.hashPrevBlock);
+        Node skip = parent == null ? null : getAncestor(parent, getSkipHeight(header.nHeight));
+        nodes.put(hash, new Node(hash, header, parent, skip));
+    }
+
+    public synchronized boolean contains(byte[] hash) {
+        return nodes.containsKey(hash);
+    }
+
+    /**
+     * @return the ancestor at height of the block, or null if the ancestor is below the blocks in index
+     * @throws IllegalArgumentException if the block is not in index
+     */
+    public synchronized Block getAncestor(byte[] hash, long height) {
+        Node node = nodes.get(hash);
+        if (node == null) throw new IllegalArgumentException("block not indexed");
+        Node ancestor = getAncestor(node, height);
+        return ancestor == null ? null : ancestor.header;
+    }
+
+    // remove blocks which are not in the fork database any more, links to removed blocks are cut off
+    public synchronized void retain(Predicate<byte[]> filter) {
+        if (!nodes.keySet().removeIf(k -> !filter.test(k))) return;
+        for (Node n : nodes.values()) {
+            if (n.parent != null && !nodes.containsKey(n.parent.hash)) {
+                n.parent = null;
+            }
+            if (n.skip != null && !nodes.containsKey(n.skip.hash)) {
+                n.skip = null;
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+}
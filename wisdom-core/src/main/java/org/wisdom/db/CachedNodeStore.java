@@ -0,0 +1,91 @@
+package org.wisdom.db;
+
+import org.tdf.common.store.BatchStore;
+import org.wisdom.metrics.Counter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+/**
+ * trie node store reads through the shared {@link TrieNodeCache}, written nodes are cached as well
+ */
+class CachedNodeStore implements BatchStore<byte[], byte[]> {
+    private final BatchStore<byte[], byte[]> delegate;
+
+    private final TrieNodeCache cache;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    CachedNodeStore(BatchStore<byte[], byte[]> delegate, TrieNodeCache cache, Counter hits, Counter misses) {
+        this.delegate = delegate;
+        this.cache = cache;
+        this.hits = hits;
+        this.misses = misses;
+    }
+
+    @Override
+    public Optional<byte[]> get(byte[] key) {
+        byte[] v = cache.get(key);
+        if (v != null) {
+            hits.inc();
+            return Optional.of(v);
+        }
+        misses.inc();
+        Optional<byte[]> o = delegate.get(key);
+        o.ifPresent(x -> cache.put(key, x));
+        return o;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        delegate.put(key, value);
+        cache.put(key, value);
+    }
+
+    @Override
+    public void putAll(Collection<? extends Map.Entry<? extends byte[], ? extends byte[]>> rows) {
+        delegate.putAll(rows);
+        rows.forEach(e -> cache.put(e.getKey(), e.getValue()));
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        delegate.remove(key);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean containsKey(byte[] key) {
+        return cache.get(key) != null || delegate.containsKey(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void traverse(BiFunction<? super byte[], ? super byte[], Boolean> traverser) {
+        delegate.traverse(traverser);
+    }
+}
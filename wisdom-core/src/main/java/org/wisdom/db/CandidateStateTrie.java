@@ -123,7 +123,8 @@ public class CandidateStateTrie extends EraLinkedStateTrie<Candidate> {
 
     private int blocksPerEra;
 
-    private long getPowWait(Block parent) {
+    // length of proposer slots after the parent, in seconds
+    public long getPowWait(Block parent) {
         if (blockIntervalSwitchEra >= 0 && eraLinker.getEraAtBlockNumber(parent.nHeight + 1) >= blockIntervalSwitchEra) {
             return blockIntervalSwitchTo * POW_WAIT_FACTOR;
         }
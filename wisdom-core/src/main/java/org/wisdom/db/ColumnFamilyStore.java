@@ -0,0 +1,141 @@
+package org.wisdom.db;
+
+import org.rocksdb.*;
+import org.tdf.common.store.DBSettings;
+import org.tdf.common.store.DatabaseStore;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+/**
+ * a logical store backed by a column family of {@link RocksDbEngine}, the engine is closed by the factory
+ */
+class ColumnFamilyStore implements DatabaseStore {
+    private final RocksDbEngine engine;
+
+    private final RocksDB db;
+
+    private final ColumnFamilyHandle handle;
+
+    ColumnFamilyStore(RocksDbEngine engine, ColumnFamilyHandle handle) {
+        this.engine = engine;
+        this.db = engine.getDb();
+        this.handle = handle;
+    }
+
+    @Override
+    public void init(DBSettings settings) {
+        // options are configured by engine
+    }
+
+    @Override
+    public boolean isAlive() {
+        return handle.isOwningHandle();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Optional<byte[]> get(byte[] key) {
+        try {
+            return Optional.ofNullable(db.get(handle, key));
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        if (value == null) {
+            remove(key);
+            return;
+        }
+        try {
+            WriteBatch b = engine.currentBatch();
+            if (b != null) {
+                b.put(handle, key, value);
+                return;
+            }
+            db.put(handle, key, value);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void putAll(Collection<? extends Map.Entry<? extends byte[], ? extends byte[]>> rows) {
+        WriteBatch current = engine.currentBatch();
+        try (WriteBatch own = current == null ? new WriteBatch() : null) {
+            WriteBatch b = current == null ? own : current;
+            for (Map.Entry<? extends byte[], ? extends byte[]> row : rows) {
+                if (row.getValue() == null) {
+                    b.delete(handle, row.getKey());
+                } else {
+                    b.put(handle, row.getKey(), row.getValue());
+                }
+            }
+            if (own != null) engine.write(own);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        try {
+            WriteBatch b = engine.currentBatch();
+            if (b != null) {
+                b.delete(handle, key);
+                return;
+            }
+            db.delete(handle, key);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // writes are durable by write ahead log
+    }
+
+    @Override
+    public Optional<byte[]> prefixLookup(byte[] key, int prefixBytes) {
+        try (RocksIterator it = db.newIterator(handle)) {
+            it.seek(key);
+            if (!it.isValid()) return Optional.empty();
+            byte[] k = it.key();
+            if (k.length < prefixBytes || !Arrays.equals(
+                    Arrays.copyOf(k, prefixBytes), Arrays.copyOf(key, prefixBytes))) {
+                return Optional.empty();
+            }
+            return Optional.of(it.value());
+        }
+    }
+
+    @Override
+    public void clear() {
+        try (RocksIterator it = db.newIterator(handle); WriteBatch b = new WriteBatch()) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                b.delete(handle, it.key());
+            }
+            engine.write(b);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void traverse(BiFunction<? super byte[], ? super byte[], Boolean> traverser) {
+        try (RocksIterator it = db.newIterator(handle)) {
+            for (it.seekToFirst(); it.isValid(); it.next()) {
+                if (!traverser.apply(it.key(), it.value())) return;
+            }
+        }
+    }
+}
@@ -23,6 +23,16 @@ public class DatabaseStoreFactory {
 
     private final Map<String, DatabaseStore> stores = new HashMap<>();
 
+    // shared block cache and memtable budget of the rocksdb-cf mode, in MB
+    @Value("${wisdom.database.rocksdb.block-cache-mb:512}")
+    private long blockCacheSize = 512;
+
+    @Value("${wisdom.database.rocksdb.write-buffer-mb:256}")
+    private long writeBufferSize = 256;
+
+    // every store is a column family of this database in rocksdb-cf mode
+    private volatile RocksDbEngine engine;
+
     public DatabaseStoreFactory(
             @Value("${wisdom.database.directory}") String directory,
             @Value("${max-open-files}") int maxFiles,
@@ -33,7 +43,7 @@ public class DatabaseStoreFactory {
         this.type = type == null ? "" : type;
     }
 
-    public DatabaseStore create(String name, boolean reset) {
+    public synchronized DatabaseStore create(String name, boolean reset) {
         if(stores.containsKey(name)) {
             return stores.get(name);
         }
@@ -43,6 +53,13 @@ public class DatabaseStoreFactory {
             case "memory":
                 store = new MemoryDatabaseStore();
                 break;
+            case "rocksdb-cf":
+                if (engine == null) {
+                    engine = new RocksDbEngine(directory, maxFiles, maxThreads(),
+                            blockCacheSize << 20, writeBufferSize << 20);
+                }
+                store = engine.store(name);
+                break;
             case "rocksdb":
                 store = new RocksDb(directory, name);
                 break;
@@ -56,7 +73,8 @@ public class DatabaseStoreFactory {
         }
         store.init(DBSettings.newInstance()
                 .withMaxOpenFiles(maxFiles)
-                .withMaxThreads(Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
+                .withMaxThreads(maxThreads()));
+        store = new MeteredDatabaseStore(name, store);
         stores.put(name, store);
         if (reset) {
             store.clear();
@@ -64,9 +82,27 @@ public class DatabaseStoreFactory {
         return store;
     }
 
+    private static int maxThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    /**
+     * writes to the stores of this factory in the runnable are committed in one atomic batch in rocksdb-cf mode,
+     * other modes write through immediately
+     */
+    public void writeAtomically(Runnable runnable) {
+        RocksDbEngine e = engine;
+        if (e == null) {
+            runnable.run();
+            return;
+        }
+        e.writeAtomically(runnable);
+    }
+
     @PreDestroy
-    public void destroy() {
+    public synchronized void destroy() {
         stores.values().forEach(DatabaseStore::close);
+        if (engine != null) engine.close();
     }
 
 }
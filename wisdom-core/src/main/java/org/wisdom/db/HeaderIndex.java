@@ -0,0 +1,221 @@
+package org.wisdom.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.wisdom.core.Block;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * height indexed headers of the canonical chain, stored as fixed size records in a memory mapped file
+ * <p>
+ * the record at height h sits at offset (h + 1) * RECORD_SIZE, the first record keeps metadata,
+ * every field of the header is stored so that a header could be rebuilt without touching the database
+ */
+@Component
+@Slf4j(topic = "db")
+public class HeaderIndex {
+    private static final int HASH_SIZE = 32;
+
+    static final int RECORD_SIZE = 288;
+
+    // records per mapped segment
+    private static final int SEGMENT_RECORDS = 1 << 16;
+
+    private static final int META_SLOT = 0;
+
+    // record layout
+    private static final int PRESENT = 0;
+    private static final int NOTICE_LENGTH = 1;
+    private static final int VERSION = 8;
+    private static final int HASH = 16;
+    private static final int PREV_HASH = HASH + HASH_SIZE;
+    private static final int MERKLE_ROOT = PREV_HASH + HASH_SIZE;
+    private static final int MERKLE_STATE = MERKLE_ROOT + HASH_SIZE;
+    private static final int MERKLE_INCUBATE = MERKLE_STATE + HASH_SIZE;
+    private static final int TIME = MERKLE_INCUBATE + HASH_SIZE;
+    private static final int BITS = TIME + 8;
+    private static final int NONCE = BITS + HASH_SIZE;
+    private static final int NOTICE = NONCE + HASH_SIZE;
+    private static final int TOTAL_WEIGHT = NOTICE + Block.MAX_NOTICE_LENGTH;
+
+    // notice length of headers whose notice doesn't fit in the record, e.g. genesis with a long extra data
+    private static final byte NOTICE_OVERFLOW = (byte) 0xff;
+
+    // metadata layout
+    private static final int TOP_HEIGHT = 8;
+    private static final int LAYOUT_VERSION = 16;
+
+    // bumped when the record layout changes, records of another layout are dropped and indexed again
+    private static final long CURRENT_LAYOUT = 1;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+
+    private FileChannel channel;
+
+    public HeaderIndex(
+            @Value("${wisdom.database.directory}") String directory,
+            @Value("${wisdom.database.type}") String type
+    ) throws IOException {
+        if (type == null || !type.trim().equalsIgnoreCase("memory")) {
+            File dir = new File(directory);
+            if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create directory " + directory);
+            this.channel = new RandomAccessFile(new File(dir, "header-index"), "rw").getChannel();
+        }
+        if (getTopHeight() == 0 && !isPresent(0)) {
+            setTopHeight(-1);
+        }
+        if (record(META_SLOT).getLong(LAYOUT_VERSION) != CURRENT_LAYOUT) {
+            truncate(-1);
+            record(META_SLOT).putLong(LAYOUT_VERSION, CURRENT_LAYOUT);
+        }
+    }
+
+    // in memory index, for tests and memory database
+    public static HeaderIndex memory() {
+        try {
+            return new HeaderIndex("", "memory");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private synchronized ByteBuffer segment(int i) {
+        while (segments.size() <= i) {
+            long size = (long) SEGMENT_RECORDS * RECORD_SIZE;
+            if (channel == null) {
+                segments.add(ByteBuffer.allocate((int) size));
+                continue;
+            }
+            try {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * size, size);
+                segments.add(buf);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return segments.get(i);
+    }
+
+    // absolute position of the record of slot, slot 0 is metadata
+    private ByteBuffer record(long slot) {
+        ByteBuffer seg = segment((int) (slot / SEGMENT_RECORDS)).duplicate();
+        int offset = (int) (slot % SEGMENT_RECORDS) * RECORD_SIZE;
+        seg.position(offset);
+        seg.limit(offset + RECORD_SIZE);
+        return seg.slice();
+    }
+
+    public synchronized long getTopHeight() {
+        return record(META_SLOT).getLong(TOP_HEIGHT);
+    }
+
+    private void setTopHeight(long height) {
+        record(META_SLOT).putLong(TOP_HEIGHT, height);
+    }
+
+    private boolean isPresent(long height) {
+        return height >= 0 && record(height + 1).get(PRESENT) == 1;
+    }
+
+    // headers with fields of unexpected size could not be indexed
+    static boolean isIndexable(Block header) {
+        return header.hashPrevBlock.length == HASH_SIZE
+                && header.hashMerkleRoot.length == HASH_SIZE
+                && header.hashMerkleState.length == HASH_SIZE
+                && header.hashMerkleIncubate.length == HASH_SIZE
+                && header.nBits.length == HASH_SIZE
+                && header.nNonce.length == HASH_SIZE;
+    }
+
+    /**
+     * index a header of the canonical chain, headers must be put in ascending order of height
+     */
+    public synchronized boolean put(Block header) {
+        if (header.nHeight < 0 || header.nHeight > getTopHeight() + 1 || !isIndexable(header)) return false;
+        ByteBuffer r = record(header.nHeight + 1);
+        byte[] notice = header.blockNotice == null ? new byte[0] : header.blockNotice;
+        boolean overflow = notice.length > Block.MAX_NOTICE_LENGTH;
+        // invalidate the record before writing so that a torn write is never read as present
+        r.put(PRESENT, (byte) 0);
+        r.put(NOTICE_LENGTH, overflow ? NOTICE_OVERFLOW : (byte) notice.length);
+        r.putLong(VERSION, header.nVersion);
+        putBytes(r, HASH, header.getHash());
+        putBytes(r, PREV_HASH, header.hashPrevBlock);
+        putBytes(r, MERKLE_ROOT, header.hashMerkleRoot);
+        putBytes(r, MERKLE_STATE, header.hashMerkleState);
+        putBytes(r, MERKLE_INCUBATE, header.hashMerkleIncubate);
+        r.putLong(TIME, header.nTime);
+        putBytes(r, BITS, header.nBits);
+        putBytes(r, NONCE, header.nNonce);
+        if (!overflow) putBytes(r, NOTICE, notice);
+        r.putLong(TOTAL_WEIGHT, header.totalWeight);
+        r.put(PRESENT, (byte) 1);
+        setTopHeight(header.nHeight);
+        return true;
+    }
+
+    // drop all the records above height
+    public synchronized void truncate(long height) {
+        for (long h = Math.max(height + 1, 0); h <= getTopHeight(); h++) {
+            record(h + 1).put(PRESENT, (byte) 0);
+        }
+        setTopHeight(Math.min(getTopHeight(), height));
+    }
+
+    public synchronized byte[] getHash(long height) {
+        if (height > getTopHeight() || !isPresent(height)) return null;
+        return getBytes(record(height + 1), HASH, HASH_SIZE);
+    }
+
+    // returns null if the header is not indexed or could not be rebuilt from the record
+    public synchronized Block getHeader(long height) {
+        if (height > getTopHeight() || !isPresent(height)) return null;
+        ByteBuffer r = record(height + 1);
+        if (r.get(NOTICE_LENGTH) == NOTICE_OVERFLOW) return null;
+        Block h = new Block();
+        h.nVersion = r.getLong(VERSION);
+        h.hashPrevBlock = getBytes(r, PREV_HASH, HASH_SIZE);
+        h.hashMerkleRoot = getBytes(r, MERKLE_ROOT, HASH_SIZE);
+        h.hashMerkleState = getBytes(r, MERKLE_STATE, HASH_SIZE);
+        h.hashMerkleIncubate = getBytes(r, MERKLE_INCUBATE, HASH_SIZE);
+        h.nHeight = height;
+        h.nTime = r.getLong(TIME);
+        h.nBits = getBytes(r, BITS, HASH_SIZE);
+        h.nNonce = getBytes(r, NONCE, HASH_SIZE);
+        h.blockNotice = getBytes(r, NOTICE, r.get(NOTICE_LENGTH));
+        h.totalWeight = r.getLong(TOTAL_WEIGHT);
+        return h.seal();
+    }
+
+    private static void putBytes(ByteBuffer r, int offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            r.put(offset + i, bytes[i]);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer r, int offset, int length) {
+        byte[] ret = new byte[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = r.get(offset + i);
+        }
+        return ret;
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        for (ByteBuffer b : segments) {
+            if (b instanceof MappedByteBuffer) ((MappedByteBuffer) b).force();
+        }
+        if (channel != null) channel.close();
+    }
+}
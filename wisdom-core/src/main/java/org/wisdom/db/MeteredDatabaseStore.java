@@ -0,0 +1,109 @@
+package org.wisdom.db;
+
+import org.tdf.common.store.DBSettings;
+import org.tdf.common.store.DatabaseStore;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+/**
+ * counts bytes of keys and values written to a database store
+ */
+class MeteredDatabaseStore implements DatabaseStore {
+    static final String WRITTEN_BYTES = "wisdom_db_written_bytes_total";
+
+    private final DatabaseStore delegate;
+
+    private final Counter written;
+
+    MeteredDatabaseStore(String name, DatabaseStore delegate) {
+        this.delegate = delegate;
+        this.written = Metrics.counter(WRITTEN_BYTES, "bytes of keys and values written to key value stores", "store", name);
+    }
+
+    @Override
+    public void init(DBSettings settings) {
+        delegate.init(settings);
+    }
+
+    @Override
+    public boolean isAlive() {
+        return delegate.isAlive();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public Optional<byte[]> prefixLookup(byte[] key, int prefixBytes) {
+        return delegate.prefixLookup(key, prefixBytes);
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+    }
+
+    @Override
+    public void putAll(Collection<? extends Map.Entry<? extends byte[], ? extends byte[]>> rows) {
+        long n = 0;
+        for (Map.Entry<? extends byte[], ? extends byte[]> row : rows) {
+            n += row.getKey().length + (row.getValue() == null ? 0 : row.getValue().length);
+        }
+        delegate.putAll(rows);
+        written.add(n);
+    }
+
+    @Override
+    public Optional<byte[]> get(byte[] key) {
+        return delegate.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        delegate.put(key, value);
+        written.add(key.length + (value == null ? 0 : value.length));
+    }
+
+    @Override
+    public void putIfAbsent(byte[] key, byte[] value) {
+        if (containsKey(key)) return;
+        put(key, value);
+    }
+
+    @Override
+    public void remove(byte[] key) {
+        delegate.remove(key);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public boolean containsKey(byte[] key) {
+        return delegate.containsKey(key);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return delegate.isEmpty();
+    }
+
+    @Override
+    public void traverse(BiFunction<? super byte[], ? super byte[], Boolean> traverser) {
+        delegate.traverse(traverser);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+}
@@ -0,0 +1,313 @@
+package org.wisdom.db;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tdf.common.store.Store;
+import org.tdf.common.trie.Trie;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.common.util.ByteArraySet;
+import org.tdf.rlp.RLPCodec;
+import org.wisdom.core.Block;
+import org.wisdom.core.DB;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+import org.wisdom.vm.abi.WASMResult;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * executes transactions of a block, transactions are partitioned into groups by the accounts they touch and
+ * groups without common accounts are executed concurrently
+ * <p>
+ * every group is executed on copies of its accounts, the copies are merged into the state in the order of
+ * the first transaction of groups. a group touching an account not declared by its transactions, or any failure,
+ * discards the copies and the block is executed serially again, so the result is always the same as serial execution
+ */
+@Component
+@Slf4j(topic = "db")
+public class ParallelStateExecutor {
+    // blocks smaller than this are executed serially, the overhead of threads is larger than the gain
+    static final int MIN_PARALLEL_TRANSACTIONS = 16;
+
+    // wasm transactions share storage trie and contract code store, they are put in one group by this key
+    private static final byte[] WASM_KEY = new byte[0];
+
+    private static final Counter PARALLEL = Metrics.counter("wisdom_block_executions_total", "blocks executed by mode", "mode", "parallel");
+    private static final Counter SERIAL = Metrics.counter("wisdom_block_executions_total", "blocks executed by mode", "mode", "serial");
+    private static final Counter FALLBACK = Metrics.counter("wisdom_block_executions_total", "blocks executed by mode", "mode", "fallback");
+
+    private final AccountStateUpdater accountStateUpdater;
+
+    // null if parallel execution is disabled
+    private final ExecutorService executor;
+
+    public ParallelStateExecutor(
+            AccountStateUpdater accountStateUpdater,
+            @Value("${wisdom.parallel-execution.threads:1}") int threads
+    ) {
+        this.accountStateUpdater = accountStateUpdater;
+        this.executor = threads <= 1 ? null : Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("execute-%d").setDaemon(true).build()
+        );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * execute the transactions of block except the coinbase
+     *
+     * @return transaction hash -> result
+     */
+    public Map<byte[], WASMResult> execute(DB db, Block block) {
+        List<Transaction> txs = block.body.subList(1, block.body.size());
+        if (executor == null || txs.size() < MIN_PARALLEL_TRANSACTIONS) {
+            SERIAL.inc();
+            return executeSerially(db, block, txs);
+        }
+        List<List<Transaction>> groups;
+        try {
+            groups = partition(txs);
+        } catch (Exception e) {
+            groups = null;
+        }
+        if (groups == null || groups.size() < 2) {
+            SERIAL.inc();
+            return executeSerially(db, block, txs);
+        }
+        Map<byte[], WASMResult> results = executeConcurrently(db, block, groups);
+        if (results != null) {
+            PARALLEL.inc();
+            return results;
+        }
+        FALLBACK.inc();
+        return executeSerially(db, block, txs);
+    }
+
+    Map<byte[], WASMResult> executeSerially(DB db, Block block, List<Transaction> txs) {
+        Map<byte[], WASMResult> results = new ByteArrayMap<>();
+        for (Transaction tx : txs) {
+            results.put(tx.getHash(), accountStateUpdater.update(db, block, tx));
+            if (tx.type == Transaction.Type.COINBASE.ordinal()) {
+                throw new RuntimeException("a block contains at most one coin base ");
+            }
+        }
+        return results;
+    }
+
+    // accounts may be touched by the transaction
+    @SuppressWarnings("deprecation")
+    private Set<byte[]> keysOf(Transaction tx) {
+        Set<byte[]> keys = new ByteArraySet();
+        if (tx.type == Transaction.Type.WASM_DEPLOY.ordinal()) {
+            keys.add(tx.getFromPKHash());
+            keys.add(Transaction.createContractPKHash(tx.getHash(), 0));
+            keys.add(WASM_KEY);
+            return keys;
+        }
+        if (tx.type == Transaction.Type.WASM_CALL.ordinal()) {
+            keys.add(tx.getFromPKHash());
+            keys.add(tx.to);
+            keys.add(WASM_KEY);
+            return keys;
+        }
+        keys.addAll(accountStateUpdater.getRelatedKeys(tx, Collections.emptyMap()));
+        return keys;
+    }
+
+    /**
+     * partition transactions into groups without common accounts, transactions of a group are in the original order
+     * and groups are in the order of their first transaction
+     *
+     * @return null if the transactions cannot be executed concurrently
+     */
+    List<List<Transaction>> partition(List<Transaction> txs) {
+        int[] parents = new int[txs.size()];
+        Map<byte[], Integer> owners = new ByteArrayMap<>();
+        for (int i = 0; i < txs.size(); i++) {
+            Transaction tx = txs.get(i);
+            if (tx.type == Transaction.Type.COINBASE.ordinal()) return null;
+            parents[i] = i;
+            for (byte[] k : keysOf(tx)) {
+                Integer owner = owners.putIfAbsent(k, i);
+                if (owner != null) union(parents, owner, i);
+            }
+        }
+        // root -> group
+        Map<Integer, List<Transaction>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < txs.size(); i++) {
+            groups.computeIfAbsent(find(parents, i), x -> new ArrayList<>()).add(txs.get(i));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    // the smaller index is the root so that the root of a group is its first transaction
+    private static void union(int[] parents, int i, int j) {
+        int x = find(parents, i);
+        int y = find(parents, j);
+        if (x < y) parents[y] = x;
+        if (y < x) parents[x] = y;
+    }
+
+    // null if any group failed or touched an undeclared account, the state is unchanged in this case
+    private Map<byte[], WASMResult> executeConcurrently(DB db, Block block, List<List<Transaction>> groups) {
+        Map<byte[], AccountState> store = db.getAccountStore();
+        List<GroupStates> states = new ArrayList<>(groups.size());
+        List<Callable<Map<byte[], WASMResult>>> tasks = new ArrayList<>(groups.size());
+        for (List<Transaction> group : groups) {
+            Set<byte[]> keys = new ByteArraySet();
+            group.forEach(tx -> keys.addAll(keysOf(tx)));
+            keys.remove(WASM_KEY);
+            // the trie is not thread safe, accounts are read here
+            GroupStates s = new GroupStates(keys);
+            for (byte[] k : keys) {
+                AccountState a = store.get(k);
+                if (a != null) s.encoded.put(k, RLPCodec.encode(a));
+            }
+            states.add(s);
+            DB groupDB = new GroupDB(s, db.getStorageTrie(), db.getContractCodeStore());
+            tasks.add(() -> {
+                Map<byte[], WASMResult> results = new ByteArrayMap<>();
+                for (Transaction tx : group) {
+                    results.put(tx.getHash(), accountStateUpdater.update(groupDB, block, tx));
+                }
+                return results;
+            });
+        }
+
+        Map<byte[], WASMResult> results = new ByteArrayMap<>();
+        try {
+            for (Future<Map<byte[], WASMResult>> f : executor.invokeAll(tasks)) {
+                results.putAll(f.get());
+            }
+        } catch (ExecutionException e) {
+            log.debug("parallel execution of block {} failed, execute serially", block.nHeight, e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+
+        for (GroupStates s : states) {
+            for (byte[] k : s.written) {
+                byte[] v = s.encoded.get(k);
+                if (v == null) {
+                    store.remove(k);
+                } else {
+                    store.put(k, RLPCodec.decode(v, AccountState.class));
+                }
+            }
+        }
+        return results;
+    }
+
+    private static class UndeclaredAccountException extends RuntimeException {
+        UndeclaredAccountException(byte[] key) {
+            super("account " + Arrays.toString(key) + " is not declared by transactions of the group");
+        }
+    }
+
+    /**
+     * accounts of a group, states are stored encoded so that a state read out and modified is never changed
+     * until it is put back, the same as reading from a trie
+     */
+    private static class GroupStates extends AbstractMap<byte[], AccountState> {
+        private final Set<byte[]> keys;
+
+        private final Map<byte[], byte[]> encoded = new ByteArrayMap<>();
+
+        private final Set<byte[]> written = new ByteArraySet();
+
+        GroupStates(Set<byte[]> keys) {
+            this.keys = keys;
+        }
+
+        private void check(Object key) {
+            if (!keys.contains((byte[]) key)) throw new UndeclaredAccountException((byte[]) key);
+        }
+
+        @Override
+        public AccountState get(Object key) {
+            check(key);
+            byte[] v = encoded.get(key);
+            return v == null ? null : RLPCodec.decode(v, AccountState.class);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            check(key);
+            return encoded.containsKey(key);
+        }
+
+        @Override
+        public AccountState put(byte[] key, AccountState value) {
+            check(key);
+            encoded.put(key, RLPCodec.encode(value));
+            written.add(key);
+            return null;
+        }
+
+        @Override
+        public AccountState remove(Object key) {
+            check(key);
+            encoded.remove(key);
+            written.add((byte[]) key);
+            return null;
+        }
+
+        // accounts are never iterated while executing transactions
+        @Override
+        public Set<Entry<byte[], AccountState>> entrySet() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static class GroupDB implements DB {
+        private final Map<byte[], AccountState> accountStore;
+
+        private final Trie<byte[], byte[]> storageTrie;
+
+        private final Store<byte[], byte[]> contractCodeStore;
+
+        GroupDB(Map<byte[], AccountState> accountStore, Trie<byte[], byte[]> storageTrie, Store<byte[], byte[]> contractCodeStore) {
+            this.accountStore = accountStore;
+            this.storageTrie = storageTrie;
+            this.contractCodeStore = contractCodeStore;
+        }
+
+        @Override
+        public Map<byte[], AccountState> getAccountStore() {
+            return accountStore;
+        }
+
+        @Override
+        public Trie<byte[], byte[]> getStorageTrie() {
+            return storageTrie;
+        }
+
+        @Override
+        public Store<byte[], byte[]> getContractCodeStore() {
+            return contractCodeStore;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.wisdom.db;
+
+import lombok.extern.slf4j.Slf4j;
+import org.rocksdb.*;
+import org.tdf.common.store.DatabaseStore;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * a single rocksdb instance whose column families are the logical stores of {@link DatabaseStoreFactory}
+ * <p>
+ * all the column families share one block cache, and memtables are bounded by a write buffer manager
+ * charged to the same cache, writes of a thread could be grouped into one atomic batch across column families
+ */
+@Slf4j(topic = "db")
+public class RocksDbEngine {
+    static {
+        RocksDB.loadLibrary();
+    }
+
+    private static final String DEFAULT = new String(RocksDB.DEFAULT_COLUMN_FAMILY, StandardCharsets.UTF_8);
+
+    private final RocksDB db;
+
+    private final DBOptions options;
+
+    private final LRUCache blockCache;
+
+    private final WriteBufferManager writeBufferManager;
+
+    private final WriteOptions writeOptions = new WriteOptions();
+
+    private final Map<String, ColumnFamilyHandle> handles = new HashMap<>();
+
+    // options and filters to release when closed
+    private final List<AbstractNativeReference> resources = new ArrayList<>();
+
+    // batch of writeAtomically in current thread
+    private final ThreadLocal<WriteBatch> batch = new ThreadLocal<>();
+
+    public RocksDbEngine(String directory, int maxOpenFiles, int maxThreads, long blockCacheSize, long writeBufferSize) {
+        File dir = Paths.get(directory, "column-families").toFile();
+        if (!dir.exists() && !dir.mkdirs()) throw new RuntimeException("cannot create directory " + dir);
+        blockCache = new LRUCache(blockCacheSize);
+        writeBufferManager = new WriteBufferManager(writeBufferSize, blockCache);
+        options = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true)
+                .setMaxOpenFiles(maxOpenFiles)
+                .setIncreaseParallelism(maxThreads)
+                .setMaxBackgroundJobs(Math.max(2, maxThreads))
+                .setWriteBufferManager(writeBufferManager);
+
+        List<String> names = new ArrayList<>();
+        try (Options o = new Options()) {
+            for (byte[] name : RocksDB.listColumnFamilies(o, dir.getAbsolutePath())) {
+                names.add(new String(name, StandardCharsets.UTF_8));
+            }
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+        if (!names.contains(DEFAULT)) names.add(0, DEFAULT);
+
+        List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+        for (String name : names) {
+            descriptors.add(new ColumnFamilyDescriptor(name.getBytes(StandardCharsets.UTF_8), columnFamilyOptions(name)));
+        }
+        List<ColumnFamilyHandle> opened = new ArrayList<>();
+        try {
+            db = RocksDB.open(options, dir.getAbsolutePath(), descriptors, opened);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+        for (int i = 0; i < names.size(); i++) {
+            handles.put(names.get(i), opened.get(i));
+        }
+        log.info("rocksdb opened at {} with column families {}", dir, names);
+    }
+
+    // trie nodes are keyed by hash, there is no locality to exploit by prefixes
+    private static boolean isContentAddressed(String name) {
+        return name.endsWith("-trie") || name.equals("contract-storage");
+    }
+
+    private ColumnFamilyOptions columnFamilyOptions(String name) {
+        BloomFilter filter = new BloomFilter(10, false);
+        BlockBasedTableConfig table = new BlockBasedTableConfig()
+                .setBlockCache(blockCache)
+                .setFilterPolicy(filter)
+                .setCacheIndexAndFilterBlocks(true)
+                .setPinL0FilterAndIndexBlocksInCache(true);
+        ColumnFamilyOptions o = new ColumnFamilyOptions()
+                .setTableFormatConfig(table)
+                .setLevelCompactionDynamicLevelBytes(true);
+        if (isContentAddressed(name)) {
+            // reads of nodes almost always hit, filters of the last level are not worth the memory,
+            // hashes are not compressible
+            o.setOptimizeFiltersForHits(true)
+                    .setCompressionType(CompressionType.NO_COMPRESSION);
+        } else {
+            o.setCompressionType(CompressionType.LZ4_COMPRESSION);
+        }
+        resources.add(filter);
+        resources.add(o);
+        return o;
+    }
+
+    public synchronized DatabaseStore store(String name) {
+        ColumnFamilyHandle h = handles.get(name);
+        if (h == null) {
+            try {
+                h = db.createColumnFamily(
+                        new ColumnFamilyDescriptor(name.getBytes(StandardCharsets.UTF_8), columnFamilyOptions(name))
+                );
+            } catch (RocksDBException e) {
+                throw new RuntimeException(e);
+            }
+            handles.put(name, h);
+        }
+        return new ColumnFamilyStore(this, h);
+    }
+
+    RocksDB getDb() {
+        return db;
+    }
+
+    // batch of the current thread, null if not in writeAtomically
+    WriteBatch currentBatch() {
+        return batch.get();
+    }
+
+    void write(WriteBatch b) {
+        try {
+            db.write(writeOptions, b);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * writes to any store of this engine in the runnable are committed atomically when it returns,
+     * and discarded if it throws, reads in the runnable don't see the pending writes
+     */
+    public void writeAtomically(Runnable runnable) {
+        if (batch.get() != null) {
+            runnable.run();
+            return;
+        }
+        try (WriteBatch b = new WriteBatch()) {
+            batch.set(b);
+            runnable.run();
+            batch.remove();
+            write(b);
+        } finally {
+            batch.remove();
+        }
+    }
+
+    public synchronized void close() {
+        handles.values().forEach(AbstractImmutableNativeReference::close);
+        db.close();
+        options.close();
+        writeOptions.close();
+        resources.forEach(AbstractNativeReference::close);
+        writeBufferManager.close();
+        blockCache.close();
+    }
+}
@@ -0,0 +1,145 @@
+package org.wisdom.db;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tdf.common.util.HexBytes;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+
+import javax.annotation.PreDestroy;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * executes received proposals on worker threads while they are waiting for validation, the account states
+ * are persisted by commit if the block is accepted, or discarded if it is invalid
+ * <p>
+ * an execution is only a cache, a failed or missing execution is computed again by commit, so the states and
+ * errors are the same as executing when the block is written
+ * <p>
+ * executions are isolated from the importing thread, they run on copies of the transactions and buffer the nodes
+ * and contract codes written, which are written to the stores by commit on the importing thread
+ */
+@Component
+@Slf4j(topic = "db")
+public class SpeculativeExecutor {
+    private static final Counter HIT = Metrics.counter("wisdom_speculative_executions_total", "speculative executions by result", "result", "hit");
+    private static final Counter MISS = Metrics.counter("wisdom_speculative_executions_total", "speculative executions by result", "result", "miss");
+    private static final Counter DISCARDED = Metrics.counter("wisdom_speculative_executions_total", "speculative executions by result", "result", "discarded");
+
+    private final AccountStateTrie accountStateTrie;
+
+    // null if speculative execution is disabled
+    private final ExecutorService executor;
+
+    // block hash -> execution
+    private final Cache<HexBytes, Future<AccountStateTrie.Execution>> executions;
+
+    public SpeculativeExecutor(
+            AccountStateTrie accountStateTrie,
+            @Value("${wisdom.speculative-execution.threads:0}") int threads,
+            @Value("${wisdom.speculative-execution.max-blocks:16}") int maxBlocks
+    ) {
+        this.accountStateTrie = accountStateTrie;
+        this.executor = threads <= 0 ? null : Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder().setNameFormat("speculate-%d").setDaemon(true).build()
+        );
+        this.executions = Caffeine.newBuilder()
+                .maximumSize(maxBlocks)
+                // evicted executions are cancelled on the caller thread
+                .executor(Runnable::run)
+                .<HexBytes, Future<AccountStateTrie.Execution>>removalListener((k, v, cause) -> {
+                    if (v != null && cause.wasEvicted()) v.cancel(false);
+                })
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * start executing the block if the state of its parent is known
+     *
+     * @return true if the block is being executed
+     */
+    public boolean submit(Block block) {
+        if (executor == null || block.nHeight == 0) return false;
+        HexBytes hash = HexBytes.fromBytes(block.getHash());
+        if (executions.asMap().containsKey(hash)) return true;
+        if (accountStateTrie.getRootStore().containsKey(block.getHash())) return false;
+        if (!accountStateTrie.getRootStore().containsKey(block.hashPrevBlock)) return false;
+        try {
+            Block copy = copy(block);
+            executions.put(hash, executor.submit(() -> accountStateTrie.execute(copy)));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // the execution changes transactions, e.g. height, the block shared with other threads is never changed
+    private static Block copy(Block block) {
+        Block b = Block.deepCopy(block);
+        b.body = block.body.stream().map(tx -> {
+            Transaction c = tx.copy();
+            c.setHashCache(tx.getHash());
+            return c;
+        }).collect(Collectors.toList());
+        return b;
+    }
+
+    // the execution of block if it is submitted and succeeded, waits if it is running
+    private Optional<AccountStateTrie.Execution> take(Block block) {
+        Future<AccountStateTrie.Execution> f = executions.asMap().remove(HexBytes.fromBytes(block.getHash()));
+        if (f == null) return Optional.empty();
+        try {
+            return Optional.of(f.get());
+        } catch (ExecutionException | CancellationException e) {
+            log.debug("speculative execution of block {} failed", block.nHeight, e);
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * commit account states of the block, the execution submitted is reused if any. a block committed before, e.g.
+     * by sync before it is written, is neither a hit nor a miss
+     */
+    public byte[] commit(Block block) {
+        Optional<byte[]> root = accountStateTrie.getRootStore().get(block.getHash());
+        if (root.isPresent()) {
+            Future<AccountStateTrie.Execution> f = executions.asMap().remove(HexBytes.fromBytes(block.getHash()));
+            if (f != null) f.cancel(false);
+            return root.get();
+        }
+        Optional<AccountStateTrie.Execution> execution = take(block);
+        if (!execution.isPresent()) {
+            MISS.inc();
+            return accountStateTrie.commit(block);
+        }
+        HIT.inc();
+        // the same as executed on the importing thread
+        block.body.forEach(tx -> tx.height = block.nHeight);
+        return accountStateTrie.commit(block, execution.get());
+    }
+
+    // the block is invalid, its execution is dropped
+    public void discard(Block block) {
+        Future<AccountStateTrie.Execution> f = executions.asMap().remove(HexBytes.fromBytes(block.getHash()));
+        if (f == null) return;
+        f.cancel(false);
+        DISCARDED.inc();
+    }
+}
@@ -0,0 +1,134 @@
+package org.wisdom.db;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.tdf.common.store.DatabaseStore;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.encoding.BigEndian;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+import org.wisdom.util.Arrays;
+
+import java.util.*;
+
+/**
+ * payloads spent by confirmed transactions, e.g. the vote hash of an exit vote, keyed by type | payload
+ * <p>
+ * a bloom filter over all the keys is kept in memory, most of the queries are for payloads not spent yet
+ * and are answered without reading the store, a positive answer of the filter is confirmed by the store
+ */
+@Component
+@Slf4j(topic = "db")
+public class SpentPayloadIndex {
+    // types whose payload could only be spent once
+    static final Set<Integer> INDEXED_TYPES = Collections.unmodifiableSet(new HashSet<>(java.util.Arrays.asList(
+            Transaction.Type.EXIT_VOTE.ordinal(),
+            Transaction.Type.EXIT_MORTGAGE.ordinal(),
+            Transaction.Type.EXTRACT_COST.ordinal()
+    )));
+
+    // payloads longer than this are stored by hash
+    private static final int MAX_RAW_PAYLOAD = 32;
+
+    private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    private static final byte[] LAST_INDEXED = "last-indexed".getBytes();
+
+    private static final byte[] PRESENT = new byte[]{1};
+
+    private final DatabaseStore store;
+
+    private final BloomFilter<byte[]> filter;
+
+    private final Counter filtered;
+
+    private final Counter hits;
+
+    private final Counter falsePositives;
+
+    public SpentPayloadIndex(
+            DatabaseStoreFactory factory,
+            @Value("${wisdom.payload-index.expected-insertions:1000000}") long expectedInsertions
+    ) {
+        this.store = factory.create("spent-payloads", false);
+        this.filter = BloomFilter.create(Funnels.byteArrayFunnel(), Math.max(expectedInsertions, 1024),
+                FALSE_POSITIVE_PROBABILITY);
+        String help = "lookups of spent payload index";
+        this.filtered = Metrics.counter("wisdom_payload_index_lookups_total", help, "result", "filtered");
+        this.hits = Metrics.counter("wisdom_payload_index_lookups_total", help, "result", "hit");
+        this.falsePositives = Metrics.counter("wisdom_payload_index_lookups_total", help, "result", "false_positive");
+        loadFilter();
+    }
+
+    private void loadFilter() {
+        long[] count = new long[1];
+        store.traverse((k, v) -> {
+            if (!java.util.Arrays.equals(k, LAST_INDEXED)) {
+                filter.put(k);
+                count[0]++;
+            }
+            return true;
+        });
+        if (count[0] > 0) log.info("{} spent payloads loaded into bloom filter", count[0]);
+    }
+
+    public static boolean isIndexed(int type) {
+        return INDEXED_TYPES.contains(type);
+    }
+
+    public long getLastIndexedHeight() {
+        return store.get(LAST_INDEXED).map(BigEndian::decodeUint64).orElse(-1L);
+    }
+
+    // append payloads of confirmed blocks, blocks must be consecutive and in ascending order
+    public void append(List<Block> blocks) {
+        long last = getLastIndexedHeight();
+        Map<byte[], byte[]> batch = new ByteArrayMap<>();
+        for (Block b : blocks) {
+            if (b.nHeight <= last) continue;
+            for (Transaction tx : b.body) {
+                if (tx.payload == null || !isIndexed(tx.type)) continue;
+                batch.put(key(tx.type, tx.payload), PRESENT);
+            }
+            last = b.nHeight;
+        }
+        if (batch.isEmpty() && last == getLastIndexedHeight()) return;
+        // the filter is updated before the store, so a key readable from the store is never filtered
+        batch.keySet().forEach(filter::put);
+        batch.put(LAST_INDEXED, BigEndian.encodeUint64(last));
+        store.putAll(batch.entrySet());
+    }
+
+    public void append(Block block) {
+        append(Collections.singletonList(block));
+    }
+
+    /**
+     * @param type one of {@link #INDEXED_TYPES}
+     * @return true if a confirmed transaction of the type has the payload
+     */
+    public boolean contains(int type, byte[] payload) {
+        if (!isIndexed(type)) throw new IllegalArgumentException("payloads of type " + type + " are not indexed");
+        byte[] k = key(type, payload);
+        if (!filter.mightContain(k)) {
+            filtered.inc();
+            return false;
+        }
+        boolean found = store.containsKey(k);
+        (found ? hits : falsePositives).inc();
+        return found;
+    }
+
+    private static byte[] key(int type, byte[] payload) {
+        return Arrays.concatenate(
+                new byte[]{(byte) type},
+                payload.length > MAX_RAW_PAYLOAD ? HashUtil.keccak256(payload) : payload
+        );
+    }
+}
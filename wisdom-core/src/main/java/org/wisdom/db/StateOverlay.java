@@ -0,0 +1,148 @@
+package org.wisdom.db;
+
+import org.tdf.common.store.Store;
+import org.tdf.common.trie.Trie;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.rlp.RLPCodec;
+import org.wisdom.core.DB;
+
+import java.util.*;
+
+/**
+ * account states of a block under assembly, changes are kept in memory above a trie and written to it once
+ * <p>
+ * every change is journaled, a savepoint is the length of journal, reverting to a savepoint undoes the changes
+ * after it, e.g. changes of a failed transaction. states are stored encoded so that a state read out and modified
+ * by a transaction never changes the overlay until it is put back, the same as reading from a trie
+ */
+public class StateOverlay implements DB {
+    // marker of removed states
+    private static final byte[] REMOVED = new byte[0];
+
+    private final Trie<byte[], AccountState> trie;
+
+    private final Trie<byte[], byte[]> storageTrie;
+
+    private final Store<byte[], byte[]> contractCodeStore;
+
+    // public key hash -> encoded state or REMOVED
+    private final Map<byte[], byte[]> dirty = new ByteArrayMap<>();
+
+    private final List<Change> journal = new ArrayList<>();
+
+    private final Map<byte[], AccountState> view = new AbstractMap<byte[], AccountState>() {
+        @Override
+        public AccountState get(Object key) {
+            return read((byte[]) key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return read((byte[]) key) != null;
+        }
+
+        @Override
+        public AccountState put(byte[] key, AccountState value) {
+            write(key, RLPCodec.encode(value));
+            return null;
+        }
+
+        @Override
+        public AccountState remove(Object key) {
+            write((byte[]) key, REMOVED);
+            return null;
+        }
+
+        // the whole state is never iterated while executing transactions
+        @Override
+        public Set<Entry<byte[], AccountState>> entrySet() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static class Change {
+        private final byte[] key;
+        // null if the key was not changed before
+        private final byte[] previous;
+
+        Change(byte[] key, byte[] previous) {
+            this.key = key;
+            this.previous = previous;
+        }
+    }
+
+    StateOverlay(Trie<byte[], AccountState> trie, Trie<byte[], byte[]> storageTrie, Store<byte[], byte[]> contractCodeStore) {
+        this.trie = trie;
+        this.storageTrie = storageTrie;
+        this.contractCodeStore = contractCodeStore;
+    }
+
+    private AccountState read(byte[] key) {
+        byte[] encoded = dirty.get(key);
+        if (encoded == null) return trie.get(key).orElse(null);
+        return encoded == REMOVED ? null : RLPCodec.decode(encoded, AccountState.class);
+    }
+
+    private void write(byte[] key, byte[] encoded) {
+        journal.add(new Change(key, dirty.put(key, encoded)));
+    }
+
+    public int savepoint() {
+        return journal.size();
+    }
+
+    // undo the changes after the savepoint
+    public void revert(int savepoint) {
+        for (int i = journal.size() - 1; i >= savepoint; i--) {
+            Change c = journal.remove(i);
+            if (c.previous == null) {
+                dirty.remove(c.key);
+            } else {
+                dirty.put(c.key, c.previous);
+            }
+        }
+    }
+
+    // count of changed accounts
+    public int size() {
+        return dirty.size();
+    }
+
+    /**
+     * write the changes to the trie and commit it, the overlay is cleared
+     *
+     * @return the new state root
+     */
+    public byte[] commit() {
+        dirty.forEach((k, v) -> {
+            if (v == REMOVED) {
+                trie.remove(k);
+            } else {
+                trie.put(k, RLPCodec.decode(v, AccountState.class));
+            }
+        });
+        dirty.clear();
+        journal.clear();
+        return trie.commit();
+    }
+
+    // write the nodes of committed trie to the store
+    public void flush() {
+        trie.flush();
+    }
+
+    @Override
+    public Map<byte[], AccountState> getAccountStore() {
+        return view;
+    }
+
+    @Override
+    public Trie<byte[], byte[]> getStorageTrie() {
+        return storageTrie;
+    }
+
+    @Override
+    public Store<byte[], byte[]> getContractCodeStore() {
+        return contractCodeStore;
+    }
+}
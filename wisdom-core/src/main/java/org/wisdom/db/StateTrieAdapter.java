@@ -1,5 +1,7 @@
 package org.wisdom.db;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import lombok.AccessLevel;
 import lombok.Getter;
 import org.tdf.common.serialize.Codec;
@@ -7,17 +9,26 @@ import org.tdf.common.store.*;
 import org.tdf.common.trie.ReadOnlyTrie;
 import org.tdf.common.trie.Trie;
 import org.tdf.common.util.ByteArrayMap;
+import org.tdf.common.util.HexBytes;
 import org.tdf.rlp.RLPCodec;
 import org.tdf.rlp.RLPElement;
 import org.wisdom.core.Block;
 import org.wisdom.crypto.HashUtil;
+import org.wisdom.util.ByteUtil;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
 
-import java.util.Collection;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.function.Function;
 
 public abstract class StateTrieAdapter<T> implements StateTrie<T> {
     private static final int MAX_CACHE_SIZE = 8;
+
+    // bytes of encoded values cached per trie, configured by wisdom.trie.value-cache-mb
+    public static long VALUE_CACHE_BYTES = 32L << 20;
+
+    // cached value of a key absent in trie
+    private static final byte[] ABSENT = new byte[0];
     private String TRIE;
     private String DELETED;
     private String ROOTS;
@@ -37,6 +48,29 @@ public abstract class StateTrieAdapter<T> implements StateTrie<T> {
     @Getter(AccessLevel.PROTECTED)
     private AbstractStateUpdater<T> updater;
 
+    // trie of encoded values over the same store, to fill the value cache without decoding
+    private Trie<byte[], byte[]> rawTrie;
+
+    private Function<byte[], T> decoder;
+
+    // state root ++ key -> encoded value, states under a root are immutable so entries are never invalidated
+    private Cache<HexBytes, byte[]> valueCache;
+
+    private Counter valueHits;
+
+    private Counter valueMisses;
+
+    private DatabaseStoreFactory factory;
+
+    // buffers of nodes and roots in a write batch, write through otherwise
+    private WriteBackStore nodeBuffer;
+
+    private WriteBackStore rootBuffer;
+
+    private long writeBatchSize;
+
+    private Counter batchedNodes;
+
     @Override
     public Optional<byte[]> getRootHashByBlockHash(byte[] blockHash) {
         return rootStore.get(blockHash);
@@ -63,19 +97,43 @@ public abstract class StateTrieAdapter<T> implements StateTrie<T> {
         DELETED = getPrefix() + "-deleted";
         ROOTS = getPrefix() + "-trie-roots";
         this.updater = updater;
-        rootStore = factory.create(ROOTS, reset);
+        this.factory = factory;
+        rootBuffer = new WriteBackStore(factory.create(ROOTS, reset));
+        rootStore = rootBuffer;
 
-        trieStore = new NoDeleteBatchStore<>(factory.create(TRIE, reset));
+        nodeBuffer = new WriteBackStore(new CachedNodeStore(
+                factory.create(TRIE, reset), TrieNodeCache.shared(),
+                cacheCounter("wisdom_trie_cache_hits_total", "hits of state trie caches", "node"),
+                cacheCounter("wisdom_trie_cache_misses_total", "misses of state trie caches", "node")
+        ));
+        trieStore = new NoDeleteBatchStore<>(nodeBuffer);
+        batchedNodes = Metrics.counter("wisdom_trie_batched_nodes_total", "trie nodes written back in write batches",
+                "trie", getPrefix());
 
+        decoder = x -> RLPElement.fromEncoded(x).as(clazz);
         trie = Trie.<byte[], T>builder()
                 .hashFunction(HashUtil::keccak256)
                 .store(trieStore)
                 .keyCodec(Codec.identity())
                 .valueCodec(
-                        Codec.newInstance(RLPCodec::encode, x -> RLPElement.fromEncoded(x).as(clazz))
+                        Codec.newInstance(RLPCodec::encode, decoder)
                 )
                 .build();
 
+        rawTrie = Trie.<byte[], byte[]>builder()
+                .hashFunction(HashUtil::keccak256)
+                .store(trieStore)
+                .keyCodec(Codec.identity())
+                .valueCodec(Codec.identity())
+                .build();
+
+        valueCache = CacheBuilder.newBuilder()
+                .maximumWeight(VALUE_CACHE_BYTES)
+                .weigher((HexBytes k, byte[] v) -> k.size() + v.length)
+                .build();
+        valueHits = cacheCounter("wisdom_trie_cache_hits_total", "hits of state trie caches", "value");
+        valueMisses = cacheCounter("wisdom_trie_cache_misses_total", "misses of state trie caches", "value");
+
         rootStore.put(genesis.hashPrevBlock, trie.revert().getRootHash());
         if (rootStore.containsKey(genesis.getHash())) return;
 
@@ -90,31 +148,101 @@ public abstract class StateTrieAdapter<T> implements StateTrie<T> {
         rootStore.put(genesis.getHash(), root);
     }
 
+    private Counter cacheCounter(String name, String help, String cache) {
+        return Metrics.counter(name, help, "trie", getPrefix(), "cache", cache);
+    }
+
     public Optional<T> get(byte[] blockHash, byte[] publicKeyHash) {
-        return getTrieByBlockHash(blockHash).get(publicKeyHash);
+        byte[] root = getRootStore()
+                .get(blockHash)
+                .orElseThrow(RuntimeException::new);
+        return getValue(root, publicKeyHash);
     }
 
     public Map<byte[], T> batchGet(byte[] blockHash, Collection<byte[]> keys) {
-        Trie<byte[], T> trie = getTrieByBlockHash(blockHash);
+        byte[] root = getRootStore()
+                .get(blockHash)
+                .orElseThrow(RuntimeException::new);
         ByteArrayMap<T> m = new ByteArrayMap<>();
         keys.forEach(x ->
                 m.put(
-                        x, trie.get(x).orElseGet(() -> updater.createEmpty(x))
+                        x, getValue(root, x).orElseGet(() -> updater.createEmpty(x))
                 )
         );
         return m;
     }
 
+    // values are decoded on every read, so callers are free to modify the returned states
+    private Optional<T> getValue(byte[] root, byte[] key) {
+        HexBytes k = HexBytes.fromBytes(ByteUtil.merge(root, key));
+        byte[] v = valueCache.getIfPresent(k);
+        if (v != null) {
+            valueHits.inc();
+        } else {
+            valueMisses.inc();
+            v = rawTrie.revert(root).get(key).orElse(ABSENT);
+            valueCache.put(k, v);
+        }
+        return v == ABSENT ? Optional.empty() : Optional.of(decoder.apply(v));
+    }
+
     protected Trie<byte[], T> commitInternal(byte[] parentRoot, byte[] blockHash, Map<byte[], T> data) {
         Trie<byte[], T> trie = getTrie()
                 .revert(parentRoot, new CachedStore<>(trieStore, ByteArrayMap::new));
         data.forEach(trie::put);
         byte[] newRoot = trie.commit();
-        trie.flush();
-        getRootStore().put(blockHash, newRoot);
+        persist(trie, blockHash, newRoot);
         return trie;
     }
 
+    // nodes and the root of a block are written in one batch, so a root is never stored without its nodes
+    protected void persist(Trie<byte[], ?> trie, byte[] blockHash, byte[] root) {
+        factory.writeAtomically(() -> {
+            trie.flush();
+            getRootStore().put(blockHash, root);
+        });
+        if (!nodeBuffer.isBuffering()) return;
+        synchronized (this) {
+            if (nodeBuffer.getBufferedBytes() + rootBuffer.getBufferedBytes() > writeBatchSize) {
+                flushWriteBatch();
+            }
+        }
+    }
+
+    /**
+     * write batch for catching up states of many blocks in order, nodes and roots are buffered in memory and
+     * written back in large sorted batches instead of one small batch per block
+     * <p>
+     * nothing is pruned, the states of all the blocks are written back and stay queryable by their roots
+     *
+     * @param maxBufferedBytes the buffer is written back when it grows larger than this
+     */
+    public synchronized void beginWriteBatch(long maxBufferedBytes) {
+        writeBatchSize = maxBufferedBytes;
+        nodeBuffer.begin();
+        rootBuffer.begin();
+    }
+
+    // write back all the buffered nodes and roots in one sorted batch
+    public synchronized void flushWriteBatch() {
+        if (!nodeBuffer.isBuffering()) return;
+        TreeMap<byte[], byte[]> nodes = nodeBuffer.snapshot();
+        TreeMap<byte[], byte[]> roots = rootBuffer.snapshot();
+        factory.writeAtomically(() -> {
+            nodeBuffer.writeThrough(nodes.entrySet());
+            rootBuffer.writeThrough(roots.entrySet());
+        });
+        nodeBuffer.discard(nodes.keySet());
+        rootBuffer.discard(roots.keySet());
+        batchedNodes.add(nodes.size());
+    }
+
+    public synchronized void endWriteBatch() {
+        flushWriteBatch();
+        nodeBuffer.end();
+        rootBuffer.end();
+    }
+
     // get a read only trie for query
     public Trie<byte[], T> getTrieByBlockHash(byte[] blockHash) {
         byte[] root = getRootStore()
@@ -136,8 +264,8 @@ public abstract class StateTrieAdapter<T> implements StateTrie<T> {
             return getRootStore().get(blockHash).orElseThrow(() -> new RuntimeException("unreachable"));
         Trie<byte[], T> empty = getTrie().revert();
         states.forEach(empty::put);
-        getRootStore().put(blockHash, empty.commit());
-        empty.flush();
+        byte[] root = empty.commit();
+        persist(empty, blockHash, root);
         return getRootStore().get(blockHash).orElseThrow(() -> new RuntimeException("unreachable"));
     }
 
@@ -0,0 +1,220 @@
+package org.wisdom.db;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.tdf.common.store.DatabaseStore;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.common.util.FastByteComparisons;
+import org.tdf.common.util.HexBytes;
+import org.tdf.rlp.RLP;
+import org.tdf.rlp.RLPCodec;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.encoding.BigEndian;
+import org.wisdom.type.CursorPagedView;
+import org.wisdom.util.Arrays;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * append-only transaction history of confirmed blocks, keyed by (address, height, tx index)
+ * <p>
+ * every address keeps a counter per (direction, type), entries are stored under
+ * direction | public key hash | type | sequence, sequence grows with (height, tx index)
+ * so that a page could be read by point lookups from any position without offset scanning
+ */
+@Component
+@Slf4j(topic = "db")
+public class TransactionHistoryIndex {
+    public enum Direction {
+        FROM, TO
+    }
+
+    // type marker for the variant which contains transactions of all types
+    private static final byte ALL_TYPES = (byte) 0xff;
+
+    private static final byte[] LAST_INDEXED = "last-indexed".getBytes();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        @RLP(0)
+        private long height;
+        @RLP(1)
+        private int index;
+        @RLP(2)
+        private byte[] transactionHash;
+    }
+
+    /**
+     * position of the last returned record, (height, index) of the record and the sequence of it in the index
+     * sequence is -1 if the record is not confirmed yet
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Cursor {
+        @RLP(0)
+        private long height;
+        @RLP(1)
+        private int index;
+        @RLP(2)
+        private long sequence;
+
+        /**
+         * @throws IllegalArgumentException if the cursor is malformed
+         */
+        public static Cursor decode(String cursor) {
+            if (cursor == null || cursor.isEmpty()) return null;
+            try {
+                return RLPCodec.decode(HexBytes.decode(cursor), Cursor.class);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("invalid cursor " + cursor, e);
+            }
+        }
+
+        public String encode() {
+            return HexBytes.encode(RLPCodec.encode(this));
+        }
+
+        // the position (height, index) is strictly before this cursor
+        public boolean isAfter(long height, int index) {
+            return height < this.height || (height == this.height && index < this.index);
+        }
+    }
+
+    private DatabaseStore store;
+
+    public TransactionHistoryIndex(DatabaseStoreFactory factory) {
+        this.store = factory.create("transaction-history", false);
+    }
+
+    public long getLastIndexedHeight() {
+        return store.get(LAST_INDEXED).map(BigEndian::decodeUint64).orElse(-1L);
+    }
+
+    // append transactions of confirmed blocks, blocks must be consecutive and in ascending order
+    public void append(List<Block> blocks) {
+        long last = getLastIndexedHeight();
+        Map<byte[], byte[]> batch = new ByteArrayMap<>();
+        Map<byte[], Long> counters = new ByteArrayMap<>();
+        for (Block b : blocks) {
+            if (b.nHeight <= last) continue;
+            for (int i = 0; i < b.body.size(); i++) {
+                Transaction tx = b.body.get(i);
+                byte[] value = RLPCodec.encode(new Entry(b.nHeight, i, tx.getHash()));
+                if (tx.type != Transaction.Type.COINBASE.ordinal()) {
+                    byte[] from = tx.getFromPKHash();
+                    appendEntry(batch, counters, counterKey(Direction.FROM, from, ALL_TYPES), value);
+                    appendEntry(batch, counters, counterKey(Direction.FROM, from, (byte) tx.type), value);
+                }
+                appendEntry(batch, counters, counterKey(Direction.TO, tx.to, ALL_TYPES), value);
+                appendEntry(batch, counters, counterKey(Direction.TO, tx.to, (byte) tx.type), value);
+            }
+            last = b.nHeight;
+        }
+        if (batch.isEmpty() && last == getLastIndexedHeight()) return;
+        counters.forEach((k, v) -> batch.put(k, BigEndian.encodeUint64(v)));
+        batch.put(LAST_INDEXED, BigEndian.encodeUint64(last));
+        store.putAll(batch.entrySet());
+    }
+
+    public void append(Block block) {
+        append(Collections.singletonList(block));
+    }
+
+    private void appendEntry(Map<byte[], byte[]> batch, Map<byte[], Long> counters, byte[] counterKey, byte[] value) {
+        long seq = counters.computeIfAbsent(counterKey, this::count);
+        batch.put(entryKey(counterKey, seq), value);
+        counters.put(counterKey, seq + 1);
+    }
+
+    private long count(byte[] counterKey) {
+        return store.get(counterKey).map(BigEndian::decodeUint64).orElse(0L);
+    }
+
+    public long count(Direction direction, byte[] publicKeyHash, Integer type) {
+        return count(counterKey(direction, publicKeyHash, type));
+    }
+
+    public Optional<Entry> get(Direction direction, byte[] publicKeyHash, Integer type, long sequence) {
+        return store.get(entryKey(counterKey(direction, publicKeyHash, type), sequence))
+                .map(v -> RLPCodec.decode(v, Entry.class));
+    }
+
+    /**
+     * a page of history in descending order, transactions of unconfirmed blocks are before the confirmed
+     *
+     * @param unconfirmed    blocks of the best chain above the latest confirmed, ascending
+     * @param getTransaction get confirmed transaction by hash
+     */
+    public CursorPagedView<Transaction> page(
+            List<Block> unconfirmed, byte[] publicKeyHash, Direction direction,
+            Integer type, String cursor, int limit, Function<byte[], Transaction> getTransaction
+    ) {
+        Cursor c = Cursor.decode(cursor);
+        Cursor next = null;
+        List<Transaction> records = new ArrayList<>();
+
+        // 未确认的事务排在前面，游标已经进入主账本时跳过 forkdb
+        if (c == null || c.getSequence() < 0) {
+            for (int i = unconfirmed.size() - 1; i >= 0 && records.size() < limit; i--) {
+                Block b = unconfirmed.get(i);
+                for (int j = b.body.size() - 1; j >= 0 && records.size() < limit; j--) {
+                    Transaction tx = b.body.get(j);
+                    if (c != null && !c.isAfter(b.nHeight, j)) continue;
+                    if (!matches(tx, publicKeyHash, direction, type)) continue;
+                    records.add(tx);
+                    next = new Cursor(b.nHeight, j, -1);
+                }
+            }
+        }
+
+        // 主账本部分按序号倒序点查，游标之后被确认的事务在最前面，直接跳过
+        long seq = (c == null || c.getSequence() < 0) ?
+                count(direction, publicKeyHash, type) - 1 :
+                c.getSequence() - 1;
+        for (; seq >= 0 && records.size() < limit; seq--) {
+            Entry e = get(direction, publicKeyHash, type, seq)
+                    .orElseThrow(() -> new RuntimeException("unreachable"));
+            if (c != null && !c.isAfter(e.getHeight(), e.getIndex())) continue;
+            Transaction tx = getTransaction.apply(e.getTransactionHash());
+            if (tx == null) continue;
+            records.add(tx);
+            next = new Cursor(e.getHeight(), e.getIndex(), seq);
+        }
+
+        boolean exhausted = records.size() < limit || (next != null && next.getSequence() == 0);
+        return new CursorPagedView<>(exhausted || next == null ? null : next.encode(), records);
+    }
+
+    private static boolean matches(Transaction tx, byte[] publicKeyHash, Direction direction, Integer type) {
+        if (type != null && tx.type != type) return false;
+        if (direction == Direction.TO) {
+            return FastByteComparisons.equal(tx.to, publicKeyHash);
+        }
+        return tx.type != Transaction.Type.COINBASE.ordinal()
+                && FastByteComparisons.equal(tx.getFromPKHash(), publicKeyHash);
+    }
+
+    private static byte[] counterKey(Direction direction, byte[] publicKeyHash, Integer type) {
+        return counterKey(direction, publicKeyHash, type == null ? ALL_TYPES : (byte) type.intValue());
+    }
+
+    private static byte[] counterKey(Direction direction, byte[] publicKeyHash, byte type) {
+        return Arrays.concatenate(
+                new byte[]{(byte) direction.ordinal()},
+                publicKeyHash,
+                new byte[]{type}
+        );
+    }
+
+    private static byte[] entryKey(byte[] counterKey, long sequence) {
+        return Arrays.concatenate(counterKey, BigEndian.encodeUint64(sequence));
+    }
+}
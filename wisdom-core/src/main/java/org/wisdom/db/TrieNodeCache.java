@@ -0,0 +1,110 @@
+package org.wisdom.db;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.tdf.common.util.HexBytes;
+import org.wisdom.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * process wide cache of encoded trie nodes keyed by node hash, bounded by bytes
+ * <p>
+ * nodes are content addressed so the cache is shared by all roots of all state tries,
+ * in off heap mode the nodes are kept in direct buffers, -XX:MaxDirectMemorySize should be larger than the cache
+ */
+public class TrieNodeCache {
+    // estimated bytes of key, entry and references of a cached node
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static long maxBytes = 256L << 20;
+
+    private static boolean offHeap;
+
+    private static volatile TrieNodeCache shared;
+
+    // must be called before any state trie is created
+    public static synchronized void configure(long maxBytes, boolean offHeap) {
+        TrieNodeCache.maxBytes = maxBytes;
+        TrieNodeCache.offHeap = offHeap;
+        shared = null;
+    }
+
+    public static TrieNodeCache shared() {
+        if (shared == null) {
+            synchronized (TrieNodeCache.class) {
+                if (shared == null) {
+                    shared = new TrieNodeCache(maxBytes, offHeap);
+                    TrieNodeCache c = shared;
+                    Metrics.gauge("wisdom_trie_node_cache_bytes", "bytes of trie nodes cached", c.bytes::get);
+                    Metrics.gauge("wisdom_trie_node_cache_entries", "trie nodes cached", c::size);
+                }
+            }
+        }
+        return shared;
+    }
+
+    private final Cache<HexBytes, Object> cache;
+
+    private final boolean enabled;
+
+    private final boolean direct;
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    TrieNodeCache(long maxBytes, boolean offHeap) {
+        this.enabled = maxBytes > 0;
+        this.direct = offHeap;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(Math.max(maxBytes, 0))
+                .weigher((HexBytes k, Object v) -> weigh(k, v))
+                .<HexBytes, Object>removalListener(n -> bytes.addAndGet(-weigh(n.getKey(), n.getValue())))
+                .build();
+    }
+
+    private static int weigh(HexBytes key, Object value) {
+        int size = value instanceof ByteBuffer ? ((ByteBuffer) value).capacity() : ((byte[]) value).length;
+        return key.size() + size + ENTRY_OVERHEAD;
+    }
+
+    // returns null if not cached
+    public byte[] get(byte[] hash) {
+        if (!enabled) return null;
+        Object v = cache.getIfPresent(HexBytes.fromBytes(hash));
+        if (v == null || !direct) return (byte[]) v;
+        ByteBuffer buf = ((ByteBuffer) v).duplicate();
+        byte[] ret = new byte[buf.remaining()];
+        buf.get(ret);
+        return ret;
+    }
+
+    public void put(byte[] hash, byte[] node) {
+        if (!enabled) return;
+        Object v = node;
+        if (direct) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(node.length);
+            buf.put(node).flip();
+            v = buf;
+        }
+        HexBytes key = HexBytes.fromBytes(hash);
+        bytes.addAndGet(weigh(key, v));
+        cache.put(key, v);
+    }
+
+    public void invalidate(byte[] hash) {
+        cache.invalidate(HexBytes.fromBytes(hash));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+}
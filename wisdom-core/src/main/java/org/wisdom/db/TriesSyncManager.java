@@ -15,6 +15,8 @@ import org.wisdom.contract.AssetCodeInfo;
 import org.wisdom.core.Block;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.validate.CheckPointRule;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
 
 import java.io.File;
 import java.nio.file.Files;
@@ -31,6 +33,12 @@ public class TriesSyncManager {
 
     private static final String DB_STATUS = "status";
 
+    private static final Histogram ACCOUNT_COMMIT = commitTimer("account");
+    private static final Histogram VALIDATOR_COMMIT = commitTimer("validator");
+    private static final Histogram CANDIDATE_COMMIT = commitTimer("candidate");
+    private static final Histogram ASSET_CODE_COMMIT = commitTimer("asset-code");
+    private static final Histogram LOCK_TRANSFER_COMMIT = commitTimer("lock-transfer");
+
     private AccountStateTrie accountStateTrie;
 
     private ValidatorStateTrie validatorStateTrie;
@@ -52,6 +60,11 @@ public class TriesSyncManager {
 
     private int blocksPerEra;
 
+    // memory of write back buffers per trie in a write batch
+    private long writeBatchSize;
+
+    private SpeculativeExecutor speculativeExecutor;
+
     public TriesSyncManager(
             AccountStateTrie accountStateTrie,
             ValidatorStateTrie validatorStateTrie,
@@ -62,7 +75,9 @@ public class TriesSyncManager {
             @Value("${wisdom.consensus.fast-sync.directory}") String fastSyncDirectory,
             WisdomBlockChain bc,
             CheckPointRule checkPointRule,
-            @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra
+            @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra,
+            @Value("${wisdom.sync.write-batch-mb:128}") long writeBatchSize,
+            SpeculativeExecutor speculativeExecutor
     ) {
         this.accountStateTrie = accountStateTrie;
         this.validatorStateTrie = validatorStateTrie;
@@ -73,6 +88,8 @@ public class TriesSyncManager {
         this.fastSyncDirectory = fastSyncDirectory;
         this.checkPointRule = checkPointRule;
         this.blocksPerEra = blocksPerEra;
+        this.writeBatchSize = writeBatchSize << 20;
+        this.speculativeExecutor = speculativeExecutor;
         this.setRepository(repository);
     }
 
@@ -123,7 +140,25 @@ public class TriesSyncManager {
     }
 
     public Stream<Block> readBlocks(long startHeight /* inclusive */) {
-        return readFastSyncFiles()
+        return blocksDumps(readFastSyncFiles(), startHeight)
+                .flatMap(f -> {
+                    try {
+                        byte[] bytes = Files.readAllBytes(f.toPath());
+                        return Arrays.stream(RLPElement.fromEncoded(bytes).as(Block[].class)).map(Block::seal);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                })
+                .filter(b -> b.nHeight >= startHeight)
+                ;
+    }
+
+    /**
+     * blocks dump files written by {@link BlocksDump} which may contain blocks at or above the start height,
+     * in ascending order of segment
+     */
+    public static Stream<File> blocksDumps(Stream<File> files, long startHeight) {
+        return files
                 .filter(f -> f.getName().matches("blocks-dump\\.+[0-9]+\\.+[0-9\\-]+[0-9]+\\.rlp"))
                 .map(f -> new AbstractMap.SimpleImmutableEntry<>(
                         Integer.parseInt(f.getName().split("\\.")[1]),
@@ -135,18 +170,9 @@ public class TriesSyncManager {
                 // (entry.getKey() + 1) * 100000  > startHeight
                 .sorted((x, y) -> Integer.compare(x.getKey(), y.getKey()))
                 .filter(entry ->
-                        (entry.getKey() + 1) * 100000 > startHeight
+                        (entry.getKey() + 1) * 100000L > startHeight
                 )
-                .flatMap(x -> {
-                    try {
-                        byte[] bytes = Files.readAllBytes(x.getValue().toPath());
-                        return Arrays.stream(RLPElement.fromEncoded(bytes).as(Block[].class));
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    }
-                })
-                .filter(b -> b.nHeight >= startHeight)
-                ;
+                .map(Map.Entry::getValue);
     }
 
     private void syncBlockDatabase(
@@ -295,46 +321,74 @@ public class TriesSyncManager {
             blocksPerUpdate += blocksPerEra;
         }
 
-        while (true) {
-            List<Block> blocks = bc.getBlocksSince(start + 1, blocksPerUpdate);
-            boolean cont = blocks.size() == blocksPerUpdate;
-            Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
-            blocks.forEach(b -> {
-                if (b.nHeight > accountStateTrieLastSyncHeight) {
-                    accountStateTrie.commit(b);
-                }
-                if (b.nHeight > validatorStateTrieLastSyncHeight) {
-                    validatorStateTrie.commit(b);
-                }
-                if (b.nHeight > assetCodeTrieLastSyncHeight) {
-                    assetCodeTrie.commit(b);
-                }
-                if(b.nHeight > lockgetTransferTireLastSyncHeight){
-                    lockgetTransferTrie.commit(b);
-                }
-            });
+        // nodes and roots of a chunk of blocks are written back in one batch
+        List<StateTrieAdapter<?>> tries = Arrays.asList(
+                accountStateTrie, validatorStateTrie, candidateStateTrie, assetCodeTrie, lockgetTransferTrie
+        );
+        tries.forEach(t -> t.beginWriteBatch(writeBatchSize));
+        try {
+            while (true) {
+                List<Block> blocks = bc.getBlocksSince(start + 1, blocksPerUpdate);
+                boolean cont = blocks.size() == blocksPerUpdate;
+                Block last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                blocks.forEach(b -> {
+                    if (b.nHeight > accountStateTrieLastSyncHeight) {
+                        accountStateTrie.commit(b);
+                    }
+                    if (b.nHeight > validatorStateTrieLastSyncHeight) {
+                        validatorStateTrie.commit(b);
+                    }
+                    if (b.nHeight > assetCodeTrieLastSyncHeight) {
+                        assetCodeTrie.commit(b);
+                    }
+                    if(b.nHeight > lockgetTransferTireLastSyncHeight){
+                        lockgetTransferTrie.commit(b);
+                    }
+                });
 
-            while (blocks.size() >= blocksPerEra) {
-                candidateStateTrie.commit(blocks.subList(0, blocksPerEra));
-                blocks = blocks.subList(blocksPerEra, blocks.size());
+                while (blocks.size() >= blocksPerEra) {
+                    candidateStateTrie.commit(blocks.subList(0, blocksPerEra));
+                    blocks = blocks.subList(blocksPerEra, blocks.size());
+                }
+                // sync trie here
+                tries.forEach(StateTrieAdapter::flushWriteBatch);
+                if (!cont) break;
+                start += blocksPerUpdate;
+                if (last == null) continue;
+                double status = (last.nHeight - finalStart) * 1.0 / (currentHeight - finalStart);
+                log.info("state sync status {}%", String.format("%.2f", status * 100));
             }
-            // sync trie here
-            if (!cont) break;
-            start += blocksPerUpdate;
-            if (last == null) continue;
-            double status = (last.nHeight - finalStart) * 1.0 / (currentHeight - finalStart);
-            log.info("state sync status {}%", String.format("%.2f", status * 100));
+        } finally {
+            tries.forEach(StateTrieAdapter::endWriteBatch);
         }
 
         log.info("sync status finished");
     }
 
     public void commit(Block block) {
-        accountStateTrie.commit(block);
+        long start = System.nanoTime();
+        // reuse the execution of a proposal if any
+        speculativeExecutor.commit(block);
+        start = record(ACCOUNT_COMMIT, start);
         validatorStateTrie.commit(block);
+        start = record(VALIDATOR_COMMIT, start);
         candidateStateTrie.commit(block);
+        start = record(CANDIDATE_COMMIT, start);
         assetCodeTrie.commit(block);
+        start = record(ASSET_CODE_COMMIT, start);
         lockgetTransferTrie.commit(block);
+        record(LOCK_TRANSFER_COMMIT, start);
+    }
+
+    private static Histogram commitTimer(String trie) {
+        return Metrics.timer("wisdom_trie_commit_seconds", "time consuming of state trie commits", "trie", trie);
+    }
+
+    // record the time elapsed since start, returns current time
+    private static long record(Histogram histogram, long start) {
+        long now = System.nanoTime();
+        histogram.record(now - start);
+        return now;
     }
 
     public long getLastSyncedHeight(long start, long end, Store<byte[], byte[]> rootStore) {
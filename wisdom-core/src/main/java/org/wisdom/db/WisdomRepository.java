@@ -5,6 +5,7 @@ import org.wisdom.contract.AssetCodeInfo;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.dao.TransactionQuery;
+import org.wisdom.type.CursorPagedView;
 
 import java.util.Collection;
 import java.util.List;
@@ -146,6 +147,12 @@ public interface WisdomRepository {
         return getTransactionsAtByTypeAndFrom(getBestBlock().getHash(), type, from, offset, limit);
     }
 
+    // transactions of the address in the best chain, newest first, pass the cursor of previous page to continue
+    CursorPagedView<Transaction> getLatestTransactionHistory(
+            byte[] publicKeyHash, TransactionHistoryIndex.Direction direction,
+            Integer type, String cursor, int limit
+    );
+
     void writeBlock(Block block);
 
     default boolean containsAssetCodeAt(byte[] blockHash, byte[] code) {
@@ -5,6 +5,7 @@ import org.wisdom.contract.AssetCodeInfo;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
 import org.wisdom.dao.TransactionQuery;
+import org.wisdom.type.CursorPagedView;
 
 import java.util.Collection;
 import java.util.List;
@@ -221,4 +222,9 @@ public class WisdomRepositoryAdapter implements WisdomRepository {
     public long countBlocksAfter(long timestamp) {
         return 0;
     }
+
+    @Override
+    public CursorPagedView<Transaction> getLatestTransactionHistory(byte[] publicKeyHash, TransactionHistoryIndex.Direction direction, Integer type, String cursor, int limit) {
+        return null;
+    }
 }
@@ -3,7 +3,7 @@ package org.wisdom.db;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
 import org.tdf.common.util.*;
 import org.wisdom.consensus.pow.Proposer;
 import org.wisdom.contract.AssetCodeInfo;
@@ -11,10 +11,14 @@ import org.wisdom.controller.WebSocket;
 import org.wisdom.core.Block;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.ChainEventBus;
 import org.wisdom.core.event.NewBestBlockEvent;
 import org.wisdom.core.event.NewBlockEvent;
 import org.wisdom.core.event.NewConfirmedBlockEvent;
 import org.wisdom.dao.TransactionQuery;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
+import org.wisdom.type.CursorPagedView;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -26,8 +30,17 @@ import static java.util.stream.Collectors.toList;
 // TODO: create fast sync manager
 @Slf4j(topic = "db")
 public class WisdomRepositoryImpl implements WisdomRepository {
+    private static final int HISTORY_BLOCKS_PER_UPDATE = 1024;
+
+    private static final Histogram COMMIT_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "commit");
+    private static final Histogram INDEX_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "index");
+    private static final Histogram CONFIRM_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "confirm");
+
     private ChainCache<BlockWrapper> chainCache;
 
+    // skip list over chainCache for ancestor lookups
+    private final AncestorIndex ancestorIndex = new AncestorIndex();
+
     // block confirms
     private Map<byte[], Set<byte[]>> confirms = new ByteArrayMap<>();
 
@@ -60,9 +73,13 @@ public class WisdomRepositoryImpl implements WisdomRepository {
 
     private LockgetTransferTrie lockgetTransferTrie;
 
+    private TransactionHistoryIndex historyIndex;
+
+    private SpentPayloadIndex spentPayloadIndex;
+
     private EraLinker eraLinker;
 
-    private ApplicationContext applicationContext;
+    private ChainEventBus chainEventBus;
 
     public WisdomRepositoryImpl(
             WisdomBlockChain bc,
@@ -73,10 +90,12 @@ public class WisdomRepositoryImpl implements WisdomRepository {
             AssetCodeTrie assetCodeTrie,
             LockgetTransferTrie lockgetTransferTrie,
             TargetCache targetCache,
+            TransactionHistoryIndex historyIndex,
+            SpentPayloadIndex spentPayloadIndex,
             @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra,
-            ApplicationContext applicationContext
+            ChainEventBus chainEventBus
     ) throws Exception {
-        this.applicationContext = applicationContext;
+        this.chainEventBus = chainEventBus;
         this.eraLinker = new EraLinker(blocksPerEra);
         this.eraLinker.setRepository(this);
         this.bc = bc;
@@ -90,18 +109,37 @@ public class WisdomRepositoryImpl implements WisdomRepository {
         this.validatorStateTrie = validatorStateTrie;
         this.assetCodeTrie = assetCodeTrie;
         this.lockgetTransferTrie = lockgetTransferTrie;
+        this.historyIndex = historyIndex;
+        this.spentPayloadIndex = spentPayloadIndex;
         this.triesSyncManager = triesSyncManager;
         this.triesSyncManager.setRepository(this);
         this.candidateStateTrie = candidateStateTrie;
         this.candidateStateTrie.setRepository(this);
         this.triesSyncManager.sync();
         initLatestConfirmed();
+        syncIndices();
     }
 
     private void initLatestConfirmed() throws Exception {
         this.latestConfirmed = bc.getTopBlock();
     }
 
+    // index blocks confirmed before the indices were created or by fast sync
+    private void syncIndices() {
+        long start = Math.min(historyIndex.getLastIndexedHeight(), spentPayloadIndex.getLastIndexedHeight()) + 1;
+        if (start > latestConfirmed.nHeight) return;
+        log.info("start sync transaction indices from {} to {}", start, latestConfirmed.nHeight);
+        while (start <= latestConfirmed.nHeight) {
+            List<Block> blocks = bc.getBlocksSince(start, HISTORY_BLOCKS_PER_UPDATE);
+            if (blocks.isEmpty()) break;
+            // blocks indexed already are skipped by each index
+            historyIndex.append(blocks);
+            spentPayloadIndex.append(blocks);
+            start = blocks.get(blocks.size() - 1).nHeight + 1;
+            log.info("transaction indices synced to {}", start - 1);
+        }
+    }
+
     private void deleteCache(Block b) {
         chainCache.remove(new BlockWrapper(b));
         confirms.remove(b.getHash());
@@ -197,14 +235,19 @@ public class WisdomRepositoryImpl implements WisdomRepository {
     }
 
     public Block getAncestorHeader(byte[] hash, long height) {
+        if (ancestorIndex.contains(hash)) {
+            Block ancestor = ancestorIndex.getAncestor(hash, height);
+            if (ancestor != null) return ancestor;
+            // the ancestor is below the fork database, which is on the canonical chain
+            return height <= latestConfirmed.nHeight ? bc.getHeaderByHeight(height) : null;
+        }
         Block bHeader = getHeaderByHash(hash);
-        if (bHeader.nHeight < height) {
+        if (bHeader == null || bHeader.nHeight < height) {
             return null;
         }
-        while (bHeader != null && bHeader.nHeight != height) {
-            bHeader = getHeaderByHash(bHeader.hashPrevBlock);
-        }
-        return bHeader;
+        if (bHeader.nHeight == height) return bHeader;
+        // confirmed blocks are canonical
+        return bc.getHeaderByHeight(height);
     }
 
     private List<Block> getAncestorsInternal(byte[] bhash, long anum, BiFunction<byte[], Long, List<Block>> provider) {
@@ -294,11 +337,14 @@ public class WisdomRepositoryImpl implements WisdomRepository {
 
     public boolean containsPayloadAt(byte[] blockHash, int type, byte[] payload) {
         if (FastByteComparisons.equal(latestConfirmed.getHash(), blockHash)) {
-            return bc.containsPayload(type, payload);
+            return containsConfirmedPayload(type, payload);
         }
-        Block b = chainCache
-                .get(blockHash).map(BlockWrapper::get)
-                .orElseThrow(() -> new RuntimeException("block " + HexBytes.fromBytes(blockHash) + " not found in fork db " + " query for payload " + HexBytes.fromBytes(payload) + " failed type = " + type));
+        Optional<Block> o = chainCache.get(blockHash).map(BlockWrapper::get);
+        if (!o.isPresent() && bc.containsBlock(blockHash)) {
+            // confirmed after the caller read latest confirmed, payloads of newer confirmed blocks are counted too
+            return containsConfirmedPayload(type, payload);
+        }
+        Block b = o.orElseThrow(() -> new RuntimeException("block " + HexBytes.fromBytes(blockHash) + " not found in fork db " + " query for payload " + HexBytes.fromBytes(payload) + " failed type = " + type));
         if (payloadsIndex.get(b.getHash())
                 .getOrDefault(type, Collections.emptySet())
                 .contains(payload)) {
@@ -307,6 +353,13 @@ public class WisdomRepositoryImpl implements WisdomRepository {
         return containsPayloadAt(b.hashPrevBlock, type, payload);
     }
 
+    // negative answers of indexed types are mostly given by the bloom filter without reading any database
+    private boolean containsConfirmedPayload(int type, byte[] payload) {
+        return SpentPayloadIndex.isIndexed(type) ?
+                spentPayloadIndex.contains(type, payload) :
+                bc.containsPayload(type, payload);
+    }
+
     public Optional<AssetCodeInfo> getAssetCodeAt(byte[] blockHash, byte[] code) {
         return assetCodeTrie.get(blockHash, code);
     }
@@ -590,26 +643,50 @@ public class WisdomRepositoryImpl implements WisdomRepository {
         return transactionsPrevBlocks;
     }
 
+    @Override
+    public CursorPagedView<Transaction> getLatestTransactionHistory(
+            byte[] publicKeyHash, TransactionHistoryIndex.Direction direction,
+            Integer type, String cursor, int limit
+    ) {
+        List<Block> unconfirmed = chainCache.isEmpty() ? Collections.emptyList() :
+                chainCache.getAncestors(chainCache.last().getHash().getBytes())
+                        .stream().map(BlockWrapper::get).collect(toList());
+        return historyIndex.page(unconfirmed, publicKeyHash, direction, type, cursor, limit, bc::getTransaction);
+    }
+
     // 写入区块
     @Override
     public void writeBlock(Block block) {
+        write(block).forEach(chainEventBus::publish);
+    }
+
+    /**
+     * write the block without publishing events, the events are returned in order and published by the caller after
+     * the lock of repository is released, so that subscribers reading the repository are not blocked by the writer
+     */
+    List<ApplicationEvent> write(Block block) {
+        List<ApplicationEvent> events = new ArrayList<>();
         // the block had been confirmed
         if (block.nHeight <= latestConfirmed.nHeight) {
-            return;
+            return events;
         }
         // filter orphans
         if (!FastByteComparisons.equal(this.latestConfirmed.getHash(), block.hashPrevBlock)
                 && !chainCache.containsHash(block.hashPrevBlock)) {
-            return;
+            return events;
         }
         // had written
         if (chainCache.containsHash(block.getHash())) {
-            return;
+            return events;
         }
 
         chainCache.add(new BlockWrapper(block));
+        ancestorIndex.add(block);
         // 写入状态存储
+        long stageStart = System.nanoTime();
         triesSyncManager.commit(block);
+        COMMIT_STAGE.recordSince(stageStart);
+        stageStart = System.nanoTime();
 
         // 写入事务索引
 
@@ -637,10 +714,12 @@ public class WisdomRepositoryImpl implements WisdomRepository {
                 )
         );
 
-        applicationContext.publishEvent(new NewBlockEvent(this, block));
+        INDEX_STAGE.recordSince(stageStart);
+
+        events.add(new NewBlockEvent(this, block));
 
         if (chainCache.last().getHash().equals(HexBytes.fromBytes(block.getHash()))) {
-            applicationContext.publishEvent(new NewBestBlockEvent(this, block));
+            events.add(new NewBestBlockEvent(this, block));
         }
 
         List<Block> ancestors =
@@ -676,7 +755,7 @@ public class WisdomRepositoryImpl implements WisdomRepository {
         }
 
         if (confirmedAncestors.size() == 0) {
-            return;
+            return events;
         }
 
         // 更新到 db
@@ -684,14 +763,19 @@ public class WisdomRepositoryImpl implements WisdomRepository {
             Block b = confirmedAncestors.get(i);
             // CAS 锁，等待上一个区块状态更新成功
             boolean writeResult;
+            stageStart = System.nanoTime();
             writeResult = bc.writeBlock(b);
+            CONFIRM_STAGE.recordSince(stageStart);
 
             if (!writeResult) {
                 // 数据库 写入失败 重试写入
                 log.error("write block to database failed, retrying...");
                 continue;
             }
-            applicationContext.publishEvent(new NewConfirmedBlockEvent(this, b));
+            historyIndex.append(b);
+            // indexed before the block leaves fork db, so the payloads are always visible
+            spentPayloadIndex.append(b);
+            events.add(new NewConfirmedBlockEvent(this, b));
             log.info("write block at height " + b.nHeight + " to db success");
 
             // 删除孤块
@@ -714,10 +798,12 @@ public class WisdomRepositoryImpl implements WisdomRepository {
             deleteCache(b);
             i++;
             this.latestConfirmed = b;
+            ancestorIndex.retain(chainCache::containsHash);
             // 广播事务确认
             for (Transaction tx : b.body) {
                 WebSocket.broadcastPendingOrConfirm(tx, Transaction.Status.CONFIRMED);
             }
         }
+        return events;
     }
 }
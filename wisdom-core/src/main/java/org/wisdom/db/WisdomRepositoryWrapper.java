@@ -1,20 +1,24 @@
 package org.wisdom.db;
 
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEvent;
 import org.springframework.stereotype.Component;
 import org.wisdom.consensus.pow.Proposer;
 import org.wisdom.contract.AssetCodeInfo;
 import org.wisdom.core.Block;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.ChainEventBus;
 import org.wisdom.dao.TransactionQuery;
+import org.wisdom.type.CursorPagedView;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Component
@@ -22,7 +26,12 @@ public class WisdomRepositoryWrapper implements WisdomRepository {
 
     private ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
-    private WisdomRepository delegate;
+    // writers publish events in the order written, without holding the write lock
+    private final Lock writeOrder = new ReentrantLock(true);
+
+    private WisdomRepositoryImpl delegate;
+
+    private ChainEventBus chainEventBus;
 
     public WisdomRepositoryWrapper(
             WisdomBlockChain bc,
@@ -33,13 +42,16 @@ public class WisdomRepositoryWrapper implements WisdomRepository {
             AssetCodeTrie assetCodeTrie,
             LockgetTransferTrie lockgetTransferTrie,
             TargetCache targetCache,
+            TransactionHistoryIndex historyIndex,
+            SpentPayloadIndex spentPayloadIndex,
             @Value("${wisdom.consensus.blocks-per-era}") int blocksPerEra,
-            ApplicationContext applicationContext
+            ChainEventBus chainEventBus
     ) throws Exception {
+        this.chainEventBus = chainEventBus;
         this.delegate =
                 new WisdomRepositoryImpl(bc, triesSyncManager, accountStateTrie,
                         validatorStateTrie, candidateStateTrie, assetCodeTrie, lockgetTransferTrie, targetCache,
-                        blocksPerEra, applicationContext
+                        historyIndex, spentPayloadIndex, blocksPerEra, chainEventBus
                 );
         triesSyncManager.setRepository(this);
     }
@@ -497,12 +509,30 @@ public class WisdomRepositoryWrapper implements WisdomRepository {
     }
 
     @Override
-    public void writeBlock(Block block) {
-        readWriteLock.writeLock().lock();
+    public CursorPagedView<Transaction> getLatestTransactionHistory(byte[] publicKeyHash, TransactionHistoryIndex.Direction direction, Integer type, String cursor, int limit) {
+        readWriteLock.readLock().lock();
         try {
-            delegate.writeBlock(block);
+            return delegate.getLatestTransactionHistory(publicKeyHash, direction, type, cursor, limit);
         } finally {
-            readWriteLock.writeLock().unlock();
+            readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void writeBlock(Block block) {
+        writeOrder.lock();
+        try {
+            List<ApplicationEvent> events;
+            readWriteLock.writeLock().lock();
+            try {
+                events = delegate.write(block);
+            } finally {
+                readWriteLock.writeLock().unlock();
+            }
+            // subscribers may read the repository while publish waits for their queues
+            events.forEach(chainEventBus::publish);
+        } finally {
+            writeOrder.unlock();
         }
     }
 
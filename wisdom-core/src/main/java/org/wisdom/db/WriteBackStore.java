@@ -0,0 +1,127 @@
+package org.wisdom.db;
+
+import org.tdf.common.store.BatchStore;
+import org.tdf.common.util.FastByteComparisons;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * store buffers writes in memory while buffering, buffered entries are readable and written back by the owner
+ * <p>
+ * writes go through to the delegate when not buffering
+ */
+class WriteBackStore implements BatchStore<byte[], byte[]> {
+    static final Comparator<byte[]> KEY_ORDER = (x, y) -> FastByteComparisons.compareTo(x, 0, x.length, y, 0, y.length);
+
+    private final BatchStore<byte[], byte[]> delegate;
+
+    private TreeMap<byte[], byte[]> buffer;
+
+    private long bytes;
+
+    WriteBackStore(BatchStore<byte[], byte[]> delegate) {
+        this.delegate = delegate;
+    }
+
+    synchronized void begin() {
+        if (buffer == null) buffer = new TreeMap<>(KEY_ORDER);
+    }
+
+    // entries not written back are lost
+    synchronized void end() {
+        buffer = null;
+        bytes = 0;
+    }
+
+    synchronized boolean isBuffering() {
+        return buffer != null;
+    }
+
+    synchronized long getBufferedBytes() {
+        return bytes;
+    }
+
+    // sorted copy of buffered entries
+    synchronized TreeMap<byte[], byte[]> snapshot() {
+        return buffer == null ? new TreeMap<>(KEY_ORDER) : new TreeMap<>(buffer);
+    }
+
+    // write entries to the delegate directly
+    void writeThrough(Collection<? extends Map.Entry<? extends byte[], ? extends byte[]>> rows) {
+        if (!rows.isEmpty()) delegate.putAll(rows);
+    }
+
+    // drop buffered entries, after they are written back or become useless
+    synchronized void discard(Collection<byte[]> keys) {
+        if (buffer == null) return;
+        for (byte[] k : keys) {
+            byte[] v = buffer.remove(k);
+            if (v != null) bytes -= k.length + v.length;
+        }
+    }
+
+    @Override
+    public synchronized Optional<byte[]> get(byte[] key) {
+        if (buffer != null) {
+            byte[] v = buffer.get(key);
+            if (v != null) return Optional.of(v);
+        }
+        return delegate.get(key);
+    }
+
+    @Override
+    public synchronized void put(byte[] key, byte[] value) {
+        if (buffer == null) {
+            delegate.put(key, value);
+            return;
+        }
+        byte[] old = buffer.put(key, value);
+        bytes += old == null ? key.length + value.length : value.length - old.length;
+    }
+
+    @Override
+    public synchronized void putAll(Collection<? extends Map.Entry<? extends byte[], ? extends byte[]>> rows) {
+        if (buffer == null) {
+            delegate.putAll(rows);
+            return;
+        }
+        rows.forEach(e -> put(e.getKey(), e.getValue()));
+    }
+
+    @Override
+    public synchronized void remove(byte[] key) {
+        if (buffer != null) discard(Collections.singleton(key));
+        delegate.remove(key);
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public synchronized boolean containsKey(byte[] key) {
+        return (buffer != null && buffer.containsKey(key)) || delegate.containsKey(key);
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return (buffer == null || buffer.isEmpty()) && delegate.isEmpty();
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (buffer != null) {
+            buffer.clear();
+            bytes = 0;
+        }
+        delegate.clear();
+    }
+
+    // buffered entries are not traversed
+    @Override
+    public void traverse(BiFunction<? super byte[], ? super byte[], Boolean> traverser) {
+        delegate.traverse(traverser);
+    }
+}
@@ -25,7 +25,7 @@ public class Mapping {
         header.nBits = entity.getNBits();
         header.blockNotice = entity.getBlockNotice();
         header.totalWeight = entity.getTotalWeight();
-        return header;
+        return header.seal();
     }
 
     public static HeaderEntity getEntityFromHeader(Block block) {
@@ -62,7 +62,7 @@ public class Mapping {
             tx.contractType = tx.payload[0];
             tx.methodType = Transaction.getContract(tx.methodType);
         }
-        return tx;
+        return tx.seal();
     }
 
     public static TransactionEntity getEntityFromTransaction(@NonNull Transaction tx) {
@@ -1,6 +1,7 @@
 package org.wisdom.ipc;
 
 import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
 import org.quartz.CronExpression;
@@ -10,9 +11,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.ApplicationEvent;
-import org.springframework.context.ApplicationListener;
 
 import org.springframework.stereotype.Component;
 import org.tdf.common.trie.Trie;
@@ -26,31 +24,57 @@ import org.wisdom.db.AccountState;
 import org.wisdom.db.AccountStateTrie;
 import org.wisdom.encoding.JSONEncodeDecoder;
 import org.wisdom.p2p.PeerServer;
+import org.wisdom.pool.AdoptTransPool;
+import org.wisdom.pool.PeningTransPool;
 import org.wisdom.service.CommandService;
 import org.wisdom.service.HatchService;
 import org.wisdom.sync.TransactionHandler;
 import org.wisdom.util.JWTUtil;
+import org.wisdom.vm.abi.WASMTXPool;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 
+/**
+ * ipc server on the named pipes ~/ipc/pipe.in and ~/ipc/pipe.out, requests are served concurrently,
+ * see {@link IpcDispatcher} for the framed protocol
+ */
 @Component
-public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMessageEvent> {
+public class Fifo implements ApplicationRunner {
 
     private static final Logger logger = LoggerFactory.getLogger(Fifo.class);
 
-    @Autowired
-    private ApplicationContext ctx;
+    // opened for read and write, so reads block instead of returning end of file when no client is writing
+    private RandomAccessFile reader;
 
-    private FileReader reader;
+    private File writeFile;
 
+    // opened when a response is written, reopened after the client closed it
     private FileWriter writer;
 
+    private final Object writerLock = new Object();
+
+    @Value("${wisdom.ipc.workers:4}")
+    private int workers;
+
+    private ExecutorService workerPool;
+
+    private ScheduledExecutorService scheduler;
+
+    private IpcDispatcher dispatcher;
+
     @Autowired
     CommandService commandService;
 
@@ -90,6 +114,15 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
     @Autowired
     private AccountStateTrie accountStateTrie;
 
+    @Autowired
+    private AdoptTransPool adoptTransPool;
+
+    @Autowired
+    private PeningTransPool peningTransPool;
+
+    @Autowired
+    private WASMTXPool wasmtxPool;
+
     private static final String InvalidParams = "params is invalid";
 
     private static final String ModifySuccess = "modify success";
@@ -102,19 +135,66 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
             return;
         }
         initFifo();
-        while (true) {
-            char[] a = new char[1024];
-            if ((reader.read(a)) != -1) {
-                ctx.publishEvent(new FifoMessageEvent(this, String.valueOf(a)));
-            } else {
-                Thread.sleep(100);
-                continue;
+        workerPool = Executors.newFixedThreadPool(
+                Math.max(1, workers),
+                new ThreadFactoryBuilder().setNameFormat("ipc-worker-%d").setDaemon(true).build()
+        );
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("ipc-stream").setDaemon(true).build()
+        );
+        Map<String, Supplier<Object>> streams = new HashMap<>();
+        streams.put("height", () -> JSONObject.parse(getHeight()));
+        streams.put("pool", this::getPoolStats);
+        dispatcher = new IpcDispatcher(
+                (type, message) -> dealMessage(message, type), streams, this::write, workerPool, scheduler
+        );
+        Thread t = new Thread(this::serve, "ipc-fifo");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void serve() {
+        FrameReader frames = new FrameReader(
+                new InputStreamReader(Channels.newInputStream(reader.getChannel()), StandardCharsets.UTF_8)
+        );
+        try {
+            String frame;
+            while ((frame = frames.next()) != null) {
+                if (!dispatcher.dispatch(frame)) {
+                    break;
+                }
             }
-            if (!String.valueOf(a).equals("") && String.valueOf(a).contains("exit")) {
-                break;
+        } catch (IOException e) {
+            logger.error("read ipc pipe failed", e);
+        } finally {
+            dispatcher.close();
+            closeFifo();
+        }
+    }
+
+    private void write(String response) {
+        synchronized (writerLock) {
+            try {
+                if (writer == null) {
+                    // blocks until a client opens the pipe for read
+                    writer = new FileWriter(writeFile);
+                }
+                writer.write(response);
+                writer.flush();
+            } catch (IOException e) {
+                logger.warn("write ipc pipe failed {}", e.getMessage());
+                closeWriter();
             }
         }
-        closeFifo();
+    }
+
+    private void closeWriter() {
+        if (writer == null) return;
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+        }
+        writer = null;
     }
 
     private void initFifo() throws IOException, InterruptedException {
@@ -123,12 +203,11 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
         if (!readFile.exists()) {
             readFile = createFifoPipe(dir + File.separator + "pipe.in");
         }
-        File writeFile = new File(dir + File.separator + "pipe.out");
+        writeFile = new File(dir + File.separator + "pipe.out");
         if (!writeFile.exists()) {
             writeFile = createFifoPipe(dir + File.separator + "pipe.out");
         }
-        reader = new FileReader(readFile);
-        writer = new FileWriter(writeFile);
+        reader = new RandomAccessFile(readFile, "rw");
     }
 
     private String CreateFifoDir() {
@@ -140,9 +219,16 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
         return filePath.getAbsolutePath();
     }
 
-    private void closeFifo() throws IOException {
-        reader.close();
-        writer.close();
+    private void closeFifo() {
+        workerPool.shutdown();
+        scheduler.shutdown();
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (writerLock) {
+            closeWriter();
+        }
     }
 
     /**
@@ -172,20 +258,6 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
     }
 
 
-    @Override
-    public void onApplicationEvent(FifoMessageEvent event) {
-        try {
-            JSONObject jo = (JSONObject) JSONObject.parse(event.message);
-            String message = jo.getString("message");
-            String type = jo.getString("type");
-            String result = dealMessage(message, type);
-            writer.write(result);
-            writer.flush();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-
     private String dealMessage(String message, String type) {
         switch (type) {
             case "sendTranInfo":
@@ -396,6 +468,13 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
         return jsonObject.toJSONString();
     }
 
+    private JSONObject getPoolStats() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("queued", adoptTransPool.size());
+        jsonObject.put("pending", peningTransPool.size());
+        jsonObject.put("wasm", wasmtxPool.size());
+        return jsonObject;
+    }
 
     private String getNodeInfo() {
         String networkType;
@@ -438,21 +517,4 @@ public class Fifo implements ApplicationRunner, ApplicationListener<Fifo.FifoMes
         }
     }
 
-    public static class FifoMessageEvent extends ApplicationEvent {
-        private String message;
-
-        public String getMessage() {
-            return message;
-        }
-
-        public void setMessage(String message) {
-            this.message = message;
-        }
-
-        FifoMessageEvent(Object source, String message) {
-            super(source);
-            this.message = message;
-        }
-    }
-
 }
@@ -0,0 +1,71 @@
+package org.wisdom.ipc;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * splits a character stream into top level json objects
+ * <p>
+ * frames of the framed protocol are terminated by a new line, requests of ipc_client.py have no delimiter,
+ * both are split by matching braces outside of strings, so a request is never cut at a buffer boundary
+ */
+class FrameReader {
+    private final Reader reader;
+
+    private final char[] buf = new char[4096];
+
+    private int pos;
+
+    private int limit;
+
+    private final StringBuilder frame = new StringBuilder();
+
+    FrameReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * blocks until a complete object is read
+     *
+     * @return null if the stream ends
+     */
+    String next() throws IOException {
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        frame.setLength(0);
+        while (true) {
+            if (pos == limit) {
+                limit = reader.read(buf);
+                pos = 0;
+                if (limit < 0) {
+                    limit = 0;
+                    return null;
+                }
+            }
+            char c = buf[pos++];
+            if (depth == 0) {
+                // bytes between objects such as new lines are skipped
+                if (c != '{') continue;
+            }
+            frame.append(c);
+            if (inString) {
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return frame.toString();
+            }
+        }
+    }
+}
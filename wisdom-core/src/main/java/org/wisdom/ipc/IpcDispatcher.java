@@ -0,0 +1,168 @@
+package org.wisdom.ipc;
+
+import com.alibaba.fastjson.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * runs ipc requests on a worker pool and writes the responses in the order they complete
+ * <p>
+ * a request with an "id" is framed, its response is a json object with the same id and a "result" or an "error"
+ * followed by a new line, a request without id is from ipc_client.py and its result is written as is.
+ * <p>
+ * a "subscribe" request whose message names a stream, e.g. "height" or "pool", emits {"id", "result", "more": true}
+ * every time the value changes, polled per "interval" milliseconds, until an "unsubscribe" request whose message
+ * is the id of subscription, then {"id", "more": false} ends the stream
+ */
+class IpcDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(IpcDispatcher.class);
+
+    private static final long DEFAULT_INTERVAL = 1000;
+
+    private static final long MIN_INTERVAL = 100;
+
+    interface Handler {
+        String handle(String type, String message) throws Exception;
+    }
+
+    private final Handler handler;
+
+    private final Map<String, Supplier<Object>> streams;
+
+    private final Consumer<String> output;
+
+    private final ExecutorService workers;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+
+    IpcDispatcher(Handler handler, Map<String, Supplier<Object>> streams, Consumer<String> output,
+                  ExecutorService workers, ScheduledExecutorService scheduler) {
+        this.handler = handler;
+        this.streams = streams;
+        this.output = output;
+        this.workers = workers;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return false if the frame asks the server to exit
+     */
+    boolean dispatch(String frame) {
+        JSONObject request;
+        try {
+            request = JSONObject.parseObject(frame);
+        } catch (RuntimeException e) {
+            logger.warn("invalid ipc frame {}", frame);
+            return true;
+        }
+        Object id = request.get("id");
+        String type = request.getString("type");
+        String message = request.getString("message");
+        if ("exit".equals(type)) {
+            return false;
+        }
+        if (id == null) {
+            workers.execute(() -> {
+                try {
+                    output.accept(handler.handle(type, message));
+                } catch (Exception e) {
+                    logger.error("ipc request {} failed", type, e);
+                }
+            });
+            return true;
+        }
+        if ("subscribe".equals(type)) {
+            subscribe(id, message, request.getLongValue("interval"));
+            return true;
+        }
+        if ("unsubscribe".equals(type)) {
+            boolean ok = unsubscribe(message);
+            write(response(id).fluentPut(ok ? "result" : "error", ok ? "unsubscribed" : "no such subscription"));
+            return true;
+        }
+        workers.execute(() -> {
+            JSONObject resp = response(id);
+            try {
+                resp.put("result", handler.handle(type, message));
+            } catch (Exception e) {
+                resp.put("error", String.valueOf(e.getMessage()));
+            }
+            write(resp);
+        });
+        return true;
+    }
+
+    private void subscribe(Object id, String stream, long interval) {
+        Supplier<Object> supplier = stream == null ? null : streams.get(stream);
+        if (supplier == null) {
+            write(response(id).fluentPut("error", "unknown stream " + stream));
+            return;
+        }
+        Subscription sub = new Subscription(id);
+        if (subscriptions.putIfAbsent(id.toString(), sub) != null) {
+            write(response(id).fluentPut("error", "duplicated id"));
+            return;
+        }
+        long period = interval <= 0 ? DEFAULT_INTERVAL : Math.max(interval, MIN_INTERVAL);
+        sub.future = scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Object value = supplier.get();
+                synchronized (sub) {
+                    if (sub.closed || value.equals(sub.last)) return;
+                    sub.last = value;
+                    write(response(id).fluentPut("result", value).fluentPut("more", true));
+                }
+            } catch (RuntimeException e) {
+                logger.error("ipc stream {} failed", stream, e);
+            }
+        }, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean unsubscribe(String id) {
+        Subscription sub = id == null ? null : subscriptions.remove(id);
+        if (sub == null) return false;
+        // the end of stream is the last frame of the subscription
+        synchronized (sub) {
+            sub.closed = true;
+            if (sub.future != null) sub.future.cancel(false);
+            write(response(sub.id).fluentPut("more", false));
+        }
+        return true;
+    }
+
+    private static JSONObject response(Object id) {
+        JSONObject o = new JSONObject();
+        o.put("id", id);
+        return o;
+    }
+
+    private void write(JSONObject frame) {
+        output.accept(frame.toJSONString() + "\n");
+    }
+
+    void close() {
+        subscriptions.keySet().forEach(this::unsubscribe);
+    }
+
+    private static class Subscription {
+        private final Object id;
+
+        private volatile ScheduledFuture<?> future;
+
+        private boolean closed;
+
+        // the latest emitted value
+        private Object last;
+
+        Subscription(Object id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package org.wisdom.merkletree;
+
+import org.apache.commons.codec.binary.Hex;
+import org.bouncycastle.crypto.digests.KeccakDigest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * merkle tree over byte arrays, roots and nodes are identical to {@link MerkleTree} built from the hex strings of leaves
+ * <p>
+ * a leaf is hashed as keccak256 of its lower case hex, a parent as keccak256 of the level of children followed by
+ * the hex of both children, the last node of a level with odd size is paired with itself
+ * <p>
+ * hashes of a level are kept in one flat array, appending or replacing a leaf re-hashes its ancestors only
+ */
+public class BinaryMerkleTree {
+    private static final int HASH_SIZE = 32;
+
+    // leaves hashed in parallel above this
+    static final int PARALLEL_THRESHOLD = 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private static final ThreadLocal<Hasher> HASHER = ThreadLocal.withInitial(Hasher::new);
+
+    private final List<byte[]> leaves;
+
+    // levels.get(i) holds the hashes of level i + 1
+    private final List<byte[]> levels = new ArrayList<>();
+
+    private final List<Integer> sizes = new ArrayList<>();
+
+    public BinaryMerkleTree() {
+        this.leaves = new ArrayList<>();
+    }
+
+    public BinaryMerkleTree(List<byte[]> leaves) {
+        this.leaves = new ArrayList<>(leaves);
+        int n = leaves.size();
+        if (n == 0) return;
+        byte[] level = hashLeaves(this.leaves);
+        levels.add(level);
+        sizes.add(n);
+        byte depth = 1;
+        do {
+            byte[] parents = new byte[((n + 1) / 2) * HASH_SIZE];
+            n = hashParents(level, n, depth, parents);
+            levels.add(parents);
+            sizes.add(n);
+            level = parents;
+            depth++;
+        } while (n > 1);
+    }
+
+    /**
+     * root of the leaves, parents are hashed in place over the hashes of leaves
+     *
+     * @return 32 zero bytes if leaves is empty
+     */
+    public static byte[] root(List<byte[]> leaves) {
+        int n = leaves.size();
+        if (n == 0) return new byte[HASH_SIZE];
+        byte[] level = hashLeaves(leaves);
+        byte depth = 1;
+        do {
+            n = hashParents(level, n, depth++, level);
+        } while (n > 1);
+        return Arrays.copyOf(level, HASH_SIZE);
+    }
+
+    private static byte[] hashLeaves(List<byte[]> leaves) {
+        int n = leaves.size();
+        byte[] out = new byte[n * HASH_SIZE];
+        IntStream range = IntStream.range(0, n);
+        if (n >= PARALLEL_THRESHOLD) range = range.parallel();
+        range.forEach(i -> HASHER.get().leaf(leaves.get(i), out, i * HASH_SIZE));
+        return out;
+    }
+
+    // hash n nodes of level into out, out could be the same array as level, returns size of parents
+    private static int hashParents(byte[] level, int n, byte depth, byte[] out) {
+        Hasher h = HASHER.get();
+        int parents = (n + 1) / 2;
+        for (int i = 0; i < parents; i++) {
+            int right = 2 * i + 1 < n ? 2 * i + 1 : 2 * i;
+            h.parent(depth, level, 2 * i * HASH_SIZE, level, right * HASH_SIZE, out, i * HASH_SIZE);
+        }
+        return parents;
+    }
+
+    /**
+     * append a leaf, hashes of the nodes on the path from the leaf to the root are updated
+     */
+    public void append(byte[] leaf) {
+        leaves.add(leaf);
+        if (levels.isEmpty()) {
+            levels.add(new byte[HASH_SIZE * 16]);
+            sizes.add(0);
+        }
+        int n = sizes.get(0);
+        HASHER.get().leaf(leaf, ensureCapacity(0, n + 1), n * HASH_SIZE);
+        sizes.set(0, n + 1);
+        updatePath(n);
+    }
+
+    /**
+     * replace a leaf, e.g. the coinbase whose hash is known after all the other transactions are appended
+     */
+    public void set(int index, byte[] leaf) {
+        if (index < 0 || index >= leaves.size()) throw new IndexOutOfBoundsException("index " + index);
+        leaves.set(index, leaf);
+        HASHER.get().leaf(leaf, levels.get(0), index * HASH_SIZE);
+        updatePath(index);
+    }
+
+    // re-hash the ancestors of a leaf, the leaves level always has a parent level,
+    // upper levels have parents until the root
+    private void updatePath(int index) {
+        Hasher h = HASHER.get();
+        for (int i = 0; i == 0 || sizes.get(i) > 1; i++) {
+            int size = sizes.get(i);
+            int idx = index / 2;
+            if (levels.size() == i + 1) {
+                levels.add(new byte[levels.get(i).length / 2 + HASH_SIZE]);
+                sizes.add(0);
+            }
+            byte[] parents = ensureCapacity(i + 1, idx + 1);
+            byte[] children = levels.get(i);
+            int right = 2 * idx + 1 < size ? 2 * idx + 1 : 2 * idx;
+            h.parent((byte) (i + 1), children, 2 * idx * HASH_SIZE, children, right * HASH_SIZE,
+                    parents, idx * HASH_SIZE);
+            sizes.set(i + 1, Math.max(sizes.get(i + 1), idx + 1));
+            index = idx;
+        }
+    }
+
+    private byte[] ensureCapacity(int level, int size) {
+        byte[] b = levels.get(level);
+        if (b.length >= size * HASH_SIZE) return b;
+        b = Arrays.copyOf(b, Math.max(b.length * 2, size * HASH_SIZE));
+        levels.set(level, b);
+        return b;
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    // count of nodes in a level, 0 if the level not exists
+    public int size(int level) {
+        return level < 1 || level > levels.size() ? 0 : sizes.get(level - 1);
+    }
+
+    /**
+     * @return 32 zero bytes if there is no leaf
+     */
+    public byte[] getRoot() {
+        if (levels.isEmpty()) return new byte[HASH_SIZE];
+        return Arrays.copyOf(levels.get(levels.size() - 1), HASH_SIZE);
+    }
+
+    // count of levels, same as MerkleTree#getLevelSize
+    public int getLevelSize() {
+        return levels.size();
+    }
+
+    // hash of a node, level starts from 1 for leaves
+    public byte[] getHash(int level, int index) {
+        if (level < 1 || level > levels.size() || index < 0 || index >= sizes.get(level - 1)) {
+            throw new IndexOutOfBoundsException("level " + level + " index " + index);
+        }
+        int off = index * HASH_SIZE;
+        return Arrays.copyOfRange(levels.get(level - 1), off, off + HASH_SIZE);
+    }
+
+    /**
+     * nodes of a level for merkle messages, hash, data, level and index are identical to MerkleTree#getLevelList,
+     * names of parents are short labels instead of the names of all the descendants
+     *
+     * @return null if the level not exists
+     */
+    public List<TreeNode> getLevelList(byte level) {
+        if (level < 1 || level > levels.size()) return null;
+        int size = sizes.get(level - 1);
+        byte[] hashes = levels.get(level - 1);
+        List<TreeNode> nodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String hash = Hex.encodeHexString(Arrays.copyOfRange(hashes, i * HASH_SIZE, (i + 1) * HASH_SIZE));
+            TreeNode node = new TreeNode();
+            if (level == 1) {
+                String data = Hex.encodeHexString(leaves.get(i));
+                node.setData(data);
+                node.setName("[节点:" + data + "]");
+            } else {
+                node.setData(hash);
+                node.setName("[父节点:" + level + "-" + i + "]");
+            }
+            node.setHash(hash);
+            node.setLevel(level);
+            node.setIndex(i);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    // per thread digest and buffer of hex encoded inputs
+    private static class Hasher {
+        private final KeccakDigest digest = new KeccakDigest(256);
+
+        private byte[] buf = new byte[1 + 4 * HASH_SIZE];
+
+        private static void hex(byte[] in, int off, int len, byte[] out, int outOff) {
+            for (int i = 0; i < len; i++) {
+                int v = in[off + i] & 0xff;
+                out[outOff + 2 * i] = HEX[v >>> 4];
+                out[outOff + 2 * i + 1] = HEX[v & 0x0f];
+            }
+        }
+
+        void leaf(byte[] leaf, byte[] out, int outOff) {
+            if (buf.length < leaf.length * 2) buf = new byte[leaf.length * 2];
+            hex(leaf, 0, leaf.length, buf, 0);
+            digest.update(buf, 0, leaf.length * 2);
+            digest.doFinal(out, outOff);
+        }
+
+        void parent(byte depth, byte[] left, int leftOff, byte[] right, int rightOff, byte[] out, int outOff) {
+            buf[0] = depth;
+            hex(left, leftOff, HASH_SIZE, buf, 1);
+            hex(right, rightOff, HASH_SIZE, buf, 1 + 2 * HASH_SIZE);
+            digest.update(buf, 0, 1 + 4 * HASH_SIZE);
+            digest.doFinal(out, outOff);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.wisdom.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * monotonic counter backed by a striped adder, safe to be updated from hot paths of many threads
+ */
+public class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void inc() {
+        adder.increment();
+    }
+
+    public void add(long n) {
+        adder.add(n);
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,78 @@
+package org.wisdom.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * log-linear histogram in the style of HdrHistogram, every power of two is split into 8 sub buckets
+ * so recorded values are kept within 12.5% relative error, recording is lock free and allocation free
+ */
+public class Histogram {
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) Math.max(value, 0);
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    // the largest value which falls into the bucket
+    static long highestOf(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = SUB_BUCKETS + index % SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        buckets.incrementAndGet(indexOf(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    // record the nanoseconds elapsed since start, which is obtained by System.nanoTime()
+    public void recordSince(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long[] quantiles(double... qs) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        long[] ret = new long[qs.length];
+        for (int j = 0; j < qs.length; j++) {
+            if (total == 0) continue;
+            long rank = (long) Math.ceil(qs[j] * total);
+            long acc = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                acc += snapshot[i];
+                if (acc >= rank && snapshot[i] > 0) {
+                    ret[j] = highestOf(i);
+                    break;
+                }
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,138 @@
+package org.wisdom.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * process wide metrics registry, metrics are grouped into families by name and distinguished by labels
+ * <p>
+ * hot paths should hold the returned counter or histogram instead of looking it up on every update
+ */
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // block import stages share a family, distinguished by the stage label
+    public static final String BLOCK_IMPORT = "wisdom_block_import_seconds";
+
+    public static final String BLOCK_IMPORT_HELP = "time consuming of block import stages";
+
+    private enum Type {
+        COUNTER, GAUGE, SUMMARY
+    }
+
+    private static class Family {
+        private final Type type;
+        private final String help;
+        // scale to convert recorded values to exported values, e.g. 1e9 for nanoseconds to seconds
+        private final double scale;
+        private final ConcurrentMap<String, Object> children = new ConcurrentHashMap<>();
+
+        private Family(Type type, String help, double scale) {
+            this.type = type;
+            this.help = help;
+            this.scale = scale;
+        }
+    }
+
+    private static final ConcurrentMap<String, Family> FAMILIES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    private static Family family(String name, Type type, String help, double scale) {
+        Family f = FAMILIES.computeIfAbsent(name, k -> new Family(type, help, scale));
+        if (f.type != type) {
+            throw new IllegalArgumentException("metric " + name + " had been registered as " + f.type);
+        }
+        return f;
+    }
+
+    // labels are given as key value pairs, e.g. labels("method", "getBlock")
+    private static String labels(String... kvs) {
+        if (kvs.length % 2 != 0) throw new IllegalArgumentException("labels must be key value pairs");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < kvs.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(kvs[i]).append("=\"").append(escape(kvs[i + 1])).append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, Type.COUNTER, help, 1)
+                .children.computeIfAbsent(labels(labels), k -> new Counter());
+    }
+
+    // histogram of durations in nanoseconds, exported in seconds
+    public static Histogram timer(String name, String help, String... labels) {
+        return histogram(name, help, 1e9, labels);
+    }
+
+    public static Histogram histogram(String name, String help, double scale, String... labels) {
+        return (Histogram) family(name, Type.SUMMARY, help, scale)
+                .children.computeIfAbsent(labels(labels), k -> new Histogram());
+    }
+
+    // gauges are sampled when scraped, the supplier of the same labels is replaced by the latest registered
+    public static void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, Type.GAUGE, help, 1).children.put(labels(labels), supplier);
+    }
+
+    // children of a family, keyed by rendered labels
+    public static Map<String, Object> children(String name) {
+        Family f = FAMILIES.get(name);
+        return f == null ? new TreeMap<>() : new TreeMap<>(f.children);
+    }
+
+    /**
+     * render all metrics in prometheus text exposition format 0.0.4
+     */
+    public static String scrape() {
+        StringBuilder sb = new StringBuilder();
+        new TreeMap<>(FAMILIES).forEach((name, f) -> {
+            sb.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(f.type.name().toLowerCase()).append('\n');
+            new TreeMap<>(f.children).forEach((labels, m) -> {
+                switch (f.type) {
+                    case COUNTER:
+                        sample(sb, name, labels, ((Counter) m).get());
+                        break;
+                    case GAUGE:
+                        long v;
+                        try {
+                            v = ((LongSupplier) m).getAsLong();
+                        } catch (Exception e) {
+                            break;
+                        }
+                        sample(sb, name, labels, v);
+                        break;
+                    case SUMMARY: {
+                        Histogram h = (Histogram) m;
+                        long[] qs = h.quantiles(QUANTILES);
+                        for (int i = 0; i < QUANTILES.length; i++) {
+                            String l = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + QUANTILES[i] + "\"";
+                            sample(sb, name, l, qs[i] / f.scale);
+                        }
+                        sample(sb, name + "_sum", labels, h.getSum() / f.scale);
+                        sample(sb, name + "_count", labels, h.getCount());
+                        break;
+                    }
+                }
+            });
+        });
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, Object value) {
+        sb.append(name);
+        if (!labels.isEmpty()) sb.append('{').append(labels).append('}');
+        sb.append(' ').append(value).append('\n');
+    }
+}
@@ -137,6 +137,7 @@ public class GRPCClient {
     }
 
     private CompletableFuture<WisdomOuterClass.Message> dial(String host, int port, WisdomOuterClass.Message msg) {
+        MessageMetrics.sent(msg.getCode());
         ManagedChannel ch = getChannel(new HostPort(host, port));
 
         WisdomGrpc.WisdomBlockingStub stub = WisdomGrpc.newBlockingStub(
@@ -155,6 +156,7 @@ public class GRPCClient {
     }
 
     private void dialAsync(String host, int port, WisdomOuterClass.Message msg, BiConsumer<WisdomOuterClass.Message, Throwable> function) {
+        MessageMetrics.sent(msg.getCode());
         ManagedChannel ch = getChannel(new HostPort(host, port));
         WisdomGrpc.WisdomStub stub = WisdomGrpc.newStub(
                 ch).withDeadlineAfter(timeout, TimeUnit.SECONDS);
@@ -155,19 +155,19 @@ public class MerkleHandler implements Plugin, ApplicationListener<MerkleMessageE
         List<TreeNode> errorTreeNodes = new ArrayList<>();
         Block block = merkleTreeManager.getCacheBlock(Hex.encodeHexString(wts.getBlockHash().toByteArray()));
         if (block != null) {
-            MerkleTree merkleTree = getMerkleTree(block);
+            BinaryMerkleTree merkleTree = Block.getMerkleTree(block.body);
             for (TreeNode treeNode : treeNodes) {
                 int idx = treeNode.getIndex();
                 int level = treeNode.getLevel();
-                if (merkleTree.getLevelList((byte) level) == null) {
+                if (merkleTree.size(level) == 0) {
                     merkleTreeManager.removeBlockToCache(Hex.encodeHexString(wts.getBlockHash().toByteArray()));
                     return;
                 }
-                if (merkleTree.getLevelList((byte) level).size() - 1 < idx) {
+                if (merkleTree.size(level) - 1 < idx) {
                     errorTreeNodes.add(treeNode);
                     continue;
                 }
-                if (!merkleTree.getLevelList((byte) level).get(idx).getHash().equals(treeNode.getHash())) {
+                if (!Hex.encodeHexString(merkleTree.getHash(level, idx)).equals(treeNode.getHash())) {
                     errorTreeNodes.add(treeNode);
                 }
             }
@@ -202,7 +202,7 @@ public class MerkleHandler implements Plugin, ApplicationListener<MerkleMessageE
         byte[] blockHash = getTreeNodes.getBlockHash().toByteArray();
         Block block = bc.getBlockByHash(blockHash);
         if (block != null) {
-            MerkleTree merkleTree = getMerkleTree(block);
+            BinaryMerkleTree merkleTree = Block.getMerkleTree(block.body);
             for (TreeNode parentNode : parentNodes) {
                 int index = parentNode.getIndex();
                 int level = parentNode.getLevel() - 1;
@@ -228,14 +228,6 @@ public class MerkleHandler implements Plugin, ApplicationListener<MerkleMessageE
         }
     }
 
-    private MerkleTree getMerkleTree(Block block) {
-        List<String> hashes = new ArrayList<>();
-        for (Transaction tx : block.body) {
-            hashes.add(tx.getHashHexString());
-        }
-        return new MerkleTree(hashes);
-    }
-
     private void getRootTreeNodes(Block block) {
         if (server == null) {
             return;
@@ -248,8 +240,8 @@ public class MerkleHandler implements Plugin, ApplicationListener<MerkleMessageE
             return;
         }
         List<Transaction> txs = block.body;
-        byte level = (byte) (Block.getMerkleRootLevel(txs) & 0xff);
-        List<TreeNode> parentTreeNodes = Block.getMerkleTreeNode(txs, level);
+        BinaryMerkleTree merkleTree = Block.getMerkleTree(txs);
+        List<TreeNode> parentTreeNodes = merkleTree.getLevelList((byte) (merkleTree.getLevelSize() & 0xff));
         int index = Math.abs(ThreadLocalRandom.current().nextInt()) % ps.size();
         WisdomOuterClass.GetTreeNodes getTreeNodes = WisdomOuterClass.GetTreeNodes.newBuilder()
                 .setBlockHash(ByteString.copyFrom(block.getHash()))
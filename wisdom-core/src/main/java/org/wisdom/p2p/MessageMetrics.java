@@ -0,0 +1,36 @@
+package org.wisdom.p2p;
+
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+// p2p message counters per code, resolved once so that recording is a single adder update
+class MessageMetrics {
+    private static final Map<WisdomOuterClass.Code, Counter> RECEIVED = new EnumMap<>(WisdomOuterClass.Code.class);
+    private static final Map<WisdomOuterClass.Code, Counter> SENT = new EnumMap<>(WisdomOuterClass.Code.class);
+    private static final Map<WisdomOuterClass.Code, Histogram> HANDLE = new EnumMap<>(WisdomOuterClass.Code.class);
+
+    static {
+        for (WisdomOuterClass.Code code : WisdomOuterClass.Code.values()) {
+            String c = code.name().toLowerCase();
+            RECEIVED.put(code, Metrics.counter("wisdom_p2p_messages_received_total", "p2p messages received", "code", c));
+            SENT.put(code, Metrics.counter("wisdom_p2p_messages_sent_total", "p2p messages sent", "code", c));
+            HANDLE.put(code, Metrics.timer("wisdom_p2p_message_handle_seconds", "time consuming of p2p message handling", "code", c));
+        }
+    }
+
+    private MessageMetrics() {
+    }
+
+    static void received(WisdomOuterClass.Code code, long start) {
+        RECEIVED.get(code).inc();
+        HANDLE.get(code).recordSince(start);
+    }
+
+    static void sent(WisdomOuterClass.Code code) {
+        SENT.get(code).inc();
+    }
+}
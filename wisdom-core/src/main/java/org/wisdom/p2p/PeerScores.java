@@ -0,0 +1,159 @@
+package org.wisdom.p2p;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * bandwidth and behaviour of peers, the score of a peer increases by useful blocks delivered and decreases by invalid
+ * blocks and slow responses. sync prefers peers of higher score and limits requests of peers of lower score
+ * <p>
+ * counters are halved periodically so that a peer recovers from old misbehaviour, the same as the scores of PeersCache
+ */
+@Component
+public class PeerScores {
+    private static final int DECAY_RATE = 60;
+
+    // a block failed to validate outweighs this number of useful blocks
+    static final long INVALID_BLOCK_PENALTY = 50;
+
+    // score lost per 100 ms of latency
+    private static final long LATENCY_UNIT = 100;
+
+    // peers below this score are blocked until the score is recovered by decay
+    public static final long BLOCK_SCORE = -500;
+
+    // weight of rate limits of a peer is in [MIN_WEIGHT, MAX_WEIGHT]
+    private static final double MIN_WEIGHT = 0.25;
+
+    private static final double MAX_WEIGHT = 2;
+
+    // score of a peer to be granted the max weight
+    private static final long MAX_WEIGHT_SCORE = 100;
+
+    public static class Stats {
+        private long bytesReceived;
+
+        private long bytesSent;
+
+        private long usefulBlocks;
+
+        private long invalidBlocks;
+
+        // moving average of response latency in milliseconds, -1 if never measured
+        private long latency = -1;
+
+        public synchronized long score() {
+            return usefulBlocks - invalidBlocks * INVALID_BLOCK_PENALTY - Math.max(latency, 0) / LATENCY_UNIT;
+        }
+
+        private synchronized void decay() {
+            bytesReceived /= 2;
+            bytesSent /= 2;
+            usefulBlocks /= 2;
+            invalidBlocks /= 2;
+        }
+
+        private synchronized boolean isIdle() {
+            return bytesReceived == 0 && bytesSent == 0 && usefulBlocks == 0 && invalidBlocks == 0;
+        }
+
+        private synchronized Map<String, Object> toMap() {
+            Map<String, Object> m = new HashMap<>();
+            m.put("score", score());
+            m.put("bytesReceived", bytesReceived);
+            m.put("bytesSent", bytesSent);
+            m.put("usefulBlocks", usefulBlocks);
+            m.put("invalidBlocks", invalidBlocks);
+            m.put("latency", latency);
+            return m;
+        }
+    }
+
+    // peer key -> stats
+    private final ConcurrentMap<String, Stats> stats = new ConcurrentHashMap<>();
+
+    private Stats get(String peer) {
+        return stats.computeIfAbsent(peer, k -> new Stats());
+    }
+
+    public void received(Peer peer, long bytes) {
+        Stats s = get(peer.key());
+        synchronized (s) {
+            s.bytesReceived += bytes;
+        }
+    }
+
+    public void sent(Peer peer, long bytes) {
+        Stats s = get(peer.key());
+        synchronized (s) {
+            s.bytesSent += bytes;
+        }
+    }
+
+    // blocks delivered by the peer are written
+    public void usefulBlocks(String peer, long blocks) {
+        Stats s = get(peer);
+        synchronized (s) {
+            s.usefulBlocks += blocks;
+        }
+    }
+
+    // a block delivered by the peer failed to validate
+    public void invalidBlock(String peer) {
+        Stats s = get(peer);
+        synchronized (s) {
+            s.invalidBlocks++;
+        }
+    }
+
+    public void latency(Peer peer, long millis) {
+        Stats s = get(peer.key());
+        synchronized (s) {
+            s.latency = s.latency < 0 ? millis : (s.latency * 7 + millis) / 8;
+        }
+    }
+
+    public long score(Peer peer) {
+        Stats s = stats.get(peer.key());
+        return s == null ? 0 : s.score();
+    }
+
+    /**
+     * weight of rate limits of the peer, peers unknown are weighted 1
+     */
+    public double weight(Peer peer) {
+        long score = score(peer);
+        if (score >= 0) {
+            return 1 + (MAX_WEIGHT - 1) * Math.min(score, MAX_WEIGHT_SCORE) / MAX_WEIGHT_SCORE;
+        }
+        return Math.max(MIN_WEIGHT, MAX_WEIGHT_SCORE / (double) (MAX_WEIGHT_SCORE - score));
+    }
+
+    /**
+     * sort the peers by score descending, peers of the same score are shuffled
+     */
+    public List<Peer> rank(Collection<Peer> peers) {
+        List<Peer> ranked = new ArrayList<>(peers);
+        Collections.shuffle(ranked);
+        ranked.sort(Comparator.comparingLong(this::score).reversed());
+        return ranked;
+    }
+
+    // peer key -> stats
+    public Map<String, Map<String, Object>> getStats() {
+        Map<String, Map<String, Object>> m = new TreeMap<>();
+        stats.forEach((k, v) -> m.put(k, v.toMap()));
+        return m;
+    }
+
+    @Scheduled(fixedRate = DECAY_RATE * 1000)
+    public void decay() {
+        stats.values().forEach(Stats::decay);
+        stats.values().removeIf(s -> s.isIdle() && s.score() == 0);
+    }
+}
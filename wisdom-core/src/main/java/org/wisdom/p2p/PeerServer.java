@@ -67,6 +67,9 @@ public class PeerServer extends WisdomGrpc.WisdomImplBase {
     @Autowired
     private GRPCClient gRPCClient;
 
+    @Autowired
+    private PeerScores peerScores;
+
     @Value("${p2p.enable-message-log}")
     private boolean enableMessageLog;
 
@@ -162,8 +165,10 @@ public class PeerServer extends WisdomGrpc.WisdomImplBase {
     }
 
     private WisdomOuterClass.Message onMessage(WisdomOuterClass.Message message) {
+        long start = System.nanoTime();
         try {
             Payload payload = new Payload(message);
+            peerScores.received(payload.getRemote(), message.getSerializedSize());
             if (peersCache.getBlocked().contains(payload.getRemote())) {
                 log.error("the remote had been blocked");
                 return gRPCClient.buildMessage(1, NOTHING);
@@ -185,7 +190,8 @@ public class PeerServer extends WisdomGrpc.WisdomImplBase {
             if (ctx.keep) {
                 peersCache.keepPeer(payload.getRemote());
             }
-            if (ctx.block) {
+            // peers sending invalid blocks are blocked until the score recovers
+            if (ctx.block || peerScores.score(payload.getRemote()) < PeerScores.BLOCK_SCORE) {
                 peersCache.blockPeer(payload.getRemote());
             }
             if (ctx.relay) {
@@ -197,6 +203,8 @@ public class PeerServer extends WisdomGrpc.WisdomImplBase {
         } catch (Exception e) {
             e.printStackTrace();
             log.error("fail to parse message");
+        } finally {
+            MessageMetrics.received(message.getCode(), start);
         }
         return gRPCClient.buildMessage(1, NOTHING);
     }
@@ -209,6 +217,7 @@ public class PeerServer extends WisdomGrpc.WisdomImplBase {
     }
 
     private void dialWithTTL(Peer peer, long ttl, AbstractMessage msg) {
+        peerScores.sent(peer, msg.getSerializedSize());
         gRPCClient.dialAsyncWithTTL(peer.host, peer.port, ttl, msg, (m, e) -> {
             if (m != null) {
                 onMessage(m);
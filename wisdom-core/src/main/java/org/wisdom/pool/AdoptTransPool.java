@@ -15,10 +15,12 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.db.DatabaseStoreFactory;
 import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.metrics.Metrics;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Setter
@@ -38,7 +40,11 @@ public class AdoptTransPool {
     // publicKeyHash -> Strings.concat(publicKeyHash, nonce) -> transaction
     private ConcurrentHashMap<String, ConcurrentHashMap<String, TransPool>> atpool;
 
+    // 事务总数，随增删维护，避免 size() 遍历整个内存池
+    private final AtomicInteger count = new AtomicInteger();
+
     public AdoptTransPool(DatabaseStoreFactory factory) {
+        Metrics.gauge("wisdom_pool_transactions", "transactions in memory pools", count::get, "pool", "queued");
         leveldb = factory.create("leveldb", false);
         atpool = new ConcurrentHashMap<>();
         try {
@@ -50,6 +56,7 @@ public class AdoptTransPool {
             });
         } catch (Exception e) {
             atpool = new ConcurrentHashMap<>();
+            count.set(0);
         }
     }
 
@@ -60,7 +67,8 @@ public class AdoptTransPool {
                 ConcurrentHashMap<String, TransPool> map = new ConcurrentHashMap<>();
                 TransPool tp = new TransPool(t, 0, new Date().getTime());
                 map.put(getKeyTrans(t), tp);
-                atpool.put(from, map);
+                ConcurrentHashMap<String, TransPool> prev = atpool.put(from, map);
+                count.addAndGet(1 - (prev == null ? 0 : prev.size()));
             } else {
                 ConcurrentHashMap<String, TransPool> map = atpool.get(from);
                 if (map.containsKey(getKeyTrans(t))) {
@@ -73,7 +81,9 @@ public class AdoptTransPool {
                     }
                 } else {
                     TransPool tp = new TransPool(t, 0, new Date().getTime());
-                    map.put(getKeyTrans(t), tp);
+                    if (map.put(getKeyTrans(t), tp) == null) {
+                        count.incrementAndGet();
+                    }
                     atpool.put(from, map);
                 }
             }
@@ -88,7 +98,7 @@ public class AdoptTransPool {
     }
 
     public int size() {
-        return getAllFull().size();
+        return count.get();
     }
 
     public String getKeyTrans(Transaction t) {
@@ -124,7 +134,9 @@ public class AdoptTransPool {
         if (!hasExist(key)) {
             ConcurrentHashMap<String, TransPool> map = atpool.get(key);
             if (map.containsKey(mapkey)) {
-                map.remove(mapkey);
+                if (map.remove(mapkey) != null) {
+                    count.decrementAndGet();
+                }
                 if (map.size() == 0) {
                     atpool.remove(key);
                 } else {
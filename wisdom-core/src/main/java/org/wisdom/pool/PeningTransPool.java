@@ -17,10 +17,12 @@ import org.wisdom.core.account.Transaction;
 import org.wisdom.db.DatabaseStoreFactory;
 import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
+import org.wisdom.metrics.Metrics;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @Setter
@@ -49,7 +51,11 @@ public class PeningTransPool {
 
     private Map<String, ByteArrayMap> contractpool;
 
+    // 未进db（state != 2）的事务数，随增删和状态变化维护
+    private final AtomicInteger unpacked = new AtomicInteger();
+
     public PeningTransPool(DatabaseStoreFactory factory) {
+        Metrics.gauge("wisdom_pool_transactions", "transactions in memory pools", unpacked::get, "pool", "pending");
         leveldb = factory.create("leveldb", false);
         ptpool = new ConcurrentHashMap<>();
         ptnonce = new ConcurrentHashMap<>();
@@ -65,6 +71,7 @@ public class PeningTransPool {
             ptpool = new ConcurrentHashMap<>();
             ptnonce = new ConcurrentHashMap<>();
             contractpool = new ConcurrentHashMap<>();
+            unpacked.set(0);
         }
     }
 
@@ -78,6 +85,9 @@ public class PeningTransPool {
                 TreeMap<Long, TransPool> map = ptpool.get(fromhash);
                 if (!map.containsKey(transaction.nonce)) {//Pending Can't cover
                     map.put(transaction.nonce, transPool);
+                    if (transPool.getState() != 2) {
+                        unpacked.incrementAndGet();
+                    }
                     ptpool.put(fromhash, map);
                     updateNonce(transaction, transaction.nonce, fromhash);
                     state = true;
@@ -85,6 +95,9 @@ public class PeningTransPool {
             } else {
                 TreeMap<Long, TransPool> map = new TreeMap<>();
                 map.put(transaction.nonce, transPool);
+                if (transPool.getState() != 2) {
+                    unpacked.incrementAndGet();
+                }
                 ptpool.put(fromhash, map);
                 updateNonce(transaction, transaction.nonce, fromhash);
                 state = true;
@@ -111,7 +124,7 @@ public class PeningTransPool {
     }
 
     public int Unpacksize() {
-        return getAllstate().size();
+        return unpacked.get();
     }
 
     public List<TransPool> getAll() {
@@ -226,7 +239,10 @@ public class PeningTransPool {
         if (ptpool.containsKey(key)) {
             TreeMap<Long, TransPool> map = ptpool.get(key);
             if (map.containsKey(nonce)) {
-                map.remove(nonce);
+                TransPool removed = map.remove(nonce);
+                if (removed != null && removed.getState() != 2) {
+                    unpacked.decrementAndGet();
+                }
             }
             if (map.size() == 0) {
                 ptpool.remove(key);
@@ -281,6 +297,11 @@ public class PeningTransPool {
                 TreeMap<Long, TransPool> map = ptpool.get(fromhash);
                 if (map.containsKey(t.nonce)) {
                     TransPool transPool = map.get(t.nonce);
+                    if (transPool.getState() != 2 && type == 2) {
+                        unpacked.decrementAndGet();
+                    } else if (transPool.getState() == 2 && type != 2) {
+                        unpacked.incrementAndGet();
+                    }
                     transPool.setHeight(height);
                     transPool.setState(type);
                     map.put(t.nonce, transPool);
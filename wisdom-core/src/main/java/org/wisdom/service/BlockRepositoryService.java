@@ -63,6 +63,7 @@ public class BlockRepositoryService implements WisdomBlockChain {
     private Block setBody(Block header) {
         if (header == null) return null;
         header.body = transactionDaoJoined.getTransactionsByBlockHash(header.getHash());
+        header.body.forEach(Transaction::seal);
         return header;
     }
 
@@ -78,7 +79,7 @@ public class BlockRepositoryService implements WisdomBlockChain {
         }
 
         for (Transaction tx : all) {
-            cache.get(tx.blockHash).body.add(tx);
+            cache.get(tx.blockHash).body.add(tx.seal());
         }
         return cache.values().stream().sorted(Comparator.comparingLong(x -> x.nHeight)).collect(Collectors.toList());
     }
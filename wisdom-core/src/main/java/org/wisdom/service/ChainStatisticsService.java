@@ -0,0 +1,169 @@
+package org.wisdom.service;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.common.util.FastByteComparisons;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.event.ChainEventBus;
+import org.wisdom.core.event.NewBestBlockEvent;
+import org.wisdom.core.event.NewBlockEvent;
+import org.wisdom.core.event.NewConfirmedBlockEvent;
+import org.wisdom.db.WisdomRepository;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * chain statistics for explorers, maintained by block events instead of being recomputed on every query
+ * <p>
+ * keeps timestamps of blocks written in the last 24 hours and a window of the latest blocks of the best chain
+ */
+@Service
+@Slf4j(topic = "statistics")
+public class ChainStatisticsService {
+    private static final long DAY_SECONDS = 24 * 60 * 60;
+
+    private static final int WINDOW_SIZE = 10;
+
+    @AllArgsConstructor
+    private static class Sample {
+        private byte[] hash;
+        private long time;
+        private long fee;
+        private int transactions;
+    }
+
+    private final WisdomRepository repository;
+
+    private final WisdomBlockChain bc;
+
+    // timestamps of confirmed blocks in the last 24 hours, ascending
+    private final Deque<Long> confirmedTimes = new ArrayDeque<>();
+
+    // blocks in the fork database, hash -> (height, time)
+    private final Map<byte[], long[]> unconfirmed = new ByteArrayMap<>();
+
+    // latest blocks of the best chain, ascending
+    private final Deque<Sample> window = new ArrayDeque<>();
+
+    private long windowFee;
+
+    private int windowTransactions;
+
+    private long lastConfirmedHeight;
+
+    private final ChainEventBus chainEventBus;
+
+    public ChainStatisticsService(WisdomRepository repository, WisdomBlockChain bc, ChainEventBus chainEventBus) {
+        this.repository = repository;
+        this.bc = bc;
+        this.chainEventBus = chainEventBus;
+    }
+
+    @PostConstruct
+    public synchronized void init() {
+        Block confirmed = repository.getLatestConfirmed();
+        lastConfirmedHeight = confirmed.nHeight;
+        long count = bc.countBlocksAfter(now() - DAY_SECONDS);
+        if (count > 0) {
+            bc.getHeadersBetween(confirmed.nHeight - count + 1, confirmed.nHeight)
+                    .forEach(h -> confirmedTimes.addLast(h.nTime));
+        }
+        List<Block> best = repository.getBestChain(WINDOW_SIZE);
+        best.stream().filter(b -> b.nHeight > lastConfirmedHeight)
+                .forEach(b -> unconfirmed.put(b.getHash(), new long[]{b.nHeight, b.nTime}));
+        resetWindow(best);
+        chainEventBus.subscribe("chain-statistics", NewBlockEvent.class, this::onNewBlock);
+        chainEventBus.subscribe("chain-statistics", NewBestBlockEvent.class, this::onNewBestBlock);
+        chainEventBus.subscribe("chain-statistics", NewConfirmedBlockEvent.class, this::onNewConfirmedBlock);
+    }
+
+    public synchronized void onNewBlock(NewBlockEvent event) {
+        Block b = event.getBlock();
+        if (b.nHeight <= lastConfirmedHeight) return;
+        unconfirmed.put(b.getHash(), new long[]{b.nHeight, b.nTime});
+    }
+
+    public synchronized void onNewBestBlock(NewBestBlockEvent event) {
+        Block b = event.getBlock();
+        if (window.isEmpty() || !FastByteComparisons.equal(window.peekLast().hash, b.hashPrevBlock)) {
+            resetWindow(repository.getBestChain(WINDOW_SIZE));
+            return;
+        }
+        push(b);
+    }
+
+    public synchronized void onNewConfirmedBlock(NewConfirmedBlockEvent event) {
+        Block b = event.getBlock();
+        if (b.nHeight <= lastConfirmedHeight) return;
+        lastConfirmedHeight = b.nHeight;
+        confirmedTimes.addLast(b.nTime);
+        evict(now() - DAY_SECONDS);
+        // the fork database drops blocks below the latest confirmed
+        unconfirmed.values().removeIf(x -> x[0] <= lastConfirmedHeight);
+    }
+
+    private void resetWindow(List<Block> blocks) {
+        window.clear();
+        windowFee = 0;
+        windowTransactions = 0;
+        int from = Math.max(0, blocks.size() - WINDOW_SIZE);
+        blocks.subList(from, blocks.size()).forEach(this::push);
+    }
+
+    private void push(Block b) {
+        long fee = 0;
+        int transactions = 0;
+        for (Transaction tx : b.body) {
+            if (tx.type == Transaction.Type.COINBASE.ordinal()) continue;
+            fee += tx.getFee();
+            transactions++;
+        }
+        window.addLast(new Sample(b.getHash(), b.nTime, fee, transactions));
+        windowFee += fee;
+        windowTransactions += transactions;
+        if (window.size() <= WINDOW_SIZE) return;
+        Sample removed = window.removeFirst();
+        windowFee -= removed.fee;
+        windowTransactions -= removed.transactions;
+    }
+
+    private void evict(long cutoff) {
+        while (!confirmedTimes.isEmpty() && confirmedTimes.peekFirst() < cutoff) {
+            confirmedTimes.removeFirst();
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    // count blocks produced in the last 24 hours, confirmed or not
+    public synchronized long getBlocksCount() {
+        long cutoff = now() - DAY_SECONDS;
+        evict(cutoff);
+        return confirmedTimes.size() + unconfirmed.values().stream().filter(x -> x[1] >= cutoff).count();
+    }
+
+    public synchronized double getAverageBlocksInterval() {
+        if (window.isEmpty()) return 0;
+        BigDecimal bd = BigDecimal.valueOf((window.peekLast().time - window.peekFirst().time) / (WINDOW_SIZE - 1.0));
+        return bd.setScale(2, BigDecimal.ROUND_HALF_UP).doubleValue();
+    }
+
+    public synchronized long getAverageFee() {
+        return windowTransactions == 0 ? 0 : (windowFee / windowTransactions);
+    }
+
+    public synchronized long getLastConfirmedHeight() {
+        return lastConfirmedHeight;
+    }
+}
@@ -19,11 +19,20 @@
 package org.wisdom.service;
 
 import org.wisdom.ApiResult.APIResult;
+import org.wisdom.core.account.Transaction;
+
+import java.util.List;
 
 public interface CommandService {
 
     APIResult verifyTransfer(byte[] transfer);
 
+    // verify a transaction decoded from peers
+    APIResult verifyTransaction(Transaction transaction);
+
+    // verify a batch of transactions, returns one result for each transaction in the same order
+    List<APIResult> verifyTransfers(List<byte[]> transfers);
+
     Object getTransactionList(int height,int type);
 
     Object getTransactionBlock(byte[] blockhash, int type);
@@ -53,6 +53,8 @@ public interface HatchService {
     @Deprecated
     Object getTxrecordFromAddress(String address);
 
+    APIResult getTransactionHistory(String address, String direction, String type, String cursor, int limit);
+
     Object getCoinBaseList(long height);
 
     Object getAssetList(long height);
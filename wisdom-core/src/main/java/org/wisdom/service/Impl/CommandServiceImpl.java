@@ -18,9 +18,12 @@
 
 package org.wisdom.service.Impl;
 
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.codec.binary.Hex;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.tdf.common.util.ByteArraySet;
 import org.wisdom.ApiResult.APIResult;
 import org.wisdom.command.Configuration;
 import org.wisdom.command.TransactionCheck;
@@ -35,12 +38,14 @@ import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
 import org.wisdom.pool.AdoptTransPool;
 import org.wisdom.service.CommandService;
-import org.wisdom.util.Address;
+import org.wisdom.vm.abi.WASMTXPool;
 
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -67,59 +72,181 @@ public class CommandServiceImpl implements CommandService {
     @Autowired
     JSONEncodeDecoder jsonEncodeDecoder;
 
+    @Autowired
+    WASMTXPool wasmtxPool;
+
+    // stateless checks (decoding, hash and signature) of batched transactions
+    private final ExecutorService verifyExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("verify-%d").setDaemon(true).build()
+    );
+
+    @PreDestroy
+    public void shutdown() {
+        verifyExecutor.shutdown();
+    }
 
     @Override
     public APIResult verifyTransfer(byte[] transfer) {
-        APIResult apiResult = new APIResult();
-        Transaction tran;
         try {
-            apiResult = transactionCheck.TransactionFormatCheck(transfer);
-            if (apiResult.getCode() == 5000) {
+            return verifyChecked(transactionCheck.TransactionFormatCheck(transfer));
+        } catch (Exception e) {
+            APIResult apiResult = new APIResult();
+            apiResult.setCode(5000);
+            apiResult.setMessage("Exception error");
+            return apiResult;
+        }
+    }
+
+    @Override
+    public APIResult verifyTransaction(Transaction transaction) {
+        // empty payload is decoded as null from rpc bytes
+        if (transaction.payload != null && transaction.payload.length == 0) {
+            transaction.payload = null;
+        }
+        try {
+            return verifyChecked(transactionCheck.TransactionFormatCheck(transaction));
+        } catch (Exception e) {
+            APIResult apiResult = new APIResult();
+            apiResult.setCode(5000);
+            apiResult.setMessage("Exception error");
+            return apiResult;
+        }
+    }
+
+    private APIResult verifyChecked(APIResult apiResult) {
+        if (apiResult.getCode() == 5000) {
+            return apiResult;
+        }
+        Transaction tran = (Transaction) apiResult.getData();
+        if (isWASM(tran)) {
+            return addWASM(tran, apiResult);
+        }
+        Optional<AccountState> accountStateOptional = repository.getConfirmedAccountState(tran.getFromPKHash());
+        return verifyAndAdd(tran, accountStateOptional.orElse(null), this::getTopCandidates);
+    }
+
+    @Override
+    public List<APIResult> verifyTransfers(List<byte[]> transfers) {
+        // 无状态校验并行执行
+        List<CompletableFuture<APIResult>> futures = transfers.stream()
+                .map(t -> CompletableFuture.supplyAsync(() -> transactionCheck.TransactionFormatCheck(t), verifyExecutor))
+                .collect(Collectors.toList());
+        List<APIResult> results = futures.stream().map(f -> {
+            try {
+                return f.join();
+            } catch (Exception e) {
+                APIResult apiResult = new APIResult();
+                apiResult.setCode(5000);
+                apiResult.setMessage("Exception error");
                 return apiResult;
             }
-            tran = (Transaction) apiResult.getData();
-            Optional<AccountState> accountStateOptional = repository.getConfirmedAccountState(Address.publicKeyToHash(tran.from));
-            if (!accountStateOptional.isPresent()) {
+        }).collect(Collectors.toList());
+
+        // 一次查询全部 from 的账户状态
+        Set<byte[]> senders = new ByteArraySet();
+        for (APIResult r : results) {
+            if (r.getCode() == 5000 || isWASM((Transaction) r.getData())) continue;
+            senders.add(((Transaction) r.getData()).getFromPKHash());
+        }
+        Map<byte[], AccountState> states;
+        try {
+            states = senders.isEmpty() ? Collections.emptyMap() : repository.getConfirmedAccountStates(senders);
+        } catch (Exception e) {
+            List<APIResult> failed = new ArrayList<>(transfers.size());
+            for (int i = 0; i < transfers.size(); i++) {
+                APIResult apiResult = new APIResult();
                 apiResult.setCode(5000);
-                apiResult.setData("");
-                apiResult.setMessage("The from account does not exist");
-                return apiResult;
+                apiResult.setMessage("Exception error");
+                failed.add(apiResult);
             }
-            AccountState accountState = accountStateOptional.get();
-            if (tran.type == Transaction.Type.EXIT_MORTGAGE.ordinal()) {
-                List<String> list = repository.getLatestTopCandidates()
-                        .stream().map(x -> x.getPublicKeyHash().toHex())
-                        .collect(Collectors.toList());
-                byte[] fromPublicHash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
-                if (list.size() > 0 && list.contains(Hex.encodeHexString(fromPublicHash))) {
-                    apiResult.setCode(5000);
-                    apiResult.setData("");
-                    apiResult.setMessage("The miner cannot withdraw the mortgage");
-                    return apiResult;
-                }
+            return failed;
+        }
+
+        // 候选人列表每批只计算一次
+        Supplier<List<String>> candidatesSupplier = Suppliers.memoize(this::getTopCandidates);
+
+        List<APIResult> ret = new ArrayList<>(results.size());
+        for (APIResult r : results) {
+            if (r.getCode() == 5000) {
+                ret.add(r);
+                continue;
             }
-            Incubator incubator = getIncubator(accountState, tran.type, tran.payload);
-            apiResult = transactionCheck.TransactionVerify(tran, accountState.getAccount(), incubator);
-            if (apiResult.getCode() == 5000) {
-                return apiResult;
+            Transaction tran = (Transaction) r.getData();
+            if (isWASM(tran)) {
+                ret.add(addWASM(tran, r));
+                continue;
             }
-            //超过queued上限
-            int index = adoptTransPool.size();
-            if ((index++) > configuration.getMaxqueued()) {
+            try {
+                ret.add(verifyAndAdd(tran, states.get(tran.getFromPKHash()), candidatesSupplier));
+            } catch (Exception e) {
+                APIResult apiResult = new APIResult();
                 apiResult.setCode(5000);
-                apiResult.setMessage("The node memory is full, please try again later");
-                return apiResult;
+                apiResult.setMessage("Exception error");
+                ret.add(apiResult);
             }
-            if (tran.getFee() >= configuration.getMin_procedurefee()) {
-                //TODO 判断TO的类型并放进去
-                adoptTransPool.add(Collections.singletonList(tran));
+        }
+        return ret;
+    }
+
+    // wasm transactions are verified when packed, the same as received from peers
+    private APIResult addWASM(Transaction tran, APIResult apiResult) {
+        wasmtxPool.collect(Collections.singleton(tran));
+        return apiResult;
+    }
+
+    private static boolean isWASM(Transaction tran) {
+        switch (Transaction.TYPES_TABLE[tran.type]) {
+            case WASM_CALL:
+            case WASM_DEPLOY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private List<String> getTopCandidates() {
+        return repository.getLatestTopCandidates()
+                .stream().map(x -> x.getPublicKeyHash().toHex())
+                .collect(Collectors.toList());
+    }
+
+    // stateful checks of a well formed transaction, the transaction is added to the queued pool if passed
+    private APIResult verifyAndAdd(Transaction tran, AccountState accountState, Supplier<List<String>> candidates) {
+        APIResult apiResult = new APIResult();
+        if (accountState == null) {
+            apiResult.setCode(5000);
+            apiResult.setData("");
+            apiResult.setMessage("The from account does not exist");
+            return apiResult;
+        }
+        if (tran.type == Transaction.Type.EXIT_MORTGAGE.ordinal()) {
+            List<String> list = candidates.get();
+            byte[] fromPublicHash = RipemdUtility.ripemd160(SHA3Utility.keccak256(tran.from));
+            if (list.size() > 0 && list.contains(Hex.encodeHexString(fromPublicHash))) {
+                apiResult.setCode(5000);
+                apiResult.setData("");
+                apiResult.setMessage("The miner cannot withdraw the mortgage");
+                return apiResult;
             }
-            apiResult.setData(tran);
-        } catch (Exception e) {
+        }
+        Incubator incubator = getIncubator(accountState, tran.type, tran.payload);
+        apiResult = transactionCheck.TransactionVerify(tran, accountState.getAccount(), incubator);
+        if (apiResult.getCode() == 5000) {
+            return apiResult;
+        }
+        //超过queued上限
+        int index = adoptTransPool.size();
+        if ((index++) > configuration.getMaxqueued()) {
             apiResult.setCode(5000);
-            apiResult.setMessage("Exception error");
+            apiResult.setMessage("The node memory is full, please try again later");
             return apiResult;
         }
+        if (tran.getFee() >= configuration.getMin_procedurefee()) {
+            //TODO 判断TO的类型并放进去
+            adoptTransPool.add(Collections.singletonList(tran));
+        }
+        apiResult.setData(tran);
         return apiResult;
     }
 
@@ -34,10 +34,12 @@ import org.wisdom.contract.RateheightlockDefinition.RateheightlockWithdraw;
 import org.wisdom.core.Block;
 import org.wisdom.core.WisdomBlockChain;
 import org.wisdom.core.incubator.Incubator;
+import org.wisdom.core.incubator.InterestEngine;
 import org.wisdom.core.incubator.RateTable;
 import org.wisdom.dao.TransactionDaoJoined;
 import org.wisdom.db.AccountState;
 import org.wisdom.db.SyncTransactionCustomize;
+import org.wisdom.db.TransactionHistoryIndex;
 import org.wisdom.db.WisdomRepository;
 import org.wisdom.keystore.crypto.RipemdUtility;
 import org.wisdom.keystore.crypto.SHA3Utility;
@@ -49,7 +51,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.wisdom.util.ByteUtil;
 
-import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -58,12 +59,17 @@ import static java.util.stream.Collectors.toList;
 @Service
 public class HatchServiceImpl implements HatchService {
 
+    private static final int MAX_HISTORY_PAGE_SIZE = 256;
+
     @Autowired
     WisdomBlockChain wisdomBlockChain;
 
     @Autowired
     RateTable rateTable;
 
+    @Autowired
+    InterestEngine interestEngine;
+
     @Autowired
     Configuration configuration;
 
@@ -326,56 +332,28 @@ public class HatchServiceImpl implements HatchService {
             }
             //查询当前孵化记录
             Incubator incubator = interestMap.get(trhash);
-            if (incubator.getInterest_amount() == 0 || incubator.getCost() == 0) {
-                return APIResult.newFailResult(3000, "There is no interest to be paid");
-            }
-            HatchModel.Payload payloadproto = HatchModel.Payload.parseFrom(transaction.payload);
-            int days = payloadproto.getType();
-            String nowrate = rateTable.selectrate(transaction.height, days);
             //当前最高高度
             long maxhieght = wisdomBlockChain.getTopHeight();
-            long differheight = maxhieght - incubator.getLast_blockheight_interest();
-            int differdays = (int) (differheight / configuration.getDay_count(maxhieght));
-            if (differdays == 0) {
-                return APIResult.newFailResult(5000, "Interest less than one day");
-            }
-            BigDecimal aount = new BigDecimal(transaction.amount);
-            BigDecimal nowratebig = new BigDecimal(nowrate);
-            BigDecimal dayrate = aount.multiply(nowratebig);
-            long dayratelong = dayrate.longValue();
-            JSONObject jsonObject = new JSONObject();
-            //判断利息金额小于每天利息
-            if (incubator.getInterest_amount() < dayrate.longValue()) {
-                jsonObject.put("dueinAmount", incubator.getInterest_amount());
-                jsonObject.put("capitalAmount", incubator.getInterest_amount());
-            } else {
-                long muls = (long) (incubator.getInterest_amount() % dayrate.longValue());
-                if (muls != 0) {
-                    long syamount = muls;
-                    jsonObject.put("dueinAmount", syamount);
-                    jsonObject.put("capitalAmount", incubator.getInterest_amount());
-                } else {
-                    int maxdays = (int) (incubator.getInterest_amount() / dayrate.longValue());
-                    long lastdays = 0;
-                    if (maxdays > differdays) {
-                        lastdays = differdays;
-                    } else {
-                        lastdays = maxdays;
-                    }
-                    //当前可获取利息
-                    BigDecimal lastdaysbig = BigDecimal.valueOf(lastdays);
-                    BigDecimal dayrtebig = BigDecimal.valueOf(dayratelong);
-                    long interset = dayrtebig.multiply(lastdaysbig).longValue();
-                    jsonObject.put("dueinAmount", interset);
-                    jsonObject.put("capitalAmount", incubator.getInterest_amount());
-                }
-            }
-            return APIResult.newFailResult(2000, "SUCCESS", jsonObject);
+            return toAPIResult(interestEngine.accrueInterest(transaction, incubator, maxhieght), "There is no interest to be paid");
         } catch (Exception e) {
             return APIResult.newFailResult(5000, "Exception error");
         }
     }
 
+    private static APIResult toAPIResult(InterestEngine.Accrual accrual, String nothingToPay) {
+        switch (accrual.getStatus()) {
+            case NOTHING_TO_PAY:
+                return APIResult.newFailResult(3000, nothingToPay);
+            case LESS_THAN_ONE_DAY:
+                return APIResult.newFailResult(5000, "Interest less than one day");
+            default:
+                JSONObject jsonObject = new JSONObject();
+                jsonObject.put("dueinAmount", accrual.getDueinAmount());
+                jsonObject.put("capitalAmount", accrual.getCapitalAmount());
+                return APIResult.newFailResult(2000, "SUCCESS", jsonObject);
+        }
+    }
+
     @Override
     public Object getNowShare(String tranhash) {
         try {
@@ -399,52 +377,9 @@ public class HatchServiceImpl implements HatchService {
             if (incubator == null) {
                 return APIResult.newFailResult(5000, "Error in incubation state acquisition");
             }
-            if (incubator.getShare_amount() == 0) {
-                return APIResult.newFailResult(3000, "There is no share to be paid");
-            }
-            int days = payloadproto.getType();
-            String nowrate = rateTable.selectrate(transaction.height, days);
             //当前最高高度
             long maxhieght = wisdomBlockChain.getTopHeight();
-            long differheight = maxhieght - incubator.getLast_blockheight_share();
-            int differdays = (int) (differheight / configuration.getDay_count(maxhieght));
-            if (differdays == 0) {
-                return APIResult.newFailResult(5000, "Interest less than one day");
-            }
-            BigDecimal aount = new BigDecimal(transaction.amount);
-            BigDecimal nowratebig = new BigDecimal(nowrate);
-            BigDecimal lv = BigDecimal.valueOf(0.1);
-            BigDecimal nowlv = aount.multiply(nowratebig);
-            BigDecimal dayrate = nowlv.multiply(lv);
-            long dayrates = dayrate.longValue();
-            JSONObject jsonObject = new JSONObject();
-            //判断分享金额小于每天可提取的
-            if (incubator.getShare_amount() < dayrate.longValue()) {
-                jsonObject.put("dueinAmount", incubator.getShare_amount());
-                jsonObject.put("capitalAmount", incubator.getShare_amount());
-            } else {
-                long muls = (long) (incubator.getShare_amount() % dayrate.longValue());
-                if (muls != 0) {
-                    long syamount = muls;
-                    jsonObject.put("dueinAmount", syamount);
-                    jsonObject.put("capitalAmount", incubator.getShare_amount());
-                } else {
-                    int maxdays = (int) (incubator.getShare_amount() / dayrate.longValue());
-                    long lastdays = 0;
-                    if (maxdays > differdays) {
-                        lastdays = differdays;
-                    } else {
-                        lastdays = maxdays;
-                    }
-                    //当前可获取分享
-                    BigDecimal lastdaysbig = BigDecimal.valueOf(lastdays);
-                    BigDecimal dayratesbig = BigDecimal.valueOf(dayrates);
-                    long share = dayratesbig.multiply(lastdaysbig).longValue();
-                    jsonObject.put("dueinAmount", share);
-                    jsonObject.put("capitalAmount", incubator.getShare_amount());
-                }
-            }
-            return APIResult.newFailResult(2000, "SUCCESS", jsonObject);
+            return toAPIResult(interestEngine.accrueShare(transaction, incubator, maxhieght), "There is no share to be paid");
         } catch (Exception e) {
             return APIResult.newFailResult(5000, "Exception error");
         }
@@ -505,6 +440,36 @@ public class HatchServiceImpl implements HatchService {
         }
     }
 
+    @Override
+    public APIResult getTransactionHistory(String address, String direction, String type, String cursor, int limit) {
+        if (address == null || KeystoreAction.verifyAddress(address) != 0) {
+            return APIResult.newFailed("Illegal Address");
+        }
+        TransactionHistoryIndex.Direction d;
+        try {
+            d = TransactionHistoryIndex.Direction.valueOf(direction.toUpperCase());
+        } catch (Exception e) {
+            return APIResult.newFailed("direction should be from or to");
+        }
+        Integer t = Transaction.getTypeFromInput(type);
+        if (type != null && !type.isEmpty() && t == null) {
+            return APIResult.newFailed("invalid transaction type " + type);
+        }
+        if (limit <= 0 || limit > MAX_HISTORY_PAGE_SIZE) {
+            limit = MAX_HISTORY_PAGE_SIZE;
+        }
+        try {
+            TransactionHistoryIndex.Cursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return APIResult.newFailed("invalid cursor");
+        }
+        return APIResult.newSuccess(
+                repository.getLatestTransactionHistory(
+                        KeystoreAction.addressToPubkeyHash(address), d, t, cursor, limit
+                )
+        );
+    }
+
     @Override
     public Object getCoinBaseList(long height) {
         try {
@@ -808,18 +773,24 @@ public class HatchServiceImpl implements HatchService {
         if (shareMap.size() == 0 || shareMap.isEmpty()) {
             return APIResult.newSuccess(jsonArray);
         }
+        long height = wisdomBlockChain.getTopHeight();
         for (Map.Entry<byte[], Incubator> entry : shareMap.entrySet()) {
             Incubator incubator = entry.getValue();
             if (incubator.getShare_amount() > 0) {
                 JSONObject jsonObject = new JSONObject();
                 jsonObject.put("coinHash", incubator.getTxhash());
                 jsonObject.put("shareAmount", incubator.getShare_amount());
-                APIResult apiResult = (APIResult) getNowShare(incubator.getTxhash());
-                if (apiResult.getCode() == 5000) {
+                Transaction transaction = wisdomBlockChain.getTransaction(incubator.getTxid_issue());
+                InterestEngine.Accrual accrual = null;
+                try {
+                    accrual = transaction == null ? null : interestEngine.accrueShare(transaction, incubator, height);
+                } catch (ArithmeticException | IllegalArgumentException ignored) {
+                }
+                if (accrual == null || accrual.getStatus() != InterestEngine.Accrual.Status.ACCRUED) {
                     jsonObject.put("extractShare", 0);
                     jsonObject.put("status", 0);//没满足提取要求
                 } else {
-                    jsonObject.put("extractShare", getAmount((JSONObject) apiResult.getData()));
+                    jsonObject.put("extractShare", accrual.getExtractable());
                     jsonObject.put("status", 1);//可提取
                 }
                 jsonArray.add(jsonObject);
@@ -840,36 +811,40 @@ public class HatchServiceImpl implements HatchService {
         if (incubatorMap.size() == 0 || incubatorMap.isEmpty()) {
             return APIResult.newSuccess(jsonArray);
         }
-        for (Map.Entry<byte[], Incubator> entry : incubatorMap.entrySet()) {
-            Incubator incubator = entry.getValue();
+        // hatches of the account are computed at the same height
+        long height = wisdomBlockChain.getTopHeight();
+        List<Transaction> hatches = new ArrayList<>();
+        for (Incubator incubator : incubatorMap.values()) {
             if (incubator.getCost() > 0) {
-                JSONObject jsonObject = new JSONObject();
-                jsonObject.put("coinHash", Hex.encodeHexString(incubator.getTxid_issue()));
-                jsonObject.put("cost", incubator.getCost());
                 Transaction transaction = wisdomBlockChain.getTransaction(incubator.getTxid_issue());
-                if (transaction == null) {
-                    continue;
+                if (transaction != null) {
+                    hatches.add(transaction);
                 }
-                APIResult apiResult = (APIResult) getNowInterest(transaction.getHashHexString());
-                if (apiResult.getCode() == 5000) {
-                    jsonObject.put("extractableAmount", 0);
-                    jsonObject.put("status", 2);//未满足要求
-                } else {
-                    if (apiResult.getCode() == 3000) {
-                        jsonObject.put("extractableAmount", 0);
-                        jsonObject.put("status", 1);//可领取本金
-                    } else {
-                        jsonObject.put("extractableAmount", getAmount((JSONObject) apiResult.getData()));
-                        jsonObject.put("status", 0);//孵化中
-                    }
-                }
-                jsonObject.put("type", transaction.getdays());
-                jsonObject.put("rate", rateTable.selectrate(transaction.height, transaction.getdays()));
-                Block block = wisdomBlockChain.getBlockByHash(transaction.blockHash);
-                jsonObject.put("createdAt", block.nTime * 1000);
-                jsonArray.add(jsonObject);
             }
         }
+        List<InterestEngine.Accrual> accruals = interestEngine.accrueInterest(hatches, incubatorMap, height);
+        for (int i = 0; i < hatches.size(); i++) {
+            Transaction transaction = hatches.get(i);
+            InterestEngine.Accrual accrual = accruals.get(i);
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("coinHash", transaction.getHashHexString());
+            jsonObject.put("cost", incubatorMap.get(transaction.getHash()).getCost());
+            if (accrual == null || accrual.getStatus() == InterestEngine.Accrual.Status.LESS_THAN_ONE_DAY) {
+                jsonObject.put("extractableAmount", 0);
+                jsonObject.put("status", 2);//未满足要求
+            } else if (accrual.getStatus() == InterestEngine.Accrual.Status.NOTHING_TO_PAY) {
+                jsonObject.put("extractableAmount", 0);
+                jsonObject.put("status", 1);//可领取本金
+            } else {
+                jsonObject.put("extractableAmount", accrual.getExtractable());
+                jsonObject.put("status", 0);//孵化中
+            }
+            jsonObject.put("type", transaction.getdays());
+            jsonObject.put("rate", rateTable.selectrate(transaction.height, transaction.getdays()));
+            Block block = wisdomBlockChain.getBlockByHash(transaction.blockHash);
+            jsonObject.put("createdAt", block.nTime * 1000);
+            jsonArray.add(jsonObject);
+        }
         return APIResult.newSuccess(jsonArray);
     }
 
@@ -881,13 +856,4 @@ public class HatchServiceImpl implements HatchService {
         }
         return APIResult.newSuccess(block.nTime);
     }
-
-    public long getAmount(JSONObject jsonObject) {
-        long dueinAmount = jsonObject.getLong("dueinAmount");
-        long capitalAmount = jsonObject.getLong("capitalAmount");
-        if (dueinAmount > capitalAmount) {
-            return capitalAmount;
-        }
-        return dueinAmount;
-    }
 }
\ No newline at end of file
@@ -1,27 +1,80 @@
 package org.wisdom.sync;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.util.concurrent.RateLimiter;
+import org.wisdom.p2p.Peer;
+import org.wisdom.p2p.PeerScores;
 
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * token buckets of messages. a global bucket per message type bounds the total permits of all peers, and a bucket
+ * per peer is the fair share of a peer under it, so that an aggressive peer cannot exhaust the budget of others and
+ * a host rotating peer ids cannot exceed the global budget. the rate of a peer is weighted by its score
+ */
 public class Limiters {
-    private RateLimiter status;
-    private RateLimiter getBlocks;
-
-    public Limiters(Map<String, Double> config) {
-        if (config == null) return;
-        if (config.get("status") != null)
-            this.status = RateLimiter.create(config.get("status"));
-        if (config.get("get-blocks") != null) {
-            this.getBlocks = RateLimiter.create(config.get("get-blocks"));
+    public static final String STATUS = "status";
+    public static final String GET_BLOCKS = "get-blocks";
+
+    // max buckets of peers kept, the least recently used are dropped
+    private static final int MAX_PEER_BUCKETS = 4096;
+
+    // message type -> limiter of all peers
+    private final Map<String, RateLimiter> global = new HashMap<>();
+
+    // message type -> permits per second of a peer
+    private final Map<String, Double> rates = new HashMap<>();
+
+    // nullable, all peers are weighted 1 if absent
+    private final PeerScores scores;
+
+    // message type + peer key -> limiter
+    private final Cache<String, RateLimiter> limiters = Caffeine.newBuilder()
+            .maximumSize(MAX_PEER_BUCKETS)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * @param config     message type -> permits per second of all peers
+     * @param peerConfig message type -> permits per second of a peer
+     */
+    public Limiters(Map<String, Double> config, Map<String, Double> peerConfig, PeerScores scores) {
+        this.scores = scores;
+        if (config != null) {
+            config.forEach((k, v) -> {
+                if (v != null) global.put(k, RateLimiter.create(v));
+            });
+        }
+        if (peerConfig != null) {
+            peerConfig.forEach((k, v) -> {
+                if (v != null) rates.put(k, v);
+            });
         }
     }
 
-    public RateLimiter status() {
-        return status;
+    /**
+     * @return false if the peer or all peers sent messages of the type too frequently, unlimited types are always
+     * acquired
+     */
+    public boolean tryAcquire(String type, Peer peer) {
+        // the share of peer is checked first, so that a peer over its share does not consume the global budget
+        if (!tryAcquirePeer(type, peer)) return false;
+        RateLimiter limiter = global.get(type);
+        return limiter == null || limiter.tryAcquire();
     }
 
-    public RateLimiter getBlocks() {
-        return getBlocks;
+    private boolean tryAcquirePeer(String type, Peer peer) {
+        Double rate = rates.get(type);
+        if (rate == null) return true;
+        double weighted = scores == null ? rate : rate * scores.weight(peer);
+        RateLimiter limiter = limiters.get(type + peer.key(), k -> RateLimiter.create(weighted));
+        // adapt to the latest score
+        if (Math.abs(limiter.getRate() - weighted) > rate / 16) {
+            limiter.setRate(weighted);
+        }
+        return limiter.tryAcquire();
     }
 }
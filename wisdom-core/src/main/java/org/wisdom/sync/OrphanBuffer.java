@@ -0,0 +1,208 @@
+package org.wisdom.sync;
+
+import lombok.extern.slf4j.Slf4j;
+import org.tdf.common.store.Store;
+import org.tdf.common.util.HexBytes;
+import org.wisdom.core.Block;
+import org.wisdom.p2p.WisdomOuterClass;
+
+import java.util.*;
+
+/**
+ * blocks whose parent is unknown, indexed by parent hash and height so that the descendants of a written block
+ * are released without scanning the buffer
+ * <p>
+ * memory of blocks is limited per peer and globally, the blocks farthest from the tip are evicted first. the blocks
+ * are persisted one by one if a store is provided, the peers of blocks are not persisted and blocks loaded are only
+ * limited globally. not thread safe
+ */
+@Slf4j(topic = "sync")
+public class OrphanBuffer {
+    private static class Entry {
+        private final Block block;
+
+        private final HexBytes hash;
+
+        // null if the block is loaded from store
+        private final String peer;
+
+        private final long size;
+
+        private Entry(Block block, String peer) {
+            this.block = block;
+            this.hash = HexBytes.fromBytes(block.getHash());
+            this.peer = peer;
+            this.size = block.size() - Block.RESERVED_SPACE;
+        }
+    }
+
+    private final long maxBytesPerPeer;
+
+    private final long maxBytes;
+
+    // block hash -> encoded block, nullable
+    private final Store<byte[], byte[]> store;
+
+    private final Map<HexBytes, Entry> entries = new HashMap<>();
+
+    // parent hash -> children hashes
+    private final Map<HexBytes, Set<HexBytes>> children = new HashMap<>();
+
+    // height -> block hashes
+    private final TreeMap<Long, Set<HexBytes>> heights = new TreeMap<>();
+
+    // peer -> block hashes
+    private final Map<String, Set<HexBytes>> peers = new HashMap<>();
+
+    private final Map<String, Long> bytesPerPeer = new HashMap<>();
+
+    private long bytes;
+
+    public OrphanBuffer(long maxBytesPerPeer, long maxBytes, Store<byte[], byte[]> store) {
+        this.maxBytesPerPeer = maxBytesPerPeer;
+        this.maxBytes = maxBytes;
+        this.store = store;
+        if (store == null) return;
+        List<byte[]> corrupted = new ArrayList<>();
+        store.forEach((k, v) -> {
+            try {
+                index(new Entry(Utils.parseBlock(WisdomOuterClass.Block.parseFrom(v)), null));
+            } catch (Exception e) {
+                corrupted.add(k);
+            }
+        });
+        corrupted.forEach(store::remove);
+        log.info("{} orphans loaded", entries.size());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public boolean contains(byte[] hash) {
+        return entries.containsKey(HexBytes.fromBytes(hash));
+    }
+
+    /**
+     * add a block received from the peer, blocks farthest from tip height are evicted if the limits are exceeded
+     *
+     * @return false if the block exists or is evicted immediately
+     */
+    public boolean add(Block block, String peer, long tipHeight) {
+        Entry e = new Entry(block, peer);
+        if (entries.containsKey(e.hash)) return false;
+        index(e);
+        if (store != null) {
+            store.put(block.getHash(), Utils.encodeBlock(block).toByteArray());
+        }
+        while (peer != null && bytesPerPeer.getOrDefault(peer, 0L) > maxBytesPerPeer) {
+            Entry farthest = null;
+            for (HexBytes h : peers.get(peer)) {
+                Entry x = entries.get(h);
+                if (farthest == null || distance(x, tipHeight) > distance(farthest, tipHeight)) farthest = x;
+            }
+            remove(farthest);
+        }
+        while (bytes > maxBytes) {
+            long low = heights.firstKey();
+            long high = heights.lastKey();
+            long height = Math.abs(tipHeight - low) >= Math.abs(tipHeight - high) ? low : high;
+            remove(entries.get(heights.get(height).iterator().next()));
+        }
+        return entries.containsKey(e.hash);
+    }
+
+    private static long distance(Entry e, long tipHeight) {
+        return Math.abs(e.block.nHeight - tipHeight);
+    }
+
+    /**
+     * remove the descendants of a written block from the buffer
+     *
+     * @return descendants of the block, parents are before children
+     */
+    public List<Block> release(byte[] hash) {
+        List<Block> released = new ArrayList<>();
+        Deque<HexBytes> parents = new ArrayDeque<>();
+        parents.add(HexBytes.fromBytes(hash));
+        while (!parents.isEmpty()) {
+            Set<HexBytes> s = children.get(parents.poll());
+            if (s == null) continue;
+            for (HexBytes h : new ArrayList<>(s)) {
+                Entry e = entries.get(h);
+                released.add(e.block);
+                parents.add(h);
+                remove(e);
+            }
+        }
+        return released;
+    }
+
+    // remove blocks not above the height
+    public void prune(long height) {
+        while (!heights.isEmpty() && heights.firstKey() <= height) {
+            for (HexBytes h : new ArrayList<>(heights.firstEntry().getValue())) {
+                remove(entries.get(h));
+            }
+        }
+    }
+
+    /**
+     * blocks whose parent is not in the buffer, the parents of them should be fetched
+     */
+    public List<Block> getHeads() {
+        List<Block> heads = new ArrayList<>();
+        for (Set<HexBytes> s : heights.values()) {
+            for (HexBytes h : s) {
+                Block b = entries.get(h).block;
+                if (!entries.containsKey(HexBytes.fromBytes(b.hashPrevBlock))) heads.add(b);
+            }
+        }
+        return heads;
+    }
+
+    // all blocks sorted by height
+    public List<Block> getBlocks() {
+        List<Block> blocks = new ArrayList<>(entries.size());
+        heights.values().forEach(s -> s.forEach(h -> blocks.add(entries.get(h).block)));
+        return blocks;
+    }
+
+    private void index(Entry e) {
+        entries.put(e.hash, e);
+        children.computeIfAbsent(HexBytes.fromBytes(e.block.hashPrevBlock), x -> new HashSet<>()).add(e.hash);
+        heights.computeIfAbsent(e.block.nHeight, x -> new HashSet<>()).add(e.hash);
+        bytes += e.size;
+        if (e.peer == null) return;
+        peers.computeIfAbsent(e.peer, x -> new HashSet<>()).add(e.hash);
+        bytesPerPeer.merge(e.peer, e.size, Long::sum);
+    }
+
+    private void remove(Entry e) {
+        entries.remove(e.hash);
+        removeFrom(children, HexBytes.fromBytes(e.block.hashPrevBlock), e.hash);
+        removeFrom(heights, e.block.nHeight, e.hash);
+        bytes -= e.size;
+        if (e.peer != null) {
+            removeFrom(peers, e.peer, e.hash);
+            long remained = bytesPerPeer.get(e.peer) - e.size;
+            if (remained == 0) {
+                bytesPerPeer.remove(e.peer);
+            } else {
+                bytesPerPeer.put(e.peer, remained);
+            }
+        }
+        if (store != null) store.remove(e.hash.getBytes());
+    }
+
+    private static <K> void removeFrom(Map<K, Set<HexBytes>> index, K key, HexBytes hash) {
+        Set<HexBytes> s = index.get(key);
+        if (s == null) return;
+        s.remove(hash);
+        if (s.isEmpty()) index.remove(key);
+    }
+}
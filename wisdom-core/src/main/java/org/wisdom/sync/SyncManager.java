@@ -11,7 +11,6 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Component;
-import org.tdf.common.util.ByteArraySet;
 import org.tdf.common.util.HexBytes;
 import org.wisdom.SyncConfig;
 import org.wisdom.core.Block;
@@ -20,12 +19,18 @@ import org.wisdom.core.validate.CheckPointRule;
 import org.wisdom.core.validate.CompositeBlockRule;
 import org.wisdom.core.validate.Result;
 import org.wisdom.db.AccountStateTrie;
+import org.wisdom.db.DatabaseStoreFactory;
+import org.wisdom.db.SpeculativeExecutor;
 import org.wisdom.db.WisdomRepository;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
 import org.wisdom.p2p.*;
 import org.wisdom.p2p.entity.GetBlockQuery;
 
 import javax.annotation.PostConstruct;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -41,8 +46,18 @@ import java.util.concurrent.locks.ReentrantLock;
 @Slf4j(topic = "sync")
 public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEvent> {
     private static final int MAX_BLOCKS_IN_TRANSIT_PER_PEER = 50;
+    // orphans are fetched from the peers of highest scores
+    private static final int MAX_PEERS_PER_ORPHAN_FETCH = 3;
     private PeerServer server;
     private static final int CACHE_SIZE = 64;
+    // a header request without response is sent again to another peer after this
+    private static final long HEADERS_RETRY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static final Histogram VALIDATE_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "validate");
+    private static final Histogram CHECKPOINT_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "checkpoint");
+    private static final Histogram EXECUTE_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "execute");
+    private static final Histogram WRITE_STAGE = Metrics.timer(Metrics.BLOCK_IMPORT, Metrics.BLOCK_IMPORT_HELP, "stage", "write");
+    private static final Counter ASSUME_VALID_BLOCKS = Metrics.counter("wisdom_sync_assume_valid_blocks_total", "blocks imported without validating transactions");
 
     private Cache<HexBytes, Boolean> proposalCache;
 
@@ -70,8 +85,22 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
 
     private Limiters limiters;
 
+    private PeerScores peerScores;
+
+    // peer key -> time of the latest get-blocks sent in nanoseconds, for latency of peers
+    private final Map<String, Long> requested = new ConcurrentHashMap<>();
+
+    // time of the latest headers request in nanoseconds
+    private volatile long headersRequested = System.nanoTime() - HEADERS_RETRY_NANOS;
+
     private final TreeSet<Block> queue = new TreeSet<>(Block.FAT_COMPARATOR);
 
+    // hash of blocks in queue -> peer received from, null if unknown
+    private final Map<HexBytes, String> queued = new HashMap<>();
+
+    // blocks with unknown parent, guarded by block queue lock
+    private OrphanBuffer orphanBuffer;
+
     private Lock blockQueueLock = new ReentrantLock();
 
     private ScheduledExecutorService executorService0;
@@ -85,17 +114,29 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     @Autowired
     private AccountStateTrie accountStateTrie;
 
-    public SyncManager(SyncConfig syncConfig) {
+    @Autowired
+    private SpeculativeExecutor speculativeExecutor;
+
+    @Autowired
+    private DatabaseStoreFactory factory;
+
+    public SyncManager(SyncConfig syncConfig, PeerScores peerScores) {
         this.proposalCache = Caffeine
                 .newBuilder()
                 .maximumSize(CACHE_SIZE).build();
-        this.limiters = new Limiters(syncConfig.getRateLimits());
+        this.peerScores = peerScores;
+        this.limiters = new Limiters(syncConfig.getRateLimits(), syncConfig.getPeerRateLimits(), peerScores);
         this.syncConfig = syncConfig;
     }
 
     @PostConstruct
     public void init() {
         int core = Runtime.getRuntime().availableProcessors();
+        orphanBuffer = new OrphanBuffer(
+                syncConfig.getOrphanBufferPerPeerMb() << 20,
+                syncConfig.getOrphanBufferMb() << 20,
+                factory.create("orphan-blocks", false)
+        );
         executorService0 = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sync0").build());
         executorService1 = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("sync1").build());
 //        executorService2 = Executors.newScheduledThreadPool(6, new ThreadFactoryBuilder().setNameFormat("sync-%d").build());
@@ -119,15 +160,15 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
                 onGetStatus(context, server);
                 return;
             case STATUS:
-                if (limiters.status() != null && !limiters.status().tryAcquire()) {
-                    log.error("receive status message too frequent");
+                if (!limiters.tryAcquire(Limiters.STATUS, context.getPayload().getRemote())) {
+                    log.error("receive status message too frequent from {}", context.getPayload().getRemote());
                     return;
                 }
                 onStatus(context, server);
                 return;
             case GET_BLOCKS:
-                if (limiters.getBlocks() != null && !limiters.getBlocks().tryAcquire()) {
-                    log.error("receive get-blocks message too frequent");
+                if (!limiters.tryAcquire(Limiters.GET_BLOCKS, context.getPayload().getRemote())) {
+                    log.error("receive get-blocks message too frequent from {}", context.getPayload().getRemote());
                     return;
                 }
                 onGetBlocks(context, server);
@@ -174,6 +215,8 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
             blockQueueLock.unlock();
         }
 
+        List<Peer> ranked = peerScores.rank(ps);
+        ranked = ranked.subList(0, Math.min(ranked.size(), MAX_PEERS_PER_ORPHAN_FETCH));
         for (Block b : orphans) {
             long startHeight = b.nHeight - blocksPerEra * 2 + 1;
             if (startHeight <= 0) {
@@ -184,7 +227,7 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
                     .setStartHeight(startHeight)
                     .setStopHeight(b.nHeight).build();
             log.info("sync orphans: try to fetch block start from " + getBlocks.getStartHeight() + " stop at " + getBlocks.getStopHeight());
-            ps.forEach(p -> server.dial(p, getBlocks));
+            ranked.forEach(p -> requestBlocks(p, getBlocks));
         }
 
         ps.forEach(p -> {
@@ -193,16 +236,38 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         });
     }
 
+    private void requestBlocks(Peer peer, WisdomOuterClass.GetBlocks getBlocks) {
+        requested.put(peer.key(), System.nanoTime());
+        server.dial(peer, getBlocks);
+    }
+
+    // headers of blocks below the next check point are fetched downwards from it before their bodies, so that blocks
+    // linked to the check point are known when their bodies arrive
+    private void requestHeaders(Peer peer, long height, long bestHeight) {
+        headersRequested = System.nanoTime();
+        WisdomOuterClass.GetBlocks req = Utils.headersOnly(WisdomOuterClass.GetBlocks.newBuilder()
+                .setStartHeight(Math.max(bestHeight + 1, height - maxBlocksPerTransfer + 1))
+                .setStopHeight(height)
+                .setClipDirection(WisdomOuterClass.ClipDirection.CLIP_INITIAL).build());
+        log.info("require headers start from " + req.getStartHeight() + " stop at " + req.getStopHeight());
+        requestBlocks(peer, req);
+    }
+
     private void onGetBlocks(Context context, PeerServer server) {
         WisdomOuterClass.GetBlocks getBlocks = context.getPayload().getGetBlocks();
         GetBlockQuery query = new GetBlockQuery(getBlocks.getStartHeight(), getBlocks.getStopHeight()).clip(maxBlocksPerTransfer, getBlocks.getClipDirection() == WisdomOuterClass.ClipDirection.CLIP_INITIAL);
 
         log.info("get blocks received start height = " + query.start + " stop height = " + query.stop);
-        List<Block> blocksToSend = repository.getBlocksBetween(query.start, query.stop, maxBlocksPerTransfer, getBlocks.getClipDirectionValue() > 0);
-        blocksToSend.forEach(x -> {
-            Optional<byte[]> o = accountStateTrie.getRootHashByBlockHash(x.getHash());
-            o.ifPresent(bytes -> x.accountStateTrieRoot = bytes);
-        });
+        List<Block> blocksToSend;
+        if (Utils.isHeadersOnly(getBlocks)) {
+            blocksToSend = repository.getHeadersBetween(query.start, query.stop, maxBlocksPerTransfer, getBlocks.getClipDirectionValue() > 0);
+        } else {
+            blocksToSend = repository.getBlocksBetween(query.start, query.stop, maxBlocksPerTransfer, getBlocks.getClipDirectionValue() > 0);
+            blocksToSend.forEach(x -> {
+                Optional<byte[]> o = accountStateTrie.getRootHashByBlockHash(x.getHash());
+                o.ifPresent(bytes -> x.accountStateTrieRoot = bytes);
+            });
+        }
         if (blocksToSend.size() == 0) {
             return;
         }
@@ -218,18 +283,35 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     private void onBlocks(Context context, PeerServer server) throws InterruptedException {
         WisdomOuterClass.Blocks blocksMessage = context.getPayload().getBlocks();
         List<Block> blocks = Utils.parseBlocks(blocksMessage.getBlocksList());
+        Long sent = requested.remove(context.getPayload().getRemote().key());
+        if (sent != null) {
+            peerScores.latency(context.getPayload().getRemote(), (System.nanoTime() - sent) / 1000000);
+        }
         log.info("blocks received start from " + blocks.get(0).nHeight + " stop at " + blocks.get(blocks.size() - 1).nHeight);
         Block best = repository.getBestBlock();
         blocks.sort(Block.FAT_COMPARATOR);
+        if (syncConfig.isAssumeValid()) {
+            long unlinked = checkPointRule.unlinkedHeight(best.nHeight);
+            checkPointRule.link(blocks);
+            long next = checkPointRule.unlinkedHeight(best.nHeight);
+            // continue downwards from the peer as long as its headers are linked
+            if (next >= 0 && next < unlinked) {
+                requestHeaders(context.getPayload().getRemote(), next, best.nHeight);
+            }
+        }
         if (!blockQueueLock.tryLock(syncConfig.getLockTimeOut(), TimeUnit.SECONDS))
             return;
         try {
+            String peer = context.getPayload().getRemote().key();
             for (Block block : blocks) {
+                // headers only
+                if (block.body.isEmpty())
+                    continue;
                 if (Math.abs(block.getnHeight() - best.getnHeight()) > maxBlocksPerTransfer)
                     break;
-                if (queue.contains(block) || repository.containsBlock(block.getHash()))
+                if (repository.containsBlock(block.getHash()))
                     continue;
-                queue.add(block);
+                enqueue(block, peer, best.getnHeight());
             }
         } finally {
             blockQueueLock.unlock();
@@ -248,15 +330,36 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         }
         proposalCache.put(HexBytes.fromBytes(block.getHash()), true);
         context.relay();
-        if (Math.abs(block.nHeight - repository.getBestBlock().getnHeight()) > maxBlocksPerTransfer) {
+        long bestHeight = repository.getBestBlock().getnHeight();
+        if (Math.abs(block.nHeight - bestHeight) > maxBlocksPerTransfer) {
             return;
         }
         if (!blockQueueLock.tryLock(syncConfig.getLockTimeOut(), TimeUnit.SECONDS)) return;
         try {
-            queue.add(block);
+            if (!enqueue(block, context.getPayload().getRemote().key(), bestHeight)) return;
         } finally {
             blockQueueLock.unlock();
         }
+        // execute transactions while the block is waiting for validation
+        speculativeExecutor.submit(block);
+    }
+
+    // add the block to queue if its parent is known or in queue, otherwise buffer it until the parent is written
+    private boolean enqueue(Block block, String peer, long bestHeight) {
+        HexBytes hash = HexBytes.fromBytes(block.getHash());
+        if (queued.containsKey(hash) || orphanBuffer.contains(block.getHash())) return false;
+        if (queued.containsKey(HexBytes.fromBytes(block.hashPrevBlock)) || repository.containsBlock(block.hashPrevBlock)) {
+            queue.add(block);
+            queued.put(hash, peer);
+            return true;
+        }
+        orphanBuffer.add(block, peer, bestHeight);
+        return false;
+    }
+
+    private void dequeue(Iterator<Block> iterator, Block block) {
+        iterator.remove();
+        queued.remove(HexBytes.fromBytes(block.getHash()));
     }
 
     private void onStatus(Context context, PeerServer server) {
@@ -273,6 +376,12 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
             context.exit();
             return;
         }
+        if (syncConfig.isAssumeValid() && System.nanoTime() - headersRequested > HEADERS_RETRY_NANOS) {
+            long unlinked = checkPointRule.unlinkedHeight(best.nHeight);
+            if (unlinked >= 0 && status.getCurrentHeight() >= unlinked) {
+                requestHeaders(context.getPayload().getRemote(), unlinked, best.nHeight);
+            }
+        }
         if (status.getCurrentHeight() >= best.nHeight
                 && !Arrays.equals(
                 status.getBestBlockHash().toByteArray(), best.getHash())
@@ -288,7 +397,7 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
                     .setStopHeight(getBlockQuery.stop)
                     .setClipDirection(WisdomOuterClass.ClipDirection.CLIP_TAIL).build();
             log.info("require blocks start from " + req.getStartHeight() + " stop at " + req.getStopHeight());
-            server.dial(context.getPayload().getRemote(), req);
+            requestBlocks(context.getPayload().getRemote(), req);
         }
     }
 
@@ -305,7 +414,6 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
 
     @SneakyThrows
     private void tryWrite() {
-        Set<HexBytes> orphans = new HashSet<>();
         Block best = repository.getBestBlock();
         long start = System.currentTimeMillis();
         int count = 0;
@@ -314,52 +422,81 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
         }
         try {
             count = queue.size();
-            Iterator<Block> iterator = queue.iterator();
-            while (iterator.hasNext()) {
-                Block b = null;
-                try {
-                    b = iterator.next();
-                } catch (NoSuchElementException ignored) {
-                }
-                if (b == null) return;
-                if (Math.abs(best.getnHeight() - b.getnHeight()) > maxBlocksPerTransfer
-                ) {
-                    iterator.remove();
-                    continue;
-                }
-                if (repository.containsBlock(b.getHash())) {
-                    iterator.remove();
-                    continue;
-                }
-                if (orphans.contains(HexBytes.fromBytes(b.hashPrevBlock))) {
-                    orphans.add(HexBytes.fromBytes(b.getHash()));
-                    continue;
-                }
-                Block block = repository.getBlockByHash(b.hashPrevBlock);
-                if (block == null) {
-                    orphans.add(HexBytes.fromBytes(b.getHash()));
-                    continue;
-                }
-                Block latestConfirmed = repository.getLatestConfirmed();
-                if(b.nHeight <= latestConfirmed.nHeight){
-                    iterator.remove();
-                    continue;
-                }
-                Result res = rule.validateBlock(b);
-                if (!res.isSuccess()) {
-                    iterator.remove();
-                    log.error("invalid block received reason = " + res.getMessage());
-                    continue;
-                }
-                Result resCheckPointRule = checkPointRule.validateBlock(b);
-                if (!resCheckPointRule.isSuccess()) {
-                    iterator.remove();
-                    log.error("invalid block received reason = " + resCheckPointRule.getMessage());
-                    continue;
+            long confirmed = repository.getLatestConfirmed().nHeight;
+            orphanBuffer.prune(confirmed);
+            if (syncConfig.isAssumeValid()) {
+                checkPointRule.prune(confirmed);
+            }
+            while (true) {
+                // descendants of written blocks
+                List<Block> released = new ArrayList<>();
+                Iterator<Block> iterator = queue.iterator();
+                while (iterator.hasNext()) {
+                    Block b = null;
+                    try {
+                        b = iterator.next();
+                    } catch (NoSuchElementException ignored) {
+                    }
+                    if (b == null) return;
+                    // null if the peer is unknown
+                    String peer = queued.get(HexBytes.fromBytes(b.getHash()));
+                    if (Math.abs(best.getnHeight() - b.getnHeight()) > maxBlocksPerTransfer
+                    ) {
+                        dequeue(iterator, b);
+                        continue;
+                    }
+                    if (repository.containsBlock(b.getHash())) {
+                        dequeue(iterator, b);
+                        continue;
+                    }
+                    // the parent is invalid or evicted
+                    if (orphanBuffer.contains(b.hashPrevBlock) || !repository.containsBlock(b.hashPrevBlock)) {
+                        dequeue(iterator, b);
+                        orphanBuffer.add(b, peer, best.getnHeight());
+                        continue;
+                    }
+                    Block latestConfirmed = repository.getLatestConfirmed();
+                    if(b.nHeight <= latestConfirmed.nHeight){
+                        dequeue(iterator, b);
+                        continue;
+                    }
+                    long stageStart = System.nanoTime();
+                    boolean assumeValid = syncConfig.isAssumeValid() && checkPointRule.isLinkedToCheckPoint(b);
+                    Result res = rule.validateBlock(b, assumeValid);
+                    VALIDATE_STAGE.recordSince(stageStart);
+                    if (!res.isSuccess()) {
+                        dequeue(iterator, b);
+                        speculativeExecutor.discard(b);
+                        if (peer != null) peerScores.invalidBlock(peer);
+                        log.error("invalid block received reason = " + res.getMessage());
+                        continue;
+                    }
+                    stageStart = System.nanoTime();
+                    Result resCheckPointRule = checkPointRule.validateBlock(b);
+                    CHECKPOINT_STAGE.recordSince(stageStart);
+                    if (!resCheckPointRule.isSuccess()) {
+                        dequeue(iterator, b);
+                        speculativeExecutor.discard(b);
+                        if (peer != null) peerScores.invalidBlock(peer);
+                        log.error("invalid block received reason = " + resCheckPointRule.getMessage());
+                        continue;
+                    }
+                    dequeue(iterator, b);
+                    if (assumeValid) {
+                        ASSUME_VALID_BLOCKS.inc();
+                    }
+                    stageStart = System.nanoTime();
+                    speculativeExecutor.commit(b);
+                    EXECUTE_STAGE.recordSince(stageStart);
+                    stageStart = System.nanoTime();
+                    repository.writeBlock(b);
+                    WRITE_STAGE.recordSince(stageStart);
+                    if (peer != null) peerScores.usefulBlocks(peer, 1);
+                    released.addAll(orphanBuffer.release(b.getHash()));
                 }
-                iterator.remove();
-                accountStateTrie.commit(b);
-                repository.writeBlock(b);
+                if (released.isEmpty()) break;
+                log.debug("{} orphans released", released.size());
+                released.forEach(x -> enqueue(x, null, best.getnHeight()));
             }
         } catch (Exception e){
             e.printStackTrace();
@@ -367,7 +504,7 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
             long end = System.currentTimeMillis();
             log.debug("traverse through {} blocks success consuming {} ms", count, end - start);
             log.debug("current block queue size = {}", queue.size());
-            log.debug("current orphans size = {}", orphans.size());
+            log.debug("current orphans size = {}", orphanBuffer.size());
             blockQueueLock.unlock();
         }
     }
@@ -383,35 +520,25 @@ public class SyncManager implements Plugin, ApplicationListener<NewBlockMinedEve
     }
 
     private List<Block> getOrphansInternal() {
-        List<Block> orphanHeads = new ArrayList<>();
-        Set<byte[]> orphans = new ByteArraySet();
-        Set<byte[]> noOrphans = new ByteArraySet();
-        for (Block block : queue) {
-            if (noOrphans.contains(block.hashPrevBlock)) {
-                noOrphans.add(block.getHash());
-                continue;
-            }
-            if (orphans.contains(block.hashPrevBlock)) {
-                orphans.add(block.getHash());
-                continue;
-            }
-            if (repository.containsBlock(block.hashPrevBlock)) {
-                noOrphans.add(block.getHash());
-            } else {
-                orphanHeads.add(block);
-                orphans.add(block.getHash());
-            }
-        }
-        log.debug("{} orphans exists in queue", orphans.size());
-        return orphanHeads;
+        log.debug("{} orphans exists in buffer", orphanBuffer.size());
+        return orphanBuffer.getHeads();
     }
 
+    @SneakyThrows
     @Override
     public void onApplicationEvent(NewBlockMinedEvent event) {
         if (server == null) {
             return;
         }
         repository.writeBlock(event.getBlock());
+        if (blockQueueLock.tryLock(syncConfig.getLockTimeOut(), TimeUnit.SECONDS)) {
+            try {
+                orphanBuffer.release(event.getBlock().getHash())
+                        .forEach(x -> enqueue(x, null, event.getBlock().nHeight));
+            } finally {
+                blockQueueLock.unlock();
+            }
+        }
         proposalCache.put(HexBytes.fromBytes(event.getBlock().getHash()), true);
         Block block = event.getBlock();
         Optional<byte[]> o = accountStateTrie.getRootHashByBlockHash(block.getHash());
@@ -56,7 +56,7 @@ public class TransactionHandler implements Plugin {
                     switch (Transaction.TYPES_TABLE[t.type]){
                         case WASM_CALL:
                         case WASM_DEPLOY: {
-                            APIResult res = transactionCheck.TransactionFormatCheck(t.toRPCBytes());
+                            APIResult res = transactionCheck.TransactionFormatCheck(t);
                             if(res.getCode() == APIResult.SUCCESS) {
                                 this.wasmtxPool.collect(Collections.singleton(t));
                             }
@@ -65,8 +65,7 @@ public class TransactionHandler implements Plugin {
                     }
                     log.debug("receive transaction {} ", t.getHashHexString());
                     transactionCache.put(t.getHashHexString(), true);
-                    byte[] traninfo = t.toRPCBytes();
-                    APIResult apiResult = commandService.verifyTransfer(traninfo);
+                    APIResult apiResult = commandService.verifyTransaction(t);
                     if (apiResult.getCode() == 5000) {
                         log.info("transaction Check failure,TxHash=" + Hex.encodeHexString(t.getHash()) + ",message:" + apiResult.getMessage());
                     }
@@ -1,6 +1,7 @@
 package org.wisdom.sync;
 
 import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
 import org.apache.commons.io.IOUtils;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.FileSystemResource;
@@ -22,6 +23,21 @@ import java.util.stream.Collectors;
 
 // proto buf utils
 public class Utils {
+    // headers_only of GetBlocks in wisdom.proto, accessed as an unknown field until the generated classes are updated
+    private static final int HEADERS_ONLY_FIELD = 4;
+
+    public static WisdomOuterClass.GetBlocks headersOnly(WisdomOuterClass.GetBlocks getBlocks) {
+        UnknownFieldSet fields = UnknownFieldSet.newBuilder(getBlocks.getUnknownFields())
+                .addField(HEADERS_ONLY_FIELD, UnknownFieldSet.Field.newBuilder().addVarint(1).build())
+                .build();
+        return getBlocks.toBuilder().setUnknownFields(fields).build();
+    }
+
+    public static boolean isHeadersOnly(WisdomOuterClass.GetBlocks getBlocks) {
+        if (!getBlocks.getUnknownFields().hasField(HEADERS_ONLY_FIELD)) return false;
+        List<Long> values = getBlocks.getUnknownFields().getField(HEADERS_ONLY_FIELD).getVarintList();
+        return !values.isEmpty() && values.get(values.size() - 1) != 0;
+    }
 
     public static byte[] getTransactionsHash(List<WisdomOuterClass.Transaction> transactions) {
         return SHA3Utility.keccak256(Arrays.concatenate(transactions.stream()
@@ -48,7 +64,7 @@ public class Utils {
             t.methodType = t.payload[0];
             t.contractType = Transaction.getContract(t.methodType);
         }
-        return t;
+        return t.seal();
     }
 
     public static List<Block> parseBlocks(List<WisdomOuterClass.Block> bks) {
@@ -72,12 +88,12 @@ public class Utils {
         b.body = new ArrayList<>();
         b.accountStateTrieRoot = bk.getAccountStateTrieRoot() == null ? null : bk.getAccountStateTrieRoot().toByteArray();
         if (bk.getBodyList() == null || bk.getBodyList().size() == 0) {
-            return b;
+            return b.seal();
         }
         for (WisdomOuterClass.Transaction tx : bk.getBodyList()) {
             b.body.add(parseTransaction(tx));
         }
-        return b;
+        return b.seal();
     }
 
     // avoid null check
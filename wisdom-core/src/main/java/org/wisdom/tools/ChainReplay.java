@@ -0,0 +1,315 @@
+package org.wisdom.tools;
+
+import org.apache.commons.cli.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.tdf.common.util.HexBytes;
+import org.tdf.rlp.RLPElement;
+import org.tdf.rlp.RLPList;
+import org.wisdom.Start;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.validate.CompositeBlockRule;
+import org.wisdom.core.validate.Result;
+import org.wisdom.db.AccountStateTrie;
+import org.wisdom.db.TriesSyncManager;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Histogram;
+import org.wisdom.metrics.Metrics;
+import org.wisdom.vm.abi.WASMResult;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * 离线回放 blocks-dump.*.rlp 中的区块，测量区块导入的性能
+ * 使用方法 .\gradlew runChainReplay -PappArgs="-d F:\dumps"
+ * -d --directory blocks dump 文件所在目录
+ * -f --from 起始高度，默认从数据库最高区块的下一个区块开始，可用于持久化数据库的断点续跑
+ * -t --to 结束高度（包含）
+ * -s --stages 执行的阶段，逗号分割，可选 validate,commit,write，默认全部，读取和解码总是执行
+ * -p --verify-parallel 并行执行的线程数，每个区块在提交前分别并行和串行执行一次，状态根或事务结果不一致时停止回放，需要 commit 阶段
+ * -D 节点参数，例如 -D wisdom.database.type=leveldb -D wisdom.database.directory=replay
+ * 默认使用内存数据库以及 h2 的 postgresql 模式
+ */
+public class ChainReplay {
+    private static final String READ = "read";
+    private static final String DECODE = "decode";
+    private static final String VALIDATE = "validate";
+    private static final String COMMIT = "commit";
+    private static final String WRITE = "write";
+    private static final String VERIFY = "verify";
+
+    // stages could be selected, dump files are always read and decoded
+    private static final List<String> STAGES = Arrays.asList(VALIDATE, COMMIT, WRITE);
+
+    private static final String TRIE_COMMIT = "wisdom_trie_commit_seconds";
+
+    private static final String WRITTEN_BYTES = "wisdom_db_written_bytes_total";
+
+    private static final String EXECUTIONS = "wisdom_block_executions_total";
+
+    private static final long PROGRESS_INTERVAL = 10_000_000_000L;
+
+    private final Map<String, Histogram> stages = new LinkedHashMap<>();
+
+    private final Set<String> selected;
+
+    private final CompositeBlockRule rule;
+
+    private final TriesSyncManager triesSyncManager;
+
+    private final WisdomBlockChain bc;
+
+    // null if parallel execution is not verified
+    private final AccountStateTrie accountStateTrie;
+
+    private long blocks;
+
+    private long transactions;
+
+    private long dumpBytes;
+
+    public ChainReplay(Set<String> selected, CompositeBlockRule rule, TriesSyncManager triesSyncManager,
+                       WisdomBlockChain bc, AccountStateTrie accountStateTrie) {
+        this.selected = selected;
+        this.rule = rule;
+        this.triesSyncManager = triesSyncManager;
+        this.bc = bc;
+        this.accountStateTrie = accountStateTrie;
+        // read is the time of reading and parsing a dump file
+        stages.put(READ, new Histogram());
+        stages.put(DECODE, new Histogram());
+        if (accountStateTrie != null) stages.put(VERIFY, new Histogram());
+        STAGES.stream().filter(selected::contains).forEach(s -> stages.put(s, new Histogram()));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder("d").longOpt("directory").hasArg().required().desc("directory of blocks dumps").build());
+        options.addOption("f", "from", true, "start height, default to the next of top height");
+        options.addOption("t", "to", true, "end height inclusive");
+        options.addOption("s", "stages", true, "stages to run, comma separated of " + String.join(",", STAGES));
+        options.addOption("p", "verify-parallel", true, "threads of parallel execution verified against serial execution");
+        options.addOption(Option.builder("D").hasArgs().valueSeparator('=').desc("properties of node").build());
+
+        CommandLine line;
+        try {
+            line = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("ChainReplay", options);
+            System.exit(1);
+            return;
+        }
+
+        Set<String> selected = new HashSet<>(STAGES);
+        if (line.hasOption("stages")) {
+            selected = Arrays.stream(line.getOptionValue("stages").split(","))
+                    .map(String::trim).filter(s -> !s.isEmpty())
+                    .collect(Collectors.toSet());
+            if (!STAGES.containsAll(selected)) throw new IllegalArgumentException("unknown stages " + selected);
+        }
+        Properties overrides = line.getOptionProperties("D");
+        boolean verify = line.hasOption("verify-parallel");
+        if (verify) {
+            // blocks are executed above the states of their parents committed by the previous blocks
+            if (!selected.contains(COMMIT)) throw new IllegalArgumentException("verify-parallel requires stage commit");
+            int threads = Integer.parseInt(line.getOptionValue("verify-parallel"));
+            if (threads <= 1) throw new IllegalArgumentException("verify-parallel requires more than 1 thread");
+            overrides.setProperty("wisdom.parallel-execution.threads", Integer.toString(threads));
+        }
+
+        ConfigurableApplicationContext ctx = Start.run(nodeArguments(overrides));
+        int code = 0;
+        try {
+            WisdomBlockChain bc = ctx.getBean(WisdomBlockChain.class);
+            ChainReplay replay = new ChainReplay(
+                    selected, ctx.getBean(CompositeBlockRule.class), ctx.getBean(TriesSyncManager.class), bc,
+                    verify ? ctx.getBean(AccountStateTrie.class) : null
+            );
+            long from = line.hasOption("from") ? Long.parseLong(line.getOptionValue("from")) : bc.getTopHeight() + 1;
+            long to = line.hasOption("to") ? Long.parseLong(line.getOptionValue("to")) : Long.MAX_VALUE;
+            replay.replay(new File(line.getOptionValue("directory")), from, to);
+        } catch (Exception e) {
+            e.printStackTrace();
+            code = 1;
+        } finally {
+            ctx.close();
+        }
+        System.exit(code);
+    }
+
+    // 默认使用内存数据库，fast sync 目录指向空目录，避免节点启动时自行导入 blocks dump
+    private static String[] nodeArguments(Properties overrides) throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("wisdom.database.type", "memory");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:wisdom;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+        properties.put("wisdom.consensus.enable-mining", "false");
+        properties.put("wisdom.consensus.fast-sync.directory",
+                Files.createTempDirectory("replay").toAbsolutePath().toString());
+        overrides.stringPropertyNames().forEach(k -> properties.put(k, overrides.getProperty(k)));
+        return properties.entrySet().stream()
+                .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                .toArray(String[]::new);
+    }
+
+    public void replay(File directory, long from, long to) throws Exception {
+        if (!directory.isDirectory()) throw new IllegalArgumentException(directory + " is not a valid directory");
+        List<File> dumps = TriesSyncManager
+                .blocksDumps(Arrays.stream(Optional.ofNullable(directory.listFiles()).orElse(new File[0])), from)
+                .collect(Collectors.toList());
+        System.out.println(String.format("replay blocks from %d to %s, stages %s", from,
+                to == Long.MAX_VALUE ? "end" : Long.toString(to), stages.keySet()));
+
+        Map<String, long[]> triesBefore = snapshotTries();
+        long bytesBefore = writtenBytes();
+        long start = System.nanoTime();
+        long lastProgress = start;
+        Block parent = null;
+
+        for (File dump : dumps) {
+            long t = System.nanoTime();
+            byte[] bytes = Files.readAllBytes(dump.toPath());
+            RLPList list = RLPElement.fromEncoded(bytes).asRLPList();
+            stages.get(READ).recordSince(t);
+            dumpBytes += bytes.length;
+
+            for (RLPElement el : list) {
+                t = System.nanoTime();
+                Block b = el.as(Block.class).seal();
+                if (b.nHeight < from) continue;
+                if (b.nHeight > to) {
+                    finish(start, triesBefore, bytesBefore);
+                    return;
+                }
+                record(DECODE, t);
+                if (parent == null) {
+                    checkParent(b);
+                } else if (parent.nHeight + 1 != b.nHeight) {
+                    throw new RuntimeException("missing block at height " + (parent.nHeight + 1));
+                }
+                replay(b);
+                parent = b;
+                blocks++;
+                transactions += b.body.size();
+
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL) {
+                    lastProgress = now;
+                    System.out.println(String.format("height %d, %.1f blocks/s", b.nHeight, blocks * 1e9 / (now - start)));
+                }
+            }
+        }
+        finish(start, triesBefore, bytesBefore);
+    }
+
+    // the parent of first replayed block must be in database if the commit or write stage is selected
+    private void checkParent(Block b) {
+        if (!selected.contains(COMMIT) && !selected.contains(WRITE)) return;
+        if (b.nHeight > 0 && !bc.containsBlock(b.hashPrevBlock)) {
+            throw new RuntimeException("parent of block at height " + b.nHeight
+                    + " not found, replay should start from " + (bc.getTopHeight() + 1));
+        }
+    }
+
+    private void replay(Block b) {
+        long t = System.nanoTime();
+        if (selected.contains(VALIDATE)) {
+            Result res = rule.validateBlock(b);
+            if (!res.isSuccess()) {
+                throw new RuntimeException("invalid block at height " + b.nHeight + " reason = " + res.getMessage());
+            }
+            t = record(VALIDATE, t);
+        }
+        if (accountStateTrie != null) {
+            verify(b);
+            t = record(VERIFY, t);
+        }
+        if (selected.contains(COMMIT)) {
+            triesSyncManager.commit(b);
+            t = record(COMMIT, t);
+        }
+        if (selected.contains(WRITE)) {
+            if (!bc.writeBlock(b)) throw new RuntimeException("write block at height " + b.nHeight + " failed");
+            record(WRITE, t);
+        }
+    }
+
+    // the states and results of parallel execution must be the same as serial execution, nothing is persisted
+    private void verify(Block b) {
+        if (b.nHeight == 0) return;
+        AccountStateTrie.Execution parallel = accountStateTrie.execute(b);
+        AccountStateTrie.Execution serial = accountStateTrie.executeSerially(b);
+        if (!Arrays.equals(parallel.getRoot(), serial.getRoot())) {
+            throw new RuntimeException(String.format(
+                    "state root of parallel execution mismatch at height %d hash %s parallel = %s serial = %s",
+                    b.nHeight, b.getHashHexString(),
+                    HexBytes.fromBytes(parallel.getRoot()), HexBytes.fromBytes(serial.getRoot())
+            ));
+        }
+        serial.getResults().forEach((k, v) -> {
+            WASMResult r = parallel.getResults().get(k);
+            if (!v.equals(r)) {
+                throw new RuntimeException(String.format(
+                        "result of parallel execution mismatch at height %d transaction %s parallel = %s serial = %s",
+                        b.nHeight, HexBytes.fromBytes(k), r, v
+                ));
+            }
+        });
+    }
+
+    // returns current time
+    private long record(String stage, long start) {
+        long now = System.nanoTime();
+        Histogram h = stages.get(stage);
+        if (h != null) h.record(now - start);
+        return now;
+    }
+
+    // count and sum of trie commit timers keyed by labels, the timers are process wide
+    private static Map<String, long[]> snapshotTries() {
+        Map<String, long[]> ret = new TreeMap<>();
+        Metrics.children(TRIE_COMMIT).forEach((labels, h) ->
+                ret.put(labels, new long[]{((Histogram) h).getCount(), ((Histogram) h).getSum()})
+        );
+        return ret;
+    }
+
+    private static long writtenBytes() {
+        return Metrics.children(WRITTEN_BYTES).values().stream().mapToLong(c -> ((Counter) c).get()).sum();
+    }
+
+    private void finish(long start, Map<String, long[]> triesBefore, long bytesBefore) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("blocks %d, transactions %d in %.1f s", blocks, transactions, seconds));
+        System.out.println(String.format("%.1f blocks/s, %.1f transactions/s", blocks / seconds, transactions / seconds));
+        System.out.println(String.format("dump bytes read %d, key value bytes written %d",
+                dumpBytes, writtenBytes() - bytesBefore));
+
+        System.out.println(String.format("%-24s %10s %10s %10s %10s %8s", "stage", "count", "total(s)", "mean(ms)", "p99(ms)", "share"));
+        stages.forEach((stage, h) -> print(stage, h.getCount(), h.getSum(), h.quantiles(0.99)[0], seconds));
+        snapshotTries().forEach((labels, after) -> {
+            long[] before = triesBefore.getOrDefault(labels, new long[2]);
+            print("commit " + labels, after[0] - before[0], after[1] - before[1], -1, seconds);
+        });
+        if (accountStateTrie == null) return;
+        // a block is counted twice, executed by verify and again by commit
+        Metrics.children(EXECUTIONS).forEach((labels, c) ->
+                System.out.println(String.format("executions %s %d", labels, ((Counter) c).get()))
+        );
+    }
+
+    // p99 is not available for process wide timers, -1 is printed as -
+    private static void print(String stage, long count, long sum, long p99, double seconds) {
+        System.out.println(String.format("%-24s %10d %10.2f %10.3f %10s %7.1f%%",
+                stage, count, sum / 1e9, count == 0 ? 0 : sum / 1e6 / count,
+                p99 < 0 ? "-" : String.format("%.3f", p99 / 1e6), sum / 1e7 / seconds));
+    }
+}
@@ -0,0 +1,173 @@
+package org.wisdom.tools;
+
+import org.tdf.common.util.HexBytes;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.metrics.Histogram;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * end to end latencies of transactions measured from submission to the pending, included and confirmed emits
+ * of node, and a per second timeline of throughput
+ */
+public class LatencyRecorder {
+    private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+
+    // columns of timeline
+    private static final String[] COLUMNS = {"submitted", "accepted", "rejected", "included", "confirmed", "dropped"};
+    private static final int SUBMITTED = 0;
+    private static final int ACCEPTED = 1;
+    private static final int REJECTED = 2;
+    private static final int INCLUDED = 3;
+    private static final int CONFIRMED = 4;
+    private static final int DROPPED = 5;
+
+    public interface SettleListener {
+        // a transaction of sender is confirmed, or dropped or rejected if confirmed is false
+        void onSettled(int sender, boolean confirmed);
+    }
+
+    private static class Trace {
+        private final int sender;
+        private final boolean measured;
+        private final long submittedAt;
+        private boolean pending;
+        private boolean included;
+
+        private Trace(int sender, boolean measured, long submittedAt) {
+            this.sender = sender;
+            this.measured = measured;
+            this.submittedAt = submittedAt;
+        }
+
+        // true for the first time only, the rpc response and the emit of pending may race
+        private synchronized boolean markPending() {
+            if (!measured || pending) return false;
+            pending = true;
+            return true;
+        }
+
+        private synchronized boolean markIncluded() {
+            if (!measured || included) return false;
+            included = true;
+            return true;
+        }
+    }
+
+    private final Map<HexBytes, Trace> traces = new ConcurrentHashMap<>();
+
+    private final Histogram toPending = new Histogram();
+
+    private final Histogram toIncluded = new Histogram();
+
+    private final Histogram toConfirmed = new Histogram();
+
+    private final Map<Long, AtomicLongArray> timeline = new ConcurrentSkipListMap<>();
+
+    private final long start = System.nanoTime();
+
+    private final SettleListener onSettled;
+
+    public LatencyRecorder(SettleListener onSettled) {
+        this.onSettled = onSettled;
+    }
+
+    private void tick(int column, long now) {
+        timeline.computeIfAbsent((now - start) / 1_000_000_000L, k -> new AtomicLongArray(COLUMNS.length))
+                .incrementAndGet(column);
+    }
+
+    /**
+     * @param measured false for transactions not counted in latencies, e.g. transfers to fund the senders
+     */
+    public void submitted(byte[] hash, int sender, boolean measured, long now) {
+        traces.put(HexBytes.fromBytes(hash), new Trace(sender, measured, now));
+        if (measured) tick(SUBMITTED, now);
+    }
+
+    // the transaction is accepted by the rpc of node
+    public void accepted(byte[] hash, long now) {
+        Trace t = traces.get(HexBytes.fromBytes(hash));
+        if (t == null || !t.measured) return;
+        tick(ACCEPTED, now);
+        if (t.markPending()) {
+            toPending.record(now - t.submittedAt);
+        }
+    }
+
+    public void rejected(byte[] hash, long now) {
+        Trace t = traces.remove(HexBytes.fromBytes(hash));
+        if (t == null) return;
+        if (t.measured) tick(REJECTED, now);
+        onSettled.onSettled(t.sender, false);
+    }
+
+    // status emitted by TRANSACTION_EMIT of websocket
+    public void onStatus(byte[] hash, int status, long now) {
+        HexBytes h = HexBytes.fromBytes(hash);
+        Trace t = traces.get(h);
+        if (t == null) return;
+        switch (Transaction.Status.values()[status]) {
+            case PENDING:
+                if (!t.markPending()) return;
+                toPending.record(now - t.submittedAt);
+                return;
+            case INCLUDED:
+                if (!t.markIncluded()) return;
+                tick(INCLUDED, now);
+                toIncluded.record(now - t.submittedAt);
+                return;
+            case CONFIRMED:
+            case DROPPED:
+                if (traces.remove(h) == null) return;
+                boolean confirmed = status == Transaction.Status.CONFIRMED.ordinal();
+                if (t.measured) {
+                    tick(confirmed ? CONFIRMED : DROPPED, now);
+                    if (confirmed) toConfirmed.record(now - t.submittedAt);
+                }
+                onSettled.onSettled(t.sender, confirmed);
+        }
+    }
+
+    public boolean isSettled(byte[] hash) {
+        return !traces.containsKey(HexBytes.fromBytes(hash));
+    }
+
+    // transactions neither confirmed nor dropped
+    public int getUnsettled() {
+        return traces.size();
+    }
+
+    public void report(PrintStream out) {
+        out.println(String.format("%-10s %10s %10s %10s %10s %10s %10s",
+                "stage", "count", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)", "max(ms)"));
+        report(out, "pending", toPending);
+        report(out, "included", toIncluded);
+        report(out, "confirmed", toConfirmed);
+    }
+
+    private static void report(PrintStream out, String stage, Histogram h) {
+        long[] qs = h.quantiles(PERCENTILES);
+        StringBuilder sb = new StringBuilder(String.format("%-10s %10d", stage, h.getCount()));
+        for (long q : qs) {
+            sb.append(String.format(" %10.1f", q / 1e6));
+        }
+        out.println(sb);
+    }
+
+    // throughput timeline in csv, one row per second since the recorder created
+    public void printTimeline(PrintStream out) {
+        out.println("second," + String.join(",", COLUMNS));
+        timeline.forEach((second, row) -> {
+            StringBuilder sb = new StringBuilder(Long.toString(second));
+            for (int i = 0; i < COLUMNS.length; i++) {
+                sb.append(',').append(row.get(i));
+            }
+            out.println(sb);
+        });
+    }
+}
@@ -0,0 +1,347 @@
+package org.wisdom.tools;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.codec.binary.Hex;
+import org.tdf.rlp.RLPCodec;
+import org.wisdom.ApiResult.APIResult;
+import org.wisdom.consensus.pow.EconomicModel;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.ed25519.Ed25519;
+import org.wisdom.crypto.ed25519.Ed25519PrivateKey;
+import org.wisdom.util.Address;
+import org.wisdom.util.AsynchronousHttpClient;
+import org.wisdom.vm.abi.ContractCallPayload;
+import org.wisdom.vm.abi.Parameters;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * offers transactions at a fixed rate from a set of senders, every sender keeps at most maxInFlight unconfirmed
+ * transactions so the offered load is throttled when node falls behind, latencies are tracked by websocket emits
+ */
+public class LoadGenerator {
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // at most transactions per request of /sendTransactions
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .configure(com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    public static class Config {
+        // offered transactions per second
+        public double tps = 100;
+        // seconds to offer load
+        public int duration = 60;
+        // seconds to wait for confirmations after load
+        public int drain = 120;
+        // senders generated and funded by the private key, 0 to send from the private key only
+        public int senders;
+        // WDC transferred to every generated sender
+        public BigDecimal fund = BigDecimal.ONE;
+        // unconfirmed transactions per sender
+        public int maxInFlight = 64;
+        // transaction type -> weight, TRANSFER and WASM_CALL are supported, transfers only by default
+        public Map<String, Double> mix;
+        // receiver of transfers, transfers are sent to the next sender when absent
+        public String to;
+        // WDC of every transfer
+        public BigDecimal amount = new BigDecimal("0.001");
+        // submit transactions of a tick by /sendTransactions rather than one request per transaction
+        public boolean batch = true;
+        public WasmCall wasm;
+        // path of throughput timeline csv, printed to stdout when absent
+        public String timeline;
+    }
+
+    public static class WasmCall {
+        public String contract;
+        public String method;
+        // hex encoded rlp of org.wisdom.vm.abi.Parameters
+        public String parameters;
+        public long gasLimit = 100000;
+        public long gasPrice = 200;
+    }
+
+    private static class Sender {
+        private final Ed25519PrivateKey key;
+        private final byte[] publicKey;
+        private final byte[] publicKeyHash;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private long nonce;
+        // a transaction of sender is rejected, nonce will be fetched again once all in flight settled
+        private volatile boolean resync;
+
+        private Sender(Ed25519PrivateKey key) {
+            this.key = key;
+            this.publicKey = key.generatePublicKey().getEncoded();
+            this.publicKeyHash = Address.publicKeyToHash(publicKey);
+        }
+    }
+
+    private static class BatchResponse {
+        public int code;
+        public String message;
+        public List<TransactionTestTool.Response> data;
+    }
+
+    private final Config config;
+    private final String host;
+    private final int port;
+    private final List<Sender> senders = new ArrayList<>();
+    private final LatencyRecorder recorder;
+    private final TransactionSubscriber subscriber;
+    private final Random random = new Random();
+    private final AtomicLong throttled = new AtomicLong();
+    private final List<Transaction.Type> types = new ArrayList<>();
+    private final double[] weights;
+    private int next;
+
+    public LoadGenerator(Config config, String host, int port, byte[] privateKey) throws Exception {
+        this.config = config;
+        this.host = host;
+        this.port = port;
+        this.senders.add(new Sender(new Ed25519PrivateKey(privateKey)));
+        Map<String, Double> mix = config.mix == null || config.mix.isEmpty() ?
+                Collections.singletonMap(Transaction.Type.TRANSFER.name(), 1.0) : config.mix;
+        this.weights = new double[mix.size()];
+        double sum = 0;
+        for (Map.Entry<String, Double> e : mix.entrySet()) {
+            Transaction.Type t = Transaction.Type.valueOf(e.getKey().toUpperCase());
+            if (t != Transaction.Type.TRANSFER && t != Transaction.Type.WASM_CALL) {
+                throw new IllegalArgumentException("unsupported transaction type in mix " + e.getKey());
+            }
+            if (t == Transaction.Type.WASM_CALL && config.wasm == null) {
+                throw new IllegalArgumentException("wasm call is required in mix of WASM_CALL");
+            }
+            sum += e.getValue();
+            weights[types.size()] = sum;
+            types.add(t);
+        }
+        this.recorder = new LatencyRecorder((i, confirmed) -> {
+            Sender s = senders.get(i);
+            if (!confirmed) s.resync = true;
+            s.inFlight.decrementAndGet();
+        });
+        this.subscriber = TransactionSubscriber.connect(host, port, recorder::onStatus);
+    }
+
+    public void run() throws Exception {
+        Sender origin = senders.get(0);
+        origin.nonce = TransactionTestTool.getNonce(origin.publicKeyHash, host, port).get() + 1;
+        fund();
+        System.out.println(String.format("offer %.1f tps for %d seconds from %d senders", config.tps, config.duration, senders.size()));
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(config.duration);
+        long last = start;
+        double credit = 0;
+        while (System.nanoTime() < deadline) {
+            long now = System.nanoTime();
+            credit += config.tps * (now - last) / 1e9;
+            last = now;
+            List<Transaction> transactions = new ArrayList<>();
+            List<Integer> owners = new ArrayList<>();
+            while (credit >= 1) {
+                credit--;
+                int i = nextSender();
+                if (i < 0) {
+                    throttled.incrementAndGet();
+                    continue;
+                }
+                transactions.add(createTransaction(senders.get(i), pickType()));
+                owners.add(i);
+            }
+            submit(transactions, owners, true);
+            long sleep = TICK - (System.nanoTime() - now);
+            if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+        }
+
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.drain);
+        while (recorder.getUnsettled() > 0 && System.nanoTime() < drainDeadline) {
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+        subscriber.close();
+
+        System.out.println("throttled by in flight limit: " + throttled.get() + ", unsettled: " + recorder.getUnsettled());
+        recorder.report(System.out);
+        if (config.timeline == null || config.timeline.isEmpty()) {
+            recorder.printTimeline(System.out);
+            return;
+        }
+        try (PrintStream out = new PrintStream(new FileOutputStream(config.timeline))) {
+            recorder.printTimeline(out);
+        }
+    }
+
+    // generate senders and fund them by the private key, wait until the transfers confirmed
+    private void fund() throws Exception {
+        if (config.senders <= 0) return;
+        Sender origin = senders.get(0);
+        List<Transaction> transfers = new ArrayList<>();
+        for (int i = 0; i < config.senders; i++) {
+            Sender s = new Sender(new Ed25519PrivateKey(Ed25519.generateKeyPair().getPrivateKey().getEncoded()));
+            s.nonce = 1;
+            senders.add(s);
+            transfers.add(createTransfer(origin, s.publicKeyHash, config.fund));
+        }
+        List<Integer> owners = Collections.nCopies(transfers.size(), 0);
+        for (int i = 0; i < transfers.size(); i += MAX_BATCH_SIZE) {
+            int end = Math.min(i + MAX_BATCH_SIZE, transfers.size());
+            submit(transfers.subList(i, end), owners.subList(i, end), false);
+        }
+        System.out.println("funding " + config.senders + " senders");
+        while (transfers.stream().anyMatch(t -> !recorder.isSettled(t.getHash()))) {
+            TimeUnit.SECONDS.sleep(1);
+        }
+        // the origin is used to fund only
+        senders.remove(0);
+    }
+
+    // round robin over senders which are below the in flight limit, -1 if all senders are busy
+    private int nextSender() throws Exception {
+        for (int k = 0; k < senders.size(); k++) {
+            int i = (next + k) % senders.size();
+            Sender s = senders.get(i);
+            if (s.resync) {
+                if (s.inFlight.get() > 0) continue;
+                s.nonce = TransactionTestTool.getNonce(s.publicKeyHash, host, port).get() + 1;
+                s.resync = false;
+            }
+            if (s.inFlight.get() >= config.maxInFlight) continue;
+            next = i + 1;
+            return i;
+        }
+        return -1;
+    }
+
+    private Transaction.Type pickType() {
+        double r = random.nextDouble() * weights[weights.length - 1];
+        for (int i = 0; i < weights.length; i++) {
+            if (r < weights[i]) return types.get(i);
+        }
+        return types.get(types.size() - 1);
+    }
+
+    private Transaction createTransaction(Sender s, Transaction.Type type) throws Exception {
+        if (type == Transaction.Type.WASM_CALL) {
+            return createWasmCall(s);
+        }
+        byte[] to;
+        if (config.to != null && !config.to.isEmpty()) {
+            to = TransactionTestTool.PublicKeyHash.from(config.to).publicKeyHash;
+        } else {
+            to = senders.get((senders.indexOf(s) + 1) % senders.size()).publicKeyHash;
+        }
+        return createTransfer(s, to, config.amount);
+    }
+
+    private Transaction createTransfer(Sender s, byte[] to, BigDecimal amount) throws Exception {
+        Transaction tx = new Transaction();
+        tx.version = Transaction.DEFAULT_TRANSACTION_VERSION;
+        tx.type = Transaction.Type.TRANSFER.ordinal();
+        tx.amount = amount.multiply(new BigDecimal(EconomicModel.WDC)).longValueExact();
+        tx.to = to;
+        tx.payload = new byte[0];
+        tx.gasPrice = (long) Math.ceil(0.002 * EconomicModel.WDC / Transaction.GAS_TABLE[tx.type]);
+        return sign(s, tx);
+    }
+
+    private Transaction createWasmCall(Sender s) throws Exception {
+        ContractCallPayload payload = new ContractCallPayload();
+        payload.setGasLimit(config.wasm.gasLimit);
+        payload.setMethod(config.wasm.method);
+        payload.setParameters(
+                config.wasm.parameters == null || config.wasm.parameters.isEmpty() ?
+                        null : RLPCodec.decode(Hex.decodeHex(config.wasm.parameters), Parameters.class)
+        );
+        Transaction tx = new Transaction();
+        tx.version = Transaction.DEFAULT_TRANSACTION_VERSION;
+        tx.type = Transaction.Type.WASM_CALL.ordinal();
+        tx.to = TransactionTestTool.PublicKeyHash.from(config.wasm.contract).publicKeyHash;
+        tx.payload = RLPCodec.encode(payload);
+        tx.gasPrice = config.wasm.gasPrice;
+        return sign(s, tx);
+    }
+
+    private Transaction sign(Sender s, Transaction tx) throws Exception {
+        tx.from = s.publicKey;
+        tx.nonce = s.nonce++;
+        tx.signature = s.key.sign(tx.getRawForSign());
+        s.inFlight.incrementAndGet();
+        return tx;
+    }
+
+    // subscribe before submission so that no emit is missed
+    private void submit(List<Transaction> transactions, List<Integer> owners, boolean measured) throws Exception {
+        if (transactions.isEmpty()) return;
+        List<byte[]> hashes = new ArrayList<>(transactions.size());
+        for (Transaction tx : transactions) {
+            hashes.add(tx.getHash());
+        }
+        subscriber.subscribe(hashes).get(10, TimeUnit.SECONDS);
+
+        List<Transaction> wasm = new ArrayList<>();
+        List<Transaction> others = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < transactions.size(); i++) {
+            Transaction tx = transactions.get(i);
+            recorder.submitted(tx.getHash(), owners.get(i), measured, now);
+            if (tx.type == Transaction.Type.WASM_CALL.ordinal()) {
+                wasm.add(tx);
+            } else {
+                others.add(tx);
+            }
+        }
+        if (!wasm.isEmpty()) {
+            subscriber.send(wasm).thenRun(() -> {
+                long t = System.nanoTime();
+                wasm.forEach(tx -> recorder.accepted(tx.getHash(), t));
+            });
+        }
+        if (others.isEmpty()) return;
+        if (!config.batch) {
+            for (Transaction tx : others) {
+                TransactionTestTool.postTransaction(tx.toRPCBytes(), host, port).whenComplete((r, e) -> {
+                    long t = System.nanoTime();
+                    if (e == null && r.code == APIResult.SUCCESS) {
+                        recorder.accepted(tx.getHash(), t);
+                    } else {
+                        recorder.rejected(tx.getHash(), t);
+                    }
+                });
+            }
+            return;
+        }
+        String[] params = new String[others.size() * 2];
+        for (int i = 0; i < others.size(); i++) {
+            params[2 * i] = "traninfos";
+            params[2 * i + 1] = Hex.encodeHexString(others.get(i).toRPCBytes());
+        }
+        AsynchronousHttpClient.post(String.format("http://%s:%d/sendTransactions", host, port), params)
+                .whenComplete((body, e) -> {
+                    long t = System.nanoTime();
+                    BatchResponse resp = null;
+                    try {
+                        resp = e == null ? MAPPER.readValue(body, BatchResponse.class) : null;
+                    } catch (Exception ignored) {
+                    }
+                    for (int i = 0; i < others.size(); i++) {
+                        Transaction tx = others.get(i);
+                        boolean ok = resp != null && resp.code == APIResult.SUCCESS
+                                && resp.data != null && resp.data.get(i).code == APIResult.SUCCESS;
+                        if (ok) {
+                            recorder.accepted(tx.getHash(), t);
+                        } else {
+                            recorder.rejected(tx.getHash(), t);
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,103 @@
+package org.wisdom.tools;
+
+import org.tdf.rlp.RLPCodec;
+import org.tdf.rlp.RLPElement;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.type.WebSocketMessage;
+
+import javax.websocket.*;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * websocket client of node, subscribes transactions and forwards the TRANSACTION_EMIT pushed by node to listener
+ */
+public class TransactionSubscriber extends Endpoint implements MessageHandler.Whole<byte[]> {
+    public interface Listener {
+        // nanoTime is the System.nanoTime() when the emit received
+        void onStatus(byte[] hash, int status, long nanoTime);
+    }
+
+    private final Listener listener;
+
+    // nonce of requests, emits of node are sent with nonce 0
+    private final AtomicLong nonce = new AtomicLong();
+
+    private final Map<Long, CompletableFuture<RLPElement>> replies = new ConcurrentHashMap<>();
+
+    private Session session;
+
+    private TransactionSubscriber(Listener listener) {
+        this.listener = listener;
+    }
+
+    public static TransactionSubscriber connect(String host, int port, Listener listener) throws Exception {
+        TransactionSubscriber subscriber = new TransactionSubscriber(listener);
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        container.setDefaultMaxBinaryMessageBufferSize(8 * 1024 * 1024);
+        URI uri = URI.create(String.format("ws://%s:%d/websocket/load-test-%d?batch=true", host, port, System.nanoTime()));
+        container.connectToServer(subscriber, ClientEndpointConfig.Builder.create().build(), uri);
+        return subscriber;
+    }
+
+    @Override
+    public void onOpen(Session session, EndpointConfig config) {
+        this.session = session;
+        session.addMessageHandler(this);
+    }
+
+    @Override
+    public void onMessage(byte[] message) {
+        long now = System.nanoTime();
+        dispatch(RLPCodec.decode(message, WebSocketMessage.class), now);
+    }
+
+    private void dispatch(WebSocketMessage msg, long now) {
+        if (msg.getNonce() != 0) {
+            CompletableFuture<RLPElement> f = replies.remove(msg.getNonce());
+            if (f != null) f.complete(msg.getBody());
+            return;
+        }
+        switch (msg.getCodeEnum()) {
+            case EMIT_BATCH:
+                for (RLPElement e : msg.getBody().asRLPList()) {
+                    dispatch(e.as(WebSocketMessage.class), now);
+                }
+                return;
+            case TRANSACTION_EMIT:
+                listener.onStatus(msg.getBody().get(0).asBytes(), msg.getBody().get(1).asInt(), now);
+        }
+    }
+
+    private CompletableFuture<RLPElement> request(WebSocketMessage.Code code, Object body) throws IOException {
+        long n = nonce.incrementAndGet();
+        CompletableFuture<RLPElement> f = new CompletableFuture<>();
+        replies.put(n, f);
+        byte[] bin = RLPCodec.encode(new WebSocketMessage(n, code.ordinal(), RLPElement.readRLPTree(body)));
+        synchronized (this) {
+            session.getBasicRemote().sendBinary(ByteBuffer.wrap(bin));
+        }
+        return f;
+    }
+
+    // completed when the subscriptions are registered by node
+    public CompletableFuture<RLPElement> subscribe(Collection<byte[]> hashes) throws IOException {
+        return request(WebSocketMessage.Code.TRANSACTION_SUBSCRIBE, hashes.toArray(new byte[0][]));
+    }
+
+    // transactions sent by websocket go to the wasm transaction pool, rejections are emitted as DROPPED
+    public CompletableFuture<RLPElement> send(List<Transaction> transactions) throws IOException {
+        return request(WebSocketMessage.Code.TRANSACTION_SEND, new Object[]{true, transactions.toArray(new Transaction[0])});
+    }
+
+    public void close() throws IOException {
+        session.close();
+    }
+}
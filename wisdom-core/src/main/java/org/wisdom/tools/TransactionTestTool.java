@@ -46,6 +46,9 @@ import java.util.concurrent.Executors;
  * -h --host 主机名或者 ip
  * -p --port 端口
  * -n --nonce 指定起始 nonce
+ * -i --in-process 在本进程内启动一个使用内存数据库的节点，配置文件的 node 字段可以覆盖节点的参数
+ * 配置文件里有 load 字段时进行压力测试，参考 LoadGenerator.Config，例如
+ * "load": {"tps": 500, "duration": 60, "senders": 64, "mix": {"transfer": 0.9, "wasm_call": 0.1}}
  */
 public class TransactionTestTool {
     private static final JSONEncodeDecoder codec = new JSONEncodeDecoder();
@@ -61,9 +64,12 @@ public class TransactionTestTool {
         public long nonce;
         public List<TransactionInfo> transactions;
         public String protocol;
+        public LoadGenerator.Config load;
+        // properties of in process node, e.g. "wisdom.consensus.enable-mining": "true"
+        public Map<String, String> node;
     }
 
-    private static class PublicKeyHash {
+    static class PublicKeyHash {
         public byte[] publicKeyHash;
 
         public PublicKeyHash(byte[] publicKeyHash) {
@@ -234,6 +240,7 @@ public class TransactionTestTool {
         options.addOption("n", "nonce", true, "start nonce");
         options.addOption("k", "key", true, "private key");
         options.addOption("c", "config", true, "config file");
+        options.addOption("i", "in-process", false, "start an in process node with memory database");
 
         CommandLine line = parser.parse(options, args);
 
@@ -273,6 +280,15 @@ public class TransactionTestTool {
         if (line.getOptionValue("nonce") != null && !line.getOptionValue("nonce").equals("")) {
             testConfig.nonce = Integer.parseInt(line.getOptionValue("nonce"));
         }
+        if (line.hasOption("in-process")) {
+            startNode(testConfig);
+        }
+
+        if (testConfig.load != null) {
+            new LoadGenerator(testConfig.load, testConfig.host, testConfig.port, testConfig.privateKey).run();
+            System.exit(0);
+        }
+
         Ed25519PrivateKey privateKey = new Ed25519PrivateKey(testConfig.privateKey);
         PublicKeyHash publicKeyHash = new PublicKeyHash(Address.publicKeyToHash(privateKey.generatePublicKey().getEncoded()));
 
@@ -343,6 +359,34 @@ public class TransactionTestTool {
         System.out.println("TxhashLits-> "+sBuilder);
     }
 
+    // 启动内存数据库的节点，关系数据库用 h2 的 postgresql 模式代替
+    private static void startNode(TestConfig testConfig) throws Exception {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("wisdom.database.type", "memory");
+        properties.put("spring.datasource.url", "jdbc:h2:mem:wisdom;MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+        properties.put("server.port", Integer.toString(testConfig.port));
+        if (testConfig.node != null) properties.putAll(testConfig.node);
+        testConfig.host = "localhost";
+
+        org.wisdom.Start.main(
+                properties.entrySet().stream()
+                        .map(e -> "--" + e.getKey() + "=" + e.getValue())
+                        .toArray(String[]::new)
+        );
+
+        // 等待 rpc 可用
+        String url = String.format("http://%s:%d/version", testConfig.host, testConfig.port);
+        for (int i = 0; AsynchronousHttpClient.get(url).get().length == 0; i++) {
+            if (i >= 60) throw new IOException("node is not ready at " + url);
+            Thread.sleep(1000);
+        }
+    }
+
     private static void sendTransactionsByRPC(List<Transaction> transactions, TestConfig testConfig) {
         List<CompletableFuture> futures = new ArrayList<>();
         for (Transaction tx : transactions) {
@@ -372,7 +416,7 @@ public class TransactionTestTool {
         ;
     }
 
-    private static class Response {
+    static class Response {
         public int code;
         public String message;
         public Object data;
@@ -402,13 +446,13 @@ public class TransactionTestTool {
         public String votes;
     }
 
-    private static CompletableFuture<Response> postTransaction(byte[] transaction, String host, int port) {
+    static CompletableFuture<Response> postTransaction(byte[] transaction, String host, int port) {
         return AsynchronousHttpClient.post(
                 String.format("http://%s:%d/sendTransaction", host, port), "traninfo", Hex.encodeHexString(transaction)
                 ).thenApplyAsync(x -> codec.decode(x, Response.class));
     }
 
-    private static CompletableFuture<Long> getNonce(byte[] publicKeyHash, String host, int port) throws Exception {
+    static CompletableFuture<Long> getNonce(byte[] publicKeyHash, String host, int port) throws Exception {
         String url = String.format("http://%s:%d/account/%s", host, port, Hex.encodeHexString(publicKeyHash));
         return AsynchronousHttpClient.get(url)
                 .thenApplyAsync((body) -> codec.decode(body, GetAccountResponse.class).nonce);
@@ -0,0 +1,17 @@
+package org.wisdom.type;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class CursorPagedView<T> {
+    // opaque position of the next page, null if there is no more records
+    private String cursor;
+
+    private List<T> records;
+
+    public int getSize() {
+        return records == null ? 0 : records.size();
+    }
+}
@@ -17,7 +17,10 @@ public class WebSocketMessage {
         TRANSACTION_SUBSCRIBE,
         TRANSACTION_SEND,
         ACCOUNT_QUERY,
-        CONTRACT_QUERY
+        CONTRACT_QUERY,
+        TRANSACTION_BATCH_SEND,
+        // list of emits queued for a session, sent to sessions connected with ?batch=true
+        EMIT_BATCH
     }
 
     private long nonce;
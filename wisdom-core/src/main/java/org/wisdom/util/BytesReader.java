@@ -1,17 +1,61 @@
 package org.wisdom.util;
 
+/**
+ * cursor over a byte array, fixed size integers are decoded in place without copying
+ */
 public class BytesReader {
     private byte[] data;
     private int pc;
 
     public byte[] read(int size) {
+        require(size);
         byte[] res = Arrays.copyOfRange(data, pc, pc + size);
         pc += size;
         return res;
     }
 
     public byte read() {
-        return read(1)[0];
+        require(1);
+        return data[pc++];
+    }
+
+    // big endian signed 64 bits integer
+    public long readLong() {
+        require(8);
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (data[pc++] & 0xffL);
+        }
+        return v;
+    }
+
+    // big endian unsigned 32 bits integer
+    public long readUint32() {
+        require(4);
+        long v = 0;
+        for (int i = 0; i < 4; i++) {
+            v = (v << 8) | (data[pc++] & 0xffL);
+        }
+        return v;
+    }
+
+    public void skip(int size) {
+        require(size);
+        pc += size;
+    }
+
+    public int position() {
+        return pc;
+    }
+
+    public int remaining() {
+        return data.length - pc;
+    }
+
+    private void require(int size) {
+        if (size < 0 || size > data.length - pc) {
+            throw new IndexOutOfBoundsException("require " + size + " bytes at " + pc + " of " + data.length);
+        }
     }
 
     public BytesReader(byte[] data) {
@@ -10,6 +10,7 @@ import org.tdf.common.util.HexBytes;
 import org.wisdom.controller.WebSocket;
 import org.wisdom.core.Block;
 import org.wisdom.core.account.Transaction;
+import org.wisdom.metrics.Metrics;
 
 import java.util.*;
 import java.util.concurrent.Executors;
@@ -72,6 +73,7 @@ public class WASMTXPool {
                 .expireAfterWrite(EXPIRED_IN, TimeUnit.SECONDS)
                 .build();
         this.mCache = new HashMap<>();
+        Metrics.gauge("wisdom_pool_transactions", "transactions in memory pools", mCache::size, "pool", "wasm");
         poolExecutor.scheduleWithFixedDelay(() -> {
             try {
                 this.clear();
@@ -0,0 +1,108 @@
+package org.wisdom.command;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.wisdom.ApiResult.APIResult;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.crypto.ed25519.Ed25519;
+import org.wisdom.crypto.ed25519.Ed25519KeyPair;
+import org.wisdom.db.WisdomRepository;
+import org.wisdom.util.Address;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class TransactionFormatCheckTest {
+    private final Ed25519KeyPair keyPair = Ed25519.generateKeyPair();
+
+    private TransactionCheck check;
+
+    @Before
+    public void before() {
+        WisdomRepository repository = mock(WisdomRepository.class);
+        when(repository.getBestBlock()).thenReturn(new Block());
+        check = new TransactionCheck();
+        check.setWisdomRepository(repository);
+    }
+
+    private Transaction transaction(Transaction.Type type, byte[] payload) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.nonce = 1;
+        tx.from = keyPair.getPublicKey().getEncoded();
+        tx.gasPrice = Transaction.minFee;
+        tx.to = type == Transaction.Type.WASM_DEPLOY ? new byte[20]
+                : Address.publicKeyToHash(Ed25519.generateKeyPair().getPublicKey().getEncoded());
+        tx.amount = type == Transaction.Type.TRANSFER ? 100 : 0;
+        tx.payload = payload;
+        tx.signature = keyPair.getPrivateKey().sign(tx.getRawForSign());
+        return tx;
+    }
+
+    @Test
+    public void testDecode() {
+        byte[] payload = new byte[1 << 20];
+        Arrays.fill(payload, (byte) 7);
+        for (Transaction tx : Arrays.asList(transaction(Transaction.Type.TRANSFER, null),
+                transaction(Transaction.Type.WASM_DEPLOY, payload))) {
+            APIResult result = check.TransactionFormatCheck(tx.toRPCBytes());
+            assertEquals(result.getMessage(), 2000, result.getCode());
+            Transaction decoded = (Transaction) result.getData();
+            assertTrue(decoded.isSealed());
+            assertArrayEquals(tx.getHash(), decoded.getHash());
+            assertArrayEquals(tx.toRPCBytes(), decoded.toRPCBytes());
+            assertArrayEquals(tx.payload, decoded.payload);
+            assertEquals(tx.nonce, decoded.nonce);
+            assertEquals(tx.gasPrice, decoded.gasPrice);
+            assertEquals(tx.amount, decoded.amount);
+
+            // decoded transactions are checked without encoding
+            assertEquals(2000, check.TransactionFormatCheck(tx).getCode());
+        }
+    }
+
+    @Test
+    public void testMalformed() {
+        byte[] rpc = transaction(Transaction.Type.TRANSFER, null).toRPCBytes();
+
+        byte[] tampered = rpc.clone();
+        tampered[tampered.length - 30]++;
+        assertEquals("The transaction hash check error", check.TransactionFormatCheck(tampered).getMessage());
+
+        byte[] version = rpc.clone();
+        version[0] = 2;
+        assertEquals("Version number error", check.TransactionFormatCheck(version).getMessage());
+
+        assertEquals("Exception error", check.TransactionFormatCheck(Arrays.copyOf(rpc, rpc.length - 1)).getMessage());
+        assertEquals("Exception error", check.TransactionFormatCheck(Arrays.copyOf(rpc, rpc.length + 1)).getMessage());
+
+        // payload length larger than the bytes
+        byte[] length = rpc.clone();
+        length[length.length - 1] = 1;
+        assertEquals("Exception error", check.TransactionFormatCheck(length).getMessage());
+
+        Transaction tx = transaction(Transaction.Type.TRANSFER, null);
+        tx.signature[0]++;
+        assertEquals("Signature check error", check.TransactionFormatCheck(tx.toRPCBytes()).getMessage());
+        assertEquals("Signature check error", check.TransactionFormatCheck(tx).getMessage());
+    }
+
+    // sizes of fields are checked for transactions decoded from peers
+    @Test
+    public void testFieldLength() {
+        Transaction from = transaction(Transaction.Type.TRANSFER, null);
+        from.from = Arrays.copyOf(from.from, 31);
+        assertEquals("From format check error", check.TransactionFormatCheck(from).getMessage());
+
+        Transaction to = transaction(Transaction.Type.TRANSFER, null);
+        to.to = Arrays.copyOf(to.to, 21);
+        assertEquals("To format check error", check.TransactionFormatCheck(to).getMessage());
+
+        Transaction signature = transaction(Transaction.Type.TRANSFER, null);
+        signature.signature = Arrays.copyOf(signature.signature, 63);
+        assertEquals("Signature check error", check.TransactionFormatCheck(signature).getMessage());
+    }
+}
@@ -0,0 +1,197 @@
+package org.wisdom.consensus.pow;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.tdf.common.store.Store;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.validate.OfficialIncubateBalanceRule;
+import org.wisdom.db.AccountStateTrie;
+import org.wisdom.db.CandidateStateTrie;
+import org.wisdom.db.StateOverlay;
+import org.wisdom.db.WisdomRepository;
+import org.wisdom.pool.AdoptTransPool;
+import org.wisdom.pool.PeningTransPool;
+import org.wisdom.vm.abi.WASMResult;
+import org.wisdom.vm.abi.WASMTXPool;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class BlockTemplateBuilderTest {
+    @Mock
+    private ConsensusConfig consensusConfig;
+
+    @Mock
+    private WisdomRepository repository;
+
+    @Mock
+    private OfficialIncubateBalanceRule officialIncubateBalanceRule;
+
+    @Mock
+    private PeningTransPool peningTransPool;
+
+    @Mock
+    private PackageMiner packageMiner;
+
+    @Mock
+    private AdoptTransPool adoptTransPool;
+
+    @Mock
+    private EconomicModel economicModel;
+
+    @Mock
+    private AccountStateTrie accountStateTrie;
+
+    @Mock
+    private CandidateStateTrie candidateStateTrie;
+
+    @Mock
+    private WASMTXPool wasmtxPool;
+
+    @InjectMocks
+    private BlockTemplateBuilder builder = new BlockTemplateBuilder("true");
+
+    private final AtomicReference<Block> best = new AtomicReference<>();
+
+    private final Transaction transfer = transaction(Transaction.Type.TRANSFER, 1);
+
+    private final Transaction call = transaction(Transaction.Type.WASM_CALL, 2);
+
+    private static Block block(long height) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        b.body = new ArrayList<>();
+        return b;
+    }
+
+    private static Transaction transaction(Transaction.Type type, int sender) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.from[0] = (byte) sender;
+        tx.nonce = 1;
+        tx.gasPrice = 100;
+        return tx;
+    }
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void before() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        best.set(block(1));
+        when(consensusConfig.isEnableMining()).thenReturn(true);
+        when(consensusConfig.getMinerPubKeyHash()).thenReturn(new byte[20]);
+        when(repository.getBestBlock()).thenAnswer(i -> best.get());
+        when(repository.getTargetByParent(any())).thenReturn(new byte[32]);
+        when(packageMiner.TransferCheck(any(), anyLong(), any(), anyBoolean()))
+                .thenAnswer(i -> new ArrayList<>(Collections.singletonList(transfer)));
+        when(officialIncubateBalanceRule.validateTransaction(any(), any())).thenAnswer(i -> i.getArgument(0));
+        when(candidateStateTrie.getPowWait(any())).thenReturn(10L);
+
+        Store<byte[], byte[]> roots = mock(Store.class);
+        when(roots.get(any())).thenReturn(Optional.of(new byte[32]));
+        when(accountStateTrie.getRootStore()).thenReturn(roots);
+        when(accountStateTrie.overlay(any())).thenAnswer(i -> {
+            StateOverlay state = mock(StateOverlay.class);
+            when(state.commit()).thenReturn(new byte[32]);
+            return state;
+        });
+        when(accountStateTrie.update(any(StateOverlay.class), any(), any())).thenReturn(WASMResult.EMPTY);
+    }
+
+    // a template above a parent replaced by a new best block is discarded by take
+    @Test
+    public void testStaleParent() throws Exception {
+        when(wasmtxPool.popPackable(any(), anyInt())).thenReturn(new ArrayList<>());
+        Block stale = best.get();
+        builder.refresh();
+        verify(repository).getValidatorNonceAt(eq(stale.getHash()), any());
+
+        Block parent = block(2);
+        best.set(parent);
+        BlockAndTask taken = builder.take(parent, Long.MAX_VALUE);
+        assertArrayEquals(parent.getHash(), taken.getBlock().hashPrevBlock);
+        assertEquals(3, taken.getBlock().nHeight);
+        assertEquals(Arrays.asList(Transaction.Type.COINBASE.ordinal(), Transaction.Type.TRANSFER.ordinal()),
+                taken.getBlock().body.stream().map(x -> x.type).collect(Collectors.toList()));
+        verify(repository).getValidatorNonceAt(eq(parent.getHash()), any());
+        // the selection of the stale template is not reused
+        verify(packageMiner, times(1)).TransferCheck(eq(parent.getHash()), anyLong(), any(), eq(false));
+    }
+
+    // refresh never changes pools, the selection of take does and only once per block
+    @Test
+    public void testRefreshReadOnly() throws Exception {
+        when(wasmtxPool.popPackable(any(), anyInt())).thenReturn(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            builder.refresh();
+        }
+        verify(packageMiner, times(3)).TransferCheck(any(), anyLong(), any(), eq(true));
+        verify(packageMiner, never()).TransferCheck(any(), anyLong(), any(), eq(false));
+        verifyNoInteractions(peningTransPool, adoptTransPool);
+        verify(wasmtxPool, never()).drop(any(), any());
+
+        BlockAndTask taken = builder.take(best.get(), Long.MAX_VALUE);
+        assertEquals(2, taken.getBlock().body.size());
+        verify(packageMiner, times(1)).TransferCheck(any(), anyLong(), any(), eq(false));
+
+        // wasm transactions failed in a mined template are dropped
+        when(accountStateTrie.update(any(StateOverlay.class), any(), eq(call))).thenThrow(new RuntimeException("failed"));
+        when(wasmtxPool.popPackable(any(), anyInt())).thenReturn(new ArrayList<>(Collections.singletonList(call)));
+        taken = builder.take(best.get(), Long.MAX_VALUE);
+        assertEquals(2, taken.getBlock().body.size());
+        verify(wasmtxPool).drop(call, "failed");
+    }
+
+    // a template taken by the miner is never extended by a concurrent refresh
+    @Test
+    public void testRefreshTakeRace() throws Exception {
+        when(wasmtxPool.popPackable(any(), anyInt())).thenReturn(new ArrayList<>());
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        Thread refresher = new Thread(() -> {
+            while (!stop.get()) {
+                try {
+                    builder.refresh();
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        });
+        refresher.start();
+        int takes = 200;
+        try {
+            for (int i = 0; i < takes; i++) {
+                Block parent = block(i + 1);
+                best.set(parent);
+                BlockAndTask taken = builder.take(parent, Long.MAX_VALUE);
+                Block b = taken.getBlock();
+                assertArrayEquals(parent.getHash(), b.hashPrevBlock);
+                // coinbase and the transfer packed once
+                assertEquals(2, b.body.size());
+                assertEquals(b.body.size(), b.body.stream().map(Transaction::getHashHexString).distinct().count());
+            }
+        } finally {
+            stop.set(true);
+            refresher.join();
+        }
+        assertTrue(errors.isEmpty());
+        verify(packageMiner, times(takes)).TransferCheck(any(), anyLong(), any(), eq(false));
+    }
+}
@@ -0,0 +1,62 @@
+package org.wisdom.consensus.pow;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.account.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GasPriceQueueTest {
+
+    private static Transaction call(int sender, long nonce, long gasPrice) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = Transaction.Type.WASM_CALL.ordinal();
+        tx.from[0] = (byte) sender;
+        tx.nonce = nonce;
+        tx.gasPrice = gasPrice;
+        return tx;
+    }
+
+    @Test
+    public void testPollByGasPriceAndNonce() {
+        Transaction a1 = call(1, 1, 10);
+        Transaction a2 = call(1, 2, 50);
+        Transaction b1 = call(2, 1, 20);
+        Transaction c1 = call(3, 1, 5);
+        GasPriceQueue q = new GasPriceQueue(Arrays.asList(a2, c1, a1, b1));
+
+        List<Transaction> order = new ArrayList<>();
+        Transaction tx;
+        while ((tx = q.poll(x -> true)) != null) {
+            order.add(tx);
+            q.packed(tx);
+        }
+        // a2 is a candidate only after a1 is packed
+        Assert.assertEquals(Arrays.asList(b1, a1, a2, c1), order);
+        Assert.assertTrue(q.remaining().isEmpty());
+    }
+
+    @Test
+    public void testSkipAndDrop() {
+        Transaction a1 = call(1, 1, 10);
+        Transaction a2 = call(1, 2, 50);
+        Transaction b1 = call(2, 1, 20);
+        Transaction b2 = call(2, 2, 20);
+        Transaction c1 = call(3, 1, 5);
+        GasPriceQueue q = new GasPriceQueue(Arrays.asList(a1, a2, b1, b2, c1));
+
+        // b1 does not fit, transactions of b are left
+        Assert.assertSame(a1, q.poll(x -> x != b1));
+        // a1 failed
+        Assert.assertEquals(Arrays.asList(a2), q.dropSender(a1.getFromPKHash()));
+        Assert.assertSame(c1, q.poll(x -> x != b1));
+        q.packed(c1);
+        Assert.assertNull(q.poll(x -> x != b1));
+
+        List<Transaction> remaining = q.remaining();
+        Assert.assertEquals(2, remaining.size());
+        Assert.assertTrue(remaining.containsAll(Arrays.asList(b1, b2)));
+    }
+}
@@ -0,0 +1,258 @@
+package org.wisdom.controller;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.env.Environment;
+import org.tdf.rlp.RLPCodec;
+import org.tdf.rlp.RLPElement;
+import org.tdf.rlp.RLPList;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+import org.wisdom.type.WebSocketMessage;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.Session;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class WebSocketTest {
+    private static final Counter DROPPED = Metrics.counter("wisdom_websocket_dropped_total", "emits dropped or sessions closed because of full send queue");
+
+    private static int nonce;
+
+    private final List<Client> clients = new ArrayList<>();
+
+    private Properties properties;
+
+    // a session whose sends from the sender pool are held until released
+    private static class Client {
+        private final WebSocket ws = new WebSocket();
+        private final Session session = mock(Session.class);
+        private final BlockingQueue<WebSocketMessage> sent = new LinkedBlockingQueue<>();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        private Client(boolean batch, boolean slow) throws Exception {
+            RemoteEndpoint.Basic remote = mock(RemoteEndpoint.Basic.class);
+            doAnswer(i -> {
+                ByteBuffer buf = i.getArgument(0);
+                byte[] bin = new byte[buf.remaining()];
+                buf.get(bin);
+                if (slow && Thread.currentThread().getName().startsWith("websocket-sender")) {
+                    blocked.countDown();
+                    release.await();
+                }
+                sent.add(RLPCodec.decode(bin, WebSocketMessage.class));
+                return null;
+            }).when(remote).sendBinary(any(ByteBuffer.class));
+            when(session.getBasicRemote()).thenReturn(remote);
+            when(session.isOpen()).thenReturn(true);
+            when(session.getRequestParameterMap()).thenReturn(batch ?
+                    Collections.singletonMap("batch", Collections.singletonList("true")) : Collections.emptyMap());
+            ws.onOpen(session, "client-" + (++nonce));
+        }
+
+        private void request(WebSocketMessage.Code code, byte[] body) throws Exception {
+            ws.onMessage(RLPCodec.encode(new WebSocketMessage(++nonce, code.ordinal(), RLPElement.readRLPTree(body))), session);
+            // response to the request
+            assertEquals(WebSocketMessage.Code.NULL, take().getCodeEnum());
+        }
+
+        private WebSocketMessage take() throws Exception {
+            WebSocketMessage msg = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(msg);
+            return msg;
+        }
+
+        // wait for the first emit held by the sender
+        private void awaitBlocked() throws Exception {
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Before
+    public void before() {
+        properties = new Properties();
+        Environment environment = mock(Environment.class);
+        when(environment.getProperty(anyString(), eq(Integer.class), anyInt())).thenAnswer(i ->
+                properties.containsKey(i.getArgument(0)) ?
+                        Integer.parseInt(properties.getProperty(i.getArgument(0))) : i.getArgument(2));
+        when(environment.getProperty(anyString(), anyString())).thenAnswer(i ->
+                properties.getProperty(i.getArgument(0), i.getArgument(1)));
+        ApplicationContext ctx = mock(ApplicationContext.class);
+        when(ctx.getEnvironment()).thenReturn(environment);
+        WebSocket.ctx = ctx;
+    }
+
+    @After
+    public void after() {
+        clients.forEach(c -> {
+            c.release.countDown();
+            c.ws.onClose();
+        });
+    }
+
+    private Client connect(boolean batch, boolean slow) throws Exception {
+        Client c = new Client(batch, slow);
+        clients.add(c);
+        return c;
+    }
+
+    private static Transaction transaction() {
+        Transaction tx = Transaction.createEmpty();
+        tx.nonce = ++nonce;
+        return tx;
+    }
+
+    private static byte[] address() {
+        byte[] address = new byte[20];
+        address[0] = (byte) ++nonce;
+        return address;
+    }
+
+    private static void emitEvents(byte[] address, int n) {
+        for (int i = 0; i < n; i++) {
+            WebSocket.broadcastEvent(address, "event-" + i, RLPList.createEmpty());
+        }
+    }
+
+    private static int status(WebSocketMessage emit) {
+        return emit.getBody().asRLPList().get(1).asInt();
+    }
+
+    // a slow session never delays the emits of other sessions
+    @Test
+    public void testSlowSession() throws Exception {
+        byte[] address = address();
+        Client slow = connect(false, true);
+        Client fast = connect(false, false);
+        slow.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+        fast.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+
+        emitEvents(address, 1);
+        slow.awaitBlocked();
+        emitEvents(address, 1);
+        assertEquals(WebSocketMessage.Code.EVENT_EMIT, fast.take().getCodeEnum());
+        assertEquals(WebSocketMessage.Code.EVENT_EMIT, fast.take().getCodeEnum());
+        assertTrue(slow.sent.isEmpty());
+
+        slow.release.countDown();
+        assertEquals(WebSocketMessage.Code.EVENT_EMIT, slow.take().getCodeEnum());
+        assertEquals(WebSocketMessage.Code.EVENT_EMIT, slow.take().getCodeEnum());
+    }
+
+    // repeated emits of the same status of a transaction are sent once while queued
+    @Test
+    public void testCoalescing() throws Exception {
+        Transaction tx = transaction();
+        Client c = connect(false, true);
+        c.request(WebSocketMessage.Code.TRANSACTION_SUBSCRIBE, tx.getHash());
+
+        WebSocket.broadcastPendingOrConfirm(tx, Transaction.Status.PENDING);
+        c.awaitBlocked();
+        for (int i = 0; i < 3; i++) {
+            WebSocket.broadcastPendingOrConfirm(tx, Transaction.Status.PENDING);
+        }
+        WebSocket.broadcastDrop(tx, "dropped");
+        c.release.countDown();
+
+        assertEquals(Transaction.Status.PENDING.ordinal(), status(c.take()));
+        assertEquals(Transaction.Status.PENDING.ordinal(), status(c.take()));
+        assertEquals(Transaction.Status.DROPPED.ordinal(), status(c.take()));
+        assertNull(c.sent.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testOverflowDrop() throws Exception {
+        properties.setProperty("wisdom.websocket.queue-size", "2");
+        byte[] address = address();
+        Client c = connect(false, true);
+        c.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+
+        long dropped = DROPPED.get();
+        emitEvents(address, 1);
+        c.awaitBlocked();
+        emitEvents(address, 5);
+        assertEquals(dropped + 3, DROPPED.get());
+        c.release.countDown();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(WebSocketMessage.Code.EVENT_EMIT, c.take().getCodeEnum());
+        }
+        assertNull(c.sent.poll(100, TimeUnit.MILLISECONDS));
+        verify(c.session, never()).close(any());
+    }
+
+    @Test
+    public void testOverflowDisconnect() throws Exception {
+        properties.setProperty("wisdom.websocket.queue-size", "2");
+        properties.setProperty("wisdom.websocket.overflow-policy", "disconnect");
+        byte[] address = address();
+        Client c = connect(false, true);
+        c.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+
+        emitEvents(address, 1);
+        c.awaitBlocked();
+        emitEvents(address, 2);
+        verify(c.session, never()).close(any());
+        emitEvents(address, 1);
+        verify(c.session).close(argThat(r -> r.getCloseCode() == CloseReason.CloseCodes.TRY_AGAIN_LATER));
+    }
+
+    // emits queued for a batch session are sent in one frame
+    @Test
+    public void testBatch() throws Exception {
+        byte[] address = address();
+        Client c = connect(true, true);
+        c.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+
+        emitEvents(address, 1);
+        c.awaitBlocked();
+        emitEvents(address, 3);
+        c.release.countDown();
+
+        assertEquals(WebSocketMessage.Code.EVENT_EMIT, c.take().getCodeEnum());
+        WebSocketMessage frame = c.take();
+        assertEquals(WebSocketMessage.Code.EMIT_BATCH, frame.getCodeEnum());
+        RLPList emits = frame.getBody().asRLPList();
+        assertEquals(3, emits.size());
+        for (int i = 0; i < emits.size(); i++) {
+            WebSocketMessage emit = emits.get(i).as(WebSocketMessage.class);
+            assertEquals(WebSocketMessage.Code.EVENT_EMIT, emit.getCodeEnum());
+            assertEquals("event-" + i, emit.getBody().asRLPList().get(1).asString());
+        }
+    }
+
+    // subscriptions are removed when the transaction is confirmed or the session is closed
+    @Test
+    public void testSubscriptionIndex() throws Exception {
+        Transaction tx = transaction();
+        byte[] address = address();
+        Client c = connect(false, false);
+        Client other = connect(false, false);
+        c.request(WebSocketMessage.Code.TRANSACTION_SUBSCRIBE, tx.getHash());
+        c.request(WebSocketMessage.Code.EVENT_SUBSCRIBE, address);
+
+        WebSocket.broadcastPendingOrConfirm(transaction(), Transaction.Status.PENDING);
+        WebSocket.broadcastPendingOrConfirm(tx, Transaction.Status.CONFIRMED);
+        assertEquals(Transaction.Status.CONFIRMED.ordinal(), status(c.take()));
+        WebSocket.broadcastPendingOrConfirm(tx, Transaction.Status.PENDING);
+        assertNull(c.sent.poll(100, TimeUnit.MILLISECONDS));
+
+        c.ws.onClose();
+        emitEvents(address, 1);
+        assertNull(c.sent.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(other.sent.isEmpty());
+    }
+}
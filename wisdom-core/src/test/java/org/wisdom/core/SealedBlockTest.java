@@ -0,0 +1,78 @@
+package org.wisdom.core;
+
+import org.junit.Test;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.util.Address;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SealedBlockTest {
+
+    private static Transaction transaction(int type, byte from) {
+        byte[] pk = new byte[Transaction.PUBLIC_KEY_SIZE];
+        Arrays.fill(pk, from);
+        return new Transaction(1, type, 1, pk, 200000, 100, new byte[0],
+                new byte[Transaction.PUBLIC_KEY_HASH_SIZE], new byte[Transaction.SIGNATURE_SIZE]);
+    }
+
+    private static Block block() {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = 10;
+        b.nTime = 1000;
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        b.body = new ArrayList<>(Arrays.asList(
+                transaction(0, (byte) 0), transaction(1, (byte) 1), transaction(1, (byte) 2), transaction(1, (byte) 1)
+        ));
+        return b;
+    }
+
+    @Test
+    public void testSealedViewsEqualToComputed() {
+        Block unsealed = block();
+        Block sealed = block().seal();
+        assertTrue(sealed.isSealed());
+        assertTrue(sealed.body.stream().allMatch(Transaction::isSealed));
+        assertArrayEquals(unsealed.getHash(), sealed.getHash());
+        assertArrayEquals(unsealed.getHeaderRaw(), sealed.getHeaderRaw());
+        assertEquals(unsealed.size(), sealed.size());
+        for (int i = 0; i < unsealed.body.size(); i++) {
+            Transaction x = unsealed.body.get(i);
+            Transaction y = sealed.body.get(i);
+            assertArrayEquals(x.getHash(), y.getHash());
+            assertArrayEquals(x.getRawForHash(), y.getRawForHash());
+            assertArrayEquals(x.getFromPKHash(), y.getFromPKHash());
+            assertEquals(x.size(), y.size());
+        }
+
+        List<byte[]> froms = sealed.getFromsPublicKeyHash();
+        assertEquals(2, froms.size());
+        assertArrayEquals(Address.publicKeyToHash(sealed.body.get(1).from), froms.get(0));
+        assertArrayEquals(Address.publicKeyToHash(sealed.body.get(2).from), froms.get(1));
+    }
+
+    @Test
+    public void testCopiesOfSealed() {
+        Block sealed = block().seal();
+        Block header = sealed.toHeader();
+        assertTrue(header.isSealed());
+        assertArrayEquals(sealed.getHash(), header.getHash());
+
+        // deep copy is unsealed and could be modified like the block of miner
+        Block copy = Block.deepCopy(sealed);
+        assertFalse(copy.isSealed());
+        copy.nNonce = new byte[32];
+        copy.nNonce[0] = 1;
+        assertFalse(Arrays.equals(sealed.getHash(), copy.getHash()));
+        assertArrayEquals(copy.getHash(), copy.seal().getHash());
+    }
+}
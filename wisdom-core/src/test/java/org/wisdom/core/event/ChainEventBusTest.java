@@ -0,0 +1,98 @@
+package org.wisdom.core.event;
+
+import org.junit.Test;
+import org.wisdom.core.Block;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ChainEventBusTest {
+
+    private static Block block(long height) {
+        Block b = new Block();
+        b.nHeight = height;
+        return b;
+    }
+
+    private static long height(Object event) {
+        if (event instanceof NewBlockEvent) return ((NewBlockEvent) event).getBlock().nHeight;
+        if (event instanceof NewBestBlockEvent) return ((NewBestBlockEvent) event).getBlock().nHeight;
+        return ((NewConfirmedBlockEvent) event).getBlock().nHeight;
+    }
+
+    // listeners of a subscriber receive events in the order published
+    @Test
+    public void testOrder() throws Exception {
+        ChainEventBus bus = new ChainEventBus(4);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        bus.subscribe("a", NewBlockEvent.class, e -> received.add("new " + height(e)));
+        bus.subscribe("a", NewConfirmedBlockEvent.class, e -> {
+            received.add("confirmed " + height(e));
+            if (height(e) == 99) done.countDown();
+        });
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bus.publish(new NewBlockEvent(this, block(i)));
+            bus.publish(new NewBestBlockEvent(this, block(i)));
+            bus.publish(new NewConfirmedBlockEvent(this, block(i)));
+            expected.add("new " + i);
+            expected.add("confirmed " + i);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(expected, received);
+        bus.shutdown();
+    }
+
+    // a slow subscriber does not delay the others until its queue is full, then publish waits
+    @Test
+    public void testBackpressure() throws Exception {
+        ChainEventBus bus = new ChainEventBus(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch fast = new CountDownLatch(2);
+        bus.subscribe("slow", NewBlockEvent.class, e -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        bus.subscribe("fast", NewBlockEvent.class, e -> fast.countDown());
+
+        // the first event is being delivered and the second is queued
+        for (int i = 0; i < 2; i++) {
+            bus.publish(new NewBlockEvent(this, block(i)));
+        }
+        assertTrue(fast.await(10, TimeUnit.SECONDS));
+
+        Thread publisher = new Thread(() -> bus.publish(new NewBlockEvent(this, block(2))));
+        publisher.start();
+        publisher.join(200);
+        assertTrue(publisher.isAlive());
+
+        blocked.countDown();
+        publisher.join(10000);
+        assertFalse(publisher.isAlive());
+        bus.shutdown();
+    }
+
+    // a failed listener does not stop the delivery of later events
+    @Test
+    public void testFailure() throws Exception {
+        ChainEventBus bus = new ChainEventBus(16);
+        CountDownLatch done = new CountDownLatch(2);
+        bus.subscribe("a", NewBestBlockEvent.class, e -> {
+            done.countDown();
+            if (height(e) == 0) throw new RuntimeException("failed");
+        });
+        bus.publish(new NewBestBlockEvent(this, block(0)));
+        bus.publish(new NewBestBlockEvent(this, block(1)));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        bus.shutdown();
+    }
+}
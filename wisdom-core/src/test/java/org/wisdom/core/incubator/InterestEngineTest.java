@@ -0,0 +1,154 @@
+package org.wisdom.core.incubator;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.command.Configuration;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.protobuf.tcp.command.HatchModel;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+public class InterestEngineTest {
+    private static final int ERA = 2380;
+
+    private static final int DAY_COUNT = 8640;
+
+    private static RateTable rateTable() {
+        RateTable t = new RateTable();
+        t.setEra(ERA);
+        return t;
+    }
+
+    private static Configuration configuration() {
+        Configuration c = new Configuration(4);
+        c.setDay_count(DAY_COUNT);
+        c.setEra(ERA);
+        return c;
+    }
+
+    // the linear scan of the string table
+    private static String selectrate(RateTable t, long height, int days) {
+        List<RateTable.Rate> rates = height > ERA * 120 ? t.newratemap : t.ratemap;
+        for (RateTable.Rate r : rates) {
+            if (r.getBeginblock() <= height && r.getEndblock() > height) {
+                return days == 120 ? r.getRate120() : r.getRate365();
+            }
+        }
+        return "";
+    }
+
+    private static long decimalDaily(long amount, String rate) {
+        return new BigDecimal(amount).multiply(new BigDecimal(rate)).longValue();
+    }
+
+    private static long decimalShare(long amount, String rate) {
+        return new BigDecimal(amount).multiply(new BigDecimal(rate)).multiply(BigDecimal.valueOf(0.1)).longValue();
+    }
+
+    private static long decimalTotal(long amount, String rate, int days) {
+        return BigDecimal.valueOf(days).multiply(BigDecimal.valueOf(amount).multiply(new BigDecimal(rate))).longValue();
+    }
+
+    @Test
+    public void testSameAsDecimal() {
+        RateTable t = rateTable();
+        Random r = new Random(42);
+        long[] edges = {0, 1, 169999, 170000, ERA * 120, ERA * 120 + 1, 509999, 510000, 8159999};
+        List<Long> heights = new ArrayList<>();
+        for (long e : edges) heights.add(e);
+        for (int i = 0; i < 2000; i++) heights.add((long) r.nextInt(8160000));
+        for (long h : heights) {
+            for (int days : new int[]{120, 365}) {
+                String rate = selectrate(t, h, days);
+                Assert.assertEquals(rate, t.selectrate(h, days));
+                for (int i = 0; i < 5; i++) {
+                    // up to 10^8 WDC
+                    long amount = (long) (r.nextDouble() * 1e16);
+                    Assert.assertEquals(decimalDaily(amount, rate), t.dailyInterest(amount, h, days));
+                    Assert.assertEquals(decimalShare(amount, rate), t.dailyShare(amount, h, days));
+                    long total = decimalTotal(amount, rate, days);
+                    Assert.assertEquals(total, t.totalInterest(amount, h, days));
+                    Assert.assertEquals(BigDecimal.valueOf(total).multiply(BigDecimal.valueOf(0.1)).longValue(),
+                            t.totalShare(amount, h, days));
+                }
+            }
+        }
+        Assert.assertEquals("", t.selectrate(8160000, 365));
+        Assert.assertEquals("", t.selectrate(-1, 365));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfTable() {
+        rateTable().getRate(8160000, 120);
+    }
+
+    private static Transaction hatch(long amount, long height, int days) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = Transaction.Type.INCUBATE.ordinal();
+        tx.amount = amount;
+        tx.height = height;
+        tx.nonce = height;
+        tx.payload = HatchModel.Payload.newBuilder().setType(days).setSharePubkeyHash("").build().toByteArray();
+        return tx;
+    }
+
+    @Test
+    public void testAccrueInterest() {
+        InterestEngine engine = new InterestEngine(rateTable(), configuration());
+        Transaction hatch = hatch(30000000000L, 100, 365);
+        // 0.0007119 per day
+        long perDay = 21357000;
+        Incubator incubator = new Incubator(new byte[20], hatch.getHash(), 100, hatch.amount,
+                perDay * 365, 100, 365);
+
+        Assert.assertEquals(InterestEngine.Accrual.Status.LESS_THAN_ONE_DAY,
+                engine.accrueInterest(hatch, incubator, 100 + DAY_COUNT - 1).getStatus());
+
+        InterestEngine.Accrual a = engine.accrueInterest(hatch, incubator, 100 + DAY_COUNT * 3 + 5);
+        Assert.assertEquals(InterestEngine.Accrual.Status.ACCRUED, a.getStatus());
+        Assert.assertEquals(perDay * 3, a.getDueinAmount());
+        Assert.assertEquals(perDay * 365, a.getCapitalAmount());
+
+        // days are capped by the remaining interest
+        incubator.setInterest_amount(perDay * 2);
+        Assert.assertEquals(perDay * 2, engine.accrueInterest(hatch, incubator, 100 + DAY_COUNT * 3).getDueinAmount());
+
+        // the remainder is extracted first
+        incubator.setInterest_amount(perDay * 2 + 7);
+        Assert.assertEquals(7, engine.accrueInterest(hatch, incubator, 100 + DAY_COUNT * 3).getDueinAmount());
+
+        incubator.setCost(0);
+        Assert.assertEquals(InterestEngine.Accrual.Status.NOTHING_TO_PAY,
+                engine.accrueInterest(hatch, incubator, 100 + DAY_COUNT * 3).getStatus());
+    }
+
+    @Test
+    public void testBatch() {
+        InterestEngine engine = new InterestEngine(rateTable(), configuration());
+        List<Transaction> hatches = new ArrayList<>();
+        Map<byte[], Incubator> incubators = new ByteArrayMap<>();
+        for (int i = 0; i < 300; i++) {
+            Transaction hatch = hatch(30000000000L + i * 100000000L, 100 + i, i % 2 == 0 ? 120 : 365);
+            hatches.add(hatch);
+            if (i % 10 == 9) continue;
+            long interest = hatch.getInterest(hatch.height, rateTable(), i % 2 == 0 ? 120 : 365);
+            incubators.put(hatch.getHash(), new Incubator(new byte[20], hatch.getHash(), hatch.height, hatch.amount,
+                    interest, hatch.height, i % 2 == 0 ? 120 : 365));
+        }
+        long height = 100 + DAY_COUNT * 50;
+        List<InterestEngine.Accrual> accruals = engine.accrueInterest(hatches, incubators, height);
+        Assert.assertEquals(hatches.size(), accruals.size());
+        for (int i = 0; i < hatches.size(); i++) {
+            Incubator incubator = incubators.get(hatches.get(i).getHash());
+            if (incubator == null) {
+                Assert.assertNull(accruals.get(i));
+                continue;
+            }
+            InterestEngine.Accrual single = engine.accrueInterest(hatches.get(i), incubator, height);
+            Assert.assertEquals(single.getStatus(), accruals.get(i).getStatus());
+            Assert.assertEquals(single.getDueinAmount(), accruals.get(i).getDueinAmount());
+        }
+    }
+}
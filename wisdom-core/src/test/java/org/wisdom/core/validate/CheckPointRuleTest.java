@@ -0,0 +1,190 @@
+package org.wisdom.core.validate;
+
+import org.junit.Test;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Transaction;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CheckPointRuleTest {
+
+    private static Block header(long height) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        return b;
+    }
+
+    private static CheckPointRule rule(WisdomBlockChain bc) {
+        CheckPointRule rule = new CheckPointRule(true);
+        Map<Long, String> confirms = new HashMap<>();
+        confirms.put(10L, header(10).getHashHexString());
+        confirms.put(20L, header(20).getHashHexString());
+        rule.setConfirms(confirms);
+        rule.setBc(bc);
+        rule.setWisdomBlockChain(bc);
+        return rule;
+    }
+
+    @Test
+    public void testDBCheckPointMemoized() {
+        WisdomBlockChain bc = mock(WisdomBlockChain.class);
+        when(bc.getHeaderByHeight(anyLong())).thenAnswer(i -> header(i.getArgument(0)));
+        CheckPointRule rule = rule(bc);
+
+        when(bc.getTopHeight()).thenReturn(15L);
+        assertTrue(rule.validateDBCheckPoint().isSuccess());
+        assertTrue(rule.validateDBCheckPoint().isSuccess());
+        verify(bc, times(1)).getHeaderByHeight(10L);
+
+        when(bc.getTopHeight()).thenReturn(25L);
+        assertTrue(rule.validateDBCheckPoint().isSuccess());
+        assertTrue(rule.validateDBCheckPoint().isSuccess());
+        verify(bc, times(1)).getHeaderByHeight(10L);
+        verify(bc, times(1)).getHeaderByHeight(20L);
+    }
+
+    @Test
+    public void testDBCheckPointFork() {
+        WisdomBlockChain bc = mock(WisdomBlockChain.class);
+        when(bc.getHeaderByHeight(anyLong())).thenAnswer(i -> header((long) i.getArgument(0) + 1));
+        when(bc.getTopHeight()).thenReturn(15L);
+        CheckPointRule rule = rule(bc);
+        assertFalse(rule.validateDBCheckPoint().isSuccess());
+        assertFalse(rule.validateDBCheckPoint().isSuccess());
+    }
+
+    // a block with a coinbase committed by its merkle root
+    private static Block child(Block parent, int nonce) {
+        Block b = header(parent.nHeight + 1);
+        b.hashPrevBlock = parent.getHash();
+        b.nNonce[0] = (byte) nonce;
+        Transaction coinbase = Transaction.createEmpty();
+        coinbase.to = new byte[20];
+        coinbase.to[0] = (byte) nonce;
+        coinbase.nonce = b.nHeight;
+        b.body = new ArrayList<>(Collections.singletonList(coinbase));
+        b.hashMerkleRoot = Block.calculateMerkleRoot(b.body);
+        return b;
+    }
+
+    private static List<Block> chain(int size) {
+        List<Block> chain = new ArrayList<>();
+        chain.add(child(header(0), 0));
+        while (chain.size() < size) chain.add(child(chain.get(chain.size() - 1), 0));
+        return chain;
+    }
+
+    private static Block headerOf(Block b) {
+        Block h = Block.deepCopy(b);
+        h.body = new ArrayList<>();
+        return h;
+    }
+
+    @Test
+    public void testAssumeValid() {
+        // main chain 1 to 20 and a fork from 5 to 12
+        List<Block> main = chain(20);
+        List<Block> fork = new ArrayList<>();
+        fork.add(child(main.get(4), 1));
+        while (fork.size() < 7) fork.add(child(fork.get(fork.size() - 1), 1));
+
+        CheckPointRule checkPointRule = rule(mock(WisdomBlockChain.class));
+        Map<Long, String> confirms = new HashMap<>();
+        confirms.put(20L, main.get(19).getHashHexString());
+        checkPointRule.setConfirms(confirms);
+
+        // not linked until the check point is received
+        List<Block> received = new ArrayList<>(main.subList(0, 19));
+        received.addAll(fork);
+        checkPointRule.link(received);
+        assertFalse(checkPointRule.isLinkedToCheckPoint(main.get(0)));
+
+        received.add(main.get(19));
+        checkPointRule.link(received);
+        assertTrue(checkPointRule.isLinkedToCheckPoint(main.get(0)));
+        assertTrue(checkPointRule.isLinkedToCheckPoint(main.get(18)));
+        assertFalse(checkPointRule.isLinkedToCheckPoint(main.get(19)));
+        // a fork below the check point is fully validated and rejected
+        BlockRule basic = b -> Result.SUCCESS;
+        BlockRule signature = b -> Result.Error("signature validate fail");
+        CompositeBlockRule composite = new CompositeBlockRule();
+        composite.setRulers(Arrays.asList(basic, signature));
+        composite.setTransactionRules(Collections.singletonList(signature));
+        for (Block b : fork) {
+            boolean assumeValid = checkPointRule.isLinkedToCheckPoint(b);
+            assertFalse(assumeValid);
+            assertFalse(composite.validateBlock(b, assumeValid).isSuccess());
+        }
+        assertTrue(composite.validateBlock(main.get(1), checkPointRule.isLinkedToCheckPoint(main.get(1))).isSuccess());
+
+        // blocks at or below confirmed height are no longer linked
+        checkPointRule.prune(10);
+        assertFalse(checkPointRule.isLinkedToCheckPoint(main.get(9)));
+        assertTrue(checkPointRule.isLinkedToCheckPoint(main.get(10)));
+        assertFalse(new CheckPointRule(false).isLinkedToCheckPoint(main.get(10)));
+    }
+
+    // headers are linked downwards from the check point before the bodies are synced upwards in batches
+    @Test
+    public void testHeadersFirst() {
+        int batch = 5;
+        List<Block> main = chain(30);
+        CheckPointRule checkPointRule = rule(mock(WisdomBlockChain.class));
+        Map<Long, String> confirms = new HashMap<>();
+        confirms.put(20L, main.get(19).getHashHexString());
+        confirms.put(30L, main.get(29).getHashHexString());
+        checkPointRule.setConfirms(confirms);
+
+        long best = 0;
+        assertEquals(20, checkPointRule.unlinkedHeight(best));
+        // a fork at the height of the check point is not linked
+        checkPointRule.link(Collections.singletonList(child(main.get(18), 1)));
+        assertEquals(20, checkPointRule.unlinkedHeight(best));
+        List<Long> requested = new ArrayList<>();
+        for (long h = checkPointRule.unlinkedHeight(best); h >= 0; h = checkPointRule.unlinkedHeight(best)) {
+            requested.add(h);
+            List<Block> headers = new ArrayList<>();
+            for (long i = Math.max(best + 1, h - batch + 1); i <= h; i++) {
+                headers.add(headerOf(main.get((int) i - 1)));
+            }
+            checkPointRule.link(headers);
+        }
+        assertEquals(Arrays.asList(20L, 15L, 10L, 5L), requested);
+
+        // a body other than the one of the header is validated
+        Block forged = Block.deepCopy(main.get(0));
+        forged.body = child(main.get(0), 2).body;
+        assertArrayEquals(main.get(0).getHash(), forged.getHash());
+        assertFalse(checkPointRule.isLinkedToCheckPoint(forged));
+        best++;
+
+        // bodies received in ascending batches as the best block grows
+        for (int i = 1; i < 30; i += batch) {
+            List<Block> bodies = main.subList(i, Math.min(i + batch, 30));
+            checkPointRule.link(bodies);
+            for (Block b : bodies) {
+                assertEquals(b.nHeight < 20 || (b.nHeight > 20 && b.nHeight < 30), checkPointRule.isLinkedToCheckPoint(b));
+                best = b.nHeight;
+                // headers above the first check point are fetched after it is passed
+                if (b.nHeight == 20) {
+                    assertEquals(30, checkPointRule.unlinkedHeight(best));
+                    List<Block> headers = new ArrayList<>();
+                    for (int j = 20; j < 30; j++) headers.add(headerOf(main.get(j)));
+                    checkPointRule.link(headers);
+                }
+            }
+        }
+        assertEquals(-1, checkPointRule.unlinkedHeight(best));
+    }
+}
@@ -0,0 +1,56 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.Block;
+
+import java.util.*;
+
+public class AncestorIndexTest {
+
+    @Test
+    public void testSkipHeight() {
+        for (long h = 1; h < 10000; h++) {
+            Assert.assertTrue(AncestorIndex.getSkipHeight(h) < h);
+        }
+    }
+
+    @Test
+    public void testGetAncestor() {
+        Random random = new Random(1);
+        AncestorIndex index = new AncestorIndex();
+        Map<byte[], Block> blocks = new ByteArrayMap<>();
+        List<Block> all = new ArrayList<>();
+
+        // blocks above height 100 form a tree, its root links to the confirmed chain
+        Block root = HeaderIndexTest.header(101, new byte[32]);
+        index.add(root);
+        blocks.put(root.getHash(), root);
+        all.add(root);
+        for (int i = 0; i < 500; i++) {
+            Block parent = random.nextInt(4) == 0 ? all.get(random.nextInt(all.size())) : all.get(all.size() - 1);
+            Block b = HeaderIndexTest.header(parent.nHeight + 1, parent.getHash());
+            index.add(b);
+            blocks.put(b.getHash(), b);
+            all.add(b);
+        }
+
+        for (Block b : all) {
+            Block walk = b;
+            while (walk != null) {
+                Block ancestor = index.getAncestor(b.getHash(), walk.nHeight);
+                Assert.assertArrayEquals(walk.getHash(), ancestor.getHash());
+                walk = blocks.get(walk.hashPrevBlock);
+            }
+            Assert.assertNull(index.getAncestor(b.getHash(), 100));
+            Assert.assertNull(index.getAncestor(b.getHash(), b.nHeight + 1));
+        }
+
+        // drop the lowest blocks, ancestors of remaining blocks below the cut are not reachable
+        index.retain(h -> blocks.get(h).nHeight > 110);
+        Block last = all.get(all.size() - 1);
+        Assert.assertNull(index.getAncestor(last.getHash(), 110));
+        Assert.assertEquals(111, index.getAncestor(last.getHash(), 111).nHeight);
+    }
+}
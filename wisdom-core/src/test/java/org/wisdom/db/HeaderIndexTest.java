@@ -0,0 +1,104 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.Block;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+public class HeaderIndexTest {
+    private static final Random RANDOM = new Random(0);
+
+    private static byte[] random32() {
+        byte[] ret = new byte[32];
+        RANDOM.nextBytes(ret);
+        return ret;
+    }
+
+    static Block header(long height, byte[] parent) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent;
+        b.hashMerkleRoot = random32();
+        b.hashMerkleState = random32();
+        b.hashMerkleIncubate = random32();
+        b.nHeight = height;
+        b.nTime = 1000 + height * 10;
+        b.nBits = random32();
+        b.nNonce = random32();
+        b.blockNotice = new byte[0];
+        b.totalWeight = height + 1;
+        b.body = new ArrayList<>();
+        return b;
+    }
+
+    private static List<Block> chain(int size) {
+        List<Block> ret = new ArrayList<>();
+        byte[] parent = new byte[32];
+        for (int i = 0; i < size; i++) {
+            Block b = header(i, parent);
+            ret.add(b);
+            parent = b.getHash();
+        }
+        return ret;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        HeaderIndex index = HeaderIndex.memory();
+        Assert.assertEquals(-1, index.getTopHeight());
+        List<Block> chain = chain(100);
+        chain.forEach(index::put);
+        Assert.assertEquals(99, index.getTopHeight());
+        for (Block b : chain) {
+            Block h = index.getHeader(b.nHeight);
+            Assert.assertArrayEquals(b.getHash(), h.getHash());
+            Assert.assertArrayEquals(b.getHash(), index.getHash(b.nHeight));
+            Assert.assertEquals(b.nTime, h.nTime);
+            Assert.assertArrayEquals(b.nBits, h.nBits);
+            Assert.assertEquals(b.totalWeight, h.totalWeight);
+        }
+        Assert.assertNull(index.getHeader(100));
+        // gaps are not allowed
+        Assert.assertFalse(index.put(header(101, new byte[32])));
+
+        index.truncate(49);
+        Assert.assertEquals(49, index.getTopHeight());
+        Assert.assertNull(index.getHash(50));
+        Assert.assertNotNull(index.getHash(49));
+    }
+
+    @Test
+    public void testNoticeOverflow() {
+        HeaderIndex index = HeaderIndex.memory();
+        Block genesis = header(0, new byte[32]);
+        genesis.blockNotice = new byte[Block.MAX_NOTICE_LENGTH + 1];
+        Assert.assertTrue(index.put(genesis));
+        Assert.assertArrayEquals(genesis.getHash(), index.getHash(0));
+        Assert.assertNull(index.getHeader(0));
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        File dir = Files.createTempDirectory("header-index").toFile();
+        try {
+            List<Block> chain = chain(10);
+            HeaderIndex index = new HeaderIndex(dir.getAbsolutePath(), "leveldb");
+            chain.forEach(index::put);
+            index.close();
+
+            index = new HeaderIndex(dir.getAbsolutePath(), "leveldb");
+            Assert.assertEquals(9, index.getTopHeight());
+            Assert.assertArrayEquals(chain.get(5).getHash(), index.getHeader(5).getHash());
+            Assert.assertEquals(chain.get(5).totalWeight, index.getHeader(5).totalWeight);
+            index.close();
+        } finally {
+            for (File f : Objects.requireNonNull(dir.listFiles())) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.wisdom.db;
+
+import org.junit.Test;
+import org.tdf.common.store.MemoryDatabaseStore;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MeteredDatabaseStoreTest {
+
+    @Test
+    public void testWrittenBytes() {
+        MeteredDatabaseStore store = new MeteredDatabaseStore("metered-test", new MemoryDatabaseStore());
+        Counter written = (Counter) Metrics.children(MeteredDatabaseStore.WRITTEN_BYTES).get("store=\"metered-test\"");
+        long before = written.get();
+
+        store.put(new byte[]{1}, new byte[]{1, 2, 3});
+        store.putIfAbsent(new byte[]{1}, new byte[]{4});
+        store.putAll(Arrays.asList(
+                new AbstractMap.SimpleImmutableEntry<>(new byte[]{2}, new byte[]{5, 6}),
+                new AbstractMap.SimpleImmutableEntry<>(new byte[]{3, 3}, new byte[]{7})
+        ));
+
+        assertEquals(4 + 3 + 3, written.get() - before);
+        assertArrayEquals(new byte[]{1, 2, 3}, store.get(new byte[]{1}).get());
+        assertTrue(store.containsKey(new byte[]{3, 3}));
+    }
+}
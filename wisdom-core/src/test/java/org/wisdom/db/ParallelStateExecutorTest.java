@@ -0,0 +1,212 @@
+package org.wisdom.db;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+import org.tdf.common.serialize.Codec;
+import org.tdf.common.store.ByteArrayMapStore;
+import org.tdf.common.trie.Trie;
+import org.tdf.common.util.ByteArrayMap;
+import org.tdf.rlp.RLPCodec;
+import org.tdf.rlp.RLPElement;
+import org.wisdom.command.IncubatorAddress;
+import org.wisdom.core.Block;
+import org.wisdom.core.DBImpl;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.incubator.RateTable;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.protobuf.tcp.command.HatchModel;
+import org.wisdom.vm.abi.WASMResult;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+// replay blocks by serial and parallel execution, the states must be the same
+public class ParallelStateExecutorTest {
+    private static final int ACCOUNTS = 200;
+
+    private static final int BLOCKS = 30;
+
+    private final Random random = new Random(7);
+
+    private final List<byte[]> publicKeys = new ArrayList<>();
+
+    private final Map<byte[], Long> nonces = new ByteArrayMap<>();
+
+    private static Trie<byte[], AccountState> trie() {
+        return Trie.<byte[], AccountState>builder()
+                .hashFunction(HashUtil::keccak256)
+                .store(new ByteArrayMapStore<>())
+                .keyCodec(Codec.identity())
+                .valueCodec(Codec.newInstance(RLPCodec::encode, x -> RLPElement.fromEncoded(x).as(AccountState.class)))
+                .build();
+    }
+
+    private static AccountStateUpdater updater() {
+        RateTable rateTable = new RateTable();
+        rateTable.setEra(2380);
+        AccountStateUpdater updater = new AccountStateUpdater();
+        updater.setRateTable(rateTable);
+        return updater;
+    }
+
+    private byte[] genesis(Trie<byte[], AccountState> trie) {
+        while (publicKeys.size() < ACCOUNTS) {
+            byte[] pk = new byte[32];
+            random.nextBytes(pk);
+            publicKeys.add(pk);
+        }
+        for (byte[] pk : publicKeys) {
+            AccountState a = new AccountState(hash(pk));
+            a.addBalance(100000000000000L);
+            trie.put(hash(pk), a);
+        }
+        AccountState incubator = new AccountState(IncubatorAddress.resultpubhash());
+        incubator.addBalance(Long.MAX_VALUE / 2);
+        trie.put(IncubatorAddress.resultpubhash(), incubator);
+        return trie.commit();
+    }
+
+    private static byte[] hash(byte[] publicKey) {
+        Transaction tx = Transaction.createEmpty();
+        tx.from = publicKey;
+        return tx.getFromPKHash();
+    }
+
+    private Transaction tx(int type, byte[] from, byte[] to, long amount) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type;
+        tx.from = from;
+        tx.to = to;
+        tx.amount = amount;
+        tx.gasPrice = 1;
+        long nonce = nonces.getOrDefault(from, 0L) + 1;
+        nonces.put(from, nonce);
+        tx.nonce = nonce;
+        return tx;
+    }
+
+    private Transaction incubate(byte[] from, byte[] to, boolean share) {
+        Transaction tx = tx(Transaction.Type.INCUBATE.ordinal(), from, to, 30000000000L);
+        tx.payload = HatchModel.Payload.newBuilder()
+                .setType(120)
+                .setSharePubkeyHash(share ? Hex.encodeHexString(hash(pick())) : "")
+                .build().toByteArray();
+        return tx;
+    }
+
+    private byte[] pick() {
+        return publicKeys.get(random.nextInt(ACCOUNTS));
+    }
+
+    private Block block(long height, int size, boolean undeclared) {
+        Block b = new Block();
+        b.nHeight = height;
+        b.body = new ArrayList<>();
+        b.body.add(Transaction.createEmpty());
+        for (int i = 0; i < size; i++) {
+            byte[] from = pick();
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    b.body.add(tx(Transaction.Type.TRANSFER.ordinal(), from, hash(pick()), 1 + random.nextInt(1000000)));
+                    break;
+                case 2:
+                    b.body.add(tx(Transaction.Type.VOTE.ordinal(), from, hash(pick()), 100000000L));
+                    break;
+                case 3:
+                    b.body.add(tx(Transaction.Type.DEPOSIT.ordinal(), from, new byte[20], 0));
+                    break;
+                case 4:
+                    b.body.add(tx(Transaction.Type.MORTGAGE.ordinal(), from, hash(from), 100000000L));
+                    break;
+                default:
+                    b.body.add(incubate(from, hash(from), random.nextBoolean()));
+            }
+        }
+        // the incubated account is not the sender, the sender is not declared by related keys
+        if (undeclared) {
+            b.body.add(incubate(pick(), hash(pick()), false));
+        }
+        return b;
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        AccountStateUpdater updater = updater();
+        ParallelStateExecutor executor = new ParallelStateExecutor(updater, 4);
+        Trie<byte[], AccountState> serial = trie();
+        Trie<byte[], AccountState> parallel = trie();
+        byte[] serialRoot = genesis(serial);
+        byte[] parallelRoot = genesis(parallel);
+        assertArrayEquals(serialRoot, parallelRoot);
+
+        int partitioned = 0;
+        for (int i = 1; i <= BLOCKS; i++) {
+            Block b = block(i * 100, i % 5 == 0 ? 8 : 200, i % 7 == 0);
+            List<Transaction> txs = b.body.subList(1, b.body.size());
+            List<List<Transaction>> groups = executor.partition(txs);
+            if (groups.size() > 1 && txs.size() >= ParallelStateExecutor.MIN_PARALLEL_TRANSACTIONS) partitioned++;
+            assertEquals(txs.size(), groups.stream().mapToInt(List::size).sum());
+
+            Trie<byte[], AccountState> s = serial.revert(serialRoot);
+            Map<byte[], WASMResult> expected = executor.executeSerially(new DBImpl(s, null, null), b, txs);
+            serialRoot = s.commit();
+
+            Trie<byte[], AccountState> p = parallel.revert(parallelRoot);
+            Map<byte[], WASMResult> results = executor.execute(new DBImpl(p, null, null), b);
+            parallelRoot = p.commit();
+
+            assertArrayEquals("state root at block " + i, serialRoot, parallelRoot);
+            assertEquals(expected.keySet().size(), results.size());
+            expected.forEach((k, v) -> assertEquals(v.getGasUsed(), results.get(k).getGasUsed()));
+        }
+        assertTrue(partitioned > BLOCKS / 2);
+    }
+
+    @Test
+    public void testFailedTransaction() {
+        AccountStateUpdater updater = updater();
+        ParallelStateExecutor executor = new ParallelStateExecutor(updater, 4);
+        Trie<byte[], AccountState> trie = trie();
+        byte[] root = genesis(trie);
+        Block b = block(100, 100, false);
+        // overdraw
+        b.body.add(tx(Transaction.Type.TRANSFER.ordinal(), pick(), hash(pick()), Long.MAX_VALUE / 2));
+
+        Trie<byte[], AccountState> s = trie.revert(root);
+        RuntimeException expected = null;
+        try {
+            executor.executeSerially(new DBImpl(s, null, null), b, b.body.subList(1, b.body.size()));
+        } catch (RuntimeException e) {
+            expected = e;
+        }
+        assertNotNull(expected);
+
+        Trie<byte[], AccountState> p = trie.revert(root);
+        try {
+            executor.execute(new DBImpl(p, null, null), b);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(expected.getClass(), e.getClass());
+            assertEquals(expected.getMessage(), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testPartition() {
+        AccountStateUpdater updater = updater();
+        ParallelStateExecutor executor = new ParallelStateExecutor(updater, 4);
+        genesis(trie());
+        byte[] a = publicKeys.get(0);
+        byte[] b = publicKeys.get(1);
+        byte[] c = publicKeys.get(2);
+        byte[] d = publicKeys.get(3);
+        Transaction t0 = tx(Transaction.Type.TRANSFER.ordinal(), a, hash(b), 1);
+        Transaction t1 = tx(Transaction.Type.TRANSFER.ordinal(), c, hash(d), 1);
+        Transaction t2 = tx(Transaction.Type.TRANSFER.ordinal(), d, hash(a), 1);
+        Transaction t3 = tx(Transaction.Type.DEPOSIT.ordinal(), publicKeys.get(4), new byte[20], 0);
+        List<List<Transaction>> groups = executor.partition(Arrays.asList(t0, t1, t2, t3));
+        assertEquals(Arrays.asList(Arrays.asList(t0, t1, t2), Collections.singletonList(t3)), groups);
+    }
+}
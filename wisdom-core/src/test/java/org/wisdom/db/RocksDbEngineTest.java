@@ -0,0 +1,83 @@
+package org.wisdom.db;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tdf.common.store.DatabaseStore;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RocksDbEngineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DatabaseStoreFactory factory() {
+        return new DatabaseStoreFactory(folder.getRoot().getAbsolutePath(), 64, "rocksdb-cf");
+    }
+
+    @Test
+    public void testColumnFamilies() {
+        DatabaseStoreFactory factory = factory();
+        DatabaseStore trie = factory.create("account-trie", false);
+        DatabaseStore roots = factory.create("account-trie-roots", false);
+
+        trie.put(new byte[]{1}, new byte[]{1});
+        roots.put(new byte[]{1}, new byte[]{2});
+        // the same key in different column families
+        assertArrayEquals(new byte[]{1}, trie.get(new byte[]{1}).get());
+        assertArrayEquals(new byte[]{2}, roots.get(new byte[]{1}).get());
+
+        trie.putAll(Arrays.asList(
+                new AbstractMap.SimpleImmutableEntry<>(new byte[]{2}, new byte[]{2}),
+                new AbstractMap.SimpleImmutableEntry<>(new byte[]{3}, new byte[]{3})
+        ));
+        assertEquals(3, trie.size());
+        trie.remove(new byte[]{3});
+        assertFalse(trie.containsKey(new byte[]{3}));
+
+        // reopen with existing column families
+        factory.destroy();
+        factory = factory();
+        trie = factory.create("account-trie", false);
+        roots = factory.create("account-trie-roots", false);
+        assertArrayEquals(new byte[]{2}, trie.get(new byte[]{2}).get());
+        assertArrayEquals(new byte[]{2}, roots.get(new byte[]{1}).get());
+
+        roots.clear();
+        assertTrue(roots.isEmpty());
+        assertEquals(2, trie.size());
+        factory.destroy();
+    }
+
+    @Test
+    public void testWriteAtomically() {
+        DatabaseStoreFactory factory = factory();
+        DatabaseStore trie = factory.create("validator-trie", false);
+        DatabaseStore roots = factory.create("validator-trie-roots", false);
+
+        factory.writeAtomically(() -> {
+            trie.put(new byte[]{1}, new byte[]{1});
+            roots.put(new byte[]{1}, new byte[]{1});
+            // pending writes are not visible until committed
+            assertFalse(trie.containsKey(new byte[]{1}));
+        });
+        assertTrue(trie.containsKey(new byte[]{1}));
+        assertTrue(roots.containsKey(new byte[]{1}));
+
+        try {
+            factory.writeAtomically(() -> {
+                trie.put(new byte[]{2}, new byte[]{2});
+                roots.put(new byte[]{2}, new byte[]{2});
+                throw new RuntimeException();
+            });
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+        assertFalse(trie.containsKey(new byte[]{2}));
+        assertFalse(roots.containsKey(new byte[]{2}));
+        factory.destroy();
+    }
+}
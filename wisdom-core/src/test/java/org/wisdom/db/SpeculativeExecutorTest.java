@@ -0,0 +1,234 @@
+package org.wisdom.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tdf.common.serialize.Codec;
+import org.tdf.common.store.ByteArrayMapStore;
+import org.tdf.common.store.DatabaseStore;
+import org.tdf.common.store.Store;
+import org.tdf.common.trie.Trie;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.consensus.pow.EconomicModel;
+import org.wisdom.core.Block;
+import org.wisdom.core.WisdomBlockChain;
+import org.wisdom.core.account.Transaction;
+import org.wisdom.core.incubator.RateTable;
+import org.wisdom.crypto.HashUtil;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class SpeculativeExecutorTest {
+    private static final long REWARD = 20;
+
+    private final Counter hit = counter("hit");
+
+    private final Counter miss = counter("miss");
+
+    private final Counter discarded = counter("discarded");
+
+    private AccountStateTrie trie;
+
+    private DatabaseStore codeStore;
+
+    private SpeculativeExecutor executor;
+
+    private Block genesis;
+
+    private int nonce;
+
+    private static Counter counter(String result) {
+        return Metrics.counter("wisdom_speculative_executions_total", "speculative executions by result", "result", result);
+    }
+
+    @Before
+    public void before() throws Exception {
+        genesis = new Block();
+        genesis.nVersion = 1;
+        genesis.hashPrevBlock = new byte[32];
+        genesis.hashMerkleRoot = new byte[32];
+        genesis.hashMerkleState = new byte[32];
+        genesis.hashMerkleIncubate = new byte[32];
+        genesis.nBits = new byte[32];
+        genesis.nNonce = new byte[32];
+        genesis.body = new ArrayList<>();
+
+        RateTable rateTable = new RateTable();
+        rateTable.setEra(2380);
+        AccountStateUpdater updater = spy(new AccountStateUpdater());
+        updater.setRateTable(rateTable);
+        Map<byte[], AccountState> genesisStates = new ByteArrayMap<>();
+        doReturn(genesisStates).when(updater).getGenesisStates();
+
+        EconomicModel economicModel = mock(EconomicModel.class);
+        when(economicModel.getConsensusRewardAtHeight1(anyLong())).thenReturn(REWARD);
+        Store<byte[], byte[]> storageStore = new ByteArrayMapStore<>();
+        Trie<byte[], byte[]> storageTrie = Trie.<byte[], byte[]>builder()
+                .hashFunction(HashUtil::keccak256)
+                .store(storageStore)
+                .keyCodec(Codec.identity())
+                .valueCodec(Codec.identity())
+                .build();
+        // nodes are cached process wide, the same states are committed by other tests
+        TrieNodeCache.shared().invalidateAll();
+        DatabaseStoreFactory factory = new DatabaseStoreFactory("", 512, "memory");
+        codeStore = factory.create("contract-code", false);
+        trie = new AccountStateTrie(
+                factory, genesis, mock(WisdomBlockChain.class), updater, codeStore,
+                storageTrie, storageStore, economicModel, new ParallelStateExecutor(updater, 1)
+        );
+        executor = new SpeculativeExecutor(trie, 2, 2);
+    }
+
+    @After
+    public void after() {
+        executor.shutdown();
+    }
+
+    // a block above the parent with its expected state root
+    private Block block(Block parent) {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = parent.getHash();
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = parent.nHeight + 1;
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        b.nNonce[0] = (byte) ++nonce;
+        Transaction coinbase = Transaction.createEmpty();
+        coinbase.amount = REWARD;
+        coinbase.to = new byte[20];
+        coinbase.to[0] = (byte) nonce;
+        b.body = new ArrayList<>();
+        b.body.add(coinbase);
+        b.accountStateTrieRoot = trie.execute(b).getRoot();
+        coinbase.height = 0;
+        return b;
+    }
+
+    private long balance(Block b) {
+        return trie.get(b.getHash(), b.body.get(0).to).map(a -> a.getAccount().getBalance()).orElse(0L);
+    }
+
+    @Test
+    public void testHit() {
+        Block b = block(genesis);
+        long hits = hit.get(), misses = miss.get();
+        assertTrue(executor.submit(b));
+        assertArrayEquals(b.accountStateTrieRoot, executor.commit(b));
+        assertEquals(hits + 1, hit.get());
+        assertEquals(REWARD, balance(b));
+
+        // committed again when the block is written
+        assertArrayEquals(b.accountStateTrieRoot, executor.commit(b));
+        assertEquals(hits + 1, hit.get());
+        assertEquals(misses, miss.get());
+        assertFalse(executor.submit(b));
+    }
+
+    @Test
+    public void testMissAfterEviction() {
+        Block[] blocks = {block(genesis), block(genesis), block(genesis)};
+        long hits = hit.get(), misses = miss.get();
+        for (Block b : blocks) {
+            assertTrue(executor.submit(b));
+        }
+        // at most 2 executions are kept, others are executed again by commit
+        for (Block b : blocks) {
+            assertArrayEquals(b.accountStateTrieRoot, executor.commit(b));
+            assertEquals(REWARD, balance(b));
+        }
+        assertTrue(miss.get() - misses >= 1);
+        assertEquals(3, hit.get() - hits + miss.get() - misses);
+    }
+
+    @Test
+    public void testDiscard() {
+        Block b = block(genesis);
+        long misses = miss.get(), discards = discarded.get();
+        assertTrue(executor.submit(b));
+        // validation failed
+        executor.discard(b);
+        assertEquals(discards + 1, discarded.get());
+        assertFalse(trie.getRootStore().containsKey(b.getHash()));
+
+        // accepted later, e.g. received again
+        assertArrayEquals(b.accountStateTrieRoot, executor.commit(b));
+        assertEquals(misses + 1, miss.get());
+    }
+
+    @Test
+    public void testRootMismatch() {
+        Block b = block(genesis);
+        b.accountStateTrieRoot = new byte[32];
+        assertTrue(executor.submit(b));
+        RuntimeException speculative = null;
+        try {
+            executor.commit(b);
+        } catch (RuntimeException e) {
+            speculative = e;
+        }
+        assertNotNull(speculative);
+        assertFalse(trie.getRootStore().containsKey(b.getHash()));
+
+        try {
+            trie.commit(b);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(e.getMessage(), speculative.getMessage());
+        }
+    }
+
+    // nothing is written to the stores until an execution is committed
+    @Test
+    public void testBuffered() {
+        Block b = block(genesis);
+        AccountStateTrie.Execution execution = trie.execute(b);
+        byte[] code = HashUtil.keccak256(b.getHash());
+        execution.getContractCodes().put(code, code);
+        assertFalse(trie.getTrieStore().containsKey(execution.getRoot()));
+        assertFalse(codeStore.containsKey(code));
+
+        assertArrayEquals(b.accountStateTrieRoot, trie.commit(b, execution));
+        assertTrue(trie.getTrieStore().containsKey(execution.getRoot()));
+        assertTrue(codeStore.containsKey(code));
+    }
+
+    // a speculative execution never changes the block or the stores before it is committed
+    @Test
+    public void testIsolated() throws Exception {
+        executor.shutdown();
+        executor = new SpeculativeExecutor(trie, 1, 2);
+        Block b = block(genesis);
+        Block next = block(genesis);
+        assertTrue(executor.submit(b));
+        assertTrue(executor.submit(next));
+        // executed after b by the only thread
+        assertArrayEquals(next.accountStateTrieRoot, executor.commit(next));
+
+        assertEquals(0, b.body.get(0).height);
+        assertFalse(trie.getTrieStore().containsKey(b.accountStateTrieRoot));
+        executor.discard(b);
+        assertFalse(trie.getTrieStore().containsKey(b.accountStateTrieRoot));
+        assertEquals(next.nHeight, next.body.get(0).height);
+    }
+
+    @Test
+    public void testDisabled() {
+        executor.shutdown();
+        executor = new SpeculativeExecutor(trie, 0, 2);
+        Block b = block(genesis);
+        long misses = miss.get();
+        assertFalse(executor.submit(b));
+        assertArrayEquals(b.accountStateTrieRoot, executor.commit(b));
+        assertEquals(misses + 1, miss.get());
+    }
+}
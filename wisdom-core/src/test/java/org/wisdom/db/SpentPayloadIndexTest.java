@@ -0,0 +1,77 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class SpentPayloadIndexTest {
+
+    private static Transaction tx(Transaction.Type type, byte[] payload) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = type.ordinal();
+        tx.payload = payload;
+        tx.to = new byte[20];
+        return tx;
+    }
+
+    private static Block block(long height, Transaction... txs) {
+        Block b = new Block();
+        b.nHeight = height;
+        b.body = new ArrayList<>(Arrays.asList(txs));
+        return b;
+    }
+
+    private static byte[] hash(int i) {
+        byte[] h = new byte[32];
+        h[0] = (byte) i;
+        return h;
+    }
+
+    @Test
+    public void testAppendAndContains() {
+        SpentPayloadIndex index = new SpentPayloadIndex(new DatabaseStoreFactory("", 512, "memory"), 1024);
+        index.append(Arrays.asList(
+                block(1, tx(Transaction.Type.EXIT_VOTE, hash(1)), tx(Transaction.Type.TRANSFER, hash(2))),
+                block(2, tx(Transaction.Type.EXIT_MORTGAGE, hash(3)))
+        ));
+        Assert.assertEquals(2, index.getLastIndexedHeight());
+        Assert.assertTrue(index.contains(Transaction.Type.EXIT_VOTE.ordinal(), hash(1)));
+        Assert.assertTrue(index.contains(Transaction.Type.EXIT_MORTGAGE.ordinal(), hash(3)));
+        // same payload of another type is not spent
+        Assert.assertFalse(index.contains(Transaction.Type.EXIT_MORTGAGE.ordinal(), hash(1)));
+        Assert.assertFalse(index.contains(Transaction.Type.EXIT_VOTE.ordinal(), hash(2)));
+
+        // blocks indexed already are ignored
+        index.append(block(2, tx(Transaction.Type.EXIT_VOTE, hash(4))));
+        Assert.assertFalse(index.contains(Transaction.Type.EXIT_VOTE.ordinal(), hash(4)));
+    }
+
+    @Test
+    public void testNoFalseNegatives() {
+        SpentPayloadIndex index = new SpentPayloadIndex(new DatabaseStoreFactory("", 512, "memory"), 1024);
+        Transaction[] txs = new Transaction[4096];
+        for (int i = 0; i < txs.length; i++) {
+            byte[] h = hash(i);
+            h[1] = (byte) (i >>> 8);
+            txs[i] = tx(Transaction.Type.EXIT_VOTE, h);
+        }
+        // more entries than expected insertions only raises the false positive rate
+        index.append(block(1, txs));
+        for (Transaction tx : txs) {
+            Assert.assertTrue(index.contains(tx.type, tx.payload));
+        }
+        byte[] unspent = hash(0);
+        unspent[31] = 1;
+        Assert.assertFalse(index.contains(Transaction.Type.EXIT_VOTE.ordinal(), unspent));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotIndexedType() {
+        SpentPayloadIndex index = new SpentPayloadIndex(new DatabaseStoreFactory("", 512, "memory"), 1024);
+        index.contains(Transaction.Type.TRANSFER.ordinal(), hash(1));
+    }
+}
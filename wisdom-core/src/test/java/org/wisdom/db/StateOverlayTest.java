@@ -0,0 +1,133 @@
+package org.wisdom.db;
+
+import org.junit.Test;
+import org.tdf.common.serialize.Codec;
+import org.tdf.common.store.ByteArrayMapStore;
+import org.tdf.common.trie.Trie;
+import org.tdf.rlp.RLPCodec;
+import org.tdf.rlp.RLPElement;
+import org.wisdom.crypto.HashUtil;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class StateOverlayTest {
+    // contract calls of a block in the benchmark
+    private static final int CALLS = 5000;
+
+    private static final int CALLERS = 1000;
+
+    private static Trie<byte[], AccountState> trie() {
+        return Trie.<byte[], AccountState>builder()
+                .hashFunction(HashUtil::keccak256)
+                .store(new ByteArrayMapStore<>())
+                .keyCodec(Codec.identity())
+                .valueCodec(Codec.newInstance(RLPCodec::encode, x -> RLPElement.fromEncoded(x).as(AccountState.class)))
+                .build();
+    }
+
+    private static byte[] address(int i) {
+        byte[] b = new byte[20];
+        b[0] = (byte) i;
+        b[1] = (byte) (i >> 8);
+        b[19] = 1;
+        return b;
+    }
+
+    private static AccountState account(int i, long balance) {
+        AccountState a = new AccountState(address(i));
+        a.addBalance(balance);
+        return a;
+    }
+
+    private static byte[] genesis(Trie<byte[], AccountState> trie) {
+        for (int i = 0; i <= CALLERS; i++) {
+            trie.put(address(i), account(i, 1000000000L));
+        }
+        return trie.commit();
+    }
+
+    // state changes of a contract call, the caller pays the contract, address 0 is the contract
+    private static void call(Map<byte[], AccountState> states, int n) {
+        byte[] from = address(1 + n % CALLERS);
+        AccountState caller = states.get(from);
+        AccountState contract = states.get(address(0));
+        caller.setNonce(caller.getNonce() + 1);
+        caller.subBalance(100 + n);
+        contract.addBalance(100 + n);
+        states.put(from, caller);
+        states.put(address(0), contract);
+    }
+
+    @Test
+    public void testSavepoint() {
+        Trie<byte[], AccountState> trie = trie();
+        byte[] root = genesis(trie);
+        StateOverlay overlay = new StateOverlay(trie.revert(root), null, null);
+        Map<byte[], AccountState> states = overlay.getAccountStore();
+
+        call(states, 0);
+        int savepoint = overlay.savepoint();
+        call(states, 1);
+        // modified but not put back, the overlay is unchanged
+        states.get(address(0)).addBalance(1);
+        assertEquals(1000000000L + 100 + 101, states.get(address(0)).getBalance());
+
+        overlay.revert(savepoint);
+        assertEquals(1000000000L + 100, states.get(address(0)).getBalance());
+        assertEquals(1000000000L, states.get(address(2)).getBalance());
+        assertEquals(2, overlay.size());
+
+        states.put(address(CALLERS + 1), account(CALLERS + 1, 1));
+        assertTrue(states.containsKey(address(CALLERS + 1)));
+        overlay.revert(savepoint);
+        assertFalse(states.containsKey(address(CALLERS + 1)));
+
+        // the same root as applying the call to the trie directly
+        Trie<byte[], AccountState> expected = trie.revert(root);
+        call(expected.asMap(), 0);
+        assertArrayEquals(expected.commit(), overlay.commit());
+    }
+
+    private static long time(Consumer<Void> f) {
+        long start = System.nanoTime();
+        f.accept(null);
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    // assemble a block of contract calls, by a trie commit per call and by an overlay committed once
+    @Test
+    public void benchmark() {
+        byte[][] roots = new byte[2][];
+        long perCall = time(x -> {
+            Trie<byte[], AccountState> trie = trie();
+            byte[] root = genesis(trie);
+            for (int i = 0; i < CALLS; i++) {
+                Trie<byte[], AccountState> tmp = trie.revert(root);
+                call(tmp.asMap(), i);
+                root = tmp.commit();
+                // nodes are written so that the next call could revert to the root
+                tmp.flush();
+            }
+            roots[0] = root;
+        });
+        long overlaid = time(x -> {
+            Trie<byte[], AccountState> trie = trie();
+            StateOverlay overlay = new StateOverlay(trie.revert(genesis(trie)), null, null);
+            for (int i = 0; i < CALLS; i++) {
+                int savepoint = overlay.savepoint();
+                call(overlay.getAccountStore(), i);
+                // every tenth call fails and is reverted
+                if (i % 10 == 9) {
+                    overlay.revert(savepoint);
+                    call(overlay.getAccountStore(), i);
+                }
+            }
+            roots[1] = overlay.commit();
+        });
+        System.out.println(CALLS + " calls, commit per call " + perCall + " ms, overlay " + overlaid + " ms");
+        assertArrayEquals(roots[0], roots[1]);
+    }
+}
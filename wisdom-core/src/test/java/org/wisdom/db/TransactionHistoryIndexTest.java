@@ -0,0 +1,117 @@
+package org.wisdom.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.wisdom.core.Block;
+import org.wisdom.core.account.Transaction;
+
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.type.CursorPagedView;
+
+import java.util.*;
+
+public class TransactionHistoryIndexTest {
+
+    private static Transaction transfer(byte[] to, long nonce) {
+        Transaction tx = Transaction.createEmpty();
+        tx.type = Transaction.Type.TRANSFER.ordinal();
+        tx.nonce = nonce;
+        tx.to = to;
+        return tx;
+    }
+
+    private static Block block(long height, Transaction... txs) {
+        Block b = new Block();
+        b.nHeight = height;
+        b.body = new ArrayList<>(Arrays.asList(txs));
+        return b;
+    }
+
+    @Test
+    public void testAppendAndGet() {
+        TransactionHistoryIndex index = new TransactionHistoryIndex(new DatabaseStoreFactory("", 512, "memory"));
+        byte[] alice = new byte[20];
+        byte[] bob = new byte[20];
+        bob[0] = 1;
+
+        index.append(Arrays.asList(
+                block(1, transfer(alice, 1), transfer(bob, 2)),
+                block(2, transfer(alice, 3))
+        ));
+        Assert.assertEquals(2, index.getLastIndexedHeight());
+        Assert.assertEquals(2, index.count(TransactionHistoryIndex.Direction.TO, alice, null));
+        Assert.assertEquals(1, index.count(TransactionHistoryIndex.Direction.TO, bob, Transaction.Type.TRANSFER.ordinal()));
+        Assert.assertEquals(0, index.count(TransactionHistoryIndex.Direction.TO, bob, Transaction.Type.VOTE.ordinal()));
+
+        TransactionHistoryIndex.Entry e = index.get(TransactionHistoryIndex.Direction.TO, alice, null, 1).get();
+        Assert.assertEquals(2, e.getHeight());
+        Assert.assertEquals(0, e.getIndex());
+
+        // blocks indexed already are ignored
+        index.append(block(2, transfer(alice, 4)));
+        Assert.assertEquals(2, index.count(TransactionHistoryIndex.Direction.TO, alice, null));
+    }
+
+    @Test
+    public void testCursor() {
+        TransactionHistoryIndex.Cursor c = new TransactionHistoryIndex.Cursor(10, 2, -1);
+        TransactionHistoryIndex.Cursor decoded = TransactionHistoryIndex.Cursor.decode(c.encode());
+        Assert.assertEquals(c, decoded);
+        Assert.assertTrue(decoded.isAfter(10, 1));
+        Assert.assertTrue(decoded.isAfter(9, 5));
+        Assert.assertFalse(decoded.isAfter(10, 2));
+        Assert.assertFalse(decoded.isAfter(11, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCursor() {
+        TransactionHistoryIndex.Cursor.decode("not a cursor");
+    }
+
+    // pages go from unconfirmed blocks into the index without duplicates, even if blocks are confirmed between pages
+    @Test
+    public void testPageAcrossConfirmed() {
+        TransactionHistoryIndex index = new TransactionHistoryIndex(new DatabaseStoreFactory("", 512, "memory"));
+        byte[] alice = new byte[20];
+        byte[] bob = new byte[20];
+        bob[0] = 1;
+        List<Block> blocks = Arrays.asList(
+                block(1, transfer(alice, 1), transfer(alice, 2)),
+                block(2, transfer(alice, 3), transfer(bob, 4), transfer(alice, 5)),
+                block(3, transfer(bob, 6), transfer(alice, 7)),
+                block(4, transfer(alice, 8))
+        );
+        Map<byte[], Transaction> confirmed = new ByteArrayMap<>();
+        blocks.forEach(b -> b.body.forEach(tx -> confirmed.put(tx.getHash(), tx)));
+        index.append(blocks.subList(0, 2));
+
+        List<Long> expected = Arrays.asList(8L, 7L, 5L, 3L, 2L, 1L);
+        for (int limit = 1; limit <= 7; limit++) {
+            List<Long> nonces = new ArrayList<>();
+            String cursor = null;
+            do {
+                CursorPagedView<Transaction> page = index.page(
+                        blocks.subList(2, 4), alice, TransactionHistoryIndex.Direction.TO, null, cursor, limit, confirmed::get
+                );
+                Assert.assertTrue(page.getSize() <= limit);
+                page.getRecords().forEach(tx -> nonces.add(tx.nonce));
+                cursor = page.getCursor();
+            } while (cursor != null);
+            Assert.assertEquals(expected, nonces);
+        }
+
+        // the cursor is in block 3, which is confirmed before the next page
+        CursorPagedView<Transaction> first = index.page(
+                blocks.subList(2, 4), alice, TransactionHistoryIndex.Direction.TO, null, null, 2, confirmed::get
+        );
+        index.append(blocks.get(2));
+        List<Long> nonces = new ArrayList<>();
+        first.getRecords().forEach(tx -> nonces.add(tx.nonce));
+        CursorPagedView<Transaction> rest = index.page(
+                blocks.subList(3, 4), alice, TransactionHistoryIndex.Direction.TO, null, first.getCursor(), 10, confirmed::get
+        );
+        rest.getRecords().forEach(tx -> nonces.add(tx.nonce));
+        Assert.assertEquals(expected, nonces);
+        Assert.assertNull(rest.getCursor());
+    }
+}
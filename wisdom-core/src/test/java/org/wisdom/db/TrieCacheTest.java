@@ -0,0 +1,92 @@
+package org.wisdom.db;
+
+import org.junit.Test;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.Block;
+import org.wisdom.metrics.Counter;
+import org.wisdom.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TrieCacheTest {
+
+    private static Block genesis() {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        return b;
+    }
+
+    private static byte[] key(int i) {
+        byte[] k = new byte[20];
+        k[0] = (byte) i;
+        return k;
+    }
+
+    private static long counter(String name, String cache) {
+        return ((Counter) Metrics.children(name).get("trie=\"validator\",cache=\"" + cache + "\"")).get();
+    }
+
+    @Test
+    public void testNodeCache() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            TrieNodeCache cache = new TrieNodeCache(1 << 20, offHeap);
+            byte[] hash = new byte[32];
+            assertNull(cache.get(hash));
+            cache.put(hash, new byte[]{1, 2, 3});
+            assertArrayEquals(new byte[]{1, 2, 3}, cache.get(hash));
+            assertTrue(cache.getBytes() > 3);
+        }
+
+        // bounded by bytes
+        TrieNodeCache cache = new TrieNodeCache(64 << 10, false);
+        for (int i = 0; i < 4096; i++) {
+            byte[] hash = new byte[32];
+            hash[0] = (byte) i;
+            hash[1] = (byte) (i >> 8);
+            cache.put(hash, new byte[100]);
+        }
+        assertTrue(cache.getBytes() <= 64 << 10);
+        assertEquals(cache.size() * (32 + 100 + 96), cache.getBytes());
+
+        TrieNodeCache disabled = new TrieNodeCache(0, false);
+        disabled.put(new byte[32], new byte[1]);
+        assertNull(disabled.get(new byte[32]));
+    }
+
+    @Test
+    public void testValueCache() {
+        ValidatorStateTrie trie = new ValidatorStateTrie(genesis(), new DatabaseStoreFactory("", 512, "memory"));
+        Map<byte[], Long> states = new ByteArrayMap<>();
+        states.put(key(1), 1L);
+        states.put(key(2), 2L);
+        byte[] blockHash = new byte[32];
+        Arrays.fill(blockHash, (byte) 1);
+        trie.commit(states, blockHash);
+
+        long hits = counter("wisdom_trie_cache_hits_total", "value");
+        long misses = counter("wisdom_trie_cache_misses_total", "value");
+
+        assertEquals(1L, (long) trie.get(blockHash, key(1)).get());
+        assertFalse(trie.get(blockHash, key(3)).isPresent());
+        assertEquals(misses + 2, counter("wisdom_trie_cache_misses_total", "value"));
+
+        // cached values and absences are the same as the trie
+        assertEquals(1L, (long) trie.get(blockHash, key(1)).get());
+        assertFalse(trie.get(blockHash, key(3)).isPresent());
+        Map<byte[], Long> m = trie.batchGet(blockHash, Arrays.asList(key(1), key(2), key(3)));
+        assertEquals(1L, (long) m.get(key(1)));
+        assertEquals(2L, (long) m.get(key(2)));
+        assertEquals(0L, (long) m.get(key(3)));
+        assertEquals(hits + 4, counter("wisdom_trie_cache_hits_total", "value"));
+        assertEquals(misses + 3, counter("wisdom_trie_cache_misses_total", "value"));
+    }
+}
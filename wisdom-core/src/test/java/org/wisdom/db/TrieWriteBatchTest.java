@@ -0,0 +1,122 @@
+package org.wisdom.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tdf.common.util.ByteArrayMap;
+import org.wisdom.core.Block;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TrieWriteBatchTest {
+    private static final int BLOCKS = 50;
+
+    private static final int KEYS = 64;
+
+    @Before
+    public void before() {
+        // nodes must be read from the stores, not the process wide cache
+        TrieNodeCache.configure(0, false);
+    }
+
+    @After
+    public void after() {
+        TrieNodeCache.configure(256L << 20, false);
+    }
+
+    private static Block genesis() {
+        Block b = new Block();
+        b.nVersion = 1;
+        b.hashPrevBlock = new byte[32];
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        return b;
+    }
+
+    private static byte[] bytes(int length, int i) {
+        byte[] b = new byte[length];
+        b[0] = (byte) i;
+        b[1] = (byte) (i >> 8);
+        b[length - 1] = 1;
+        return b;
+    }
+
+    private static int nodes(DatabaseStoreFactory factory) {
+        int[] n = new int[1];
+        factory.create("validator-trie", false).traverse((k, v) -> {
+            n[0]++;
+            return true;
+        });
+        return n[0];
+    }
+
+    // commit the same keys in every block, returns block hashes
+    private static List<byte[]> commit(ValidatorStateTrie trie) {
+        List<byte[]> hashes = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            Map<byte[], Long> states = new ByteArrayMap<>();
+            for (int j = 0; j < KEYS; j++) {
+                states.put(bytes(20, j), (long) i * KEYS + j);
+            }
+            byte[] hash = bytes(32, i);
+            trie.commit(states, hash);
+            hashes.add(hash);
+        }
+        return hashes;
+    }
+
+    @Test
+    public void test() {
+        DatabaseStoreFactory through = new DatabaseStoreFactory("", 512, "memory");
+        commit(new ValidatorStateTrie(genesis(), through));
+
+        DatabaseStoreFactory batched = new DatabaseStoreFactory("", 512, "memory");
+        ValidatorStateTrie trie = new ValidatorStateTrie(genesis(), batched);
+        // small enough to write back several times
+        trie.beginWriteBatch(64 << 10);
+        List<byte[]> hashes;
+        try {
+            hashes = commit(trie);
+        } finally {
+            trie.endWriteBatch();
+        }
+
+        // states of all the blocks are kept
+        assertEquals(nodes(through), nodes(batched));
+
+        // states are read from the stores by a fresh trie
+        ValidatorStateTrie fresh = new ValidatorStateTrie(genesis(), batched);
+        for (int i = 0; i < BLOCKS; i++) {
+            for (int j = 0; j < KEYS; j++) {
+                assertEquals((long) i * KEYS + j, (long) fresh.get(hashes.get(i), bytes(20, j)).get());
+            }
+        }
+    }
+
+    // the state of an intermediate block is queryable after the buffer is written back in the middle of a write batch
+    @Test
+    public void testIntermediateState() {
+        DatabaseStoreFactory batched = new DatabaseStoreFactory("", 512, "memory");
+        ValidatorStateTrie trie = new ValidatorStateTrie(genesis(), batched);
+        trie.beginWriteBatch(Long.MAX_VALUE);
+        try {
+            List<byte[]> hashes = commit(trie);
+            trie.flushWriteBatch();
+
+            ValidatorStateTrie fresh = new ValidatorStateTrie(genesis(), batched);
+            byte[] intermediate = hashes.get(BLOCKS / 2);
+            for (int j = 0; j < KEYS; j++) {
+                assertEquals((long) BLOCKS / 2 * KEYS + j, (long) fresh.get(intermediate, bytes(20, j)).get());
+            }
+        } finally {
+            trie.endWriteBatch();
+        }
+    }
+}
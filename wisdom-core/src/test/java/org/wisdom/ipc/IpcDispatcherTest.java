@@ -0,0 +1,116 @@
+package org.wisdom.ipc;
+
+import com.alibaba.fastjson.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+public class IpcDispatcherTest {
+    private ExecutorService workers;
+
+    private ScheduledExecutorService scheduler;
+
+    private final BlockingQueue<String> output = new LinkedBlockingQueue<>();
+
+    @Before
+    public void before() {
+        workers = Executors.newFixedThreadPool(4);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void after() {
+        workers.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private JSONObject poll() throws InterruptedException {
+        String s = output.poll(5, TimeUnit.SECONDS);
+        assertNotNull(s);
+        assertTrue(s.endsWith("\n"));
+        return JSONObject.parseObject(s);
+    }
+
+    @Test
+    public void testFrameReader() throws Exception {
+        String legacy = "{\"type\":\"height\",\"message\":\"\"}";
+        String framed = "{\"id\":1,\"type\":\"x\",\"message\":\"{\\\"a\\\":\\\"}\\\"}\"}\n";
+        FrameReader reader = new FrameReader(new StringReader(legacy + legacy + framed + "\n"));
+        assertEquals(legacy, reader.next());
+        assertEquals(legacy, reader.next());
+        assertEquals(framed.trim(), reader.next());
+        assertEquals("{\"a\":\"}\"}", JSONObject.parseObject(framed).getString("message"));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        CountDownLatch slow = new CountDownLatch(1);
+        IpcDispatcher dispatcher = new IpcDispatcher((type, message) -> {
+            if (type.equals("slow")) slow.await();
+            if (type.equals("fail")) throw new RuntimeException("failed");
+            return type + message;
+        }, Collections.emptyMap(), output::add, workers, scheduler);
+
+        dispatcher.dispatch("{\"id\":1,\"type\":\"slow\",\"message\":\"a\"}");
+        dispatcher.dispatch("{\"id\":\"2\",\"type\":\"fast\",\"message\":\"b\"}");
+        JSONObject resp = poll();
+        assertEquals("2", resp.get("id"));
+        assertEquals("fastb", resp.getString("result"));
+
+        slow.countDown();
+        resp = poll();
+        assertEquals(1, resp.get("id"));
+        assertEquals("slowa", resp.getString("result"));
+
+        dispatcher.dispatch("{\"id\":3,\"type\":\"fail\",\"message\":\"\"}");
+        assertEquals("failed", poll().getString("error"));
+
+        // requests of ipc_client.py are answered without frame
+        dispatcher.dispatch("{\"type\":\"fast\",\"message\":\"c\"}");
+        assertEquals("fastc", output.poll(5, TimeUnit.SECONDS));
+
+        assertFalse(dispatcher.dispatch("{\"type\":\"exit\"}"));
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        AtomicLong height = new AtomicLong(1);
+        Map<String, Supplier<Object>> streams = new HashMap<>();
+        streams.put("height", () -> new JSONObject().fluentPut("height", height.get()));
+        IpcDispatcher dispatcher = new IpcDispatcher((type, message) -> "", streams, output::add, workers, scheduler);
+
+        dispatcher.dispatch("{\"id\":\"h\",\"type\":\"subscribe\",\"message\":\"height\",\"interval\":100}");
+        JSONObject resp = poll();
+        assertEquals("h", resp.get("id"));
+        assertTrue(resp.getBooleanValue("more"));
+        assertEquals(1, resp.getJSONObject("result").getLongValue("height"));
+
+        // unchanged values are not emitted
+        assertNull(output.poll(300, TimeUnit.MILLISECONDS));
+        height.set(2);
+        assertEquals(2, poll().getJSONObject("result").getLongValue("height"));
+
+        dispatcher.dispatch("{\"id\":\"h\",\"type\":\"subscribe\",\"message\":\"height\"}");
+        assertEquals("duplicated id", poll().getString("error"));
+        dispatcher.dispatch("{\"id\":1,\"type\":\"subscribe\",\"message\":\"unknown\"}");
+        assertNotNull(poll().getString("error"));
+
+        dispatcher.dispatch("{\"id\":2,\"type\":\"unsubscribe\",\"message\":\"h\"}");
+        resp = poll();
+        assertEquals("h", resp.get("id"));
+        assertFalse(resp.getBooleanValue("more"));
+        assertEquals("unsubscribed", poll().getString("result"));
+
+        height.set(3);
+        assertNull(output.poll(300, TimeUnit.MILLISECONDS));
+    }
+}
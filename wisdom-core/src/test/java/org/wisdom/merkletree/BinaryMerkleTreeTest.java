@@ -0,0 +1,88 @@
+package org.wisdom.merkletree;
+
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class BinaryMerkleTreeTest {
+
+    private static List<byte[]> leaves(int n, Random random) {
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            // account states have variable length
+            byte[] leaf = new byte[i % 3 == 0 ? 32 : 20 + random.nextInt(64)];
+            random.nextBytes(leaf);
+            leaves.add(leaf);
+        }
+        return leaves;
+    }
+
+    private static MerkleTree legacy(List<byte[]> leaves) {
+        return new MerkleTree(leaves.stream().map(Hex::encodeHexString).collect(Collectors.toList()));
+    }
+
+    private static void assertSameTree(MerkleTree expected, BinaryMerkleTree tree) {
+        assertEquals(expected.getRoot().getHash(), Hex.encodeHexString(tree.getRoot()));
+        assertEquals(expected.getLevelSize(), tree.getLevelSize());
+        for (int level = 1; level <= expected.getLevelSize(); level++) {
+            List<TreeNode> nodes = expected.getLevelList((byte) level);
+            List<TreeNode> actual = tree.getLevelList((byte) level);
+            assertEquals(nodes.size(), actual.size());
+            assertEquals(nodes.size(), tree.size(level));
+            for (int i = 0; i < nodes.size(); i++) {
+                assertEquals(nodes.get(i).getHash(), actual.get(i).getHash());
+                assertEquals(nodes.get(i).getData(), actual.get(i).getData());
+                assertEquals(nodes.get(i).getLevel(), actual.get(i).getLevel());
+                assertEquals(nodes.get(i).getIndex(), actual.get(i).getIndex());
+                assertEquals(nodes.get(i).getHash(), Hex.encodeHexString(tree.getHash(level, i)));
+            }
+        }
+        assertNull(tree.getLevelList((byte) (expected.getLevelSize() + 1)));
+    }
+
+    @Test
+    public void testIdenticalToMerkleTree() {
+        Random random = new Random(1);
+        for (int n = 1; n <= 70; n++) {
+            List<byte[]> leaves = leaves(n, random);
+            MerkleTree expected = legacy(leaves);
+            assertEquals(expected.getRoot().getHash(), Hex.encodeHexString(BinaryMerkleTree.root(leaves)));
+            assertSameTree(expected, new BinaryMerkleTree(leaves));
+        }
+        assertArrayEquals(new byte[32], BinaryMerkleTree.root(new ArrayList<>()));
+        assertArrayEquals(new byte[32], new BinaryMerkleTree().getRoot());
+    }
+
+    @Test
+    public void testParallel() {
+        List<byte[]> leaves = leaves(BinaryMerkleTree.PARALLEL_THRESHOLD * 2 + 7, new Random(2));
+        MerkleTree expected = legacy(leaves);
+        assertEquals(expected.getRoot().getHash(), Hex.encodeHexString(BinaryMerkleTree.root(leaves)));
+        assertSameTree(expected, new BinaryMerkleTree(leaves));
+    }
+
+    @Test
+    public void testAppend() {
+        Random random = new Random(3);
+        List<byte[]> leaves = leaves(300, random);
+        BinaryMerkleTree tree = new BinaryMerkleTree();
+        for (int i = 0; i < leaves.size(); i++) {
+            tree.append(leaves.get(i));
+            assertArrayEquals(BinaryMerkleTree.root(leaves.subList(0, i + 1)), tree.getRoot());
+        }
+        assertSameTree(legacy(leaves), tree);
+
+        // replace the first leaf as miner does for coinbase
+        byte[] coinbase = new byte[32];
+        random.nextBytes(coinbase);
+        tree.set(0, coinbase);
+        leaves.set(0, coinbase);
+        assertSameTree(legacy(leaves), tree);
+    }
+}
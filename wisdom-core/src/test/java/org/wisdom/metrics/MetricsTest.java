@@ -0,0 +1,48 @@
+package org.wisdom.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long v : new long[]{0, 1, 7, 8, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+            int index = Histogram.indexOf(v);
+            Assert.assertTrue(Histogram.highestOf(index) >= v);
+            // relative error is bounded by the sub bucket resolution
+            Assert.assertTrue(Histogram.highestOf(index) - v <= v / 8 + 1 || v == Long.MAX_VALUE);
+        }
+        for (int i = 1; i < Histogram.indexOf(Long.MAX_VALUE); i++) {
+            Assert.assertEquals(i, Histogram.indexOf(Histogram.highestOf(i)));
+            Assert.assertEquals(i, Histogram.indexOf(Histogram.highestOf(i - 1) + 1));
+        }
+    }
+
+    @Test
+    public void testQuantiles() {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        Assert.assertEquals(1000, h.getCount());
+        Assert.assertEquals(500500, h.getSum());
+        long[] qs = h.quantiles(0.5, 0.99);
+        Assert.assertTrue(qs[0] >= 500 && qs[0] <= 500 * 9 / 8);
+        Assert.assertTrue(qs[1] >= 990 && qs[1] <= 990 * 9 / 8);
+    }
+
+    @Test
+    public void testScrape() {
+        Metrics.counter("test_requests_total", "requests", "code", "a").add(3);
+        Metrics.counter("test_requests_total", "requests", "code", "a").inc();
+        Metrics.gauge("test_size", "size", () -> 42);
+        Metrics.timer("test_latency_seconds", "latency").record(2000000000L);
+        String text = Metrics.scrape();
+        Assert.assertTrue(text.contains("# TYPE test_requests_total counter\n"));
+        Assert.assertTrue(text.contains("test_requests_total{code=\"a\"} 4\n"));
+        Assert.assertTrue(text.contains("test_size 42\n"));
+        Assert.assertTrue(text.contains("test_latency_seconds_sum 2.0\n"));
+        Assert.assertTrue(text.contains("test_latency_seconds_count 1\n"));
+    }
+}
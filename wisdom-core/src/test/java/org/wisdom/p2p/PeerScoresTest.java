@@ -0,0 +1,59 @@
+package org.wisdom.p2p;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PeerScoresTest {
+
+    private static Peer peer(int i) throws Exception {
+        return Peer.parse(String.format("wisdom://%064x@192.168.0.%d:9235", i, i));
+    }
+
+    @Test
+    public void testScore() throws Exception {
+        PeerScores scores = new PeerScores();
+        Peer useful = peer(1);
+        Peer slow = peer(2);
+        Peer evil = peer(3);
+        Peer unknown = peer(4);
+
+        scores.usefulBlocks(useful.key(), 200);
+        scores.usefulBlocks(slow.key(), 200);
+        scores.latency(slow, 30000);
+        scores.usefulBlocks(evil.key(), 200);
+        for (int i = 0; i < 15; i++) {
+            scores.invalidBlock(evil.key());
+        }
+        assertEquals(200, scores.score(useful));
+        assertEquals(200 - 300, scores.score(slow));
+        assertTrue(scores.score(evil) < PeerScores.BLOCK_SCORE);
+        assertEquals(Arrays.asList(useful, unknown, slow, evil), scores.rank(Arrays.asList(evil, slow, unknown, useful)));
+
+        assertEquals(2, scores.weight(useful), 1e-9);
+        assertEquals(1, scores.weight(unknown), 1e-9);
+        assertEquals(0.5, scores.weight(slow), 1e-9);
+        assertEquals(0.25, scores.weight(evil), 1e-9);
+
+        // misbehaviour fades
+        scores.decay();
+        scores.decay();
+        assertTrue(scores.score(evil) > PeerScores.BLOCK_SCORE);
+    }
+
+    @Test
+    public void testBandwidth() throws Exception {
+        PeerScores scores = new PeerScores();
+        Peer p = peer(1);
+        scores.received(p, 1000);
+        scores.sent(p, 300);
+        assertEquals(1000L, scores.getStats().get(p.key()).get("bytesReceived"));
+        assertEquals(300L, scores.getStats().get(p.key()).get("bytesSent"));
+        for (int i = 0; i < 11; i++) {
+            scores.decay();
+        }
+        assertFalse(scores.getStats().containsKey(p.key()));
+    }
+}
@@ -0,0 +1,76 @@
+package org.wisdom.sync;
+
+import org.junit.Test;
+import org.wisdom.p2p.Peer;
+import org.wisdom.p2p.PeerScores;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LimitersTest {
+
+    private static Peer peer(int i) throws Exception {
+        return Peer.parse(String.format("wisdom://%064x@192.168.0.%d:9235", i, i));
+    }
+
+    private static int acquired(Limiters limiters, String type, Peer peer) {
+        int n = 0;
+        for (int i = 0; i < 100; i++) {
+            if (limiters.tryAcquire(type, peer)) n++;
+        }
+        return n;
+    }
+
+    // an aggressive peer exhausts its own bucket only
+    @Test
+    public void testPerPeer() throws Exception {
+        Limiters limiters = new Limiters(null, Collections.singletonMap(Limiters.GET_BLOCKS, 1.0), null);
+        Peer aggressive = peer(1);
+        Peer honest = peer(2);
+        assertEquals(1, acquired(limiters, Limiters.GET_BLOCKS, aggressive));
+        assertTrue(limiters.tryAcquire(Limiters.GET_BLOCKS, honest));
+        assertFalse(limiters.tryAcquire(Limiters.GET_BLOCKS, honest));
+        // unlimited
+        assertEquals(100, acquired(limiters, Limiters.STATUS, aggressive));
+    }
+
+    // peers share the global budget, rotating peer ids does not raise it
+    @Test
+    public void testGlobal() throws Exception {
+        Limiters limiters = new Limiters(
+                Collections.singletonMap(Limiters.GET_BLOCKS, 1.0),
+                Collections.singletonMap(Limiters.GET_BLOCKS, 1.0), null
+        );
+        int n = 0;
+        for (int i = 1; i <= 100; i++) {
+            if (limiters.tryAcquire(Limiters.GET_BLOCKS, peer(i))) n++;
+        }
+        assertEquals(1, n);
+
+        // a peer over its share does not consume the global budget
+        limiters = new Limiters(
+                Collections.singletonMap(Limiters.GET_BLOCKS, 2.0),
+                Collections.singletonMap(Limiters.GET_BLOCKS, 1.0), null
+        );
+        // 2 permits of the global bucket are stored
+        Thread.sleep(1100);
+        assertEquals(1, acquired(limiters, Limiters.GET_BLOCKS, peer(1)));
+        assertTrue(limiters.tryAcquire(Limiters.GET_BLOCKS, peer(2)));
+    }
+
+    // the rate of a peer follows its score
+    @Test
+    public void testAdaptive() throws Exception {
+        PeerScores scores = new PeerScores();
+        Limiters limiters = new Limiters(null, Collections.singletonMap(Limiters.STATUS, 4.0), scores);
+        Peer p = peer(1);
+        limiters.tryAcquire(Limiters.STATUS, p);
+        scores.usefulBlocks(p.key(), 1000);
+        // the rate is raised to 8 permits per second
+        Thread.sleep(1000);
+        limiters.tryAcquire(Limiters.STATUS, p);
+        Thread.sleep(1000);
+        assertTrue(acquired(limiters, Limiters.STATUS, p) > 4);
+    }
+}
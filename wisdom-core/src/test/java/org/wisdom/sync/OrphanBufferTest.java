@@ -0,0 +1,114 @@
+package org.wisdom.sync;
+
+import org.junit.Test;
+import org.tdf.common.store.MemoryDatabaseStore;
+import org.wisdom.core.Block;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class OrphanBufferTest {
+
+    private static Block block(byte[] parent, long height, int nonce) {
+        Block b = new Block();
+        b.hashPrevBlock = parent;
+        b.hashMerkleRoot = new byte[32];
+        b.hashMerkleState = new byte[32];
+        b.hashMerkleIncubate = new byte[32];
+        b.nHeight = height;
+        b.nBits = new byte[32];
+        b.nNonce = new byte[32];
+        b.nNonce[0] = (byte) nonce;
+        b.body = new ArrayList<>();
+        return b.seal();
+    }
+
+    // blocks above the parent
+    private static List<Block> chain(Block parent, int n, int nonce) {
+        List<Block> blocks = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            parent = block(parent.getHash(), parent.nHeight + 1, nonce);
+            blocks.add(parent);
+        }
+        return blocks;
+    }
+
+    private static long size(Block b) {
+        return b.size() - Block.RESERVED_SPACE;
+    }
+
+    private static List<Long> heights(List<Block> blocks) {
+        return blocks.stream().map(b -> b.nHeight).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRelease() {
+        OrphanBuffer buffer = new OrphanBuffer(Long.MAX_VALUE, Long.MAX_VALUE, null);
+        Block written = block(new byte[32], 10, 0);
+        List<Block> main = chain(written, 3, 0);
+        List<Block> fork = chain(main.get(0), 2, 1);
+        List<Block> unrelated = chain(block(new byte[32], 20, 2), 2, 2);
+        // received in reverse order
+        for (Block b : Arrays.asList(fork.get(1), main.get(2), unrelated.get(1), main.get(1), fork.get(0), main.get(0), unrelated.get(0))) {
+            assertTrue(buffer.add(b, "a", 10));
+        }
+        assertFalse(buffer.add(main.get(0), "a", 10));
+        assertEquals(Arrays.asList(11L, 21L), heights(buffer.getHeads()));
+
+        List<Block> released = buffer.release(written.getHash());
+        assertEquals(5, released.size());
+        assertEquals(main.get(0), released.get(0));
+        for (Block b : released) {
+            assertTrue(released.indexOf(b) > released.stream().map(Block::getHash).collect(Collectors.toList()).indexOf(b.hashPrevBlock));
+        }
+        assertEquals(unrelated, buffer.getBlocks());
+        assertEquals(size(unrelated.get(0)) + size(unrelated.get(1)), buffer.getBytes());
+        assertTrue(buffer.release(written.getHash()).isEmpty());
+
+        buffer.prune(21);
+        assertEquals(Collections.singletonList(unrelated.get(1)), buffer.getHeads());
+    }
+
+    @Test
+    public void testEvict() {
+        Block tip = block(new byte[32], 100, 0);
+        long blockSize = size(tip);
+        OrphanBuffer buffer = new OrphanBuffer(blockSize * 3, blockSize * 5, null);
+
+        // farthest blocks of the peer are evicted
+        List<Block> below = chain(block(new byte[32], 90, 1), 4, 1);
+        below.forEach(b -> buffer.add(b, "a", 100));
+        assertEquals(Arrays.asList(92L, 93L, 94L), heights(buffer.getBlocks()));
+
+        // other peers are not affected by the peer limit, the farthest block of all is evicted by the global limit
+        List<Block> above = chain(tip, 3, 2);
+        above.forEach(b -> buffer.add(b, "b", 100));
+        assertEquals(Arrays.asList(94L, 101L, 102L, 103L), heights(buffer.getBlocks()).subList(1, 5));
+        assertEquals(5, buffer.size());
+
+        // evicted immediately
+        assertFalse(buffer.add(block(new byte[32], 50, 3), "c", 100));
+        assertEquals(blockSize * 5, buffer.getBytes());
+    }
+
+    @Test
+    public void testPersist() {
+        MemoryDatabaseStore store = new MemoryDatabaseStore();
+        OrphanBuffer buffer = new OrphanBuffer(Long.MAX_VALUE, Long.MAX_VALUE, store);
+        Block parent = block(new byte[32], 1, 0);
+        List<Block> blocks = chain(parent, 3, 0);
+        blocks.forEach(b -> buffer.add(b, "a", 1));
+        assertEquals(3, store.size());
+
+        OrphanBuffer loaded = new OrphanBuffer(Long.MAX_VALUE, Long.MAX_VALUE, store);
+        assertEquals(heights(blocks), heights(loaded.getBlocks()));
+        assertArrayEquals(blocks.get(2).getHash(), loaded.getBlocks().get(2).getHash());
+        assertEquals(3, loaded.release(parent.getHash()).size());
+        assertTrue(store.isEmpty());
+    }
+}
@@ -0,0 +1,24 @@
+package org.wisdom.sync;
+
+import org.junit.Test;
+import org.wisdom.p2p.WisdomOuterClass;
+
+import static org.junit.Assert.*;
+
+public class UtilsTest {
+
+    @Test
+    public void testHeadersOnly() throws Exception {
+        WisdomOuterClass.GetBlocks getBlocks = WisdomOuterClass.GetBlocks.newBuilder()
+                .setStartHeight(1)
+                .setStopHeight(256)
+                .setClipDirection(WisdomOuterClass.ClipDirection.CLIP_INITIAL).build();
+        assertFalse(Utils.isHeadersOnly(getBlocks));
+
+        WisdomOuterClass.GetBlocks received = WisdomOuterClass.GetBlocks.parseFrom(Utils.headersOnly(getBlocks).toByteArray());
+        assertTrue(Utils.isHeadersOnly(received));
+        assertEquals(1, received.getStartHeight());
+        assertEquals(256, received.getStopHeight());
+        assertEquals(WisdomOuterClass.ClipDirection.CLIP_INITIAL, received.getClipDirection());
+    }
+}
@@ -0,0 +1,49 @@
+package org.wisdom.tools;
+
+import org.junit.Test;
+import org.wisdom.core.account.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testSettle() {
+        List<Boolean> settled = new ArrayList<>();
+        LatencyRecorder recorder = new LatencyRecorder((sender, confirmed) -> settled.add(confirmed));
+        byte[] a = {1};
+        byte[] b = {2};
+        byte[] c = {3};
+        recorder.submitted(a, 0, true, 0);
+        recorder.submitted(b, 0, true, 0);
+        recorder.submitted(c, 1, false, 0);
+        assertEquals(3, recorder.getUnsettled());
+
+        recorder.accepted(a, 1_000_000);
+        // pending emit after rpc response is not measured twice
+        recorder.onStatus(a, Transaction.Status.PENDING.ordinal(), 2_000_000);
+        recorder.onStatus(a, Transaction.Status.INCLUDED.ordinal(), 3_000_000);
+        recorder.onStatus(a, Transaction.Status.CONFIRMED.ordinal(), 4_000_000);
+        recorder.onStatus(a, Transaction.Status.CONFIRMED.ordinal(), 5_000_000);
+        recorder.onStatus(b, Transaction.Status.DROPPED.ordinal(), 5_000_000);
+        recorder.rejected(c, 5_000_000);
+
+        assertTrue(recorder.isSettled(a) && recorder.isSettled(b) && recorder.isSettled(c));
+        assertEquals(0, recorder.getUnsettled());
+        assertEquals(3, settled.size());
+        assertEquals(true, settled.get(0));
+        assertEquals(false, settled.get(1));
+        assertEquals(false, settled.get(2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        recorder.report(new PrintStream(out, true));
+        String report = out.toString();
+        assertTrue(report.contains("pending"));
+        assertTrue(report.contains("confirmed"));
+    }
+}